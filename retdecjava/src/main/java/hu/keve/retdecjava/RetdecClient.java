@@ -29,26 +29,48 @@ package hu.keve.retdecjava;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PrintStream;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
+import hu.keve.retdecjava.analysis.ExecutableHeader;
+import hu.keve.retdecjava.analysis.HeaderSniffer;
 import hu.keve.retdecjava.binding.AbstractDecompilationRequest;
-import hu.keve.retdecjava.binding.AbstractDecompilationRequest.Architecture;
-import hu.keve.retdecjava.binding.AbstractDecompilationRequest.FileFormat;
 import hu.keve.retdecjava.binding.BinDecompilationRequest;
 import hu.keve.retdecjava.binding.CDecompilationRequest;
-import hu.keve.retdecjava.binding.CDecompilationRequest.CompCompiler;
-import hu.keve.retdecjava.binding.CDecompilationRequest.CompOptimizations;
 import hu.keve.retdecjava.binding.DecompilationRequestMode;
 import hu.keve.retdecjava.binding.DecompilationResponse;
-import hu.keve.retdecjava.binding.DefaultDecompilationResult;
+import hu.keve.retdecjava.binding.Decompiler;
+import hu.keve.retdecjava.binding.LocalDecompiler;
 import hu.keve.retdecjava.binding.RawDecompilationRequest;
 import hu.keve.retdecjava.binding.RetdecService;
 import hu.keve.retdecjava.binding.StatusPhase;
+import hu.keve.retdecjava.pipeline.DeadlineDecompiler;
+import hu.keve.retdecjava.pipeline.DeduplicatingDecompilation;
+import hu.keve.retdecjava.pipeline.EndpointGroup;
+import hu.keve.retdecjava.pipeline.HybridRouter;
+import hu.keve.retdecjava.pipeline.FunctionStore;
+import hu.keve.retdecjava.pipeline.IncrementalDecompilation;
+import hu.keve.retdecjava.pipeline.KeyPool;
+import hu.keve.retdecjava.pipeline.SegmentedRawDecompilation;
+import hu.keve.retdecjava.pipeline.ShardedDecompilation;
+import hu.keve.retdecjava.sink.ArchiveExtractingSink;
+import hu.keve.retdecjava.sink.AsyncSink;
+import hu.keve.retdecjava.sink.DirectorySink;
+import hu.keve.retdecjava.sink.OutputSink;
+import hu.keve.retdecjava.sink.SinkDecompilationResult;
+import hu.keve.retdecjava.sink.TarSink;
+import hu.keve.retdecjava.sink.ZipSink;
 import joptsimple.ArgumentAcceptingOptionSpec;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
@@ -61,33 +83,53 @@ import joptsimple.ValueConverter;
  */
 public final class RetdecClient {
     /**
-     * The service.
+     * Number of outputs written to disk concurrently.
      */
-    private final RetdecService retdecService;
+    private static final int SINK_WRITERS = 2;
+    /**
+     * Number of 64 KiB chunks buffered per output between download and disk.
+     */
+    private static final int SINK_BUFFER_CHUNKS = 16;
+    /**
+     * Number of code regions of a raw image decompiled concurrently.
+     */
+    private static final int SEGMENT_PARALLELISM = 4;
+    /**
+     * The service, or the pool of services when several API keys or backends
+     * are used.
+     */
+    private final Decompiler retdecService;
+    /**
+     * The main entry point previous decompilations are looked up at.
+     */
+    private final String resumeUrl;
 
     /**
      * Class for processing decompilation state and results. Displays progress
-     * on stderr and saves output in outDir using the suggested names.
+     * on the log and saves output into a sink using the suggested names.
      */
-    private final class FileSaveDecompilationResult extends DefaultDecompilationResult {
+    private final class FileSaveDecompilationResult extends SinkDecompilationResult {
         /**
-         * The output directory.
+         * The stream progress is reported on.
          */
-        private final File outDir;
+        private final PrintStream log;
 
         /**
          * Construct an instance.
          * 
-         * @param outDir
-         *            the output directory.
+         * @param sink
+         *            the output sink.
+         * @param log
+         *            the stream progress is reported on.
          */
-        FileSaveDecompilationResult(final File outDir) {
-            this.outDir = outDir;
+        FileSaveDecompilationResult(final OutputSink sink, final PrintStream log) {
+            super(sink);
+            this.log = log;
         }
 
         @Override
-        public void started() {
-            System.err.println("Started decompilation with unique identifier " + getId());
+        protected void onStarted() {
+            log.println("Started decompilation with unique identifier " + getId());
         }
 
         @Override
@@ -100,25 +142,19 @@ public final class RetdecClient {
             if (phase.getWarnings().length > 0) {
                 sb.append(" ! warnings");
             }
-            System.err.println(sb);
+            log.println(sb);
         }
 
-        @Override
-        public boolean acceptOutput(final DecompilationOutput key) {
-            return true;
-        };
-
         @Override
         public void consumeOutput(final String fileName, final String mediaType, final InputStream in)
                 throws IOException {
-            System.err.println("Consuming " + fileName);
-            File outFile = new File(outDir, fileName);
-            Files.copy(in, outFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            log.println("Consuming " + fileName);
+            super.consumeOutput(fileName, mediaType, in);
         }
 
         @Override
-        public void finished() {
-            System.err.println("Decompilation finished.");
+        protected void onFinished() {
+            log.println("Decompilation finished.");
         }
 
     }
@@ -178,6 +214,157 @@ public final class RetdecClient {
         }
     }
 
+    /**
+     * The command line options understood by the client. Kept together so that
+     * the same parser can be used for the command line and for jobs submitted
+     * to the daemon.
+     */
+    static final class Options {
+        /**
+         * The parser.
+         */
+        private final OptionParser parser = new OptionParser();
+        /**
+         * The API key.
+         */
+        private final ArgumentAcceptingOptionSpec<String> apikeyOption;
+        /**
+         * The main entry points of the backends.
+         */
+        private final ArgumentAcceptingOptionSpec<String> urlOption;
+        /**
+         * The local decompiler command.
+         */
+        private final ArgumentAcceptingOptionSpec<String> localOption;
+        /**
+         * The id of a previous decompilation.
+         */
+        private final ArgumentAcceptingOptionSpec<String> idOption;
+        /**
+         * The input file.
+         */
+        private final ArgumentAcceptingOptionSpec<File> inputOption;
+        /**
+         * The output directory.
+         */
+        private final ArgumentAcceptingOptionSpec<File> outdirOption;
+        /**
+         * Run as daemon on the given local port.
+         */
+        private final ArgumentAcceptingOptionSpec<Integer> daemonOption;
+        /**
+         * Submit the job to a daemon on the given local port.
+         */
+        private final ArgumentAcceptingOptionSpec<Integer> connectOption;
+        /**
+         * Unpack archive outputs while downloading.
+         */
+        private final OptionSpec<Void> extractOption;
+        /**
+         * Functions the control-flow graphs are fetched for.
+         */
+        private final ArgumentAcceptingOptionSpec<String> functionsOption;
+        /**
+         * Split a bin decompilation into parallel selective decompilations.
+         */
+        private final ArgumentAcceptingOptionSpec<Integer> shardsOption;
+        /**
+         * Decompile only the functions changed since the stored baseline.
+         */
+        private final ArgumentAcceptingOptionSpec<String> incrementalOption;
+        /**
+         * The directory results are stored in.
+         */
+        private final ArgumentAcceptingOptionSpec<File> storeOption;
+        /**
+         * Reuse decompiled functions from the store in the directory.
+         */
+        private final ArgumentAcceptingOptionSpec<File> functionStoreOption;
+        /**
+         * Decompile the code regions of a raw image separately.
+         */
+        private final OptionSpec<Void> segmentOption;
+        /**
+         * Give up the decompilation after the time.
+         */
+        private final ArgumentAcceptingOptionSpec<Integer> timeoutOption;
+        /**
+         * Limit the bandwidth of all uploads.
+         */
+        private final ArgumentAcceptingOptionSpec<Integer> uploadLimitOption;
+        /**
+         * Limit the bandwidth of all downloads.
+         */
+        private final ArgumentAcceptingOptionSpec<Integer> downloadLimitOption;
+        /**
+         * The decompilation mode.
+         */
+        private final ArgumentAcceptingOptionSpec<DecompilationRequestMode> modeOption;
+        /**
+         * Names of the options that correspond to request fields.
+         */
+        private final Set<String> fieldOptions = new HashSet<String>();
+
+        /**
+         * Construct the options.
+         */
+        @SuppressWarnings("unchecked")
+        Options() {
+            apikeyOption = parser.accepts("apikey", "use API key, several share the load").withRequiredArg()
+                    .ofType(String.class).withValuesSeparatedBy(',').describedAs("the API key[,key2,...]");
+            urlOption = parser.accepts("url", "use retdec.com compatible backend, several share the load")
+                    .withRequiredArg().ofType(String.class).withValuesSeparatedBy(',')
+                    .describedAs("the base URL[,url2,...]");
+            localOption = parser.accepts("local", "run the decompiler command locally instead of the service")
+                    .withRequiredArg().ofType(String.class).describedAs("the command");
+            idOption = parser.accepts("id", "use a previous compilation's id").withRequiredArg().ofType(String.class)
+                    .describedAs("the id");
+            daemonOption = parser.accepts("daemon", "run as daemon accepting jobs on the local port")
+                    .withRequiredArg().ofType(Integer.class).describedAs("the port");
+            connectOption = parser.accepts("connect", "submit the job to the daemon on the local port")
+                    .withRequiredArg().ofType(Integer.class).describedAs("the port");
+            inputOption = parser.accepts("input", "decompilation input").requiredUnless(idOption, daemonOption)
+                    .withRequiredArg().ofType(File.class).describedAs("the input file");
+            outdirOption = parser.accepts("outdir", "output directory").withRequiredArg().ofType(File.class)
+                    .defaultsTo(new File(".")).describedAs("the output directory, or a .zip or .tar file");
+            extractOption = parser.accepts("extract", "unpack the archive output while it is downloaded");
+            functionsOption = parser.accepts("functions", "fetch control-flow graphs only for these functions")
+                    .withRequiredArg().ofType(String.class).withValuesSeparatedBy(',').describedAs("f1,f2,...");
+            shardsOption = parser.accepts("shards", "decompile a binary as parallel selective decompilations")
+                    .withRequiredArg().ofType(Integer.class).describedAs("the number of shards");
+            incrementalOption = parser.accepts("incremental", "decompile only functions changed since the baseline")
+                    .withRequiredArg().ofType(String.class).describedAs("the baseline name");
+            storeOption = parser.accepts("store", "directory results are stored in").withRequiredArg()
+                    .ofType(File.class).defaultsTo(new File(".retdec")).describedAs("the directory");
+            functionStoreOption = parser.accepts("functionstore", "reuse functions decompiled before")
+                    .withRequiredArg().ofType(File.class).describedAs("the function store directory");
+            segmentOption = parser.accepts("segment", "decompile the code regions of a raw image separately");
+            timeoutOption = parser.accepts("timeout", "give up the decompilation after the time")
+                    .withRequiredArg().ofType(Integer.class).describedAs("the time in seconds");
+            uploadLimitOption = parser.accepts("uploadlimit", "limit the bandwidth of all uploads")
+                    .withRequiredArg().ofType(Integer.class).describedAs("the rate in KiB/s");
+            downloadLimitOption = parser.accepts("downloadlimit", "limit the bandwidth of all downloads")
+                    .withRequiredArg().ofType(Integer.class).describedAs("the rate in KiB/s");
+            parser.accepts("help", "Show help.").forHelp();
+
+            addOptions(parser, AbstractDecompilationRequest.class, fieldOptions);
+            addOptions(parser, CDecompilationRequest.class, fieldOptions);
+            addOptions(parser, BinDecompilationRequest.class, fieldOptions);
+            addOptions(parser, RawDecompilationRequest.class, fieldOptions);
+
+            // mode is special
+            modeOption = (ArgumentAcceptingOptionSpec<DecompilationRequestMode>) parser.recognizedOptions()
+                    .get("mode");
+            modeOption.defaultsTo(DecompilationRequestMode.C);
+            fieldOptions.remove("mode");
+            fieldOptions.remove("input");
+        }
+
+        OptionParser getParser() {
+            return parser;
+        }
+    }
+
     /**
      * Construct an instance using the provided key.
      * 
@@ -186,42 +373,267 @@ public final class RetdecClient {
      */
     public RetdecClient(final String apikey) {
         retdecService = new RetdecService(apikey);
+        resumeUrl = RetdecService.URL;
     }
 
     /**
-     * Invoke the decompilation on a request.
+     * Construct an instance using the provided decompiler, e.g. a local one.
      * 
-     * @param request
-     *            the decompilation request.
-     * @param outDir
-     *            the output directory.
-     * @throws Exception
-     *             if an exception occurs.
+     * @param decompiler
+     *            the decompiler.
+     */
+    public RetdecClient(final Decompiler decompiler) {
+        retdecService = decompiler;
+        resumeUrl = RetdecService.URL;
+    }
+
+    /**
+     * Construct an instance spreading the decompilations over several API
+     * keys.
+     * 
+     * @param apikeys
+     *            the API keys.
+     */
+    public RetdecClient(final List<String> apikeys) {
+        this(Collections.<String> emptyList(), apikeys);
+    }
+
+    /**
+     * Construct an instance spreading the decompilations over several
+     * backends and API keys. Each backend is used with all the keys.
+     * 
+     * @param urls
+     *            the main entry points of the backends, retdec.com if empty.
+     * @param apikeys
+     *            the API keys.
+     */
+    public RetdecClient(final List<String> urls, final List<String> apikeys) {
+        this(null, urls, apikeys);
+    }
+
+    /**
+     * Construct an instance running each decompilation either on a local
+     * decompiler or on the backends, see {@link HybridRouter}.
+     * 
+     * @param local
+     *            the local decompiler, null to use the backends only.
+     * @param urls
+     *            the main entry points of the backends, retdec.com if empty.
+     * @param apikeys
+     *            the API keys.
      */
-    private void invoke(final AbstractDecompilationRequest request, final File outDir) throws Exception {
-        DecompilationResponse resp = retdecService.decompile(request);
-        invoke(resp, outDir);
+    public RetdecClient(final Decompiler local, final List<String> urls, final List<String> apikeys) {
+        Map<String, Decompiler> services = new LinkedHashMap<String, Decompiler>();
+        for (String url : urls.isEmpty() ? Collections.singletonList(RetdecService.URL) : urls) {
+            RetdecService first = new RetdecService(url, apikeys.isEmpty() ? null : apikeys.get(0));
+            services.put(first.getBaseUrl(), apikeys.size() > 1 ? KeyPool.of(first.getBaseUrl(), apikeys) : first);
+        }
+        Decompiler remote = services.size() > 1 ? new EndpointGroup(services) : services.values().iterator().next();
+        retdecService = null == local ? remote : new HybridRouter(local, remote);
+        resumeUrl = services.keySet().iterator().next();
     }
 
     /**
-     * Invoke the decompilation on a previous request's response.
+     * Create the sink for an output location. Files ending in .zip or .tar are
+     * written as archives, anything else is taken as a directory. Writing is
+     * done off the polling thread.
      * 
-     * @param resp
-     *            the response of a previous decompilation request.
-     * @param outDir
-     *            the output directory.
+     * @param out
+     *            the output location.
+     * @param extract
+     *            unpack the archive output while downloading.
+     * @return the sink.
+     * @throws IOException
+     *             if the sink cannot be created.
+     */
+    private static OutputSink createSink(final File out, final boolean extract) throws IOException {
+        String name = out.getName().toLowerCase();
+        OutputSink sink;
+        if (name.endsWith(".zip")) {
+            sink = new ZipSink(out);
+        } else if (name.endsWith(".tar")) {
+            sink = new TarSink(out);
+        } else {
+            sink = new DirectorySink(out);
+        }
+        if (extract) {
+            sink = new ArchiveExtractingSink(sink, SINK_WRITERS, SINK_BUFFER_CHUNKS);
+        }
+        return new AsyncSink(sink, SINK_WRITERS, SINK_BUFFER_CHUNKS);
+    }
+
+    /**
+     * Execute a single job described by parsed command line options. A
+     * timeout holds the whole job to its deadline, including every
+     * decompilation the sharded, incremental, function store and segment
+     * modes make.
+     * 
+     * @param opts
+     *            the options definition.
+     * @param options
+     *            the parsed options.
+     * @param cwd
+     *            the directory relative file names are resolved against.
+     * @param log
+     *            the stream progress is reported on.
      * @throws Exception
      *             if an exception occurs.
      */
-    private void invoke(final DecompilationResponse resp, final File outDir) throws Exception {
-        FileSaveDecompilationResult res = new FileSaveDecompilationResult(outDir);
-        Thread t = retdecService.decompileAsync(resp, res);
-        t.join();
+    void execute(final Options opts, final OptionSet options, final File cwd, final PrintStream log)
+            throws Exception {
+        File outDir = resolve(cwd, options.valueOf(opts.outdirOption));
+        FileSaveDecompilationResult res;
+        try (OutputSink sink = createSink(outDir, options.has(opts.extractOption))) {
+            res = new FileSaveDecompilationResult(sink, log);
+            // the pipelines make decompilations of their own, all held to the deadline.
+            Decompiler pipelined = retdecService;
+            if (options.has(opts.timeoutOption)) {
+                long deadline = System.currentTimeMillis() + options.valueOf(opts.timeoutOption) * 1000L;
+                res.getCancellation().setDeadline(deadline);
+                pipelined = new DeadlineDecompiler(retdecService, deadline);
+            }
+            if (options.has(opts.functionsOption)) {
+                res.setNestedSelection(new HashSet<String>(options.valuesOf(opts.functionsOption)));
+            }
+            DecompilationResponse resp;
+            if (options.has(opts.idOption)) {
+                resp = new DecompilationResponse(resumeUrl, options.valueOf(opts.idOption));
+            } else {
+                AbstractDecompilationRequest req = createRequest(opts, options, cwd, log);
+                List<String> warnings = new ArrayList<String>();
+                ExecutableHeader header = HeaderSniffer.sniff(req, warnings);
+                if (null != header) {
+                    log.println("Input is " + header);
+                }
+                for (String warning : warnings) {
+                    log.println("Warning: " + warning);
+                }
+                if (options.has(opts.shardsOption) && req instanceof BinDecompilationRequest) {
+                    ShardedDecompilation sharded = new ShardedDecompilation(pipelined,
+                            options.valueOf(opts.shardsOption));
+                    log.println("Decompiled " + sharded.run((BinDecompilationRequest) req, sink));
+                    return;
+                }
+                if (options.has(opts.incrementalOption) && req instanceof BinDecompilationRequest) {
+                    IncrementalDecompilation incremental = new IncrementalDecompilation(pipelined,
+                            resolve(cwd, options.valueOf(opts.storeOption)));
+                    log.println("Decompiled " + incremental.run((BinDecompilationRequest) req,
+                            options.valueOf(opts.incrementalOption), sink));
+                    return;
+                }
+                if (options.has(opts.functionStoreOption) && req instanceof BinDecompilationRequest) {
+                    DeduplicatingDecompilation dedup = new DeduplicatingDecompilation(pipelined,
+                            new FunctionStore(resolve(cwd, options.valueOf(opts.functionStoreOption))));
+                    log.println("Decompiled " + dedup.run((BinDecompilationRequest) req, sink));
+                    return;
+                }
+                if (options.has(opts.segmentOption) && req instanceof RawDecompilationRequest) {
+                    SegmentedRawDecompilation segmented = new SegmentedRawDecompilation(pipelined,
+                            SEGMENT_PARALLELISM);
+                    for (SegmentedRawDecompilation.Segment s : segmented.run((RawDecompilationRequest) req, sink)) {
+                        log.println("Region " + s.getRegion()
+                                + (null == s.getException() ? " done" : " failed: " + s.getException().getMessage()));
+                    }
+                    return;
+                }
+                resp = retdecService.decompile(req);
+            }
+            retdecService.decompileSync(resp, res);
+        }
         if (null != res.getException()) {
             throw res.getException();
         }
     }
 
+    /**
+     * Create the decompilation request described by parsed command line
+     * options.
+     * 
+     * @param opts
+     *            the options definition.
+     * @param options
+     *            the parsed options.
+     * @param cwd
+     *            the directory relative file names are resolved against.
+     * @param log
+     *            the stream the request fields are reported on.
+     * @return the request.
+     * @throws Exception
+     *             if a request field cannot be set.
+     */
+    private static AbstractDecompilationRequest createRequest(final Options opts, final OptionSet options,
+            final File cwd, final PrintStream log) throws Exception {
+        AbstractDecompilationRequest req;
+        File input = resolve(cwd, options.valueOf(opts.inputOption));
+        DecompilationRequestMode mode = options.valueOf(opts.modeOption);
+        switch (mode) {
+        case C:
+            req = new CDecompilationRequest(input);
+            break;
+        case BIN:
+            req = new BinDecompilationRequest(input);
+            break;
+        case RAW:
+            req = new RawDecompilationRequest(input);
+            break;
+        default:
+            throw new IllegalArgumentException();
+        }
+        for (Entry<OptionSpec<?>, List<?>> opt : options.asMap().entrySet()) {
+            String fieldName = opt.getKey().options().get(0);
+            if (options.has(opt.getKey()) && opts.fieldOptions.contains(fieldName)) {
+                Method setter = setter(req.getClass(), fieldName);
+                if (null == setter) {
+                    throw new IllegalArgumentException("Option " + fieldName + " does not apply to mode " + mode);
+                }
+                Object fieldValue = opt.getValue().get(0);
+                if (List.class == setter.getParameterTypes()[0]) {
+                    fieldValue = new ArrayList<Object>(opt.getValue());
+                } else if (fieldValue instanceof File) {
+                    fieldValue = resolve(cwd, (File) fieldValue);
+                }
+                log.println(fieldName + " --> " + opt.getValue());
+                setter.invoke(req, fieldValue);
+            }
+        }
+        return req;
+    }
+
+    /**
+     * Find the setter of a request field.
+     * 
+     * @param reqClass
+     *            the request class.
+     * @param fieldName
+     *            the name of the field.
+     * @return the setter, null if the request has no such field.
+     */
+    private static Method setter(final Class<?> reqClass, final String fieldName) {
+        String name = "set" + Character.toUpperCase(fieldName.charAt(0)) + fieldName.substring(1);
+        for (Method m : reqClass.getMethods()) {
+            if (name.equals(m.getName()) && 1 == m.getParameterTypes().length) {
+                return m;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Resolve a possibly relative file against a directory.
+     * 
+     * @param cwd
+     *            the directory, null for the current directory of the process.
+     * @param file
+     *            the file.
+     * @return the resolved file.
+     */
+    static File resolve(final File cwd, final File file) {
+        if (null == cwd || file.isAbsolute()) {
+            return file;
+        }
+        return new File(cwd, file.getPath());
+    }
+
     /**
      * Main entry point for the retdec api client application.
      * 
@@ -231,64 +643,37 @@ public final class RetdecClient {
      *             if an exception occurs.
      */
     public static void main(final String[] args) throws Exception {
-        OptionParser parser = new OptionParser();
-        ArgumentAcceptingOptionSpec<String> apikeyOption = parser.accepts("apikey", "use API key").withRequiredArg()
-                .ofType(String.class).describedAs("the API key");
-        ArgumentAcceptingOptionSpec<String> idOption = parser.accepts("id", "use a previous compilation's id")
-                .withRequiredArg().ofType(String.class).describedAs("the id");
-        ArgumentAcceptingOptionSpec<File> inputOption = parser.accepts("input", "decompilation input")
-                .requiredUnless(idOption).withRequiredArg().ofType(File.class).describedAs("the input file");
-        ArgumentAcceptingOptionSpec<File> outdirOption = parser.accepts("outdir", "output directory").withRequiredArg()
-                .ofType(File.class).defaultsTo(new File(".")).describedAs("the output directory");
-        parser.accepts("help", "Show help.").forHelp();
-
-        addOptions(parser, AbstractDecompilationRequest.class);
-        addOptions(parser, CDecompilationRequest.class);
-        addOptions(parser, BinDecompilationRequest.class);
-        addOptions(parser, RawDecompilationRequest.class);
-
-        // mode is special
-        ArgumentAcceptingOptionSpec<DecompilationRequestMode> modeOption = (ArgumentAcceptingOptionSpec<DecompilationRequestMode>) parser
-                .recognizedOptions().get("mode");
-        modeOption.defaultsTo(DecompilationRequestMode.C);
-
-        parser.printHelpOn(System.out);
-
-        OptionSet options = parser.parse(args);
-        RetdecClient rdc = new RetdecClient(options.valueOf(apikeyOption));
-        if (options.has(idOption)) {
-            DecompilationResponse resp = new DecompilationResponse(options.valueOf(idOption));
-            rdc.invoke(resp, options.valueOf(outdirOption));
-        } else {
-            AbstractDecompilationRequest req;
-            DecompilationRequestMode mode = options.valueOf(modeOption);
-            switch (mode) {
-            case C:
-                req = new CDecompilationRequest(options.valueOf(inputOption));
-                break;
-            case BIN:
-                req = new BinDecompilationRequest(options.valueOf(inputOption));
-                break;
-            case RAW:
-                req = new RawDecompilationRequest(options.valueOf(inputOption));
-                break;
-            default:
-                throw new IllegalArgumentException();
-            }
-            for (Entry<OptionSpec<?>, List<?>> opt : options.asMap().entrySet()) {
-                if (options.has(opt.getKey()) && opt.getKey() != apikeyOption && opt.getKey() != outdirOption
-                        && opt.getKey() != inputOption && opt.getKey() != modeOption) {
-                    String fieldName = opt.getKey().options().get(0);
-                    Object fieldValue = opt.getValue().get(0);
-                    System.err.println(fieldName + " --> " + opt.getValue());
-                    Method setter = req.getClass().getMethod(
-                            "set" + Character.toUpperCase(fieldName.charAt(0)) + fieldName.substring(1),
-                            fieldValue.getClass());
-                    setter.invoke(req, fieldValue);
-                }
-            }
+        Options opts = new Options();
+        opts.parser.printHelpOn(System.out);
 
-            rdc.invoke(req, options.valueOf(outdirOption));
+        OptionSet options = opts.parser.parse(args);
+        if (options.has(opts.connectOption)) {
+            int rc = RetdecDaemon.submit(options.valueOf(opts.connectOption), args, System.err);
+            System.exit(rc);
+        }
+        if (options.has(opts.uploadLimitOption)) {
+            RetdecService.getUploadLimit().setRate(options.valueOf(opts.uploadLimitOption) * 1024L);
+        }
+        if (options.has(opts.downloadLimitOption)) {
+            RetdecService.getDownloadLimit().setRate(options.valueOf(opts.downloadLimitOption) * 1024L);
+        }
+        RetdecClient rdc;
+        if (options.has(opts.localOption)) {
+            LocalDecompiler local = new LocalDecompiler(
+                    Arrays.asList(options.valueOf(opts.localOption).trim().split("\\s+")),
+                    Runtime.getRuntime().availableProcessors());
+            // with a remote service configured as well, the jobs are routed
+            // between the two.
+            rdc = options.has(opts.urlOption) || options.has(opts.apikeyOption)
+                    ? new RetdecClient(local, options.valuesOf(opts.urlOption), options.valuesOf(opts.apikeyOption))
+                    : new RetdecClient(local);
+        } else {
+            rdc = new RetdecClient(options.valuesOf(opts.urlOption), options.valuesOf(opts.apikeyOption));
+        }
+        if (options.has(opts.daemonOption)) {
+            new RetdecDaemon(rdc, opts, options.valueOf(opts.daemonOption)).serve();
+        } else {
+            rdc.execute(opts, options, null, System.err);
         }
 
         // NXOY3mDgal -- C compilation with non-options
@@ -298,17 +683,27 @@ public final class RetdecClient {
 
     /**
      * Add options corresponding to the declared fields of the provided request
-     * class.
+     * class. A field named like an option already declared, e.g. input, keeps
+     * that option, as accepting it again would replace its spec.
      * 
      * @param parser
      *            the options parser to add options to.
      * @param reqClass
      *            the request class to retrieve fields from.
+     * @param fieldOptions
+     *            the set the names of the added options are collected in.
      */
     @SuppressWarnings("unchecked")
     private static void addOptions(final OptionParser parser,
-            final Class<? extends AbstractDecompilationRequest> reqClass) {
+            final Class<? extends AbstractDecompilationRequest> reqClass, final Set<String> fieldOptions) {
         for (Field f : reqClass.getDeclaredFields()) {
+            if (Modifier.isStatic(f.getModifiers()) || Modifier.isTransient(f.getModifiers())) {
+                continue;
+            }
+            fieldOptions.add(f.getName());
+            if (parser.recognizedOptions().containsKey(f.getName())) {
+                continue;
+            }
             if (f.getType().isAssignableFrom(Boolean.class)) {
                 parser.accepts(f.getName()).withRequiredArg().ofType(f.getType())
                         .withValuesConvertedBy(BOOLEANCONVERTER);
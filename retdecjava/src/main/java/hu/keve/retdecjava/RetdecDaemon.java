@@ -0,0 +1,472 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * Resident daemon keeping a single warmed-up {@link RetdecClient} and
+ * accepting jobs from local clients over a loopback socket.
+ * <p>
+ * The protocol is line based. A client sends a single line containing a JSON
+ * object with the keys {@code token} (the secret of the daemon), {@code cwd}
+ * (the directory relative file names are resolved against) and {@code args}
+ * (the command line arguments of the job as an array of strings). The daemon
+ * streams the progress of the job back line by line and terminates the
+ * exchange with a line {@code OK} or {@code ERROR <message>}, then closes the
+ * connection.
+ * <p>
+ * The jobs run with the API key and the file permissions of the daemon, so
+ * only clients that can read the secret are served: the daemon writes a new
+ * one on start to a file only its user can read. The files of a job, the
+ * working directory included, must be inside the allowed roots, by default
+ * the home directory.
+ */
+public final class RetdecDaemon {
+    /**
+     * Final line sent on success.
+     */
+    static final String OK = "OK";
+    /**
+     * Prefix of the final line sent on failure.
+     */
+    static final String ERROR = "ERROR ";
+    /**
+     * Default number of jobs handled concurrently.
+     */
+    private static final int DEFAULT_WORKERS = 4;
+    /**
+     * Number of random bytes in the secret.
+     */
+    private static final int TOKEN_BYTES = 32;
+    /**
+     * Options of the client that have no effect on a job run by the daemon.
+     */
+    private static final Set<String> CLIENT_OPTIONS = new HashSet<String>(
+            Arrays.asList("connect", "apikey", "url", "local"));
+
+    /**
+     * The client executing the jobs.
+     */
+    private final RetdecClient client;
+    /**
+     * The command line options definition.
+     */
+    private final RetdecClient.Options opts;
+    /**
+     * The socket jobs are accepted on.
+     */
+    private final ServerSocket serverSocket;
+    /**
+     * The workers handling connections.
+     */
+    private final ExecutorService workers;
+    /**
+     * ObjectMapper instance for parsing job lines.
+     */
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    /**
+     * The secret the clients send.
+     */
+    private final String token;
+    /**
+     * The directories the files of the jobs must be in, canonical.
+     */
+    private final List<File> roots = new ArrayList<File>();
+
+    /**
+     * Construct a daemon bound to the loopback interface, writing its secret
+     * to the default token file and serving jobs in the home directory.
+     * 
+     * @param client
+     *            the client executing the jobs.
+     * @param opts
+     *            the command line options definition.
+     * @param port
+     *            the local port to listen on, 0 for an ephemeral port.
+     * @throws IOException
+     *             if the socket cannot be bound or the secret cannot be
+     *             written.
+     */
+    RetdecDaemon(final RetdecClient client, final RetdecClient.Options opts, final int port) throws IOException {
+        this(client, opts, port, defaultTokenFile(),
+                Collections.singletonList(new File(System.getProperty("user.home"))));
+    }
+
+    /**
+     * Construct a daemon bound to the loopback interface.
+     * 
+     * @param client
+     *            the client executing the jobs.
+     * @param opts
+     *            the command line options definition.
+     * @param port
+     *            the local port to listen on, 0 for an ephemeral port.
+     * @param tokenFile
+     *            the file the secret is written to.
+     * @param roots
+     *            the directories the files of the jobs must be in.
+     * @throws IOException
+     *             if the socket cannot be bound or the secret cannot be
+     *             written.
+     */
+    RetdecDaemon(final RetdecClient client, final RetdecClient.Options opts, final int port, final File tokenFile,
+            final List<File> roots) throws IOException {
+        this.client = client;
+        this.opts = opts;
+        for (File root : roots) {
+            this.roots.add(root.getCanonicalFile());
+        }
+        this.token = writeToken(tokenFile);
+        this.serverSocket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+        this.workers = Executors.newFixedThreadPool(DEFAULT_WORKERS);
+    }
+
+    /**
+     * Get the file the daemon writes its secret to by default.
+     * 
+     * @return the file in the home directory.
+     */
+    static File defaultTokenFile() {
+        return new File(new File(System.getProperty("user.home"), ".retdec"), "daemon.token");
+    }
+
+    /**
+     * Write a new secret to a file only the user can read.
+     * 
+     * @param tokenFile
+     *            the file.
+     * @return the secret.
+     * @throws IOException
+     *             if the file cannot be written.
+     */
+    private static String writeToken(final File tokenFile) throws IOException {
+        byte[] random = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(random);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : random) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        Path path = tokenFile.toPath();
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        Files.deleteIfExists(path);
+        try {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            File file = Files.createFile(path).toFile();
+            file.setReadable(false, false);
+            file.setReadable(true, true);
+            file.setWritable(false, false);
+            file.setWritable(true, true);
+        }
+        Files.write(path, sb.toString().getBytes(StandardCharsets.US_ASCII));
+        return sb.toString();
+    }
+
+    /**
+     * Read the secret of a daemon.
+     * 
+     * @param tokenFile
+     *            the file the daemon wrote it to.
+     * @return the secret.
+     * @throws IOException
+     *             if the file cannot be read, e.g. no daemon ran.
+     */
+    static String readToken(final File tokenFile) throws IOException {
+        return new String(Files.readAllBytes(tokenFile.toPath()), StandardCharsets.US_ASCII).trim();
+    }
+
+    /**
+     * Get the port the daemon is listening on.
+     * 
+     * @return the local port.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accept and handle jobs until the socket is closed.
+     * 
+     * @throws IOException
+     *             if accepting a connection fails.
+     */
+    public void serve() throws IOException {
+        System.err.println("Accepting jobs on " + serverSocket.getLocalSocketAddress());
+        try {
+            while (!serverSocket.isClosed()) {
+                final Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (IOException e) {
+                    if (serverSocket.isClosed()) {
+                        break;
+                    }
+                    throw e;
+                }
+                workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        handle(socket);
+                    }
+                });
+            }
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    /**
+     * Stop accepting jobs. Jobs in progress are completed.
+     * 
+     * @throws IOException
+     *             if closing the socket fails.
+     */
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    /**
+     * Handle a single connection.
+     * 
+     * @param socket
+     *            the connected socket.
+     */
+    private void handle(final Socket socket) {
+        try (Socket s = socket) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+            PrintStream out = new PrintStream(s.getOutputStream(), true, StandardCharsets.UTF_8.name());
+            String line = in.readLine();
+            if (null == line) {
+                return;
+            }
+            try {
+                Job job = objectMapper.readValue(line, Job.class);
+                if (null == job.token || !MessageDigest.isEqual(token.getBytes(StandardCharsets.US_ASCII),
+                        job.token.getBytes(StandardCharsets.US_ASCII))) {
+                    out.println(ERROR + "Not authorized.");
+                    return;
+                }
+                if (null == job.cwd || null == job.args) {
+                    out.println(ERROR + "Incomplete job.");
+                    return;
+                }
+                OptionSet options;
+                synchronized (opts) {
+                    options = opts.getParser().parse(job.args.toArray(new String[job.args.size()]));
+                }
+                File cwd = new File(job.cwd);
+                checkFiles(cwd, options);
+                client.execute(opts, options, cwd, out);
+                out.println(OK);
+            } catch (Exception e) {
+                out.println(ERROR + e);
+            }
+        } catch (IOException e) {
+            System.err.println("Connection failed: " + e);
+        }
+    }
+
+    /**
+     * Check that the working directory and the files named by a job are
+     * inside the allowed roots.
+     * 
+     * @param cwd
+     *            the working directory of the job.
+     * @param options
+     *            the parsed options of the job.
+     * @throws IOException
+     *             if a file is outside the roots.
+     */
+    void checkFiles(final File cwd, final OptionSet options) throws IOException {
+        checkFile(cwd);
+        for (Entry<OptionSpec<?>, List<?>> option : options.asMap().entrySet()) {
+            for (Object value : option.getValue()) {
+                if (value instanceof File) {
+                    checkFile(RetdecClient.resolve(cwd, (File) value));
+                }
+            }
+        }
+    }
+
+    /**
+     * Check that a file is inside the allowed roots.
+     * 
+     * @param file
+     *            the absolute file.
+     * @throws IOException
+     *             if it is outside the roots.
+     */
+    private void checkFile(final File file) throws IOException {
+        if (!file.isAbsolute()) {
+            throw new IOException("Not an absolute path: " + file);
+        }
+        String path = file.getCanonicalPath();
+        for (File root : roots) {
+            String rootPath = root.getPath();
+            if (path.equals(rootPath) || path.startsWith(rootPath.endsWith(File.separator) ? rootPath
+                    : rootPath + File.separator)) {
+                return;
+            }
+        }
+        throw new IOException("Outside the allowed directories: " + file);
+    }
+
+    /**
+     * Remove the options only the client itself uses, with their values.
+     * 
+     * @param args
+     *            the command line arguments.
+     * @return the arguments of the job.
+     */
+    static List<String> jobArgs(final String[] args) {
+        List<String> jobArgs = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.startsWith("-") && !"--".equals(arg)) {
+                String name = arg.replaceFirst("^--?", "");
+                int eq = name.indexOf('=');
+                if (CLIENT_OPTIONS.contains(eq < 0 ? name : name.substring(0, eq))) {
+                    if (eq < 0) {
+                        i++;
+                    }
+                    continue;
+                }
+            }
+            jobArgs.add(arg);
+        }
+        return jobArgs;
+    }
+
+    /**
+     * Submit a job to a running daemon and copy its progress to the log. The
+     * secret is read from the default token file.
+     * 
+     * @param port
+     *            the local port the daemon is listening on.
+     * @param args
+     *            the command line arguments of the job.
+     * @param log
+     *            the stream progress is copied to.
+     * @return the exit code, 0 on success.
+     * @throws IOException
+     *             if the daemon cannot be reached.
+     */
+    static int submit(final int port, final String[] args, final PrintStream log) throws IOException {
+        return submit(port, defaultTokenFile(), args, log);
+    }
+
+    /**
+     * Submit a job to a running daemon and copy its progress to the log.
+     * 
+     * @param port
+     *            the local port the daemon is listening on.
+     * @param tokenFile
+     *            the file the daemon wrote its secret to.
+     * @param args
+     *            the command line arguments of the job.
+     * @param log
+     *            the stream progress is copied to.
+     * @return the exit code, 0 on success.
+     * @throws IOException
+     *             if the secret cannot be read or the daemon cannot be
+     *             reached.
+     */
+    static int submit(final int port, final File tokenFile, final String[] args, final PrintStream log)
+            throws IOException {
+        Map<String, Object> job = new LinkedHashMap<String, Object>();
+        job.put("token", readToken(tokenFile));
+        job.put("cwd", new File(".").getAbsolutePath());
+        job.put("args", jobArgs(args));
+        try (Socket s = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            OutputStream os = s.getOutputStream();
+            Writer w = new OutputStreamWriter(os, StandardCharsets.UTF_8);
+            w.write(new ObjectMapper().writeValueAsString(job));
+            w.write('\n');
+            w.flush();
+            BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+            String line;
+            while (null != (line = in.readLine())) {
+                if (OK.equals(line)) {
+                    return 0;
+                }
+                log.println(line);
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * A job as sent by a client.
+     */
+    static final class Job {
+        /**
+         * The secret of the daemon.
+         */
+        public String token;
+        /**
+         * The working directory of the client.
+         */
+        public String cwd;
+        /**
+         * The command line arguments.
+         */
+        public List<String> args;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.analysis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import hu.keve.retdecjava.binding.RawDecompilationRequest.Endianness;
+
+/**
+ * A region of machine code found in a raw image.
+ */
+public final class CodeRegion {
+    /**
+     * The offset in the image.
+     */
+    private final int offset;
+    /**
+     * The length.
+     */
+    private final int length;
+    /**
+     * The virtual address of the first byte.
+     */
+    private final long vma;
+    /**
+     * The endianness of the code.
+     */
+    private final Endianness endianness;
+    /**
+     * The addresses of the function prologues found, in address order.
+     */
+    private final List<Long> entryPoints;
+
+    /**
+     * Construct a region.
+     * 
+     * @param offset
+     *            the offset in the image.
+     * @param length
+     *            the length.
+     * @param vma
+     *            the virtual address of the first byte.
+     * @param endianness
+     *            the endianness of the code.
+     * @param entryPoints
+     *            the addresses of the function prologues found.
+     */
+    CodeRegion(final int offset, final int length, final long vma, final Endianness endianness,
+            final List<Long> entryPoints) {
+        this.offset = offset;
+        this.length = length;
+        this.vma = vma;
+        this.endianness = endianness;
+        this.entryPoints = Collections.unmodifiableList(new ArrayList<Long>(entryPoints));
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public long getVma() {
+        return vma;
+    }
+
+    public Endianness getEndianness() {
+        return endianness;
+    }
+
+    public List<Long> getEntryPoints() {
+        return entryPoints;
+    }
+
+    /**
+     * Get the entry point to decompile the region from.
+     * 
+     * @return the first function prologue, the start of the region if none
+     *         was found.
+     */
+    public long getEntryPoint() {
+        return entryPoints.isEmpty() ? vma : entryPoints.get(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("0x%x-0x%x (%s endian, entry 0x%x, %d prologues)", vma, vma + length - 1, endianness,
+                getEntryPoint(), entryPoints.size());
+    }
+}
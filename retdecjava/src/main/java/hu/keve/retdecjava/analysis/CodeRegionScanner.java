@@ -0,0 +1,407 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.analysis;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import hu.keve.retdecjava.binding.AbstractDecompilationRequest.Architecture;
+import hu.keve.retdecjava.binding.RawDecompilationRequest.Endianness;
+
+/**
+ * Heuristic scanner finding the regions of machine code in a raw image, e.g. a
+ * firmware dump. The image is cut into blocks, every block is scored by how
+ * many of its instructions look like common instructions of the architecture,
+ * and runs of code blocks become regions. Function prologues inside a region
+ * are its candidate entry points.
+ * <p>
+ * Thumb code is scored by halfwords, not by the ARM condition field, and its
+ * entry points are {@code push {..., lr}} instructions.
+ */
+public final class CodeRegionScanner {
+    /**
+     * Size of the scored blocks.
+     */
+    public static final int BLOCK_SIZE = 256;
+    /**
+     * Minimum size of a region.
+     */
+    public static final int MIN_REGION_SIZE = 4 * BLOCK_SIZE;
+    /**
+     * Number of non-code blocks tolerated inside a region, e.g. literal pools.
+     */
+    private static final int MAX_GAP_BLOCKS = 1;
+    /**
+     * Minimum score of a code block of a fixed-width instruction set.
+     */
+    private static final double WORD_THRESHOLD = 0.4;
+    /**
+     * Minimum score of an x86 code block.
+     */
+    private static final double X86_THRESHOLD = 0.22;
+    /**
+     * Minimum score of a Thumb code block. The frequent Thumb encodings cover
+     * about a third of all halfwords, so random data scores higher than with
+     * the 32-bit instruction sets.
+     */
+    private static final double THUMB_THRESHOLD = 0.6;
+    /**
+     * Frequent x86 opcodes: push/pop, mov, add/sub/cmp imm, jcc short, call,
+     * jmp, ret, lea, test, xor, nop.
+     */
+    private static final boolean[] X86_OPCODES = new boolean[256];
+
+    static {
+        int[] opcodes = {0x50, 0x51, 0x52, 0x53, 0x55, 0x56, 0x57, 0x58, 0x5b, 0x5d, 0x5e, 0x5f, 0x89, 0x8b,
+            0x83, 0x74, 0x75, 0xe8, 0xe9, 0xeb, 0xc3, 0x8d, 0x85, 0x31, 0x33, 0xff, 0x90, 0x0f, 0x48 };
+        for (int op : opcodes) {
+            X86_OPCODES[op] = true;
+        }
+    }
+
+    /**
+     * Utility class.
+     */
+    private CodeRegionScanner() {
+    }
+
+    /**
+     * Scan an image for code regions.
+     * 
+     * @param image
+     *            the image, starting at its position.
+     * @param architecture
+     *            the architecture of the code.
+     * @param endianness
+     *            the endianness of the code, null to detect it.
+     * @param vma
+     *            the virtual address the image is loaded at.
+     * @return the regions in address order.
+     */
+    public static List<CodeRegion> scan(final ByteBuffer image, final Architecture architecture,
+            final Endianness endianness, final long vma) {
+        ByteBuffer b = image.slice();
+        Endianness order = null != endianness ? endianness : detectEndianness(b, architecture);
+        b.order(ExecutableHeader.byteOrder(order));
+        int blocks = b.limit() / BLOCK_SIZE;
+        boolean[] code = new boolean[blocks];
+        for (int i = 0; i < blocks; i++) {
+            code[i] = !isPadding(b, i * BLOCK_SIZE) && score(b, i * BLOCK_SIZE, architecture) >= threshold(
+                    architecture);
+        }
+
+        List<CodeRegion> regions = new ArrayList<CodeRegion>();
+        int i = 0;
+        while (i < blocks) {
+            if (!code[i]) {
+                i++;
+                continue;
+            }
+            int first = i;
+            int last = i;
+            int gap = 0;
+            for (i++; i < blocks && gap <= MAX_GAP_BLOCKS; i++) {
+                if (code[i]) {
+                    last = i;
+                    gap = 0;
+                } else {
+                    gap++;
+                }
+            }
+            i = last + 1;
+            int offset = first * BLOCK_SIZE;
+            int length = (last - first + 1) * BLOCK_SIZE;
+            if (length >= MIN_REGION_SIZE) {
+                regions.add(new CodeRegion(offset, length, vma + offset, order,
+                        prologues(b, offset, length, architecture, vma)));
+            }
+        }
+        return regions;
+    }
+
+    /**
+     * Detect the endianness of the code in an image by scoring it both ways.
+     * 
+     * @param b
+     *            the image.
+     * @param architecture
+     *            the architecture.
+     * @return the better scoring endianness, little for x86.
+     */
+    static Endianness detectEndianness(final ByteBuffer b, final Architecture architecture) {
+        if (Architecture.X86 == architecture) {
+            return Endianness.LITTLE;
+        }
+        double little = 0;
+        double big = 0;
+        ByteBuffer le = b.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer be = b.duplicate().order(ByteOrder.BIG_ENDIAN);
+        for (int at = 0; at + BLOCK_SIZE <= b.limit(); at += BLOCK_SIZE) {
+            if (!isPadding(b, at)) {
+                little += score(le, at, architecture);
+                big += score(be, at, architecture);
+            }
+        }
+        return big > little ? Endianness.BIG : Endianness.LITTLE;
+    }
+
+    /**
+     * Is a block made of a single repeated byte?
+     * 
+     * @param b
+     *            the image.
+     * @param at
+     *            the offset of the block.
+     * @return true for padding.
+     */
+    private static boolean isPadding(final ByteBuffer b, final int at) {
+        byte first = b.get(at);
+        for (int i = at + 1; i < at + BLOCK_SIZE; i++) {
+            if (b.get(i) != first) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the score a block needs to be code.
+     * 
+     * @param architecture
+     *            the architecture.
+     * @return the threshold.
+     */
+    private static double threshold(final Architecture architecture) {
+        switch (architecture) {
+        case X86:
+            return X86_THRESHOLD;
+        case THUMB:
+            return THUMB_THRESHOLD;
+        default:
+            return WORD_THRESHOLD;
+        }
+    }
+
+    /**
+     * Score a block: the share of its bytes, halfwords or words looking like
+     * frequent instructions.
+     * 
+     * @param b
+     *            the image, in the byte order of the code.
+     * @param at
+     *            the offset of the block.
+     * @param architecture
+     *            the architecture.
+     * @return the score between 0 and 1.
+     */
+    static double score(final ByteBuffer b, final int at, final Architecture architecture) {
+        int hits = 0;
+        if (Architecture.X86 == architecture) {
+            for (int i = at; i < at + BLOCK_SIZE; i++) {
+                if (X86_OPCODES[b.get(i) & 0xff]) {
+                    hits++;
+                }
+            }
+            return (double) hits / BLOCK_SIZE;
+        }
+        if (Architecture.THUMB == architecture) {
+            for (int i = at; i < at + BLOCK_SIZE; i += 2) {
+                int h = b.getShort(i) & 0xffff;
+                if (isBlPrefix(h) && i + 2 < at + BLOCK_SIZE && isBlSuffix(b.getShort(i + 2) & 0xffff)) {
+                    // a bl is only frequent as a pair
+                    hits += 2;
+                    i += 2;
+                } else if (0 != h && isFrequentHalfword(h)) {
+                    hits++;
+                }
+            }
+            return (double) hits / (BLOCK_SIZE / 2);
+        }
+        for (int i = at; i < at + BLOCK_SIZE; i += 4) {
+            int w = b.getInt(i);
+            if (0 != w && isFrequentWord(w, architecture)) {
+                hits++;
+            }
+        }
+        return (double) hits / (BLOCK_SIZE / 4);
+    }
+
+    /**
+     * Does an instruction word look like a frequent instruction?
+     * 
+     * @param w
+     *            the word.
+     * @param architecture
+     *            the architecture.
+     * @return true if it does.
+     */
+    private static boolean isFrequentWord(final int w, final Architecture architecture) {
+        int op = w >>> 26;
+        switch (architecture) {
+        case ARM:
+            // condition "always"
+            return 0xe == (w >>> 28);
+        case MIPS:
+        case PIC32:
+            if (0 == op) {
+                // SPECIAL with a destination register: addu, subu, and, or, slt, sltu, jr, jalr, sll
+                int funct = w & 0x3f;
+                return 0 != ((w >>> 11) & 0x1f) && (0x21 == funct || 0x23 == funct || 0x24 == funct
+                        || 0x25 == funct || 0x2a == funct || 0x2b == funct || 0x09 == funct || 0x00 == funct)
+                        || 0x03e00008 == w;
+            }
+            // jal, beq, bne, addiu, lui, lw, sw, lbu, sb
+            return 0x03 == op || 0x04 == op || 0x05 == op || 0x09 == op || 0x0f == op || 0x23 == op || 0x2b == op
+                    || 0x24 == op || 0x28 == op;
+        case POWERPC:
+            // b, bc, bclr, the op 31 group, lwz, stw, stwu, addi, addis, ori, rlwinm, cmpwi, cmplwi
+            return 18 == op || 16 == op || 19 == op || 31 == op || 32 == op || 36 == op || 37 == op || 14 == op
+                    || 15 == op || 24 == op || 21 == op || 11 == op || 10 == op;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Does a Thumb halfword look like a frequent 16-bit instruction?
+     * 
+     * @param h
+     *            the halfword.
+     * @return true if it does.
+     */
+    private static boolean isFrequentHalfword(final int h) {
+        // mov/cmp imm, ldr/str imm, ldr sp/str sp
+        int top = h >>> 12;
+        if (0x2 == top || 0x6 == top || 0x9 == top) {
+            return true;
+        }
+        // b<cond>, but not udf and svc
+        if (0xd == top) {
+            return 0xe != ((h >>> 9) & 0x7);
+        }
+        // ldr literal
+        if (0x4800 == (h & 0xf800)) {
+            return true;
+        }
+        // adds/subs reg and imm3, alu ops, mov hi
+        if (0x1800 == (h & 0xf800) || 0x4000 == (h & 0xfc00) || 0x4600 == (h & 0xff00)) {
+            return true;
+        }
+        // add/sub sp, push {..., lr}, pop {..., pc}, bx lr
+        int high = h >>> 8;
+        return 0xb0 == high || 0xb5 == high || 0xbd == high || 0x4770 == h;
+    }
+
+    /**
+     * Is a Thumb halfword the first half of a bl?
+     * 
+     * @param h
+     *            the halfword.
+     * @return true if it is.
+     */
+    private static boolean isBlPrefix(final int h) {
+        return 0xf000 == (h & 0xf800);
+    }
+
+    /**
+     * Is a Thumb halfword the second half of a bl?
+     * 
+     * @param h
+     *            the halfword.
+     * @return true if it is.
+     */
+    private static boolean isBlSuffix(final int h) {
+        return 0xd000 == (h & 0xd000);
+    }
+
+    /**
+     * Find the function prologues in a region.
+     * 
+     * @param b
+     *            the image, in the byte order of the code.
+     * @param offset
+     *            the offset of the region.
+     * @param length
+     *            the length of the region.
+     * @param architecture
+     *            the architecture.
+     * @param vma
+     *            the virtual address of the image.
+     * @return the addresses of the prologues.
+     */
+    private static List<Long> prologues(final ByteBuffer b, final int offset, final int length,
+            final Architecture architecture, final long vma) {
+        List<Long> found = new ArrayList<Long>();
+        if (Architecture.X86 == architecture) {
+            for (int i = offset; i + 2 < offset + length; i++) {
+                int b1 = b.get(i + 1) & 0xff;
+                int b2 = b.get(i + 2) & 0xff;
+                // push ebp; mov ebp, esp
+                if (0x55 == (b.get(i) & 0xff) && ((0x89 == b1 && 0xe5 == b2) || (0x8b == b1 && 0xec == b2))) {
+                    found.add(vma + i);
+                }
+            }
+            return found;
+        }
+        if (Architecture.THUMB == architecture) {
+            for (int i = offset; i + 1 < offset + length; i += 2) {
+                // push {..., lr}
+                if (0xb5 == ((b.getShort(i) & 0xffff) >>> 8)) {
+                    found.add(vma + i);
+                }
+            }
+            return found;
+        }
+        for (int i = offset; i + 3 < offset + length; i += 4) {
+            int w = b.getInt(i);
+            boolean prologue;
+            switch (architecture) {
+            case ARM:
+                // stmfd sp!, {..., lr}
+                prologue = 0xe92d4000 == (w & 0xffff4000);
+                break;
+            case MIPS:
+            case PIC32:
+                // addiu sp, sp, -n
+                prologue = 0x27bd8000 == (w & 0xffff8000);
+                break;
+            case POWERPC:
+                // stwu r1, -n(r1)
+                prologue = 0x94218000 == (w & 0xffff8000);
+                break;
+            default:
+                prologue = false;
+            }
+            if (prologue) {
+                found.add(vma + i);
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,290 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.analysis;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import hu.keve.retdecjava.binding.AbstractDecompilationRequest.Architecture;
+import hu.keve.retdecjava.binding.AbstractDecompilationRequest.FileFormat;
+import hu.keve.retdecjava.binding.RawDecompilationRequest.Endianness;
+
+/**
+ * The identifying fields of an ELF or PE header. Parsing works on the mapped
+ * input with absolute reads and allocates nothing but the result.
+ */
+public final class ExecutableHeader {
+    /** ELF e_type of an executable. */
+    private static final int ET_EXEC = 2;
+    /** ELF e_type of a shared object or position independent executable. */
+    private static final int ET_DYN = 3;
+    /** PE characteristics flag of an executable image. */
+    private static final int IMAGE_FILE_EXECUTABLE_IMAGE = 0x0002;
+    /** PE characteristics flag of a DLL. */
+    private static final int IMAGE_FILE_DLL = 0x2000;
+
+    /**
+     * The file format.
+     */
+    private final FileFormat fileFormat;
+    /**
+     * The architecture, null if not supported by the service.
+     */
+    private final Architecture architecture;
+    /**
+     * The raw machine code of the header.
+     */
+    private final int machine;
+    /**
+     * The byte order.
+     */
+    private final Endianness endianness;
+    /**
+     * The word size in bits.
+     */
+    private final int bits;
+    /**
+     * Is it an executable or a shared library?
+     */
+    private final boolean executable;
+    /**
+     * The entry point address, 0 if none.
+     */
+    private final long entryPoint;
+
+    /**
+     * Construct a header.
+     * 
+     * @param fileFormat
+     *            the file format.
+     * @param architecture
+     *            the architecture, null if not supported.
+     * @param machine
+     *            the raw machine code.
+     * @param endianness
+     *            the byte order.
+     * @param bits
+     *            the word size in bits.
+     * @param executable
+     *            is it an executable or a shared library?
+     * @param entryPoint
+     *            the entry point address.
+     */
+    private ExecutableHeader(final FileFormat fileFormat, final Architecture architecture, final int machine,
+            final Endianness endianness, final int bits, final boolean executable, final long entryPoint) {
+        this.fileFormat = fileFormat;
+        this.architecture = architecture;
+        this.machine = machine;
+        this.endianness = endianness;
+        this.bits = bits;
+        this.executable = executable;
+        this.entryPoint = entryPoint;
+    }
+
+    /**
+     * Parse the header of a file.
+     * 
+     * @param content
+     *            the content of the file, e.g. a mapped input. Its position and
+     *            byte order are not changed.
+     * @return the header, null if the content is neither ELF nor PE or is
+     *         truncated.
+     */
+    public static ExecutableHeader parse(final ByteBuffer content) {
+        ByteBuffer b = content.duplicate();
+        int base = b.position();
+        int size = b.limit() - base;
+        if (size >= 52 && b.get(base) == 0x7f && b.get(base + 1) == 'E' && b.get(base + 2) == 'L'
+                && b.get(base + 3) == 'F') {
+            return parseElf(b, base, size);
+        }
+        if (size >= 64 && b.get(base) == 'M' && b.get(base + 1) == 'Z') {
+            return parsePe(b, base, size);
+        }
+        return null;
+    }
+
+    /**
+     * Parse an ELF header.
+     * 
+     * @param b
+     *            the content.
+     * @param base
+     *            the offset of the file in the content.
+     * @param size
+     *            the size of the file.
+     * @return the header, null if truncated or malformed.
+     */
+    private static ExecutableHeader parseElf(final ByteBuffer b, final int base, final int size) {
+        int elfClass = b.get(base + 4);
+        int data = b.get(base + 5);
+        if ((1 != elfClass && 2 != elfClass) || (1 != data && 2 != data)) {
+            return null;
+        }
+        int bits = 1 == elfClass ? 32 : 64;
+        if (64 == bits && size < 64) {
+            return null;
+        }
+        Endianness endianness = 1 == data ? Endianness.LITTLE : Endianness.BIG;
+        b.order(byteOrder(endianness));
+        int type = b.getShort(base + 16) & 0xffff;
+        int machine = b.getShort(base + 18) & 0xffff;
+        long entry = 32 == bits ? b.getInt(base + 24) & 0xffffffffL : b.getLong(base + 24);
+        // the service decompiles 32-bit code only; EM_X86_64 and EM_PPC64 are
+        // left unsupported rather than mapped to their 32-bit relatives.
+        Architecture arch;
+        switch (machine) {
+        case 3: // EM_386
+            arch = Architecture.X86;
+            break;
+        case 40: // EM_ARM
+            arch = 0 != (entry & 1) ? Architecture.THUMB : Architecture.ARM;
+            break;
+        case 8: // EM_MIPS
+        case 10: // EM_MIPS_RS3_LE
+            arch = Architecture.MIPS;
+            break;
+        case 20: // EM_PPC
+            arch = Architecture.POWERPC;
+            break;
+        default:
+            arch = null;
+        }
+        return new ExecutableHeader(FileFormat.ELF, arch, machine, endianness, bits,
+                ET_EXEC == type || ET_DYN == type, entry);
+    }
+
+    /**
+     * Parse a PE header.
+     * 
+     * @param b
+     *            the content.
+     * @param base
+     *            the offset of the file in the content.
+     * @param size
+     *            the size of the file.
+     * @return the header, null if truncated or malformed.
+     */
+    private static ExecutableHeader parsePe(final ByteBuffer b, final int base, final int size) {
+        b.order(ByteOrder.LITTLE_ENDIAN);
+        long peOffset = b.getInt(base + 0x3c) & 0xffffffffL;
+        if (peOffset + 24 + 2 > size) {
+            return null;
+        }
+        int pe = base + (int) peOffset;
+        if (b.get(pe) != 'P' || b.get(pe + 1) != 'E' || b.get(pe + 2) != 0 || b.get(pe + 3) != 0) {
+            return null;
+        }
+        int machine = b.getShort(pe + 4) & 0xffff;
+        int characteristics = b.getShort(pe + 22) & 0xffff;
+        int optional = pe + 24;
+        int magic = b.getShort(optional) & 0xffff;
+        int bits = 0x20b == magic ? 64 : 32;
+        long entry = 0;
+        if (optional + 32 <= base + size) {
+            long imageBase = 64 == bits ? b.getLong(optional + 24) : b.getInt(optional + 28) & 0xffffffffL;
+            entry = imageBase + (b.getInt(optional + 16) & 0xffffffffL);
+        }
+        // IMAGE_FILE_MACHINE_AMD64 is left unsupported, see parseElf.
+        Architecture arch;
+        switch (machine) {
+        case 0x14c: // IMAGE_FILE_MACHINE_I386
+            arch = Architecture.X86;
+            break;
+        case 0x1c0: // IMAGE_FILE_MACHINE_ARM
+            arch = Architecture.ARM;
+            break;
+        case 0x1c2: // IMAGE_FILE_MACHINE_THUMB
+        case 0x1c4: // IMAGE_FILE_MACHINE_ARMNT
+            arch = Architecture.THUMB;
+            break;
+        case 0x166: // IMAGE_FILE_MACHINE_R4000
+        case 0x169: // IMAGE_FILE_MACHINE_WCEMIPSV2
+            arch = Architecture.MIPS;
+            break;
+        case 0x1f0: // IMAGE_FILE_MACHINE_POWERPC
+        case 0x1f1: // IMAGE_FILE_MACHINE_POWERPCFP
+            arch = Architecture.POWERPC;
+            break;
+        default:
+            arch = null;
+        }
+        boolean executable = 0 != (characteristics & (IMAGE_FILE_EXECUTABLE_IMAGE | IMAGE_FILE_DLL));
+        return new ExecutableHeader(FileFormat.PE, arch, machine, Endianness.LITTLE, bits, executable, entry);
+    }
+
+    /**
+     * Convert an endianness to a byte order.
+     * 
+     * @param endianness
+     *            the endianness.
+     * @return the byte order.
+     */
+    static ByteOrder byteOrder(final Endianness endianness) {
+        return Endianness.BIG == endianness ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+    }
+
+    public FileFormat getFileFormat() {
+        return fileFormat;
+    }
+
+    /**
+     * Get the architecture.
+     * 
+     * @return the architecture, null if the machine is not supported by the
+     *         service.
+     */
+    public Architecture getArchitecture() {
+        return architecture;
+    }
+
+    public int getMachine() {
+        return machine;
+    }
+
+    public Endianness getEndianness() {
+        return endianness;
+    }
+
+    public int getBits() {
+        return bits;
+    }
+
+    public boolean isExecutable() {
+        return executable;
+    }
+
+    public long getEntryPoint() {
+        return entryPoint;
+    }
+
+    @Override
+    public String toString() {
+        return fileFormat + "/" + (null == architecture ? "machine 0x" + Integer.toHexString(machine) : architecture)
+                + "/" + bits + "-bit/" + endianness + (executable ? "" : "/not executable");
+    }
+}
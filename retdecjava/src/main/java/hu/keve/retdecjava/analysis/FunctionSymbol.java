@@ -0,0 +1,260 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.analysis;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import hu.keve.retdecjava.binding.AbstractDecompilationRequest.Architecture;
+import hu.keve.retdecjava.binding.RawDecompilationRequest.Endianness;
+
+/**
+ * A function found in the symbol table of an executable, with its bytes.
+ */
+public final class FunctionSymbol {
+    /**
+     * The digest algorithm of the function bytes.
+     */
+    public static final String DIGEST = "SHA-256";
+    /**
+     * The name.
+     */
+    private final String name;
+    /**
+     * The address.
+     */
+    private final long address;
+    /**
+     * The bytes of the function.
+     */
+    private final ByteBuffer bytes;
+    /**
+     * The architecture of the code, null if not supported.
+     */
+    private final Architecture architecture;
+    /**
+     * The endianness of the code.
+     */
+    private final Endianness endianness;
+
+    /**
+     * Construct a function symbol.
+     * 
+     * @param name
+     *            the name.
+     * @param address
+     *            the address.
+     * @param bytes
+     *            the bytes of the function.
+     * @param architecture
+     *            the architecture of the code, null if not supported.
+     * @param endianness
+     *            the endianness of the code.
+     */
+    FunctionSymbol(final String name, final long address, final ByteBuffer bytes, final Architecture architecture,
+            final Endianness endianness) {
+        this.name = name;
+        this.address = address;
+        this.bytes = bytes;
+        this.architecture = architecture;
+        this.endianness = endianness;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getAddress() {
+        return address;
+    }
+
+    public int getSize() {
+        return bytes.remaining();
+    }
+
+    /**
+     * Get the bytes of the function.
+     * 
+     * @return a read-only view of the bytes.
+     */
+    public ByteBuffer getBytes() {
+        return bytes.asReadOnlyBuffer();
+    }
+
+    /**
+     * Get the digest of the bytes of the function.
+     * 
+     * @return the digest.
+     */
+    public byte[] digest() {
+        return digest(getBytes());
+    }
+
+    /**
+     * Get the digest of the normalized form of the function, see
+     * {@link #normalizedCode(FunctionTable)}.
+     * 
+     * @param callees
+     *            the functions calls may target, usually the table of this
+     *            function.
+     * @return the digest.
+     */
+    public byte[] normalizedDigest(final FunctionTable callees) {
+        return digest(ByteBuffer.wrap(normalizedCode(callees)));
+    }
+
+    /**
+     * Get the normalized form of the function: its size, its bytes with the
+     * targets of direct calls and jumps masked, and the names of the functions
+     * these target. The same code linked at a different address and calling
+     * the same functions has the same form. Masked are the operands of x86
+     * rel32 call and jmp, ARM b and bl, and MIPS j and jal, but only where the
+     * target is the start of a function, so a byte looking like an opcode
+     * inside another instruction is normally kept.
+     * 
+     * @param callees
+     *            the functions calls may target, usually the table of this
+     *            function.
+     * @return the form.
+     */
+    public byte[] normalizedCode(final FunctionTable callees) {
+        ByteBuffer b = getBytes();
+        byte[] code = new byte[b.remaining()];
+        b.get(code);
+        StringBuilder targets = new StringBuilder();
+        boolean little = Endianness.LITTLE == endianness;
+        if (Architecture.X86 == architecture) {
+            for (int i = 0; i + 4 < code.length; i++) {
+                if ((byte) 0xe8 == code[i] || (byte) 0xe9 == code[i]) {
+                    long target = (address + i + 5 + word(code, i + 1, true)) & 0xffffffffL;
+                    if (mask(code, i + 1, 4, callees.nameAt(target), i, targets)) {
+                        i += 4;
+                    }
+                }
+            }
+        } else if (Architecture.ARM == architecture) {
+            for (int i = 0; i + 3 < code.length; i += 4) {
+                int w = word(code, i, little);
+                if (0x0a == ((w >>> 24) & 0x0f) || 0x0b == ((w >>> 24) & 0x0f)) {
+                    long target = (address + i + 8 + (((w << 8) >> 8) << 2)) & 0xffffffffL;
+                    mask(code, little ? i : i + 1, 3, callees.nameAt(target), i, targets);
+                }
+            }
+        } else if (Architecture.MIPS == architecture || Architecture.PIC32 == architecture) {
+            for (int i = 0; i + 3 < code.length; i += 4) {
+                int w = word(code, i, little);
+                int op = w >>> 26;
+                if (2 == op || 3 == op) {
+                    long target = ((address + i + 4) & 0xf0000000L) | ((w & 0x3ffffffL) << 2);
+                    int high = little ? i + 3 : i;
+                    if (mask(code, little ? i : i + 1, 3, callees.nameAt(target), i, targets)) {
+                        code[high] &= (byte) 0xfc;
+                    }
+                }
+            }
+        }
+        byte[] size = (code.length + "\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] names = targets.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] form = new byte[size.length + code.length + names.length];
+        System.arraycopy(size, 0, form, 0, size.length);
+        System.arraycopy(code, 0, form, size.length, code.length);
+        System.arraycopy(names, 0, form, size.length + code.length, names.length);
+        return form;
+    }
+
+    /**
+     * Read a 32-bit word.
+     * 
+     * @param code
+     *            the bytes.
+     * @param at
+     *            the offset of the word.
+     * @param little
+     *            true for little endian.
+     * @return the word.
+     */
+    private static int word(final byte[] code, final int at, final boolean little) {
+        int w = 0;
+        for (int k = 0; k < 4; k++) {
+            w |= (code[little ? at + k : at + 3 - k] & 0xff) << (8 * k);
+        }
+        return w;
+    }
+
+    /**
+     * Mask the operand of a call or jump if its target is a function.
+     * 
+     * @param code
+     *            the bytes.
+     * @param from
+     *            the offset of the operand bytes.
+     * @param length
+     *            the number of operand bytes.
+     * @param callee
+     *            the name of the target, null if not a function.
+     * @param at
+     *            the offset of the instruction.
+     * @param targets
+     *            receives the offset and the name of the target.
+     * @return true if masked.
+     */
+    private static boolean mask(final byte[] code, final int from, final int length, final String callee,
+            final int at, final StringBuilder targets) {
+        if (null == callee) {
+            return false;
+        }
+        for (int k = 0; k < length; k++) {
+            code[from + k] = 0;
+        }
+        targets.append('\n').append(at).append(' ').append(callee);
+        return true;
+    }
+
+    /**
+     * Compute a digest.
+     * 
+     * @param content
+     *            the content.
+     * @return the digest.
+     */
+    private static byte[] digest(final ByteBuffer content) {
+        try {
+            MessageDigest md = MessageDigest.getInstance(DIGEST);
+            md.update(content);
+            return md.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name + "@0x" + Long.toHexString(address) + "+0x" + Integer.toHexString(getSize());
+    }
+}
@@ -0,0 +1,227 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.analysis;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import hu.keve.retdecjava.binding.AbstractDecompilationRequest.FileFormat;
+
+/**
+ * The functions of an ELF executable, read from its symbol table. The static
+ * symbol table is used when present, the dynamic one otherwise.
+ */
+public final class FunctionTable {
+    /** ELF section type of the static symbol table. */
+    private static final int SHT_SYMTAB = 2;
+    /** ELF section type of the dynamic symbol table. */
+    private static final int SHT_DYNSYM = 11;
+    /** ELF symbol type of functions. */
+    private static final int STT_FUNC = 2;
+
+    /**
+     * The functions by name, in address order.
+     */
+    private final Map<String, FunctionSymbol> functions;
+    /**
+     * The names of the functions by address.
+     */
+    private final Map<Long, String> names = new HashMap<Long, String>();
+
+    /**
+     * Construct a table.
+     * 
+     * @param functions
+     *            the functions by name, in address order.
+     */
+    FunctionTable(final Map<String, FunctionSymbol> functions) {
+        this.functions = Collections.unmodifiableMap(functions);
+        for (FunctionSymbol f : functions.values()) {
+            if (!names.containsKey(f.getAddress())) {
+                names.put(f.getAddress(), f.getName());
+            }
+        }
+    }
+
+    /**
+     * Read the functions of an executable.
+     * 
+     * @param content
+     *            the content of the file, starting at its position.
+     * @return the table, empty if the executable has no symbols or is not an
+     *         ELF file.
+     */
+    public static FunctionTable parse(final ByteBuffer content) {
+        ExecutableHeader header = ExecutableHeader.parse(content);
+        SectionTable sections = SectionTable.parse(content);
+        List<FunctionSymbol> found = new ArrayList<FunctionSymbol>();
+        if (null != header && FileFormat.ELF == header.getFileFormat()) {
+            ByteBuffer b = content.slice().order(ExecutableHeader.byteOrder(header.getEndianness()));
+            try {
+                parseElf(b, header, sections, found);
+            } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+                // truncated or malformed table, keep what was read.
+            }
+        }
+        Collections.sort(found, new Comparator<FunctionSymbol>() {
+            @Override
+            public int compare(final FunctionSymbol o1, final FunctionSymbol o2) {
+                return Long.compare(o1.getAddress(), o2.getAddress());
+            }
+        });
+        Map<String, FunctionSymbol> functions = new LinkedHashMap<String, FunctionSymbol>();
+        for (FunctionSymbol f : found) {
+            if (!functions.containsKey(f.getName())) {
+                functions.put(f.getName(), f);
+            }
+        }
+        return new FunctionTable(functions);
+    }
+
+    /**
+     * Read the function symbols of an ELF file.
+     * 
+     * @param b
+     *            the content.
+     * @param header
+     *            the header of the file.
+     * @param sections
+     *            the sections of the file.
+     * @param found
+     *            receives the functions.
+     */
+    private static void parseElf(final ByteBuffer b, final ExecutableHeader header, final SectionTable sections,
+            final List<FunctionSymbol> found) {
+        boolean elf64 = 64 == header.getBits();
+        long shoff = elf64 ? b.getLong(40) : b.getInt(32) & 0xffffffffL;
+        int shentsize = b.getShort(elf64 ? 58 : 46) & 0xffff;
+        int shnum = b.getShort(elf64 ? 60 : 48) & 0xffff;
+        if (0 == shoff) {
+            return;
+        }
+        int symtab = -1;
+        for (int i = 0; i < shnum; i++) {
+            int type = b.getInt((int) shoff + i * shentsize + 4);
+            if (SHT_SYMTAB == type || (SHT_DYNSYM == type && symtab < 0)) {
+                symtab = i;
+            }
+        }
+        if (symtab < 0) {
+            return;
+        }
+        int sh = (int) shoff + symtab * shentsize;
+        long offset = SectionTable.elfSectionOffset(b, elf64, sh);
+        long size = elf64 ? b.getLong(sh + 32) : b.getInt(sh + 20) & 0xffffffffL;
+        int link = b.getInt(sh + (elf64 ? 40 : 24));
+        long entsize = elf64 ? b.getLong(sh + 56) : b.getInt(sh + 36) & 0xffffffffL;
+        if (0 == entsize) {
+            entsize = elf64 ? 24 : 16;
+        }
+        long strtab = SectionTable.elfSectionOffset(b, elf64, (int) shoff + link * shentsize);
+        for (long sym = offset; sym + entsize <= offset + size; sym += entsize) {
+            int s = (int) sym;
+            int info = b.get(s + (elf64 ? 4 : 12)) & 0xff;
+            int shndx = b.getShort(s + (elf64 ? 6 : 14)) & 0xffff;
+            long value = elf64 ? b.getLong(s + 8) : b.getInt(s + 4) & 0xffffffffL;
+            long symSize = elf64 ? b.getLong(s + 16) : b.getInt(s + 8) & 0xffffffffL;
+            if (STT_FUNC != (info & 0xf) || 0 == shndx || 0 == symSize) {
+                continue;
+            }
+            String name = SectionTable.cString(b, strtab + b.getInt(s), 1024);
+            ByteBuffer bytes = bytesAt(b, sections, value, symSize);
+            if (!name.isEmpty() && null != bytes) {
+                found.add(new FunctionSymbol(name, value, bytes, header.getArchitecture(), header.getEndianness()));
+            }
+        }
+    }
+
+    /**
+     * Get the bytes at a virtual address.
+     * 
+     * @param b
+     *            the content.
+     * @param sections
+     *            the sections of the file.
+     * @param address
+     *            the address.
+     * @param size
+     *            the number of bytes.
+     * @return the bytes, null if they are not all in the file.
+     */
+    private static ByteBuffer bytesAt(final ByteBuffer b, final SectionTable sections, final long address,
+            final long size) {
+        for (Section s : sections.getSections()) {
+            if (s.getOffset() >= 0 && address >= s.getAddress() && address + size <= s.getAddress() + s.getSize()) {
+                long from = s.getOffset() + address - s.getAddress();
+                if (from + size > b.limit()) {
+                    return null;
+                }
+                ByteBuffer d = b.duplicate();
+                d.position((int) from).limit((int) (from + size));
+                return d.slice();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the functions.
+     * 
+     * @return the functions by name, in address order.
+     */
+    public Map<String, FunctionSymbol> getFunctions() {
+        return functions;
+    }
+
+    /**
+     * Get a function.
+     * 
+     * @param name
+     *            the name.
+     * @return the function, null if not found.
+     */
+    public FunctionSymbol get(final String name) {
+        return functions.get(name);
+    }
+
+    /**
+     * Get the name of the function starting at an address.
+     * 
+     * @param address
+     *            the address.
+     * @return the name, null if no function starts there.
+     */
+    public String nameAt(final long address) {
+        return names.get(address);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.analysis;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import hu.keve.retdecjava.binding.AbstractDecompilationRequest;
+import hu.keve.retdecjava.binding.AbstractDecompilationRequest.Architecture;
+import hu.keve.retdecjava.binding.BinDecompilationRequest;
+import hu.keve.retdecjava.binding.RawDecompilationRequest;
+
+/**
+ * Completes decompilation requests from the header of their input before
+ * submission. Bin requests get their architecture filled in, inputs that are
+ * not executables are rejected, and settings contradicting the header are
+ * reported as warnings.
+ */
+public final class HeaderSniffer {
+    /**
+     * Utility class.
+     */
+    private HeaderSniffer() {
+    }
+
+    /**
+     * Sniff the input of a request and complete the request.
+     * 
+     * @param request
+     *            the request, modified in place.
+     * @param warnings
+     *            receives the mismatches found.
+     * @return the header of the input, null for requests whose input has no
+     *         header (c sources, raw machine code).
+     * @throws IOException
+     *             if the input cannot be read.
+     * @throws UnsupportedInputException
+     *             if the input of a bin request is not a supported executable.
+     */
+    public static ExecutableHeader sniff(final AbstractDecompilationRequest request, final List<String> warnings)
+            throws IOException, UnsupportedInputException {
+        switch (request.getMode()) {
+        case BIN:
+            return sniffBin((BinDecompilationRequest) request, warnings);
+        case RAW:
+            ExecutableHeader header = ExecutableHeader.parse(request.getMappedInput().getBuffer());
+            if (null != header) {
+                warnings.add("Raw input " + request.getInput() + " has a " + header + " header, use bin mode");
+                RawDecompilationRequest raw = (RawDecompilationRequest) request;
+                if (null != raw.getRawEndian() && raw.getRawEndian() != header.getEndianness()) {
+                    warnings.add("Endianness " + raw.getRawEndian() + " contradicts header " + header);
+                }
+            }
+            return null;
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Sniff the input of a request and complete the request, discarding
+     * warnings.
+     * 
+     * @param request
+     *            the request, modified in place.
+     * @return the header of the input, null for requests whose input has no
+     *         header.
+     * @throws IOException
+     *             if the input cannot be read.
+     * @throws UnsupportedInputException
+     *             if the input of a bin request is not a supported executable.
+     */
+    public static ExecutableHeader sniff(final AbstractDecompilationRequest request)
+            throws IOException, UnsupportedInputException {
+        return sniff(request, new ArrayList<String>());
+    }
+
+    /**
+     * Sniff the input of a bin request.
+     * 
+     * @param request
+     *            the request, modified in place.
+     * @param warnings
+     *            receives the mismatches found.
+     * @return the header.
+     * @throws IOException
+     *             if the input cannot be read.
+     * @throws UnsupportedInputException
+     *             if the input is not a supported executable.
+     */
+    private static ExecutableHeader sniffBin(final BinDecompilationRequest request, final List<String> warnings)
+            throws IOException, UnsupportedInputException {
+        ExecutableHeader header = ExecutableHeader.parse(request.getMappedInput().getBuffer());
+        if (null == header) {
+            throw new UnsupportedInputException(request.getInput() + " is neither ELF nor PE");
+        }
+        if (!header.isExecutable()) {
+            throw new UnsupportedInputException(request.getInput() + " is not an executable: " + header);
+        }
+        if (32 != header.getBits()) {
+            throw new UnsupportedInputException(request.getInput() + " is a " + header.getBits()
+                    + "-bit executable, only 32-bit ones can be decompiled: " + header);
+        }
+        if (null == header.getArchitecture()) {
+            throw new UnsupportedInputException(request.getInput() + " has an unsupported architecture: " + header);
+        }
+        Architecture requested = request.getArchitecture();
+        if (null == requested || Architecture.AUTO == requested) {
+            request.setArchitecture(header.getArchitecture());
+        } else if (requested != header.getArchitecture()
+                && !(Architecture.THUMB == requested && Architecture.ARM == header.getArchitecture())) {
+            warnings.add("Architecture " + requested + " contradicts header " + header);
+        }
+        return header;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.analysis;
+
+/**
+ * A section of an executable.
+ */
+public final class Section {
+    /**
+     * The name.
+     */
+    private final String name;
+    /**
+     * The virtual address.
+     */
+    private final long address;
+    /**
+     * The offset of the content in the file, -1 if it has none.
+     */
+    private final long offset;
+    /**
+     * The size in memory.
+     */
+    private final long size;
+    /**
+     * Does it contain code?
+     */
+    private final boolean code;
+
+    /**
+     * Construct a section.
+     * 
+     * @param name
+     *            the name.
+     * @param address
+     *            the virtual address.
+     * @param offset
+     *            the offset of the content in the file, -1 if it has none.
+     * @param size
+     *            the size in memory.
+     * @param code
+     *            does it contain code?
+     */
+    Section(final String name, final long address, final long offset, final long size, final boolean code) {
+        this.name = name;
+        this.address = address;
+        this.offset = offset;
+        this.size = size;
+        this.code = code;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getAddress() {
+        return address;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public boolean isCode() {
+        return code;
+    }
+
+    @Override
+    public String toString() {
+        return name + "@0x" + Long.toHexString(address) + "+0x" + Long.toHexString(size);
+    }
+}
@@ -0,0 +1,213 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.analysis;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The sections of an ELF or PE executable, read from the mapped input.
+ */
+public final class SectionTable {
+    /** ELF section flag of executable code. */
+    private static final long SHF_EXECINSTR = 0x4;
+    /** ELF section type without content in the file. */
+    private static final int SHT_NOBITS = 8;
+    /** PE section flag of code. */
+    private static final int IMAGE_SCN_CNT_CODE = 0x20;
+    /** PE section flag of executable memory. */
+    private static final int IMAGE_SCN_MEM_EXECUTE = 0x20000000;
+
+    /**
+     * The sections in file order.
+     */
+    private final List<Section> sections;
+
+    /**
+     * Construct a table.
+     * 
+     * @param sections
+     *            the sections.
+     */
+    private SectionTable(final List<Section> sections) {
+        this.sections = Collections.unmodifiableList(sections);
+    }
+
+    /**
+     * Read the section table of an executable.
+     * 
+     * @param content
+     *            the content of the file, starting at its position.
+     * @return the table, null if the content is neither ELF nor PE.
+     */
+    public static SectionTable parse(final ByteBuffer content) {
+        ExecutableHeader header = ExecutableHeader.parse(content);
+        if (null == header) {
+            return null;
+        }
+        ByteBuffer b = content.slice();
+        List<Section> sections = new ArrayList<Section>();
+        try {
+            switch (header.getFileFormat()) {
+            case ELF:
+                b.order(ExecutableHeader.byteOrder(header.getEndianness()));
+                parseElf(b, 64 == header.getBits(), sections);
+                break;
+            case PE:
+                b.order(ByteOrder.LITTLE_ENDIAN);
+                parsePe(b, sections);
+                break;
+            default:
+                return null;
+            }
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            // truncated or malformed table, keep what was read.
+        }
+        return new SectionTable(sections);
+    }
+
+    /**
+     * Read the section headers of an ELF file.
+     * 
+     * @param b
+     *            the content.
+     * @param elf64
+     *            is it a 64-bit file?
+     * @param sections
+     *            receives the sections.
+     */
+    private static void parseElf(final ByteBuffer b, final boolean elf64, final List<Section> sections) {
+        long shoff = elf64 ? b.getLong(40) : b.getInt(32) & 0xffffffffL;
+        int shentsize = b.getShort(elf64 ? 58 : 46) & 0xffff;
+        int shnum = b.getShort(elf64 ? 60 : 48) & 0xffff;
+        int shstrndx = b.getShort(elf64 ? 62 : 50) & 0xffff;
+        if (0 == shoff || shstrndx >= shnum) {
+            return;
+        }
+        long strtab = elfSectionOffset(b, elf64, (int) shoff + shstrndx * shentsize);
+        for (int i = 0; i < shnum; i++) {
+            int sh = (int) shoff + i * shentsize;
+            int nameIndex = b.getInt(sh);
+            int type = b.getInt(sh + 4);
+            long flags = elf64 ? b.getLong(sh + 8) : b.getInt(sh + 8) & 0xffffffffL;
+            long addr = elf64 ? b.getLong(sh + 16) : b.getInt(sh + 12) & 0xffffffffL;
+            long offset = elfSectionOffset(b, elf64, sh);
+            long size = elf64 ? b.getLong(sh + 32) : b.getInt(sh + 20) & 0xffffffffL;
+            sections.add(new Section(cString(b, strtab + nameIndex, 256), addr, SHT_NOBITS == type ? -1 : offset,
+                    size, 0 != (flags & SHF_EXECINSTR)));
+        }
+    }
+
+    /**
+     * Get the file offset of an ELF section.
+     * 
+     * @param b
+     *            the content.
+     * @param elf64
+     *            is it a 64-bit file?
+     * @param sh
+     *            the offset of the section header.
+     * @return the file offset of the section content.
+     */
+    static long elfSectionOffset(final ByteBuffer b, final boolean elf64, final int sh) {
+        return elf64 ? b.getLong(sh + 24) : b.getInt(sh + 16) & 0xffffffffL;
+    }
+
+    /**
+     * Read the section table of a PE file.
+     * 
+     * @param b
+     *            the content.
+     * @param sections
+     *            receives the sections.
+     */
+    private static void parsePe(final ByteBuffer b, final List<Section> sections) {
+        int pe = b.getInt(0x3c);
+        int count = b.getShort(pe + 6) & 0xffff;
+        int optionalSize = b.getShort(pe + 20) & 0xffff;
+        int optional = pe + 24;
+        boolean pe64 = 0x20b == (b.getShort(optional) & 0xffff);
+        long imageBase = pe64 ? b.getLong(optional + 24) : b.getInt(optional + 28) & 0xffffffffL;
+        int table = optional + optionalSize;
+        for (int i = 0; i < count; i++) {
+            int sh = table + i * 40;
+            long virtualSize = b.getInt(sh + 8) & 0xffffffffL;
+            long virtualAddress = b.getInt(sh + 12) & 0xffffffffL;
+            long rawSize = b.getInt(sh + 16) & 0xffffffffL;
+            long rawPointer = b.getInt(sh + 20) & 0xffffffffL;
+            int characteristics = b.getInt(sh + 36);
+            sections.add(new Section(cString(b, sh, 8), imageBase + virtualAddress, 0 == rawSize ? -1 : rawPointer,
+                    0 == virtualSize ? rawSize : virtualSize,
+                    0 != (characteristics & (IMAGE_SCN_CNT_CODE | IMAGE_SCN_MEM_EXECUTE))));
+        }
+    }
+
+    /**
+     * Read a NUL terminated ASCII string.
+     * 
+     * @param b
+     *            the content.
+     * @param offset
+     *            the offset of the string.
+     * @param max
+     *            the maximum length.
+     * @return the string.
+     */
+    static String cString(final ByteBuffer b, final long offset, final int max) {
+        StringBuilder sb = new StringBuilder();
+        for (long i = offset; i < offset + max && i < b.limit(); i++) {
+            byte c = b.get((int) i);
+            if (0 == c) {
+                break;
+            }
+            sb.append((char) (c & 0xff));
+        }
+        return sb.toString();
+    }
+
+    public List<Section> getSections() {
+        return sections;
+    }
+
+    /**
+     * Get the sections containing code.
+     * 
+     * @return the code sections in file order.
+     */
+    public List<Section> getCodeSections() {
+        List<Section> code = new ArrayList<Section>();
+        for (Section s : sections) {
+            if (s.isCode() && s.getSize() > 0) {
+                code.add(s);
+            }
+        }
+        return code;
+    }
+}
@@ -27,6 +27,7 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package hu.keve.retdecjava.binding;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -180,6 +181,15 @@ public abstract class AbstractDecompilationRequest implements RetdecFormRequest
      * Generate archive?
      */
     private Boolean generateArchive;
+    /**
+     * The mapping of the input file, shared by upload, hashing and sniffing.
+     */
+    private transient MappedFile mappedInput;
+    /**
+     * The limit of the upload of the input besides the global one, null if
+     * none; shared by the copies of the request.
+     */
+    private transient TokenBucket uploadLimit;
 
     /**
      * Construct a decompilation request with the only required field input set.
@@ -194,6 +204,31 @@ public abstract class AbstractDecompilationRequest implements RetdecFormRequest
         this.input = input;
     }
 
+    /**
+     * Construct a decompilation request with the settings of another one. The
+     * mapping of the input is shared.
+     * 
+     * @param other
+     *            the request to copy.
+     */
+    protected AbstractDecompilationRequest(final AbstractDecompilationRequest other) {
+        this.mode = other.mode;
+        synchronized (other) {
+            this.input = other.input;
+            this.mappedInput = other.mappedInput;
+        }
+        this.uploadLimit = other.uploadLimit;
+        this.targetLanguage = other.targetLanguage;
+        this.graphFormat = other.graphFormat;
+        this.decompVarNames = other.decompVarNames;
+        this.decompOptimizations = other.decompOptimizations;
+        this.decompUnreachableFunctions = other.decompUnreachableFunctions;
+        this.decompEmitAddress = other.decompEmitAddress;
+        this.generateCallGraph = other.generateCallGraph;
+        this.generateControlFlowGraphs = other.generateControlFlowGraphs;
+        this.generateArchive = other.generateArchive;
+    }
+
     /**
      * Retrieve the form data.
      * 
@@ -221,12 +256,56 @@ public abstract class AbstractDecompilationRequest implements RetdecFormRequest
         return mode;
     }
 
-    public final File getInput() {
+    public final synchronized File getInput() {
         return input;
     }
 
-    public final void setInput(final File input) {
+    public final synchronized void setInput(final File input) {
         this.input = input;
+        this.mappedInput = null;
+    }
+
+    /**
+     * Get the input file mapped into memory. The mapping is created on first
+     * use and shared by everything reading the input, so the file is read
+     * only once.
+     * 
+     * @return the mapped input.
+     * @throws IOException
+     *             if the input cannot be mapped.
+     */
+    public final synchronized MappedFile getMappedInput() throws IOException {
+        if (null == mappedInput) {
+            mappedInput = MappedFile.map(input);
+        }
+        return mappedInput;
+    }
+
+    /**
+     * Set the input from a mapping, e.g. a part of a larger file.
+     * 
+     * @param mapped
+     *            the mapped input.
+     */
+    public final synchronized void setMappedInput(final MappedFile mapped) {
+        this.input = mapped.getFile();
+        this.mappedInput = mapped;
+    }
+
+    public final TokenBucket getUploadLimit() {
+        return uploadLimit;
+    }
+
+    /**
+     * Limit the upload of the input, in addition to the global limit of the
+     * service.
+     * 
+     * @param uploadLimit
+     *            the bucket, possibly shared with other requests; null for no
+     *            limit of its own.
+     */
+    public final void setUploadLimit(final TokenBucket uploadLimit) {
+        this.uploadLimit = uploadLimit;
     }
 
     public final TargetLanguage getTargetLanguage() {
@@ -82,6 +82,21 @@ public final class BinDecompilationRequest extends AbstractDecompilationRequest
         super(DecompilationRequestMode.BIN, input);
     }
 
+    /**
+     * Construct a bin decompilation request with the settings of another one.
+     * 
+     * @param other
+     *            the request to copy.
+     */
+    public BinDecompilationRequest(final BinDecompilationRequest other) {
+        super(other);
+        this.architecture = other.architecture;
+        this.selDecompFuncs = other.selDecompFuncs;
+        this.selDecompRanges = other.selDecompRanges;
+        this.selDecompDecoding = other.selDecompDecoding;
+        this.pdb = other.pdb;
+    }
+
     @Override
     public Map<String, Object> getFormData() {
         Map<String, Object> map = super.getFormData();
@@ -0,0 +1,303 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.binding;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Cancellation of a decompilation, by request or by deadline. The services
+ * wait on it instead of sleeping, check it between steps and register the
+ * streams they read from it, so ending it stops polling and aborts downloads
+ * right away. A cancellation ends once; the outcome tells why.
+ */
+public final class Cancellation {
+    /**
+     * Why a decompilation ended early.
+     */
+    public enum Outcome {
+        /** it was cancelled. */
+        CANCELLED, /** its deadline passed. */
+        TIMED_OUT;
+    }
+
+    /**
+     * The timer enforcing the deadlines.
+     */
+    private static final ScheduledExecutorService TIMER;
+
+    static {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread t = Executors.defaultThreadFactory().newThread(r);
+                t.setName("retdec-deadline");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        TIMER = timer;
+    }
+
+    /**
+     * The cancellations of the results that have none of their own, guarded by
+     * itself.
+     */
+    private static final Map<DecompilationResult, Cancellation> DETACHED
+            = new WeakHashMap<DecompilationResult, Cancellation>();
+
+    /**
+     * The outcome, null while not ended.
+     */
+    private final AtomicReference<Outcome> outcome = new AtomicReference<Outcome>();
+    /**
+     * The resources closed when ending, guarded by this.
+     */
+    private final Set<Closeable> resources = new LinkedHashSet<Closeable>();
+    /**
+     * The deadline, System.currentTimeMillis, guarded by this.
+     */
+    private long deadline = Long.MAX_VALUE;
+    /**
+     * The timer task ending at the deadline, guarded by this.
+     */
+    private ScheduledFuture<?> timeout;
+
+    /**
+     * Get the cancellation of a result. A result that does not offer one, see
+     * {@link ExtendedDecompilationResult}, gets one of its own, kept as long as
+     * the result is referenced.
+     * 
+     * @param res
+     *            the result.
+     * @return the cancellation.
+     */
+    public static Cancellation of(final DecompilationResult res) {
+        if (res instanceof ExtendedDecompilationResult) {
+            return ((ExtendedDecompilationResult) res).getCancellation();
+        }
+        synchronized (DETACHED) {
+            Cancellation cancellation = DETACHED.get(res);
+            if (null == cancellation) {
+                cancellation = new Cancellation();
+                DETACHED.put(res, cancellation);
+            }
+            return cancellation;
+        }
+    }
+
+    /**
+     * Cancel. Nothing happens if already ended.
+     */
+    public void cancel() {
+        end(Outcome.CANCELLED);
+    }
+
+    /**
+     * Set the time after which the decompilation times out.
+     * 
+     * @param millis
+     *            the time from now in milliseconds.
+     */
+    public void setTimeout(final long millis) {
+        setDeadline(System.currentTimeMillis() + millis);
+    }
+
+    /**
+     * Set the deadline, replacing an earlier one.
+     * 
+     * @param deadline
+     *            the time the decompilation times out,
+     *            System.currentTimeMillis.
+     */
+    public synchronized void setDeadline(final long deadline) {
+        if (null != outcome.get()) {
+            return;
+        }
+        this.deadline = deadline;
+        if (null != timeout) {
+            timeout.cancel(false);
+        }
+        timeout = TIMER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                end(Outcome.TIMED_OUT);
+            }
+        }, Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Drop the deadline without ending, e.g. when the decompilation finished
+     * in time. A later deadline arms the timer again.
+     */
+    public synchronized void disarm() {
+        deadline = Long.MAX_VALUE;
+        if (null != timeout) {
+            timeout.cancel(false);
+            timeout = null;
+        }
+    }
+
+    /**
+     * Get the outcome.
+     * 
+     * @return the outcome, null while not ended.
+     */
+    public Outcome getOutcome() {
+        return outcome.get();
+    }
+
+    /**
+     * Tell whether ended.
+     * 
+     * @return true if cancelled or timed out.
+     */
+    public boolean isEnded() {
+        return null != outcome.get();
+    }
+
+    /**
+     * Throw if ended.
+     * 
+     * @throws DecompilationCancelledException
+     *             if ended.
+     */
+    public void check() {
+        Outcome o = outcome.get();
+        if (null != o) {
+            throw new DecompilationCancelledException(o);
+        }
+    }
+
+    /**
+     * Wait unless ended meanwhile.
+     * 
+     * @param millis
+     *            the time to wait.
+     * @throws InterruptedException
+     *             when the waiting was interrupted.
+     * @throws DecompilationCancelledException
+     *             if ended before or while waiting.
+     */
+    public void sleep(final long millis) throws InterruptedException {
+        long until = System.currentTimeMillis() + millis;
+        synchronized (this) {
+            long now;
+            while (null == outcome.get() && (now = System.currentTimeMillis()) < until) {
+                wait(until - now);
+            }
+        }
+        check();
+    }
+
+    /**
+     * Register a resource to be closed when ending, e.g. the stream of a
+     * download. It is closed right away if already ended.
+     * 
+     * @param resource
+     *            the resource.
+     */
+    public void register(final Closeable resource) {
+        synchronized (this) {
+            if (null == outcome.get()) {
+                resources.add(resource);
+                return;
+            }
+        }
+        closeQuietly(resource);
+    }
+
+    /**
+     * Unregister a resource no longer in use.
+     * 
+     * @param resource
+     *            the resource.
+     */
+    public synchronized void unregister(final Closeable resource) {
+        resources.remove(resource);
+    }
+
+    /**
+     * End, waking the waiting threads and closing the registered resources.
+     * 
+     * @param o
+     *            the outcome.
+     */
+    private void end(final Outcome o) {
+        if (!outcome.compareAndSet(null, o)) {
+            return;
+        }
+        List<Closeable> toClose;
+        synchronized (this) {
+            toClose = new ArrayList<Closeable>(resources);
+            resources.clear();
+            if (null != timeout) {
+                timeout.cancel(false);
+            }
+            notifyAll();
+        }
+        for (Closeable c : toClose) {
+            closeQuietly(c);
+        }
+    }
+
+    /**
+     * Close a resource, ignoring failures.
+     * 
+     * @param resource
+     *            the resource.
+     */
+    private static void closeQuietly(final Closeable resource) {
+        try {
+            resource.close();
+        } catch (IOException | RuntimeException e) {
+            // the reader of the resource fails instead.
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        Outcome o = outcome.get();
+        return null != o ? o.toString()
+                : Long.MAX_VALUE == deadline ? "active" : "active until " + new Date(deadline);
+    }
+}
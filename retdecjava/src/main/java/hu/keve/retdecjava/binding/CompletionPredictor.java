@@ -0,0 +1,434 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.binding;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Predictor of the run time of decompilations, learning from the jobs seen.
+ * Jobs are grouped by mode, optimizations and whether graphs are generated;
+ * within a group the run time is fitted linearly to the input size. The
+ * phases a job went through are remembered as fractions of its run time, so a
+ * running job's prediction is refined by the phase it reached.
+ * <p>
+ * The prediction drives the polling: no polls are made until shortly before
+ * the expected finish, polls are dense around it and back off again if the
+ * job overruns. Jobs without prediction are polled at the fallback interval.
+ * Jobs are identified by an opaque key, e.g. their status URL. Jobs whose end
+ * is never recorded, e.g. abandoned ones, are forgotten once
+ * {@link #MAX_JOBS} newer jobs are running.
+ */
+public final class CompletionPredictor {
+    /**
+     * The part of the predicted run time that is not polled.
+     */
+    private static final double QUIET_FRACTION = 0.8;
+    /**
+     * The part of the predicted run time after which polling backs off.
+     */
+    private static final double OVERRUN_FRACTION = 1.2;
+    /**
+     * The poll interval around the predicted finish.
+     */
+    static final long DENSE_INTERVAL_MS = 2 * 1000;
+    /**
+     * The longest time without poll, so failing jobs are still noticed.
+     */
+    static final long MAX_QUIET_MS = 2 * 60 * 1000;
+    /**
+     * The smallest phase fraction a run time is extrapolated from.
+     */
+    private static final double MIN_PHASE_FRACTION = 0.05;
+    /**
+     * Number of running jobs remembered; beyond it the oldest is forgotten.
+     */
+    static final int MAX_JOBS = 10000;
+
+    /**
+     * Learned run times of a group of jobs.
+     */
+    private static final class Model {
+        /**
+         * Number of jobs.
+         */
+        private long n;
+        /**
+         * Sum of the input sizes.
+         */
+        private double sx;
+        /**
+         * Sum of the run times.
+         */
+        private double sy;
+        /**
+         * Sum of the squared input sizes.
+         */
+        private double sxx;
+        /**
+         * Sum of the products of input sizes and run times.
+         */
+        private double sxy;
+        /**
+         * Sum and count of the fraction of the run time at which each phase
+         * was first seen.
+         */
+        private final Map<String, double[]> phases = new HashMap<String, double[]>();
+
+        /**
+         * Learn a job.
+         * 
+         * @param size
+         *            the input size.
+         * @param millis
+         *            the run time.
+         * @param phaseOffsets
+         *            the time each phase was first seen.
+         */
+        void add(final long size, final long millis, final Map<String, Long> phaseOffsets) {
+            n++;
+            sx += size;
+            sy += millis;
+            sxx += (double) size * size;
+            sxy += (double) size * millis;
+            if (millis > 0) {
+                for (Map.Entry<String, Long> e : phaseOffsets.entrySet()) {
+                    double[] f = phases.get(e.getKey());
+                    if (null == f) {
+                        f = new double[2];
+                        phases.put(e.getKey(), f);
+                    }
+                    f[0] += Math.min(1.0, (double) e.getValue() / millis);
+                    f[1]++;
+                }
+            }
+        }
+
+        /**
+         * Predict the run time.
+         * 
+         * @param size
+         *            the input size.
+         * @return the run time, negative if nothing is known.
+         */
+        double predict(final long size) {
+            if (0 == n) {
+                return -1;
+            }
+            double mean = sy / n;
+            double var = sxx - sx * sx / n;
+            if (n < 2 || var <= 0) {
+                return mean;
+            }
+            double slope = (sxy - sx * sy / n) / var;
+            double p = mean + slope * (size - sx / n);
+            return p > 0 ? p : mean;
+        }
+
+        /**
+         * Get the mean fraction of the run time at which a phase is seen.
+         * 
+         * @param phase
+         *            the phase.
+         * @return the fraction, 0 if unknown.
+         */
+        double fraction(final String phase) {
+            double[] f = phases.get(phase);
+            return null == f ? 0 : f[0] / f[1];
+        }
+    }
+
+    /**
+     * A running job.
+     */
+    private static final class Job {
+        /**
+         * The group.
+         */
+        private final String group;
+        /**
+         * The input size.
+         */
+        private final long size;
+        /**
+         * When it was submitted, System.currentTimeMillis.
+         */
+        private final long start;
+        /**
+         * The time each phase was first seen, relative to the start.
+         */
+        private final Map<String, Long> phaseOffsets = new LinkedHashMap<String, Long>();
+        /**
+         * The run time extrapolated from the latest phase, negative if none.
+         */
+        private double phaseEstimate = -1;
+
+        /**
+         * Construct a job.
+         * 
+         * @param group
+         *            the group.
+         * @param size
+         *            the input size.
+         * @param start
+         *            when it was submitted.
+         */
+        Job(final String group, final long size, final long start) {
+            this.group = group;
+            this.size = size;
+            this.start = start;
+        }
+    }
+
+    /**
+     * The models by group.
+     */
+    private final Map<String, Model> models = new HashMap<String, Model>();
+    /**
+     * The model of all jobs.
+     */
+    private final Model overall = new Model();
+    /**
+     * The running jobs by key, oldest first.
+     */
+    private final Map<String, Job> jobs = new LinkedHashMap<String, Job>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Job> eldest) {
+            return size() > MAX_JOBS;
+        }
+    };
+
+    /**
+     * Get the group of a request.
+     * 
+     * @param request
+     *            the request.
+     * @return the group.
+     */
+    static String group(final AbstractDecompilationRequest request) {
+        boolean graphs = Boolean.TRUE.equals(request.getGenerateCallGraph())
+                || Boolean.TRUE.equals(request.getGenerateControlFlowGraphs());
+        return request.getMode() + "/" + request.getDecompOptimizations() + "/" + (graphs ? "graphs" : "plain");
+    }
+
+    /**
+     * Record the submission of a job.
+     * 
+     * @param key
+     *            the key of the job.
+     * @param request
+     *            the request.
+     * @throws IOException
+     *             if the input cannot be mapped.
+     */
+    public void submitted(final String key, final AbstractDecompilationRequest request) throws IOException {
+        submitted(key, group(request), request.getMappedInput().getSize(), System.currentTimeMillis());
+    }
+
+    /**
+     * Record the submission of a job.
+     * 
+     * @param key
+     *            the key of the job.
+     * @param group
+     *            the group.
+     * @param size
+     *            the input size.
+     * @param now
+     *            the current time.
+     */
+    synchronized void submitted(final String key, final String group, final long size, final long now) {
+        jobs.put(key, new Job(group, size, now));
+    }
+
+    /**
+     * Record that a job reached a phase.
+     * 
+     * @param key
+     *            the key of the job.
+     * @param phase
+     *            the phase.
+     */
+    public void phase(final String key, final StatusPhase phase) {
+        phase(key, phase.getPart() + ":" + phase.getName(), System.currentTimeMillis());
+    }
+
+    /**
+     * Record that a job reached a phase.
+     * 
+     * @param key
+     *            the key of the job.
+     * @param phase
+     *            the name of the phase.
+     * @param now
+     *            the current time.
+     */
+    synchronized void phase(final String key, final String phase, final long now) {
+        Job job = jobs.get(key);
+        if (null == job || job.phaseOffsets.containsKey(phase)) {
+            return;
+        }
+        long offset = now - job.start;
+        job.phaseOffsets.put(phase, offset);
+        Model model = models.get(job.group);
+        double f = null == model ? 0 : model.fraction(phase);
+        if (f >= MIN_PHASE_FRACTION) {
+            job.phaseEstimate = offset / f;
+        }
+    }
+
+    /**
+     * Record the end of a job. Only successful jobs are learned.
+     * 
+     * @param key
+     *            the key of the job.
+     * @param succeeded
+     *            did it succeed?
+     */
+    public void finished(final String key, final boolean succeeded) {
+        finished(key, succeeded, System.currentTimeMillis());
+    }
+
+    /**
+     * Record the end of a job.
+     * 
+     * @param key
+     *            the key of the job.
+     * @param succeeded
+     *            did it succeed?
+     * @param now
+     *            the current time.
+     */
+    synchronized void finished(final String key, final boolean succeeded, final long now) {
+        Job job = jobs.remove(key);
+        if (null == job || !succeeded) {
+            return;
+        }
+        Model model = models.get(job.group);
+        if (null == model) {
+            model = new Model();
+            models.put(job.group, model);
+        }
+        long millis = now - job.start;
+        model.add(job.size, millis, job.phaseOffsets);
+        overall.add(job.size, millis, job.phaseOffsets);
+    }
+
+    /**
+     * Predict the run time of a job. Must hold the lock.
+     * 
+     * @param job
+     *            the job.
+     * @return the run time in milliseconds, negative if unknown.
+     */
+    private double predict(final Job job) {
+        if (job.phaseEstimate >= 0) {
+            return job.phaseEstimate;
+        }
+        Model model = models.get(job.group);
+        double p = null == model ? -1 : model.predict(job.size);
+        return p >= 0 ? p : overall.predict(job.size);
+    }
+
+    /**
+     * Get the time to wait before polling a job.
+     * 
+     * @param key
+     *            the key of the job.
+     * @param fallback
+     *            the interval used without prediction, also the longest
+     *            interval after an overrun.
+     * @return the time in milliseconds.
+     */
+    public long nextPollDelay(final String key, final long fallback) {
+        return nextPollDelay(key, fallback, System.currentTimeMillis());
+    }
+
+    /**
+     * Get the time to wait before polling a job.
+     * 
+     * @param key
+     *            the key of the job.
+     * @param fallback
+     *            the interval used without prediction.
+     * @param now
+     *            the current time.
+     * @return the time in milliseconds.
+     */
+    synchronized long nextPollDelay(final String key, final long fallback, final long now) {
+        Job job = jobs.get(key);
+        double predicted = null == job ? -1 : predict(job);
+        if (predicted < 0) {
+            return fallback;
+        }
+        long elapsed = now - job.start;
+        long quietEnd = (long) (predicted * QUIET_FRACTION);
+        if (elapsed < quietEnd) {
+            return Math.max(DENSE_INTERVAL_MS, Math.min(MAX_QUIET_MS, quietEnd - elapsed));
+        }
+        long overrun = elapsed - (long) (predicted * OVERRUN_FRACTION);
+        if (overrun <= 0) {
+            return DENSE_INTERVAL_MS;
+        }
+        return Math.max(DENSE_INTERVAL_MS, Math.min(fallback, overrun / 2));
+    }
+
+    /**
+     * Get the expected finish of a job.
+     * 
+     * @param key
+     *            the key of the job.
+     * @return the time, System.currentTimeMillis, negative if unknown.
+     */
+    public synchronized long getEta(final String key) {
+        Job job = jobs.get(key);
+        double predicted = null == job ? -1 : predict(job);
+        return predicted < 0 ? -1 : job.start + (long) predicted;
+    }
+
+    /**
+     * Get the expected finish of the running jobs.
+     * 
+     * @return the times, System.currentTimeMillis, by key of the jobs with
+     *         a prediction.
+     */
+    public synchronized Map<String, Long> getEtas() {
+        Map<String, Long> etas = new LinkedHashMap<String, Long>();
+        for (String key : jobs.keySet()) {
+            long eta = getEta(key);
+            if (eta >= 0) {
+                etas.put(key, eta);
+            }
+        }
+        return Collections.unmodifiableMap(etas);
+    }
+}
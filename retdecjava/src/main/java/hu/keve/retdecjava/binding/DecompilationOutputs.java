@@ -0,0 +1,132 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.binding;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import hu.keve.retdecjava.binding.DecompilationResult.DecompilationOutput;
+
+/**
+ * The outputs of a finished decompilation as lazy {@link OutputHandle}s.
+ * Outputs are downloaded only when their handle is opened, outputs nobody
+ * opens are never downloaded.
+ */
+public final class DecompilationOutputs {
+    /**
+     * The final status of the decompilation.
+     */
+    private final StatusResponse status;
+    /**
+     * The top level outputs.
+     */
+    private final Map<DecompilationOutput, OutputHandle> outputs;
+    /**
+     * The nested outputs by name.
+     */
+    private final Map<DecompilationOutput, SortedMap<String, OutputHandle>> nested;
+
+    /**
+     * Construct the outputs.
+     * 
+     * @param status
+     *            the final status of the decompilation.
+     * @param outputs
+     *            the top level outputs, in the declaration order of
+     *            {@link DecompilationOutput}.
+     * @param nested
+     *            the nested outputs by name.
+     */
+    DecompilationOutputs(final StatusResponse status, final Map<DecompilationOutput, OutputHandle> outputs,
+            final Map<DecompilationOutput, SortedMap<String, OutputHandle>> nested) {
+        this.status = status;
+        this.outputs = Collections.unmodifiableMap(outputs);
+        this.nested = Collections.unmodifiableMap(nested);
+    }
+
+    public StatusResponse getStatus() {
+        return status;
+    }
+
+    /**
+     * Get the available top level outputs.
+     * 
+     * @return the handles in the declaration order of
+     *         {@link DecompilationOutput}, whatever order the service
+     *         announced them in.
+     */
+    public Map<DecompilationOutput, OutputHandle> getOutputs() {
+        return outputs;
+    }
+
+    /**
+     * Get a top level output.
+     * 
+     * @param key
+     *            the kind of output.
+     * @return the handle, null if the output is not available.
+     */
+    public OutputHandle get(final DecompilationOutput key) {
+        return outputs.get(key);
+    }
+
+    /**
+     * Get the available nested outputs of a kind.
+     * 
+     * @param key
+     *            the kind of output.
+     * @return the handles by name, empty if none are available.
+     */
+    public SortedMap<String, OutputHandle> getNested(final DecompilationOutput key) {
+        SortedMap<String, OutputHandle> handles = nested.get(key);
+        if (null == handles) {
+            return Collections.unmodifiableSortedMap(new TreeMap<String, OutputHandle>());
+        }
+        return handles;
+    }
+
+    /**
+     * Get the kinds of nested outputs available.
+     * 
+     * @return the nested outputs by kind.
+     */
+    public Map<DecompilationOutput, SortedMap<String, OutputHandle>> getNested() {
+        return nested;
+    }
+
+    /**
+     * Create an empty map for top level outputs.
+     * 
+     * @return the map.
+     */
+    static Map<DecompilationOutput, OutputHandle> newOutputMap() {
+        return new EnumMap<DecompilationOutput, OutputHandle>(DecompilationOutput.class);
+    }
+}
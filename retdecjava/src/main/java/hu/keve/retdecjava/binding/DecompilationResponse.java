@@ -41,15 +41,29 @@ public final class DecompilationResponse extends AbstractLinksResponse {
     }
 
     /**
-     * Construct DecompilationResponse with id of a previous decompilation.
+     * Construct DecompilationResponse with id of a previous decompilation on
+     * retdec.com.
      * 
      * @param id
      *            the id of the previous decompilation.
      */
     public DecompilationResponse(final String id) {
+        this(RetdecService.URL, id);
+    }
+
+    /**
+     * Construct DecompilationResponse with id of a previous decompilation.
+     * 
+     * @param baseUrl
+     *            the main entry point of the service, without trailing slash.
+     * @param id
+     *            the id of the previous decompilation.
+     */
+    public DecompilationResponse(final String baseUrl, final String id) {
+        setId(id);
         HashMap<String, Object> l = new HashMap<String, Object>();
 
-        String decompilationBase = RetdecService.URL + "decompiler/decompilations/" + id;
+        String decompilationBase = baseUrl + "/decompiler/decompilations/" + id;
         l.put("decompilation", decompilationBase);
         l.put("outputs", decompilationBase + "/outputs");
         l.put("status", decompilationBase + "/status");
@@ -33,8 +33,9 @@ import java.io.InputStream;
  * Interface for the callbacks that process the results of decompilation. The
  * order of methods is grouped in three stages. In the initialization phase
  * setId and started are called in this order. In the working phase setStatus,
- * phaseChange, acceptOutput and consumeOutput functions are called in arbitrary
- * order. In the closing phase, finished is called.
+ * phaseChange, acceptOutput and consumeOutput functions are called in
+ * arbitrary order. In the closing phase, finished is called. Further
+ * callbacks and controls are opt-in, see {@link ExtendedDecompilationResult}.
  */
 public interface DecompilationResult {
     /**
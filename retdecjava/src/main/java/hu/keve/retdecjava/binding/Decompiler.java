@@ -0,0 +1,60 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.binding;
+
+import java.io.IOException;
+
+/**
+ * A backend performing decompilations, e.g. the retdec.com service. Schedulers
+ * and routers implement it too, so they can be stacked in front of a service.
+ */
+public interface Decompiler {
+    /**
+     * Submit a decompilation.
+     * 
+     * @param request
+     *            the decompilation request.
+     * @return the response carrying the id and links of the decompilation.
+     * @throws IOException
+     *             if an input file cannot be read.
+     * @throws ServiceException
+     *             if the backend rejects the request.
+     */
+    DecompilationResponse decompile(AbstractDecompilationRequest request) throws IOException, ServiceException;
+
+    /**
+     * Obtain the results of a decompilation. The method returns when the
+     * decompilation finished; failures are reported to the result object.
+     * 
+     * @param resp
+     *            the response to the submission of the decompilation.
+     * @param res
+     *            the result object accumulating the results of the
+     *            decompilation.
+     */
+    void decompileSync(DecompilationResponse resp, DecompilationResult res);
+}
@@ -25,54 +25,279 @@ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
 SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 */
 package hu.keve.retdecjava.binding;
-
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Default implementation of {@link DecompilationResult} with no action
- * performed.
+ * performed, tracking the state of the decompilation.
+ * <p>
+ * The state is an immutable snapshot replaced atomically, so it can be read
+ * from any thread without locking, e.g. while the decompilation runs in the
+ * thread of {@link RetdecService#decompileAsync}. The state only moves
+ * forward: PENDING, RUNNING once started, FETCHING once the service reported
+ * the decompilation finished and the outputs are obtained, then DONE, FAILED,
+ * CANCELLED or TIMED_OUT. The terminal states are final. Any number of
+ * listeners are informed of each change.
  */
-public class DefaultDecompilationResult implements DecompilationResult {
+public class DefaultDecompilationResult implements ExtendedDecompilationResult {
+    /**
+     * States of a decompilation.
+     */
+    public enum State {
+        /** not yet started. */
+        PENDING, /** the service works on it. */
+        RUNNING, /** the outputs are being obtained. */
+        FETCHING, /** finished successfully. */
+        DONE, /** failed. */
+        FAILED, /** cancelled. */
+        CANCELLED, /** its deadline passed. */
+        TIMED_OUT;
+
+        /**
+         * Is this a final state?
+         * 
+         * @return true for DONE, FAILED, CANCELLED and TIMED_OUT.
+         */
+        public boolean isTerminal() {
+            return ordinal() >= DONE.ordinal();
+        }
+    }
+
+    /**
+     * Immutable state of a decompilation.
+     */
+    public static final class Snapshot {
+        /**
+         * The state.
+         */
+        private final State state;
+        /**
+         * The unique identifier of the decompilation.
+         */
+        private final String id;
+        /**
+         * The status of the decompilation.
+         */
+        private final StatusResponse status;
+        /**
+         * Any exception thrown during decompilation.
+         */
+        private final Exception exception;
+
+        /**
+         * Construct a snapshot.
+         * 
+         * @param state
+         *            the state.
+         * @param id
+         *            the unique identifier of the decompilation.
+         * @param status
+         *            the status of the decompilation.
+         * @param exception
+         *            any exception thrown during decompilation.
+         */
+        Snapshot(final State state, final String id, final StatusResponse status, final Exception exception) {
+            this.state = state;
+            this.id = id;
+            this.status = status;
+            this.exception = exception;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public StatusResponse getStatus() {
+            return status;
+        }
+
+        public Exception getException() {
+            return exception;
+        }
+
+        @Override
+        public String toString() {
+            return id + " " + state + (null == status ? "" : " " + status.getCompletion() + "%")
+                    + (null == exception ? "" : " " + exception.getMessage());
+        }
+    }
+
+    /**
+     * Listener to the changes of the state.
+     */
+    public interface Listener {
+        /**
+         * Called after each change, in the thread making it.
+         * 
+         * @param previous
+         *            the state before.
+         * @param current
+         *            the state after.
+         */
+        void changed(Snapshot previous, Snapshot current);
+    }
+
     /**
-     * The unique identifier of the decompilation.
+     * The current state.
      */
-    private String id;
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<Snapshot>(
+            new Snapshot(State.PENDING, null, null, null));
 
     /**
-     * The status of the decompilation.
+     * The cancellation of the decompilation.
      */
-    private StatusResponse status;
+    private final Cancellation cancellation = new Cancellation();
 
     /**
-     * Any exception thrown during decompilation.
+     * The limit of the downloads, null if none.
      */
-    private Exception exception;
+    private volatile TokenBucket downloadLimit;
+
+    /**
+     * The listeners.
+     */
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    /**
+     * The nested outputs announced by the service.
+     */
+    private final Map<DecompilationOutput, SortedMap<String, OutputHandle>> nested = Collections
+            .synchronizedMap(new EnumMap<DecompilationOutput, SortedMap<String, OutputHandle>>(
+                    DecompilationOutput.class));
+
+    /**
+     * Get the current state without blocking.
+     * 
+     * @return the snapshot.
+     */
+    public final Snapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    public final State getState() {
+        return snapshot.get().getState();
+    }
 
     public final String getId() {
-        return id;
+        return snapshot.get().getId();
     }
 
     public final StatusResponse getStatus() {
-        return status;
+        return snapshot.get().getStatus();
     }
 
     public final Exception getException() {
-        return exception;
+        return snapshot.get().getException();
+    }
+
+    /**
+     * Add a listener.
+     * 
+     * @param listener
+     *            the listener.
+     */
+    public final void addListener(final Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Remove a listener.
+     * 
+     * @param listener
+     *            the listener.
+     */
+    public final void removeListener(final Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Change the state. Nothing changes once the state is terminal, and the
+     * state never moves backwards.
+     * 
+     * @param state
+     *            the new state, null to keep it.
+     * @param id
+     *            the new identifier, null to keep it.
+     * @param status
+     *            the new status, null to keep it.
+     * @param exception
+     *            the new exception, null to keep it.
+     * @return true if the state changed.
+     */
+    private boolean update(final State state, final String id, final StatusResponse status,
+            final Exception exception) {
+        Snapshot previous;
+        Snapshot current;
+        do {
+            previous = snapshot.get();
+            if (previous.state.isTerminal()) {
+                return false;
+            }
+            State next = null == state || state.ordinal() < previous.state.ordinal() ? previous.state : state;
+            current = new Snapshot(next, null == id ? previous.id : id, null == status ? previous.status : status,
+                    null == exception ? previous.exception : exception);
+        } while (!snapshot.compareAndSet(previous, current));
+        for (Listener listener : listeners) {
+            try {
+                listener.changed(previous, current);
+            } catch (RuntimeException e) {
+                // a failing listener must not disturb the decompilation.
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the nested outputs of a kind, e.g. the control-flow graphs by
+     * function name. The handles remain valid after the decompilation
+     * finished, so outputs can be fetched on demand.
+     * 
+     * @param key
+     *            the kind of output.
+     * @return the handles by name, empty if none were announced.
+     */
+    public final SortedMap<String, OutputHandle> getNestedOutputs(final DecompilationOutput key) {
+        SortedMap<String, OutputHandle> handles = nested.get(key);
+        if (null == handles) {
+            return Collections.unmodifiableSortedMap(new TreeMap<String, OutputHandle>());
+        }
+        return handles;
     }
 
     @Override
     public final void setId(final String id) {
-        this.id = id;
+        update(null, id, null, null);
     }
 
     @Override
-    public void started() {
+    public final void started() {
+        if (update(State.RUNNING, null, null, null)) {
+            onStarted();
+        }
+    }
+
+    /**
+     * Called when the decompilation started, unless it already ended.
+     */
+    protected void onStarted() {
     }
 
     @Override
     public final void setStatus(final StatusResponse status) {
-        this.status = status;
+        update(status.isFinished() ? State.FETCHING : State.RUNNING, null, status, null);
     }
 
     @Override
@@ -89,11 +314,79 @@ public class DefaultDecompilationResult implements DecompilationResult {
     }
 
     @Override
-    public void finished() {
+    public void nestedOutputs(final DecompilationOutput key, final SortedMap<String, OutputHandle> outputs) {
+        nested.put(key, outputs);
+    }
+
+    /**
+     * Mark the decompilation finished: DONE, or FAILED if the service reported
+     * it failed. Nothing happens if it already ended, e.g. was cancelled. The
+     * deadline is dropped, so the result no longer times out.
+     */
+    @Override
+    public final void finished() {
+        cancellation.disarm();
+        StatusResponse status = getStatus();
+        if (update(null != status && status.isFailed() ? State.FAILED : State.DONE, null, null, null)) {
+            onFinished();
+        }
+    }
+
+    /**
+     * Called once when the decompilation finished, not after it was cancelled
+     * or failed.
+     */
+    protected void onFinished() {
     }
 
+    /**
+     * Mark the decompilation failed: CANCELLED or TIMED_OUT if it was stopped
+     * by its cancellation, FAILED otherwise. The deadline is dropped.
+     */
     @Override
     public final void failed(final Exception e) {
-        this.exception = e;
+        cancellation.disarm();
+        State state = State.FAILED;
+        if (e instanceof DecompilationCancelledException) {
+            state = Cancellation.Outcome.TIMED_OUT == ((DecompilationCancelledException) e).getOutcome()
+                    ? State.TIMED_OUT : State.CANCELLED;
+        }
+        update(state, null, null, e);
+    }
+
+    @Override
+    public final Cancellation getCancellation() {
+        return cancellation;
+    }
+
+    @Override
+    public final TokenBucket getDownloadLimit() {
+        return downloadLimit;
+    }
+
+    /**
+     * Limit the download of the outputs, in addition to the global limit of
+     * the service.
+     * 
+     * @param downloadLimit
+     *            the bucket, possibly shared with other results; null for no
+     *            limit of its own.
+     */
+    public final void setDownloadLimit(final TokenBucket downloadLimit) {
+        this.downloadLimit = downloadLimit;
+    }
+
+    /**
+     * Cancel the decompilation, unless it already ended. The service working
+     * on it stops and releases its resources.
+     * 
+     * @return true if it was cancelled, false if it already ended.
+     */
+    public final boolean cancelled() {
+        // the state first, the service may report the cancellation at once.
+        boolean changed = update(State.CANCELLED, null, null,
+                new DecompilationCancelledException(Cancellation.Outcome.CANCELLED));
+        cancellation.cancel();
+        return changed;
     }
 }
@@ -0,0 +1,69 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.binding;
+
+import java.util.SortedMap;
+
+/**
+ * Optional callbacks and controls of a result, in addition to those of
+ * {@link DecompilationResult}. The services look for this interface: a result
+ * not implementing it is not told about nested outputs, is downloaded at the
+ * global rate only and gets a cancellation of its own, see
+ * {@link Cancellation#of(DecompilationResult)}.
+ */
+public interface ExtendedDecompilationResult extends DecompilationResult {
+    /**
+     * Inform about the availability of nested outputs, e.g. the control-flow
+     * graphs of the individual functions. Called in the working phase, in
+     * arbitrary order with the other callbacks. Nothing is downloaded unless a
+     * handle is opened, so the implementation may fetch only the outputs it is
+     * interested in, see {@link OutputHandle#transferAll}.
+     * 
+     * @param key
+     *            the type of the available DecompilationOutput.
+     * @param outputs
+     *            the handles to the nested outputs by name, e.g. function name.
+     */
+    void nestedOutputs(DecompilationOutput key, SortedMap<String, OutputHandle> outputs);
+
+    /**
+     * Get the cancellation the services observe while working for this
+     * result. Ending it stops the decompilation; failed is then called with a
+     * {@link DecompilationCancelledException}.
+     * 
+     * @return the cancellation.
+     */
+    Cancellation getCancellation();
+
+    /**
+     * Get the limit of the bandwidth the outputs are downloaded with, in
+     * addition to the global limit of the service.
+     * 
+     * @return the bucket, null for no limit of its own.
+     */
+    TokenBucket getDownloadLimit();
+}
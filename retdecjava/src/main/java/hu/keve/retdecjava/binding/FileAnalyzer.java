@@ -0,0 +1,57 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.binding;
+
+import java.io.IOException;
+
+/**
+ * Interface of the services analysing files, see {@link RetdecService}.
+ */
+public interface FileAnalyzer {
+    /**
+     * Analyse a file and wait for the result.
+     * 
+     * @param request
+     *            the analysis request.
+     * @param cancellation
+     *            the cancellation observed while waiting, e.g. with a
+     *            deadline.
+     * @return the analysis.
+     * @throws IOException
+     *             if the input cannot be read.
+     * @throws ServiceException
+     *             if the service rejects the request or the analysis failed.
+     * @throws BindingException
+     *             when an API binding exception occurs
+     * @throws InterruptedException
+     *             when waiting for the analysis was interrupted.
+     * @throws DecompilationCancelledException
+     *             if the cancellation ended.
+     */
+    FileInfo fileInfo(FileInfoRequest request, Cancellation cancellation)
+            throws IOException, ServiceException, BindingException, InterruptedException;
+}
@@ -0,0 +1,112 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.binding;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Result of a file analysis. The textual output of the service is kept as is
+ * and its {@code key : value} lines are made available by key.
+ */
+public final class FileInfo {
+    /**
+     * The output of the analysis.
+     */
+    private final String text;
+    /**
+     * The values by key, first occurrence wins.
+     */
+    private final Map<String, String> values;
+
+    /**
+     * Construct from the output of the analysis.
+     * 
+     * @param text
+     *            the output.
+     */
+    public FileInfo(final String text) {
+        this.text = text;
+        Map<String, String> map = new LinkedHashMap<String, String>();
+        for (String line : text.split("\r?\n")) {
+            int sep = line.indexOf(" : ");
+            if (sep > 0) {
+                String key = line.substring(0, sep).trim();
+                if (!key.isEmpty() && !map.containsKey(key)) {
+                    map.put(key, line.substring(sep + 3).trim());
+                }
+            }
+        }
+        this.values = Collections.unmodifiableMap(map);
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public Map<String, String> getValues() {
+        return values;
+    }
+
+    /**
+     * Get a value.
+     * 
+     * @param key
+     *            the key, e.g. File format.
+     * @return the value, null if not reported.
+     */
+    public String get(final String key) {
+        return values.get(key);
+    }
+
+    public String getFileFormat() {
+        return get("File format");
+    }
+
+    public String getFileType() {
+        return get("File type");
+    }
+
+    public String getArchitecture() {
+        return get("Architecture");
+    }
+
+    /**
+     * Check if a packer was detected.
+     * 
+     * @return true if a detected tool is reported as packer.
+     */
+    public boolean isPacked() {
+        for (String line : text.split("\r?\n")) {
+            if (line.startsWith("Detected tool") && line.contains("(packer)")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.binding;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Class encapsulating information for a file analysis request.
+ * 
+ * @see <a href="https://retdec.com/api/docs/fileinfo.html">API</a>
+ */
+public final class FileInfoRequest implements RetdecFormRequest {
+    /**
+     * The file to analyse.
+     */
+    private final File input;
+    /**
+     * Should the output be verbose?
+     */
+    private Boolean verbose;
+    /**
+     * The mapping of the input file.
+     */
+    private transient MappedFile mappedInput;
+
+    /**
+     * Construct an analysis request.
+     * 
+     * @param input
+     *            the file to analyse.
+     */
+    public FileInfoRequest(final File input) {
+        this.input = input;
+    }
+
+    /**
+     * Construct an analysis request for an already mapped file, e.g. the input
+     * of a decompilation request.
+     * 
+     * @param mappedInput
+     *            the mapped file to analyse.
+     */
+    public FileInfoRequest(final MappedFile mappedInput) {
+        this.input = mappedInput.getFile();
+        this.mappedInput = mappedInput;
+    }
+
+    @Override
+    public Map<String, Object> getFormData() {
+        HashMap<String, Object> map = new HashMap<String, Object>();
+        map.put("input", input);
+        map.put("verbose", verbose);
+        return map;
+    }
+
+    public File getInput() {
+        return input;
+    }
+
+    public Boolean getVerbose() {
+        return verbose;
+    }
+
+    public void setVerbose(final Boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    /**
+     * Get the input file mapped into memory.
+     * 
+     * @return the mapped input.
+     * @throws IOException
+     *             if the input cannot be mapped.
+     */
+    public synchronized MappedFile getMappedInput() throws IOException {
+        if (null == mappedInput) {
+            mappedInput = MappedFile.map(input);
+        }
+        return mappedInput;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.binding;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.SortedMap;
+
+/**
+ * Result object forwarding every callback to another one. Subclasses override
+ * the callbacks they want to observe, e.g. to record failures or timings. The
+ * optional callbacks are forwarded if the target has them.
+ */
+public class ForwardingDecompilationResult implements ExtendedDecompilationResult {
+    /**
+     * The result forwarded to.
+     */
+    private final DecompilationResult target;
+
+    /**
+     * Construct a forwarding result.
+     * 
+     * @param target
+     *            the result forwarded to.
+     */
+    public ForwardingDecompilationResult(final DecompilationResult target) {
+        this.target = target;
+    }
+
+    public final DecompilationResult getTarget() {
+        return target;
+    }
+
+    @Override
+    public void setId(final String id) {
+        target.setId(id);
+    }
+
+    @Override
+    public void started() {
+        target.started();
+    }
+
+    @Override
+    public void setStatus(final StatusResponse status) {
+        target.setStatus(status);
+    }
+
+    @Override
+    public void phaseChange(final StatusPhase phase) {
+        target.phaseChange(phase);
+    }
+
+    @Override
+    public boolean acceptOutput(final DecompilationOutput key) {
+        return target.acceptOutput(key);
+    }
+
+    @Override
+    public void consumeOutput(final String fileName, final String mediaType, final InputStream in)
+            throws IOException {
+        target.consumeOutput(fileName, mediaType, in);
+    }
+
+    @Override
+    public void nestedOutputs(final DecompilationOutput key, final SortedMap<String, OutputHandle> outputs) {
+        if (target instanceof ExtendedDecompilationResult) {
+            ((ExtendedDecompilationResult) target).nestedOutputs(key, outputs);
+        }
+    }
+
+    @Override
+    public void finished() {
+        target.finished();
+    }
+
+    @Override
+    public void failed(final Exception e) {
+        target.failed(e);
+    }
+
+    @Override
+    public Cancellation getCancellation() {
+        return Cancellation.of(target);
+    }
+
+    @Override
+    public TokenBucket getDownloadLimit() {
+        return target instanceof ExtendedDecompilationResult
+                ? ((ExtendedDecompilationResult) target).getDownloadLimit() : null;
+    }
+}
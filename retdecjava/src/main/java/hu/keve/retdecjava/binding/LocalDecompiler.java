@@ -0,0 +1,635 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.binding;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import hu.keve.retdecjava.binding.DecompilationResult.DecompilationOutput;
+
+/**
+ * Decompiler running a local command instead of calling the retdec.com API,
+ * e.g. for samples that must not leave the machine. At most a fixed number of
+ * processes run at once, further submissions wait for a free slot.
+ * <p>
+ * The command is invoked as
+ * {@code command... <input> --output <dir>/<input name> --<field> <value>...}
+ * with the form fields of the request formatted as they are posted to the API,
+ * so a thin wrapper script adapts it to the locally installed decompiler. The
+ * command reports its progress by printing lines starting with
+ * {@code "##### "}, optionally followed by a completion percentage, e.g.
+ * {@code "##### 40% Decompiling"}. The files it leaves next to the output base
+ * are delivered as the outputs: {@code .c} and {@code .py} as hll, {@code .dsm}
+ * as dsm and {@code .cg.*} as cg.
+ */
+public final class LocalDecompiler implements Decompiler, Closeable {
+    /**
+     * Prefix of the progress lines.
+     */
+    private static final String PHASE_PREFIX = "##### ";
+    /**
+     * The part reported for the phases.
+     */
+    private static final String PHASE_PART = "local";
+    /**
+     * Number of trailing output lines quoted when the command fails.
+     */
+    private static final int ERROR_CONTEXT_LINES = 10;
+    /**
+     * Number of submitted jobs kept until their results are obtained. Beyond
+     * it the oldest job is stopped and its working directory deleted, so jobs
+     * that are never synced do not pile up.
+     */
+    static final int MAX_JOBS = 1000;
+
+    /**
+     * The end of a job.
+     */
+    private static final class Exit {
+        /**
+         * The error message, null if the command succeeded.
+         */
+        private final String error;
+
+        /**
+         * Construct the end of a job.
+         * 
+         * @param error
+         *            the error message, null if the command succeeded.
+         */
+        Exit(final String error) {
+            this.error = error;
+        }
+    }
+
+    /**
+     * A submitted decompilation.
+     */
+    private static final class Job {
+        /**
+         * The unique identifier.
+         */
+        private final String id;
+        /**
+         * The working directory, holding the outputs.
+         */
+        private final File dir;
+        /**
+         * The base name of the outputs.
+         */
+        private final String outputBase;
+        /**
+         * The command line.
+         */
+        private final List<String> commandLine;
+        /**
+         * The progress, StatusPhase instances terminated by an Exit.
+         */
+        private final BlockingQueue<Object> events = new LinkedBlockingQueue<Object>();
+        /**
+         * Whether the job was cancelled.
+         */
+        private volatile boolean cancelled;
+        /**
+         * Whether the results will not be obtained, the working directory is
+         * deleted when the command ends.
+         */
+        private volatile boolean forgotten;
+        /**
+         * The process, null while not started.
+         */
+        private volatile Process process;
+
+        /**
+         * Construct a job.
+         * 
+         * @param id
+         *            the unique identifier.
+         * @param dir
+         *            the working directory.
+         * @param outputBase
+         *            the base name of the outputs.
+         * @param commandLine
+         *            the command line.
+         */
+        Job(final String id, final File dir, final String outputBase, final List<String> commandLine) {
+            this.id = id;
+            this.dir = dir;
+            this.outputBase = outputBase;
+            this.commandLine = commandLine;
+        }
+    }
+
+    /**
+     * The command, program and leading arguments.
+     */
+    private final List<String> command;
+    /**
+     * The directory the working directories of the jobs are created in.
+     */
+    private final File workDir;
+    /**
+     * The process slots.
+     */
+    private final ExecutorService pool;
+    /**
+     * The submitted jobs not yet obtained, by id, oldest first.
+     */
+    private final Map<String, Job> jobs = Collections.synchronizedMap(new LinkedHashMap<String, Job>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Job> eldest) {
+            if (size() <= MAX_JOBS) {
+                return false;
+            }
+            forget(eldest.getValue());
+            return true;
+        }
+    });
+    /**
+     * The jobs whose command did not end yet.
+     */
+    private final Set<Job> active = Collections.synchronizedSet(new HashSet<Job>());
+    /**
+     * The running processes.
+     */
+    private final Set<Process> processes = Collections.synchronizedSet(new HashSet<Process>());
+    /**
+     * The job counter.
+     */
+    private final AtomicLong seq = new AtomicLong();
+
+    /**
+     * Construct a decompiler working in the temporary directory.
+     * 
+     * @param command
+     *            the command, program and leading arguments.
+     * @param processes
+     *            the number of processes run concurrently.
+     */
+    public LocalDecompiler(final List<String> command, final int processes) {
+        this(command, new File(System.getProperty("java.io.tmpdir")), processes);
+    }
+
+    /**
+     * Construct a decompiler.
+     * 
+     * @param command
+     *            the command, program and leading arguments.
+     * @param workDir
+     *            the directory the working directories of the jobs are created
+     *            in.
+     * @param processes
+     *            the number of processes run concurrently.
+     */
+    public LocalDecompiler(final List<String> command, final File workDir, final int processes) {
+        if (command.isEmpty()) {
+            throw new IllegalArgumentException("No command.");
+        }
+        this.command = new ArrayList<String>(command);
+        this.workDir = workDir;
+        this.pool = Executors.newFixedThreadPool(processes, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread t = new Thread(r, "retdec-local-decompiler");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Start a decompilation. The command line is built from the request right
+     * away, the process starts as soon as a slot is free.
+     * 
+     * @param request
+     *            the decompilation request.
+     * @return the response carrying the id of the decompilation.
+     * @throws IOException
+     *             if the input cannot be read or the working directory cannot
+     *             be created.
+     */
+    @Override
+    public DecompilationResponse decompile(final AbstractDecompilationRequest request) throws IOException {
+        String id = "local-" + seq.incrementAndGet();
+        File dir = Files.createTempDirectory(workDir.toPath(), "retdec-" + id + "-").toFile();
+        try {
+            File input = localInput(request.getMappedInput(), dir);
+            String outputBase = input.getName();
+            List<String> commandLine = new ArrayList<String>(command);
+            commandLine.add(input.getPath());
+            commandLine.add("--output");
+            commandLine.add(new File(dir, outputBase).getPath());
+            for (Entry<String, Object> field : request.getFormData().entrySet()) {
+                Object value = field.getValue();
+                if (null != value && !"input".equals(field.getKey())) {
+                    commandLine.add("--" + field.getKey());
+                    commandLine.add(value instanceof File ? ((File) value).getPath() : RetdecService.formValue(value));
+                }
+            }
+            final Job job = new Job(id, dir, outputBase, commandLine);
+            jobs.put(id, job);
+            active.add(job);
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    runJob(job);
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            delete(dir);
+            active.remove(jobs.remove(id));
+            throw e;
+        }
+        DecompilationResponse resp = new DecompilationResponse();
+        resp.setId(id);
+        return resp;
+    }
+
+    /**
+     * Get the input as a file. A file mapped as a whole is used in place, a
+     * slice of it is written to the working directory.
+     * 
+     * @param mapped
+     *            the mapped input.
+     * @param dir
+     *            the working directory.
+     * @return the file.
+     * @throws IOException
+     *             if the slice cannot be written.
+     */
+    private static File localInput(final MappedFile mapped, final File dir) throws IOException {
+        File file = mapped.getFile();
+        if (file.isFile() && file.length() == mapped.getSize()) {
+            return file;
+        }
+        File copy = new File(dir, file.getName());
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(copy))) {
+            mapped.writeTo(out);
+        }
+        return copy;
+    }
+
+    /**
+     * Run the command of a job, recording its progress.
+     * 
+     * @param job
+     *            the job.
+     */
+    private void runJob(final Job job) {
+        Deque<String> tail = new ArrayDeque<String>();
+        Process process = null;
+        try {
+            if (job.cancelled) {
+                return;
+            }
+            ProcessBuilder pb = new ProcessBuilder(job.commandLine).directory(job.dir).redirectErrorStream(true);
+            process = pb.start();
+            processes.add(process);
+            job.process = process;
+            if (job.cancelled) {
+                process.destroy();
+            }
+            process.getOutputStream().close();
+            int completion = 0;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                String line;
+                while (null != (line = reader.readLine())) {
+                    if (line.startsWith(PHASE_PREFIX)) {
+                        StatusPhase phase = parsePhase(line.substring(PHASE_PREFIX.length()), completion);
+                        completion = phase.getCompletion();
+                        job.events.add(phase);
+                    } else {
+                        tail.addLast(line);
+                        if (tail.size() > ERROR_CONTEXT_LINES) {
+                            tail.removeFirst();
+                        }
+                    }
+                }
+            }
+            int code = process.waitFor();
+            job.events.add(new Exit(
+                    0 == code ? null : "Local decompilation " + job.id + " exited with " + code + ":" + join(tail)));
+        } catch (IOException e) {
+            job.events.add(new Exit("Local decompilation " + job.id + " could not run: " + e.getMessage()));
+        } catch (InterruptedException e) {
+            job.events.add(new Exit("Local decompilation " + job.id + " interrupted."));
+        } finally {
+            if (null != process) {
+                processes.remove(process);
+                process.destroy();
+            }
+            active.remove(job);
+            if (job.forgotten) {
+                delete(job.dir);
+            }
+        }
+    }
+
+    /**
+     * Forget a job whose results will not be obtained: stop it and delete its
+     * working directory, right away if its command is not running, otherwise
+     * when it ends.
+     * 
+     * @param job
+     *            the job.
+     */
+    private void forget(final Job job) {
+        job.forgotten = true;
+        job.cancelled = true;
+        Process process = job.process;
+        if (null != process) {
+            process.destroy();
+        }
+        if (!active.contains(job)) {
+            delete(job.dir);
+        }
+    }
+
+    /**
+     * Parse a progress line.
+     * 
+     * @param text
+     *            the line without prefix.
+     * @param completion
+     *            the completion reported last.
+     * @return the phase.
+     */
+    static StatusPhase parsePhase(final String text, final int completion) {
+        String description = text.trim();
+        int percent = completion;
+        int sign = description.indexOf('%');
+        if (sign > 0) {
+            try {
+                percent = Integer.parseInt(description.substring(0, sign));
+                description = description.substring(sign + 1).trim();
+            } catch (NumberFormatException e) {
+                // not a percentage.
+            }
+        }
+        StatusPhase phase = new StatusPhase();
+        phase.setPart(PHASE_PART);
+        phase.setName(description);
+        phase.setDescription(description);
+        phase.setCompletion(percent);
+        phase.setWarnings(new String[0]);
+        return phase;
+    }
+
+    /**
+     * Join lines.
+     * 
+     * @param lines
+     *            the lines.
+     * @return the lines separated by newlines.
+     */
+    private static String join(final Iterable<String> lines) {
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines) {
+            sb.append('\n').append(line);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Obtain the results of a decompilation. The method returns when the
+     * process finished and its outputs are delivered. Ending the cancellation
+     * of the result kills the process, a job still waiting for a slot does not
+     * start at all.
+     * 
+     * @param resp
+     *            the response to the submission.
+     * @param res
+     *            the result object accumulating the results of the compilation.
+     */
+    @Override
+    public void decompileSync(final DecompilationResponse resp, final DecompilationResult res) {
+        res.setId(resp.getId());
+        final Job job = jobs.remove(resp.getId());
+        if (null == job) {
+            res.failed(new IllegalArgumentException("Unknown local decompilation " + resp.getId()));
+            return;
+        }
+        Closeable abort = new Closeable() {
+            @Override
+            public void close() {
+                job.cancelled = true;
+                Process process = job.process;
+                if (null != process) {
+                    process.destroy();
+                }
+                job.events.add(new Exit("Local decompilation " + job.id + " cancelled."));
+            }
+        };
+        Cancellation.of(res).register(abort);
+        try {
+            Cancellation.of(res).check();
+            res.started();
+            List<StatusPhase> phases = new ArrayList<StatusPhase>();
+            StatusResponse status = new StatusResponse();
+            status.setId(job.id);
+            status.setRunning(true);
+            Object event;
+            while (!((event = job.events.take()) instanceof Exit)) {
+                StatusPhase phase = (StatusPhase) event;
+                phases.add(phase);
+                status.setPhases(phases.toArray(new StatusPhase[phases.size()]));
+                status.setCompletion(phase.getCompletion());
+                res.setStatus(status);
+                res.phaseChange(phase);
+            }
+            Cancellation.of(res).check();
+            Exit exit = (Exit) event;
+            status.setPhases(phases.toArray(new StatusPhase[phases.size()]));
+            status.setRunning(false);
+            status.setFinished(true);
+            status.setSucceeded(null == exit.error);
+            status.setFailed(null != exit.error);
+            status.setError(exit.error);
+            if (null == exit.error) {
+                status.setCompletion(100);
+            }
+            res.setStatus(status);
+            if (null != exit.error) {
+                res.failed(new IOException(exit.error));
+                return;
+            }
+            deliverOutputs(job, res);
+            Cancellation.of(res).check();
+            res.finished();
+        } catch (InterruptedException | IOException | RuntimeException e) {
+            RetdecService.fail(res, e);
+        } finally {
+            Cancellation.of(res).unregister(abort);
+            delete(job.dir);
+        }
+    }
+
+    /**
+     * Deliver the outputs left in the working directory.
+     * 
+     * @param job
+     *            the finished job.
+     * @param res
+     *            the result object.
+     * @throws IOException
+     *             if an output cannot be read or consumed.
+     */
+    private static void deliverOutputs(final Job job, final DecompilationResult res) throws IOException {
+        File[] files = job.dir.listFiles();
+        if (null == files) {
+            throw new IOException("Cannot list " + job.dir);
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            if (!file.isFile() || !file.getName().startsWith(job.outputBase + ".")) {
+                continue;
+            }
+            String suffix = file.getName().substring(job.outputBase.length());
+            Cancellation.of(res).check();
+            DecompilationOutput kind = outputKind(suffix);
+            if (null != kind && res.acceptOutput(kind)) {
+                try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+                    res.consumeOutput(file.getName(), mediaType(suffix), in);
+                }
+            }
+        }
+    }
+
+    /**
+     * Map an output file to the kind of output.
+     * 
+     * @param suffix
+     *            the file name after the output base, starting with a dot.
+     * @return the kind, null if the file is not an output.
+     */
+    static DecompilationOutput outputKind(final String suffix) {
+        if (".c".equals(suffix) || ".py".equals(suffix)) {
+            return DecompilationOutput.hll;
+        } else if (".dsm".equals(suffix)) {
+            return DecompilationOutput.dsm;
+        } else if (suffix.startsWith(".cg.")) {
+            return DecompilationOutput.cg;
+        }
+        return null;
+    }
+
+    /**
+     * Guess the media type of an output file.
+     * 
+     * @param suffix
+     *            the file name after the output base.
+     * @return the media type.
+     */
+    private static String mediaType(final String suffix) {
+        if (suffix.endsWith(".svg")) {
+            return "image/svg+xml";
+        } else if (suffix.endsWith(".png")) {
+            return "image/png";
+        } else if (suffix.endsWith(".pdf")) {
+            return "application/pdf";
+        }
+        return "text/plain";
+    }
+
+    /**
+     * Delete a working directory.
+     * 
+     * @param dir
+     *            the directory.
+     */
+    private static void delete(final File dir) {
+        File[] files = dir.listFiles();
+        if (null != files) {
+            for (File f : files) {
+                if (f.isDirectory()) {
+                    delete(f);
+                } else {
+                    f.delete();
+                }
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * Stop the decompiler, killing the running processes. Jobs not yet
+     * finished fail, the working directories of the jobs not obtained are
+     * deleted.
+     */
+    @Override
+    public void close() {
+        pool.shutdownNow();
+        synchronized (processes) {
+            for (Process p : processes) {
+                p.destroy();
+            }
+        }
+        synchronized (active) {
+            for (Job job : active) {
+                job.events.add(new Exit("Local decompilation " + job.id + " cancelled."));
+            }
+            active.clear();
+        }
+        List<Job> unsynced;
+        synchronized (jobs) {
+            unsynced = new ArrayList<Job>(jobs.values());
+            jobs.clear();
+        }
+        for (Job job : unsynced) {
+            forget(job);
+        }
+    }
+}
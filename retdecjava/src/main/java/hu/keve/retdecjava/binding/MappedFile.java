@@ -0,0 +1,202 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.binding;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A file mapped into memory once and shared by everything that needs its
+ * content: the upload, hashing and header sniffing. Files are limited to 2 GiB.
+ */
+public final class MappedFile {
+    /**
+     * Size of the slices written to a stream at once.
+     */
+    private static final int WRITE_SLICE = 256 * 1024;
+
+    /**
+     * The file.
+     */
+    private final File file;
+    /**
+     * The read-only mapping of the whole file.
+     */
+    private final ByteBuffer buffer;
+    /**
+     * The digests computed so far by algorithm.
+     */
+    private final Map<String, byte[]> digests = new HashMap<String, byte[]>();
+    /**
+     * The buckets limiting writeTo.
+     */
+    private final TokenBucket[] limits;
+
+    /**
+     * Construct a mapped file.
+     * 
+     * @param file
+     *            the file.
+     * @param buffer
+     *            the mapping.
+     * @param limits
+     *            the buckets limiting writeTo.
+     */
+    private MappedFile(final File file, final ByteBuffer buffer, final TokenBucket... limits) {
+        this.file = file;
+        this.buffer = buffer;
+        this.limits = limits;
+    }
+
+    /**
+     * Map a file into memory.
+     * 
+     * @param file
+     *            the file.
+     * @return the mapped file.
+     * @throws IOException
+     *             if the file cannot be mapped.
+     */
+    public static MappedFile map(final File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long size = raf.length();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large to map: " + file);
+            }
+            return new MappedFile(file, raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    /**
+     * Get a part of the content as a mapped file of its own, sharing the
+     * mapping. The file of the part only names the upload, it does not exist.
+     * 
+     * @param name
+     *            the file name of the part.
+     * @param offset
+     *            the offset of the part.
+     * @param length
+     *            the length of the part.
+     * @return the part.
+     */
+    public MappedFile slice(final String name, final int offset, final int length) {
+        ByteBuffer part = buffer.duplicate();
+        part.position(offset).limit(offset + length);
+        return new MappedFile(new File(file.getParentFile(), name), part.slice(), limits);
+    }
+
+    /**
+     * Get the content as a mapped file of its own whose writeTo keeps to the
+     * rate of token buckets, e.g. for an upload. The mapping is shared.
+     * 
+     * @param buckets
+     *            the buckets, in addition to those limiting this file; null
+     *            ones are ignored.
+     * @return the limited file.
+     */
+    public MappedFile throttled(final TokenBucket... buckets) {
+        TokenBucket[] all = Arrays.copyOf(limits, limits.length + buckets.length);
+        System.arraycopy(buckets, 0, all, limits.length, buckets.length);
+        return new MappedFile(file, buffer, all);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getSize() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Get the content.
+     * 
+     * @return an independent read-only view of the whole content.
+     */
+    public ByteBuffer getBuffer() {
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * Get the digest of the content. Digests are computed once per algorithm.
+     * 
+     * @param algorithm
+     *            the digest algorithm, e.g. SHA-256.
+     * @return the digest.
+     * @throws IOException
+     *             if the algorithm is not available.
+     */
+    public synchronized byte[] digest(final String algorithm) throws IOException {
+        byte[] digest = digests.get(algorithm);
+        if (null == digest) {
+            try {
+                MessageDigest md = MessageDigest.getInstance(algorithm);
+                md.update(getBuffer());
+                digest = md.digest();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException(e);
+            }
+            digests.put(algorithm, digest);
+        }
+        return digest.clone();
+    }
+
+    /**
+     * Write the content to a stream. The mapped pages are handed to the stream
+     * directly; when the stream is backed by a channel no copy is made on the
+     * Java heap. A throttled file writes at most the rate of its buckets.
+     * 
+     * @param out
+     *            the stream.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public void writeTo(final OutputStream out) throws IOException {
+        WritableByteChannel channel = ThrottledChannels.newChannel(out, limits);
+        ByteBuffer content = getBuffer();
+        while (content.hasRemaining()) {
+            ByteBuffer slice = content.slice();
+            slice.limit(Math.min(WRITE_SLICE, slice.remaining()));
+            int n = slice.remaining();
+            while (slice.hasRemaining()) {
+                channel.write(slice);
+            }
+            content.position(content.position() + n);
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,296 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.binding;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.glassfish.jersey.media.multipart.ContentDisposition;
+
+import hu.keve.retdecjava.binding.DecompilationResult.DecompilationOutput;
+
+/**
+ * Handle to a decompilation output available on the service. Nothing is
+ * downloaded until the handle is opened.
+ */
+public final class OutputHandle {
+    /**
+     * The source the output is fetched from.
+     */
+    private final OutputSource source;
+    /**
+     * The kind of output.
+     */
+    private final DecompilationOutput output;
+    /**
+     * The name of a nested output, e.g. the function of a control-flow graph,
+     * null for top level outputs.
+     */
+    private final String name;
+    /**
+     * The absolute URL of the output.
+     */
+    private final String url;
+    /**
+     * The size in bytes, -1 if unknown, null if not yet requested.
+     */
+    private volatile Long size;
+    /**
+     * The media type, if known.
+     */
+    private volatile String mediaType;
+    /**
+     * The suggested file name, if known.
+     */
+    private volatile String fileName;
+
+    /**
+     * Construct a handle.
+     * 
+     * @param source
+     *            the source the output is fetched from.
+     * @param output
+     *            the kind of output.
+     * @param name
+     *            the name of a nested output, null for top level outputs.
+     * @param url
+     *            the absolute URL of the output.
+     */
+    OutputHandle(final OutputSource source, final DecompilationOutput output, final String name,
+            final String url) {
+        this.source = source;
+        this.output = output;
+        this.name = name;
+        this.url = url;
+    }
+
+    public DecompilationOutput getOutput() {
+        return output;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Get the size of the output. The headers of the output are requested
+     * unless already known; the content is not downloaded.
+     * 
+     * @return the size in bytes, -1 if unknown.
+     */
+    public long getSize() {
+        fetchHeaders();
+        return size;
+    }
+
+    /**
+     * Get the media type of the output. The headers of the output are
+     * requested unless already known; the content is not downloaded.
+     * 
+     * @return the media type, null if unknown.
+     */
+    public String getMediaType() {
+        fetchHeaders();
+        return mediaType;
+    }
+
+    /**
+     * Get the suggested file name of the output. The headers of the output are
+     * requested unless already known; the content is not downloaded.
+     * 
+     * @return the file name, null if no suggestion can be made.
+     */
+    public String getFileName() {
+        fetchHeaders();
+        return fileName;
+    }
+
+    /**
+     * Request the headers of the output unless already known.
+     */
+    private void fetchHeaders() {
+        if (null == size) {
+            Response response = source.head(url);
+            try {
+                if (200 == response.getStatus()) {
+                    recordHeaders(response);
+                } else {
+                    size = -1L;
+                }
+            } finally {
+                response.close();
+            }
+        }
+    }
+
+    /**
+     * Record the metadata carried by the headers of a response.
+     * 
+     * @param response
+     *            the response.
+     */
+    private void recordHeaders(final Response response) {
+        MediaType mt = response.getMediaType();
+        mediaType = null == mt ? null : mt.toString();
+        String cds = response.getHeaderString("Content-Disposition");
+        String name;
+        try {
+            name = null == cds ? null : new ContentDisposition(cds).getFileName();
+        } catch (ParseException | IllegalArgumentException e) {
+            name = null;
+        }
+        fileName = name;
+        size = (long) response.getLength();
+    }
+
+    /**
+     * Download the output and hand it over to a result. Ending the
+     * cancellation of the result aborts the download.
+     * 
+     * @param res
+     *            the result consuming the output.
+     * @throws IOException
+     *             if an I/O error occurs.
+     * @throws BindingException
+     *             when an API binding exception occurs.
+     */
+    public void transferTo(final DecompilationResult res) throws IOException, BindingException {
+        Cancellation cancellation = Cancellation.of(res);
+        cancellation.check();
+        InputStream in = open(res instanceof ExtendedDecompilationResult
+                ? ((ExtendedDecompilationResult) res).getDownloadLimit() : null);
+        cancellation.register(in);
+        try {
+            res.consumeOutput(fileName, mediaType, in);
+        } finally {
+            cancellation.unregister(in);
+        }
+    }
+
+    /**
+     * Download the output as a stream. The metadata of the handle is updated
+     * from the response. The stream is read at most at the global download
+     * rate.
+     * 
+     * @return the stream of the output, to be closed by the caller.
+     * @throws BindingException
+     *             when an API binding exception occurs.
+     */
+    public InputStream open() throws BindingException {
+        return open(null);
+    }
+
+    /**
+     * Download the output as a stream read at most at the global download
+     * rate and that of a bucket.
+     * 
+     * @param limit
+     *            the bucket, null for the global limit only.
+     * @return the stream of the output, to be closed by the caller.
+     * @throws BindingException
+     *             when an API binding exception occurs.
+     */
+    private InputStream open(final TokenBucket limit) throws BindingException {
+        Response response = source.get(url);
+        recordHeaders(response);
+        return ThrottledChannels.newInputStream(response.readEntity(InputStream.class),
+                RetdecService.getDownloadLimit(), limit);
+    }
+
+    /**
+     * Download several outputs with bounded parallelism and hand them over to
+     * a result. The result must accept concurrent calls of consumeOutput.
+     * 
+     * @param handles
+     *            the outputs to download.
+     * @param parallelism
+     *            the maximum number of concurrent downloads.
+     * @param res
+     *            the result consuming the outputs.
+     * @throws IOException
+     *             if an I/O error occurs.
+     * @throws BindingException
+     *             when an API binding exception occurs.
+     * @throws InterruptedException
+     *             when waiting for the downloads was interrupted.
+     */
+    public static void transferAll(final Collection<OutputHandle> handles, final int parallelism,
+            final DecompilationResult res) throws IOException, BindingException, InterruptedException {
+        if (handles.isEmpty()) {
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, handles.size()));
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>(handles.size());
+            for (final OutputHandle handle : handles) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException, BindingException {
+                        handle.transferTo(res);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof BindingException) {
+                        throw (BindingException) cause;
+                    }
+                    throw new IOException(cause);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return null == name ? output.toString() : output + "/" + name;
+    }
+}
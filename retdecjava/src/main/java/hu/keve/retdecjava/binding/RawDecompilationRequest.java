@@ -119,6 +119,21 @@ public final class RawDecompilationRequest extends AbstractDecompilationRequest
         this(input, architecture, fileFormat, null, null);
     }
 
+    /**
+     * Construct a raw decompilation request with the settings of another one.
+     * 
+     * @param other
+     *            the request to copy.
+     */
+    public RawDecompilationRequest(final RawDecompilationRequest other) {
+        super(other);
+        this.architecture = other.architecture;
+        this.fileFormat = other.fileFormat;
+        this.rawEndian = other.rawEndian;
+        this.rawEntryPoint = other.rawEntryPoint;
+        this.rawSectionVma = other.rawSectionVma;
+    }
+
     @Override
     public Map<String, Object> getFormData() {
         Map<String, Object> map = super.getFormData();
@@ -169,4 +184,4 @@ public final class RawDecompilationRequest extends AbstractDecompilationRequest
     public void setRawSectionVma(final Long rawSectionVma) {
         this.rawSectionVma = rawSectionVma;
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -29,25 +29,29 @@ package hu.keve.retdecjava.binding;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.text.ParseException;
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.Invocation;
 import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
 import org.glassfish.jersey.client.ClientConfig;
 import org.glassfish.jersey.client.authentication.HttpAuthenticationFeature;
-import org.glassfish.jersey.media.multipart.ContentDisposition;
+import org.glassfish.jersey.media.multipart.FormDataBodyPart;
+import org.glassfish.jersey.media.multipart.FormDataContentDisposition;
 import org.glassfish.jersey.media.multipart.FormDataMultiPart;
 import org.glassfish.jersey.media.multipart.MultiPartFeature;
-import org.glassfish.jersey.media.multipart.file.FileDataBodyPart;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -58,15 +62,39 @@ import hu.keve.retdecjava.binding.DecompilationResult.DecompilationOutput;
  * Class binding to the Retdec.com REST API.
  * 
  */
-public final class RetdecService {
+public final class RetdecService implements PollingDecompiler, FileAnalyzer {
     /**
-     * The main entry point for the service.
+     * The main entry point of the retdec.com service.
      */
     public static final String URL = "https://retdec.com/service/api";
     /**
      * Time we wait until re-polling the status. 15 seconds.
      */
-    private static final int POLL_INTERVAL_MS = 15 * 1000;
+    static final int POLL_INTERVAL_MS = 15 * 1000;
+    /**
+     * Time we wait until re-polling the status of a file analysis. 1 second.
+     */
+    private static final int FILEINFO_POLL_INTERVAL_MS = 1000;
+    /**
+     * Maximum length of the text of a rejection kept in its message.
+     */
+    private static final int MAX_ERROR_TEXT = 200;
+    /**
+     * The predictor shared by the instances unless replaced.
+     */
+    private static final CompletionPredictor SHARED_PREDICTOR = new CompletionPredictor();
+    /**
+     * The limit of all uploads.
+     */
+    private static final TokenBucket UPLOAD_LIMIT = new TokenBucket(TokenBucket.UNLIMITED);
+    /**
+     * The limit of all downloads.
+     */
+    private static final TokenBucket DOWNLOAD_LIMIT = new TokenBucket(TokenBucket.UNLIMITED);
+    /**
+     * The main entry point of this instance.
+     */
+    private final String baseUrl;
     /**
      * The top level web-target for the service.
      */
@@ -75,23 +103,114 @@ public final class RetdecService {
      * ObjectMapper instance for converting JSON to POJO.
      */
     private final ObjectMapper objectMapper;
+    /**
+     * The predictor scheduling the status polls.
+     */
+    private volatile CompletionPredictor predictor = SHARED_PREDICTOR;
+    /**
+     * The source the output handles request from.
+     */
+    private final OutputSource outputSource = new OutputSource() {
+        @Override
+        public Response head(final String absoluteURL) {
+            return headOutput(absoluteURL);
+        }
+
+        @Override
+        public Response get(final String absoluteURL) throws BindingException {
+            return getOutputResponse(absoluteURL);
+        }
+    };
 
     /**
-     * Construct a service instance using the provided API key.
+     * Construct a service instance of retdec.com using the provided API key.
      * 
      * @param apiKey
      *            The API key used for authentication against the service.
      */
     public RetdecService(final String apiKey) {
+        this(URL, apiKey);
+    }
+
+    /**
+     * Construct a service instance of a retdec.com compatible backend, e.g. a
+     * self-hosted one.
+     * 
+     * @param baseUrl
+     *            the main entry point of the backend, without trailing slash.
+     * @param apiKey
+     *            The API key used for authentication against the service,
+     *            null if the backend needs none.
+     */
+    public RetdecService(final String baseUrl, final String apiKey) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
         ClientConfig clientConfig = new ClientConfig();
         clientConfig.register(MultiPartFeature.class);
+        clientConfig.register(new MappedFileBodyWriter());
 
         Client client = ClientBuilder.newClient(clientConfig);
         // client.register(new LoggingFilter());
-        retdecTarget = client.register(HttpAuthenticationFeature.basic(apiKey, "")).target(URL);
+        if (null != apiKey) {
+            client.register(HttpAuthenticationFeature.basic(apiKey, ""));
+        }
+        retdecTarget = client.target(this.baseUrl);
         objectMapper = new ObjectMapper();
     }
 
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public CompletionPredictor getPredictor() {
+        return predictor;
+    }
+
+    public void setPredictor(final CompletionPredictor predictor) {
+        this.predictor = predictor;
+    }
+
+    /**
+     * Get the limit of all uploads of the instances, unlimited until its rate
+     * is set.
+     * 
+     * @return the bucket.
+     */
+    public static TokenBucket getUploadLimit() {
+        return UPLOAD_LIMIT;
+    }
+
+    /**
+     * Get the limit of all output downloads of the instances, unlimited until
+     * its rate is set.
+     * 
+     * @return the bucket.
+     */
+    public static TokenBucket getDownloadLimit() {
+        return DOWNLOAD_LIMIT;
+    }
+
+    /**
+     * Get the expected finish of a decompilation submitted by this instance.
+     * 
+     * @param resp
+     *            the response to the submission.
+     * @return the time, System.currentTimeMillis, negative if unknown.
+     */
+    public long getEta(final DecompilationResponse resp) {
+        return predictor.getEta(resp.getStatusUrl());
+    }
+
+    /**
+     * Get the response of a decompilation submitted earlier to this instance.
+     * 
+     * @param id
+     *            the id of the decompilation.
+     * @return the response.
+     */
+    public DecompilationResponse resume(final String id) {
+        return new DecompilationResponse(baseUrl, id);
+    }
+
     /**
      * Invoke the test/echo service.
      * 
@@ -112,13 +231,92 @@ public final class RetdecService {
         return objectMapper.convertValue(respNode, Map.class);
     }
 
-    public void fileInfo() {
-        // TODO: write me.
+    /**
+     * Analyse a file with the fileinfo service and wait for the result. The
+     * status is polled until the analysis finished or the cancellation ended.
+     * 
+     * @param request
+     *            the analysis request.
+     * @param cancellation
+     *            the cancellation observed while waiting, e.g. with a
+     *            deadline.
+     * @return the analysis.
+     * @throws IOException
+     *             if the input cannot be read.
+     * @throws ServiceException
+     *             if the service rejects the request or the analysis failed.
+     * @throws BindingException
+     *             when an API binding exception occurs
+     * @throws InterruptedException
+     *             when waiting for the analysis was interrupted.
+     * @throws DecompilationCancelledException
+     *             if the cancellation ended.
+     */
+    @Override
+    public FileInfo fileInfo(final FileInfoRequest request, final Cancellation cancellation)
+            throws IOException, ServiceException, BindingException, InterruptedException {
+        cancellation.check();
+        AnalysisResponse resp = post("fileinfo/analyses", request, request.getMappedInput(), AnalysisResponse.class);
+        StatusResponse status;
+        do {
+            cancellation.check();
+            status = getResponse(resp.getStatusUrl(), StatusResponse.class);
+            if (status.isFinished()) {
+                break;
+            }
+            cancellation.sleep(FILEINFO_POLL_INTERVAL_MS);
+        } while (true);
+        if (status.isFailed()) {
+            throw new ServiceException(200, "File analysis " + resp.getId() + " failed: " + status.getError());
+        }
+        cancellation.check();
+        Response response = getOutputResponse(resp.getOutputUrl());
+        return new FileInfo(response.readEntity(String.class));
     }
 
+    /**
+     * Submit a decompilation.
+     * 
+     * @param request
+     *            the decompilation request.
+     * @return the response carrying the id and links of the decompilation.
+     * @throws IOException
+     *             if an input file cannot be read.
+     * @throws ServiceException
+     *             if the service rejects the request.
+     */
+    @Override
     public DecompilationResponse decompile(final AbstractDecompilationRequest request)
             throws IOException, ServiceException {
-        WebTarget decompilationTarget = retdecTarget.path("decompiler/decompilations");
+        DecompilationResponse resp = post("decompiler/decompilations", request,
+                request.getMappedInput().throttled(request.getUploadLimit()), DecompilationResponse.class);
+        if (null != resp.getLinks()) {
+            predictor.submitted(resp.getStatusUrl(), request);
+        }
+        return resp;
+    }
+
+    /**
+     * Post a form request.
+     * 
+     * @param path
+     *            the path relative to the service URL.
+     * @param request
+     *            the request.
+     * @param input
+     *            the mapping of the input file of the request.
+     * @param respClass
+     *            the class the response is to be parsed into.
+     * @return the response object.
+     * @throws IOException
+     *             if an input file cannot be read.
+     * @throws ServiceException
+     *             if the service rejects the request, see
+     *             {@link #readResponse}.
+     */
+    private <T> T post(final String path, final RetdecFormRequest request, final MappedFile input,
+            final Class<T> respClass) throws IOException, ServiceException {
+        WebTarget postTarget = retdecTarget.path(path);
         FormDataMultiPart mp = new FormDataMultiPart();
 
         Map<String, Object> fd = request.getFormData();
@@ -126,32 +324,121 @@ public final class RetdecService {
         for (Entry<String, Object> requestField : fd.entrySet()) {
             Object value = requestField.getValue();
             if (null != value) {
-                if (value instanceof String) {
-                    mp.field(requestField.getKey(), (String) value);
-                } else if (value instanceof Boolean) {
-                    mp.field(requestField.getKey(), ((Boolean) value).booleanValue() ? "yes" : "no");
-                } else if (value instanceof Enum) {
-                    mp.field(requestField.getKey(), value.toString());
-                } else if (value instanceof File) {
-                    mp.bodyPart(new FileDataBodyPart(requestField.getKey(), (File) value, MediaType.TEXT_PLAIN_TYPE));
+                if (value instanceof File) {
+                    MappedFile mapped;
+                    if ("input".equals(requestField.getKey())) {
+                        mapped = input;
+                    } else {
+                        mapped = MappedFile.map((File) value);
+                    }
+                    mp.bodyPart(filePart(requestField.getKey(), mapped));
                 } else {
-                    throw new IllegalArgumentException("Cannot post value of class " + value.getClass());
+                    mp.field(requestField.getKey(), formValue(value));
                 }
             }
         }
 
-        Invocation.Builder invocationBuilder = decompilationTarget.request(MediaType.APPLICATION_JSON_TYPE);
+        Invocation.Builder invocationBuilder = postTarget.request(MediaType.APPLICATION_JSON_TYPE);
         Response response = invocationBuilder.post(Entity.entity(mp, mp.getMediaType()), Response.class);
-        int status = response.getStatus();
-        ObjectNode respNode = response.readEntity(ObjectNode.class);
-        switch (status) {
-        case 400:
-        case 422:
-            ErrorResponse err = objectMapper.convertValue(respNode, ErrorResponse.class);
-            throw new ServiceException(status, err);
-        default:
-            return objectMapper.convertValue(respNode, DecompilationResponse.class);
+        return readResponse(objectMapper, response.getStatus(), response.readEntity(String.class), respClass);
+    }
+
+    /**
+     * Parse the response to a post. Every status other than 2xx is a
+     * rejection, e.g. 429 for an exhausted quota or 503 from a proxy, so
+     * callers like {@link hu.keve.retdecjava.pipeline.KeyPool} can tell them
+     * from an accepted request. The body of a rejection is the error
+     * response of the API or, failing that, any text, e.g. an html page.
+     * 
+     * @param objectMapper
+     *            the mapper.
+     * @param status
+     *            the HTTP status.
+     * @param body
+     *            the body, may be null.
+     * @param respClass
+     *            the class the response is to be parsed into.
+     * @return the response object.
+     * @throws IOException
+     *             if the body of an accepted request cannot be parsed.
+     * @throws ServiceException
+     *             if the status is not 2xx.
+     */
+    static <T> T readResponse(final ObjectMapper objectMapper, final int status, final String body,
+            final Class<T> respClass) throws IOException, ServiceException {
+        if (status < 200 || status >= 300) {
+            ErrorResponse err = null;
+            if (null != body && !body.trim().isEmpty()) {
+                try {
+                    err = objectMapper.readValue(body, ErrorResponse.class);
+                } catch (IOException e) {
+                    // not an error response of the API.
+                }
+            }
+            if (null != err && (null != err.message || null != err.description)) {
+                throw new ServiceException(status, err);
+            }
+            String text = null == body ? "" : body.trim();
+            throw new ServiceException(status, text.isEmpty() ? "no description"
+                    : text.length() > MAX_ERROR_TEXT ? text.substring(0, MAX_ERROR_TEXT) + "..." : text);
+        }
+        return objectMapper.readValue(body, respClass);
+    }
+
+    /**
+     * Format the value of a form field other than a file, as the API expects
+     * it.
+     * 
+     * @param value
+     *            the value.
+     * @return the formatted value.
+     */
+    static String formValue(final Object value) {
+        if (value instanceof String) {
+            return (String) value;
+        } else if (value instanceof Boolean) {
+            return ((Boolean) value).booleanValue() ? "yes" : "no";
+        } else if (value instanceof Enum) {
+            return value.toString();
+        } else if (value instanceof List) {
+            return join((List<?>) value);
+        } else if (value instanceof Long || value instanceof Integer) {
+            return "0x" + Long.toHexString(((Number) value).longValue());
         }
+        throw new IllegalArgumentException("Cannot post value of class " + value.getClass());
+    }
+
+    /**
+     * Join the elements of a list field with commas, as the API expects them.
+     * 
+     * @param values
+     *            the values.
+     * @return the joined values.
+     */
+    static String join(final List<?> values) {
+        StringBuilder sb = new StringBuilder();
+        for (Object v : values) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(v);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Create a body part uploading a file from its mapping.
+     * 
+     * @param name
+     *            the name of the form field.
+     * @param mapped
+     *            the mapped file.
+     * @return the body part.
+     */
+    private static FormDataBodyPart filePart(final String name, final MappedFile mapped) {
+        FormDataContentDisposition cd = FormDataContentDisposition.name(name).fileName(mapped.getFile().getName())
+                .build();
+        return new FormDataBodyPart(cd, mapped.throttled(UPLOAD_LIMIT), MediaType.TEXT_PLAIN_TYPE);
     }
 
     /**
@@ -171,30 +458,199 @@ public final class RetdecService {
      */
     private void decompilePoll(final DecompilationResponse resp, final DecompilationResult res)
             throws InterruptedException, IOException, BindingException {
+        StatusPoll poll = startPoll(resp, res);
+        awaitStatus(poll);
+        fetchOutputs(poll);
+    }
+
+    /**
+     * Start obtaining the results of a decompilation by polling its status.
+     * The caller polls, e.g. from a scheduler shared by many decompilations,
+     * and fetches the outputs when finished.
+     * 
+     * @param resp
+     *            the initial response to the decompilation request.
+     * @param res
+     *            the result object accumulating the results of the compilation.
+     * @return the polling, not yet polled.
+     * @throws DecompilationCancelledException
+     *             if the result was cancelled.
+     */
+    @Override
+    public StatusPoll startPoll(final DecompilationResponse resp, final DecompilationResult res) {
+        res.setId(resp.getId());
+        Cancellation.of(res).check();
         res.started();
-        String statusUrl = resp.getStatusUrl();
-        ArrayList<StatusPhase> reportedPhases = new ArrayList<StatusPhase>();
-        StatusResponse status;
-        do {
-            status = getResponse(statusUrl, StatusResponse.class);
-            res.setStatus(status);
-            for (StatusPhase phase : status.getPhases()) {
-                if (!reportedPhases.contains(phase)) {
-                    res.phaseChange(phase);
-                    reportedPhases.add(phase);
-                }
+        return new StatusPoll(this, resp, res);
+    }
+
+    /**
+     * Download the outputs of a finished decompilation into its result and
+     * finish the result.
+     * 
+     * @param poll
+     *            the polling that saw the decompilation finish.
+     * @throws IOException
+     *             when an I/O error occured.
+     * @throws BindingException
+     *             when an API binding exception occurs
+     */
+    public void fetchOutputs(final StatusPoll poll) throws IOException, BindingException {
+        if (!poll.isFinished()) {
+            throw new IllegalStateException("Decompilation not finished " + poll);
+        }
+        DecompilationResult res = poll.getResult();
+        DecompilationOutputs outputs = listOutputs(poll.getResponse(), poll.getStatus());
+        for (Entry<DecompilationOutput, OutputHandle> output : outputs.getOutputs().entrySet()) {
+            Cancellation.of(res).check();
+            if (res.acceptOutput(output.getKey())) {
+                output.getValue().transferTo(res);
             }
-            if (status.isFinished()) {
+        }
+        for (Entry<DecompilationOutput, SortedMap<String, OutputHandle>> nested : outputs.getNested().entrySet()) {
+            if (res instanceof ExtendedDecompilationResult) {
+                ((ExtendedDecompilationResult) res).nestedOutputs(nested.getKey(), nested.getValue());
+            }
+        }
+        Cancellation.of(res).check();
+        res.finished();
+    }
+
+    /**
+     * Report a failure to a result. A failure caused by ending the
+     * cancellation, e.g. a download aborted by closing its stream, is
+     * reported as the cancellation.
+     * 
+     * @param res
+     *            the result.
+     * @param e
+     *            the failure.
+     */
+    public static void fail(final DecompilationResult res, final Exception e) {
+        Cancellation.Outcome outcome = Cancellation.of(res).getOutcome();
+        res.failed(null == outcome || e instanceof DecompilationCancelledException ? e
+                : new DecompilationCancelledException(outcome));
+    }
+
+    /**
+     * Wait for the decompilation to finish and obtain handles to its outputs.
+     * The progress is reported to the result object, but no output is
+     * downloaded; acceptOutput, consumeOutput and nestedOutputs are not called.
+     * The outputs are fetched by opening their handles when they are needed.
+     * 
+     * @param resp
+     *            the initial response to the decompilation request.
+     * @param res
+     *            the result object receiving the progress.
+     * @return the lazy outputs.
+     * @throws InterruptedException
+     *             when the polling was interrupted.
+     * @throws BindingException
+     *             when an API binding exception occurs
+     */
+    public DecompilationOutputs awaitOutputs(final DecompilationResponse resp, final DecompilationResult res)
+            throws InterruptedException, BindingException {
+        StatusPoll poll = startPoll(resp, res);
+        DecompilationOutputs outputs = listOutputs(resp, awaitStatus(poll));
+        res.finished();
+        return outputs;
+    }
+
+    /**
+     * Poll the status until the decompilation is finished. The polls are
+     * scheduled around the finish expected by the predictor. Polls returning
+     * the same status as the previous one are not reported.
+     * 
+     * @param poll
+     *            the polling.
+     * @return the final status.
+     * @throws InterruptedException
+     *             when the polling was interrupted.
+     * @throws BindingException
+     *             when an API binding exception occurs
+     */
+    private StatusResponse awaitStatus(final StatusPoll poll) throws InterruptedException, BindingException {
+        try {
+            while (!poll.poll()) {
+                Cancellation.of(poll.getResult()).sleep(poll.nextDelay());
+            }
+        } finally {
+            poll.abandon();
+        }
+        return poll.getStatus();
+    }
+
+    /**
+     * Get the status of a decompilation unless it is the same as at the
+     * previous poll. The entity tag of the previous status is sent along, so
+     * a server supporting conditional requests answers 304 without a body;
+     * otherwise the body is compared by its fingerprint. Only a changed body
+     * is parsed.
+     * 
+     * @param absoluteURL
+     *            the status URL.
+     * @param fingerprint
+     *            the fingerprint of the previous status, updated.
+     * @return the status, null if unchanged.
+     * @throws BindingException
+     *             when an API binding exception occurs
+     */
+    StatusResponse getChangedStatus(final String absoluteURL, final StatusFingerprint fingerprint)
+            throws BindingException {
+        Invocation.Builder invocationBuilder = target(absoluteURL).request(MediaType.APPLICATION_JSON_TYPE);
+        if (null != fingerprint.getETag()) {
+            invocationBuilder.header(HttpHeaders.IF_NONE_MATCH, fingerprint.getETag());
+        }
+        Response response = invocationBuilder.get();
+        try {
+            int statusCode = response.getStatus();
+            switch (statusCode) {
+            case 200:
                 break;
+            case 304:
+                return null;
+            default:
+                throw new BindingException("Unhandled HTTP status " + statusCode);
             }
-            Thread.sleep(POLL_INTERVAL_MS);
-        } while (true);
+            if (!fingerprint.update(response.readEntity(InputStream.class))) {
+                return null;
+            }
+            fingerprint.setETag(response.getHeaderString(HttpHeaders.ETAG));
+            return objectMapper.readValue(fingerprint.getBuffer(), 0, fingerprint.getLength(), StatusResponse.class);
+        } catch (IOException ex) {
+            throw new BindingException(ex, fingerprint.toString());
+        } finally {
+            response.close();
+        }
+    }
 
+    /**
+     * Obtain handles to the outputs of a finished decompilation.
+     * 
+     * @param resp
+     *            the initial response to the decompilation request.
+     * @param status
+     *            the final status.
+     * @return the lazy outputs.
+     * @throws BindingException
+     *             when an API binding exception occurs
+     */
+    private DecompilationOutputs listOutputs(final DecompilationResponse resp, final StatusResponse status)
+            throws BindingException {
         OutputsResponse outputs = getResponse(resp.getOutputsUrl(), OutputsResponse.class);
+        Map<DecompilationOutput, OutputHandle> handles = DecompilationOutputs.newOutputMap();
+        Map<DecompilationOutput, SortedMap<String, OutputHandle>> nestedHandles = new EnumMap<DecompilationOutput,
+                SortedMap<String, OutputHandle>>(DecompilationOutput.class);
 
         for (Entry<String, Object> output : outputs.getLinks().entrySet()) {
             String key = output.getKey();
             Object value = output.getValue();
+            DecompilationOutput kind;
+            try {
+                kind = DecompilationOutput.valueOf(key);
+            } catch (IllegalArgumentException e) {
+                throw new BindingException("Unknown output " + key);
+            }
             if (value instanceof String) {
                 // FIXME:
                 // This is not intuitive. Output returns links to outputs that
@@ -205,35 +661,26 @@ public final class RetdecService {
                     stop = null == status.getCg();
                 }
 
-                if (!stop && res.acceptOutput(DecompilationOutput.valueOf(key))) {
-                    WebTarget outputTarget = retdecTarget.path(((String) value).substring(URL.length()));
-
-                    Invocation.Builder invocationBuilder = outputTarget.request();
-                    Response response = invocationBuilder.get();
-                    int statusCode = response.getStatus();
-                    MediaType mt = response.getMediaType();
-                    String cds = response.getHeaderString("Content-Disposition");
-                    String fileName;
-                    try {
-                        ContentDisposition cd = new ContentDisposition(cds);
-                        fileName = cd.getFileName();
-                    } catch (ParseException e) {
-                        fileName = null;
-                    }
-                    InputStream in = response.readEntity(InputStream.class);
-                    res.consumeOutput(fileName, mt.toString(), in);
+                if (!stop) {
+                    handles.put(kind, new OutputHandle(outputSource, kind, null, (String) value));
                 }
             } else if (value instanceof Map) {
-                for (Map.Entry<Object, Object> e : ((Map<Object, Object>) value).entrySet()) {
-                    Object skey = e.getKey();
-                    Object svalue = e.getValue();
+                TreeMap<String, OutputHandle> nested = new TreeMap<String, OutputHandle>();
+                for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+                    if (!(e.getValue() instanceof String)) {
+                        throw new BindingException("Unhandled nested value of class " + e.getValue().getClass());
+                    }
+                    String name = String.valueOf(e.getKey());
+                    nested.put(name, new OutputHandle(outputSource, kind, name, (String) e.getValue()));
+                }
+                if (!nested.isEmpty()) {
+                    nestedHandles.put(kind, Collections.unmodifiableSortedMap(nested));
                 }
-
             } else {
                 throw new BindingException("Unhandled value of class " + value.getClass());
             }
         }
-        res.finished();
+        return new DecompilationOutputs(status, handles, nestedHandles);
     }
 
     /**
@@ -256,8 +703,8 @@ public final class RetdecService {
                     // parallel as soon as partial results are available.
                     // This requires load management throttle.
                     decompilePoll(resp, res);
-                } catch (InterruptedException | IOException | BindingException e) {
-                    res.failed(e);
+                } catch (InterruptedException | IOException | BindingException | RuntimeException e) {
+                    fail(res, e);
                 }
             }
         });
@@ -274,13 +721,59 @@ public final class RetdecService {
      * @param res
      *            the result object accumulating the results of the compilation.
      */
+    @Override
     public void decompileSync(final DecompilationResponse resp, final DecompilationResult res) {
         res.setId(resp.getId());
         try {
             decompilePoll(resp, res);
-        } catch (InterruptedException | IOException | BindingException e) {
-            res.failed(e);
+        } catch (InterruptedException | IOException | BindingException | RuntimeException e) {
+            fail(res, e);
+        }
+    }
+
+    /**
+     * Request the headers of an output.
+     * 
+     * @param absoluteURL
+     *            the absolute URL of the output.
+     * @return the response, possibly with an error status if HEAD is not
+     *         supported.
+     */
+    Response headOutput(final String absoluteURL) {
+        return target(absoluteURL).request().head();
+    }
+
+    /**
+     * Request an output.
+     * 
+     * @param absoluteURL
+     *            the absolute URL of the output.
+     * @return the response, its status checked.
+     * @throws BindingException
+     *             when an API binding exception occurs
+     */
+    Response getOutputResponse(final String absoluteURL) throws BindingException {
+        Response response = target(absoluteURL).request().get();
+        int statusCode = response.getStatus();
+        if (200 != statusCode) {
+            response.close();
+            throw new BindingException("Unhandled HTTP status " + statusCode + " for " + absoluteURL);
+        }
+        return response;
+    }
+
+    /**
+     * Get the web target of an absolute URL of the service.
+     * 
+     * @param absoluteURL
+     *            the absolute URL.
+     * @return the web target.
+     */
+    private WebTarget target(final String absoluteURL) {
+        if (!absoluteURL.startsWith(baseUrl)) {
+            throw new IllegalArgumentException("wrong prefix " + absoluteURL);
         }
+        return retdecTarget.path(absoluteURL.substring(baseUrl.length()));
     }
 
     /**
@@ -295,10 +788,7 @@ public final class RetdecService {
      *             when an API binding exception occurs
      */
     private <T> T getResponse(final String absoluteURL, final Class<T> respClass) throws BindingException {
-        if (!absoluteURL.startsWith(URL)) {
-            throw new IllegalArgumentException("wrong prefix " + absoluteURL);
-        }
-        WebTarget statusTarget = retdecTarget.path(absoluteURL.substring(URL.length()));
+        WebTarget statusTarget = target(absoluteURL);
         Invocation.Builder invocationBuilder = statusTarget.request(MediaType.APPLICATION_JSON_TYPE);
         Response response = invocationBuilder.get();
         int statusCode = response.getStatus();
@@ -54,6 +54,23 @@ public final class ServiceException extends Exception {
         this.status = status;
     }
 
+    /**
+     * Construct a ServiceException from a message.
+     * 
+     * @param status
+     *            the HTTP status code.
+     * @param message
+     *            the message.
+     */
+    public ServiceException(final int status, final String message) {
+        super(message);
+        this.status = status;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
     @Override
     public String toString() {
         StringBuffer sb = new StringBuffer();
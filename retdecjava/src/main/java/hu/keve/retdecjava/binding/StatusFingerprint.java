@@ -0,0 +1,125 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.binding;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Fingerprint of the status body last polled, telling whether a poll brought
+ * anything new. The body is read into a buffer reused across polls and hashed
+ * with 64 bit FNV-1a, so an unchanged poll costs one pass over the bytes and
+ * no allocation once the buffer has grown. The entity tag of the body is kept
+ * as well, for servers that answer conditional requests.
+ */
+final class StatusFingerprint {
+    /**
+     * FNV-1a offset basis.
+     */
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    /**
+     * FNV-1a prime.
+     */
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * The body.
+     */
+    private byte[] buffer = new byte[4096];
+    /**
+     * The length of the body, -1 before the first.
+     */
+    private int length = -1;
+    /**
+     * The hash of the body.
+     */
+    private long hash;
+    /**
+     * The entity tag of the body, null if the server sent none.
+     */
+    private String eTag;
+
+    /**
+     * Read a body, replacing the previous one.
+     * 
+     * @param in
+     *            the body, consumed and closed.
+     * @return true if it differs from the previous body.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    boolean update(final InputStream in) throws IOException {
+        int n = 0;
+        try {
+            int r;
+            while (-1 != (r = in.read(buffer, n, buffer.length - n))) {
+                n += r;
+                if (n == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        long h = FNV_OFFSET;
+        for (int i = 0; i < n; i++) {
+            h = (h ^ (buffer[i] & 0xff)) * FNV_PRIME;
+        }
+        boolean changed = n != length || h != hash;
+        length = n;
+        hash = h;
+        return changed;
+    }
+
+    byte[] getBuffer() {
+        return buffer;
+    }
+
+    int getLength() {
+        return length;
+    }
+
+    String getETag() {
+        return eTag;
+    }
+
+    void setETag(final String eTag) {
+        this.eTag = eTag;
+    }
+
+    /**
+     * Get the body as text, for error messages.
+     * 
+     * @return the body.
+     */
+    @Override
+    public String toString() {
+        return length < 0 ? "" : new String(buffer, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,190 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.binding;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The status polling of a single decompilation, advanced one request at a
+ * time. It lets a few threads poll many decompilations by scheduling the next
+ * poll instead of sleeping; {@link RetdecService#decompileSync} loops over it.
+ * The status and the new phases are reported to the result as they arrive.
+ */
+public final class StatusPoll implements DecompilationPoll {
+    /**
+     * The service.
+     */
+    private final RetdecService service;
+    /**
+     * The initial response to the decompilation request.
+     */
+    private final DecompilationResponse resp;
+    /**
+     * The result object receiving the status and phase changes.
+     */
+    private final DecompilationResult res;
+    /**
+     * The status URL, also the key of the predictor.
+     */
+    private final String statusUrl;
+    /**
+     * The fingerprint of the previous status.
+     */
+    private final StatusFingerprint fingerprint = new StatusFingerprint();
+    /**
+     * The phases reported so far.
+     */
+    private final List<StatusPhase> reportedPhases = new ArrayList<StatusPhase>();
+    /**
+     * The last status, null before the first.
+     */
+    private StatusResponse status;
+    /**
+     * Was the predictor told the end?
+     */
+    private boolean ended;
+
+    /**
+     * Construct the polling of a decompilation.
+     * 
+     * @param service
+     *            the service.
+     * @param resp
+     *            the initial response to the decompilation request.
+     * @param res
+     *            the result object receiving the status and phase changes.
+     */
+    StatusPoll(final RetdecService service, final DecompilationResponse resp, final DecompilationResult res) {
+        this.service = service;
+        this.resp = resp;
+        this.res = res;
+        this.statusUrl = resp.getStatusUrl();
+    }
+
+    public DecompilationResponse getResponse() {
+        return resp;
+    }
+
+    public DecompilationResult getResult() {
+        return res;
+    }
+
+    /**
+     * Get the last status.
+     * 
+     * @return the status, null before the first poll.
+     */
+    public synchronized StatusResponse getStatus() {
+        return status;
+    }
+
+    /**
+     * Poll the status once. A status same as the previous one is not
+     * reported.
+     * 
+     * @return true if the decompilation finished.
+     * @throws BindingException
+     *             when an API binding exception occurs
+     */
+    @Override
+    public synchronized boolean poll() throws BindingException {
+        if (isFinished()) {
+            return true;
+        }
+        StatusResponse changed;
+        try {
+            changed = service.getChangedStatus(statusUrl, fingerprint);
+        } catch (BindingException | RuntimeException e) {
+            abandon();
+            throw e;
+        }
+        if (null != changed) {
+            status = changed;
+            res.setStatus(status);
+            for (StatusPhase phase : status.getPhases()) {
+                if (!reportedPhases.contains(phase)) {
+                    service.getPredictor().phase(statusUrl, phase);
+                    res.phaseChange(phase);
+                    reportedPhases.add(phase);
+                }
+            }
+            if (status.isFinished()) {
+                ended = true;
+                service.getPredictor().finished(statusUrl, status.isSucceeded());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tell whether the decompilation finished.
+     * 
+     * @return true if the last status is final.
+     */
+    public synchronized boolean isFinished() {
+        return null != status && status.isFinished();
+    }
+
+    /**
+     * Get the time to wait until the next poll, scheduled around the finish
+     * expected by the predictor.
+     * 
+     * @return the delay in milliseconds.
+     */
+    @Override
+    public long nextDelay() {
+        return service.getPredictor().nextPollDelay(statusUrl, RetdecService.POLL_INTERVAL_MS);
+    }
+
+    /**
+     * Give up polling before the decompilation finished, so the predictor
+     * forgets it. Nothing happens after the finish.
+     */
+    @Override
+    public synchronized void abandon() {
+        if (!ended) {
+            ended = true;
+            service.getPredictor().finished(statusUrl, false);
+        }
+    }
+
+    /**
+     * Download the outputs, see {@link RetdecService#fetchOutputs}.
+     */
+    @Override
+    public void fetchOutputs() throws IOException, BindingException {
+        service.fetchOutputs(this);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return statusUrl + (null == status ? "" : " " + status.getCompletion() + "%");
+    }
+}
@@ -0,0 +1,235 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.binding;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Channels transferring at most the rate of token buckets. The data moves in
+ * small steps, each taking its tokens from every bucket, so a transfer limited
+ * by a global and a per-job bucket keeps to the lower of the two. Unlimited
+ * buckets are asked too, so a limit set during a transfer applies to it.
+ */
+final class ThrottledChannels {
+    /**
+     * The largest step of a transfer.
+     */
+    private static final int STEP = 8 * 1024;
+
+    /**
+     * A channel taking tokens for the bytes it moves.
+     */
+    private abstract static class Throttled {
+        /**
+         * The buckets.
+         */
+        private final List<TokenBucket> buckets;
+
+        /**
+         * Construct a throttled channel.
+         * 
+         * @param buckets
+         *            the buckets.
+         */
+        Throttled(final List<TokenBucket> buckets) {
+            this.buckets = buckets;
+        }
+
+        /**
+         * Take the tokens of a step from all buckets.
+         * 
+         * @param bytes
+         *            the bytes of the step.
+         * @throws InterruptedIOException
+         *             when the waiting was interrupted.
+         */
+        final void acquire(final int bytes) throws InterruptedIOException {
+            try {
+                for (TokenBucket bucket : buckets) {
+                    bucket.acquire(bytes);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Throttled transfer interrupted.");
+            }
+        }
+    }
+
+    /**
+     * Throttled reading.
+     */
+    private static final class Readable extends Throttled implements ReadableByteChannel {
+        /**
+         * The channel read.
+         */
+        private final ReadableByteChannel in;
+
+        /**
+         * Construct a throttled reading channel.
+         * 
+         * @param in
+         *            the channel read.
+         * @param buckets
+         *            the buckets.
+         */
+        Readable(final ReadableByteChannel in, final List<TokenBucket> buckets) {
+            super(buckets);
+            this.in = in;
+        }
+
+        @Override
+        public int read(final ByteBuffer dst) throws IOException {
+            ByteBuffer step = dst.slice();
+            step.limit(Math.min(STEP, step.remaining()));
+            // the step is paid for after reading, when its size is known.
+            int n = in.read(step);
+            if (n > 0) {
+                dst.position(dst.position() + n);
+                acquire(n);
+            }
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return in.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Throttled writing.
+     */
+    private static final class Writable extends Throttled implements WritableByteChannel {
+        /**
+         * The channel written.
+         */
+        private final WritableByteChannel out;
+
+        /**
+         * Construct a throttled writing channel.
+         * 
+         * @param out
+         *            the channel written.
+         * @param buckets
+         *            the buckets.
+         */
+        Writable(final WritableByteChannel out, final List<TokenBucket> buckets) {
+            super(buckets);
+            this.out = out;
+        }
+
+        @Override
+        public int write(final ByteBuffer src) throws IOException {
+            ByteBuffer step = src.slice();
+            step.limit(Math.min(STEP, step.remaining()));
+            acquire(step.remaining());
+            int n = 0;
+            while (step.hasRemaining()) {
+                n += out.write(step);
+            }
+            src.position(src.position() + n);
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return out.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Not instantiated.
+     */
+    private ThrottledChannels() {
+    }
+
+    /**
+     * Get the buckets given, whether limited now or not.
+     * 
+     * @param buckets
+     *            the buckets, possibly null.
+     * @return the non-null ones.
+     */
+    private static List<TokenBucket> present(final TokenBucket... buckets) {
+        List<TokenBucket> present = new ArrayList<TokenBucket>(buckets.length);
+        for (TokenBucket bucket : buckets) {
+            if (null != bucket) {
+                present.add(bucket);
+            }
+        }
+        return present;
+    }
+
+    /**
+     * Limit reading a stream.
+     * 
+     * @param in
+     *            the stream.
+     * @param buckets
+     *            the buckets, null ones are ignored.
+     * @return the throttled stream, closing the stream when closed; the
+     *         stream itself if no bucket is given.
+     */
+    static InputStream newInputStream(final InputStream in, final TokenBucket... buckets) {
+        List<TokenBucket> present = present(buckets);
+        return present.isEmpty() ? in : Channels.newInputStream(new Readable(Channels.newChannel(in), present));
+    }
+
+    /**
+     * Limit writing a stream.
+     * 
+     * @param out
+     *            the stream.
+     * @param buckets
+     *            the buckets, null ones are ignored.
+     * @return the throttled channel writing the stream.
+     */
+    static WritableByteChannel newChannel(final OutputStream out, final TokenBucket... buckets) {
+        List<TokenBucket> present = present(buckets);
+        WritableByteChannel channel = Channels.newChannel(out);
+        return present.isEmpty() ? channel : new Writable(channel, present);
+    }
+}
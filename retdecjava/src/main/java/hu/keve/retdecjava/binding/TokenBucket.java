@@ -0,0 +1,198 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.binding;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting the bandwidth of transfers. Tokens, one per byte,
+ * accumulate at the rate up to the burst size; a transfer takes the tokens of
+ * its bytes before it proceeds, waiting for them if needed. The rate can be
+ * changed at any time, waiting transfers adapt right away. A bucket is shared
+ * by the transfers it limits, e.g. all uploads or the downloads of a job.
+ */
+public final class TokenBucket {
+    /**
+     * The rate of an unlimited bucket.
+     */
+    public static final long UNLIMITED = Long.MAX_VALUE;
+    /**
+     * The burst size as the share of the rate, i.e. tokens of 250 ms.
+     */
+    private static final int BURST_DIVISOR = 4;
+    /**
+     * The smallest burst size, enough for a transfer step.
+     */
+    private static final long MIN_BURST = 16 * 1024;
+
+    /**
+     * The rate in bytes per second.
+     */
+    private long rate;
+    /**
+     * The largest number of tokens banked.
+     */
+    private long burst;
+    /**
+     * The tokens available.
+     */
+    private double tokens;
+    /**
+     * When the tokens were last added, System.nanoTime.
+     */
+    private long refilled = System.nanoTime();
+    /**
+     * The bytes granted in total.
+     */
+    private long granted;
+
+    /**
+     * Construct a bucket.
+     * 
+     * @param bytesPerSecond
+     *            the rate, {@link #UNLIMITED} for no limit.
+     */
+    public TokenBucket(final long bytesPerSecond) {
+        setRate(bytesPerSecond);
+    }
+
+    /**
+     * Change the rate. The burst size follows the rate.
+     * 
+     * @param bytesPerSecond
+     *            the rate, {@link #UNLIMITED} for no limit.
+     */
+    public synchronized void setRate(final long bytesPerSecond) {
+        setRate(bytesPerSecond, System.nanoTime());
+    }
+
+    /**
+     * Change the rate at a given time.
+     * 
+     * @param bytesPerSecond
+     *            the rate.
+     * @param now
+     *            the time, System.nanoTime.
+     */
+    synchronized void setRate(final long bytesPerSecond, final long now) {
+        if (bytesPerSecond <= 0) {
+            throw new IllegalArgumentException("Rate must be positive: " + bytesPerSecond);
+        }
+        refill(now);
+        boolean created = 0 == rate;
+        rate = bytesPerSecond;
+        burst = UNLIMITED == rate ? MIN_BURST : Math.max(MIN_BURST, rate / BURST_DIVISOR);
+        // a new bucket starts full.
+        tokens = created ? burst : Math.min(tokens, burst);
+        notifyAll();
+    }
+
+    public synchronized long getRate() {
+        return rate;
+    }
+
+    public synchronized boolean isUnlimited() {
+        return UNLIMITED == rate;
+    }
+
+    /**
+     * Get the bytes granted since the bucket was created.
+     * 
+     * @return the number of bytes.
+     */
+    public synchronized long getGranted() {
+        return granted;
+    }
+
+    /**
+     * Take the tokens of a transfer, waiting until they are available.
+     * 
+     * @param bytes
+     *            the number of bytes to transfer.
+     * @throws InterruptedException
+     *             when the waiting was interrupted.
+     */
+    public synchronized void acquire(final long bytes) throws InterruptedException {
+        long remaining = bytes;
+        while (remaining > 0) {
+            if (UNLIMITED == rate) {
+                // also when the limit was lifted while waiting.
+                granted += remaining;
+                return;
+            }
+            long step = Math.min(remaining, burst);
+            long wait;
+            while ((wait = take(step, System.nanoTime())) > 0) {
+                TimeUnit.NANOSECONDS.timedWait(this, wait);
+                step = Math.min(remaining, burst);
+            }
+            remaining -= step;
+        }
+    }
+
+    /**
+     * Take tokens if available.
+     * 
+     * @param bytes
+     *            the number of tokens, at most the burst size.
+     * @param now
+     *            the time, System.nanoTime.
+     * @return 0 if taken, otherwise the time until they are available in
+     *         nanoseconds.
+     */
+    synchronized long take(final long bytes, final long now) {
+        refill(now);
+        if (UNLIMITED == rate || tokens >= bytes) {
+            if (UNLIMITED != rate) {
+                tokens -= bytes;
+            }
+            granted += bytes;
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil((bytes - tokens) * TimeUnit.SECONDS.toNanos(1) / rate));
+    }
+
+    /**
+     * Add the tokens accumulated since the last refill.
+     * 
+     * @param now
+     *            the time, System.nanoTime.
+     */
+    private void refill(final long now) {
+        if (UNLIMITED == rate || 0 == rate) {
+            tokens = burst;
+        } else if (now > refilled) {
+            tokens = Math.min(burst, tokens + (double) (now - refilled) * rate / TimeUnit.SECONDS.toNanos(1));
+        }
+        refilled = now;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return UNLIMITED == rate ? "unlimited" : rate + " B/s";
+    }
+}
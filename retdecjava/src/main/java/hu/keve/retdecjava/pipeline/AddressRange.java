@@ -0,0 +1,159 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An address range of a selective decompilation, written as
+ * <code>start-end</code> with an inclusive end.
+ */
+final class AddressRange {
+    /**
+     * The first address.
+     */
+    private final long start;
+    /**
+     * The last address.
+     */
+    private final long end;
+
+    /**
+     * Construct a range.
+     * 
+     * @param start
+     *            the first address.
+     * @param end
+     *            the last address.
+     */
+    AddressRange(final long start, final long end) {
+        if (end < start) {
+            throw new IllegalArgumentException("Empty address range: " + start + "-" + end);
+        }
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Parse a range.
+     * 
+     * @param range
+     *            the range, e.g. <code>0x1000-0x1fff</code>.
+     * @return the range.
+     */
+    static AddressRange parse(final String range) {
+        String r = range.trim();
+        int dash = r.indexOf('-', 1);
+        if (dash < 0) {
+            throw new IllegalArgumentException("Not an address range: " + r);
+        }
+        return new AddressRange(Long.decode(r.substring(0, dash).trim()), Long.decode(r.substring(dash + 1).trim()));
+    }
+
+    /**
+     * Parse ranges.
+     * 
+     * @param ranges
+     *            the ranges.
+     * @return the parsed ranges in the same order.
+     */
+    static List<AddressRange> parseAll(final List<String> ranges) {
+        List<AddressRange> parsed = new ArrayList<AddressRange>();
+        for (String r : ranges) {
+            parsed.add(parse(r));
+        }
+        return parsed;
+    }
+
+    /**
+     * Format ranges.
+     * 
+     * @param ranges
+     *            the ranges.
+     * @return the formatted ranges in the same order.
+     */
+    static List<String> formatAll(final List<AddressRange> ranges) {
+        List<String> formatted = new ArrayList<String>();
+        for (AddressRange r : ranges) {
+            formatted.add(r.toString());
+        }
+        return formatted;
+    }
+
+    /**
+     * Remove the addresses of some ranges from other ranges.
+     * 
+     * @param ranges
+     *            the ranges.
+     * @param holes
+     *            the addresses to remove.
+     * @return what remains of the ranges, in their order.
+     */
+    static List<AddressRange> subtract(final List<AddressRange> ranges, final List<AddressRange> holes) {
+        List<AddressRange> result = new ArrayList<AddressRange>(ranges);
+        for (AddressRange hole : holes) {
+            List<AddressRange> next = new ArrayList<AddressRange>();
+            for (AddressRange r : result) {
+                if (hole.end < r.start || hole.start > r.end) {
+                    next.add(r);
+                    continue;
+                }
+                if (r.start < hole.start) {
+                    next.add(new AddressRange(r.start, hole.start - 1));
+                }
+                if (hole.end < r.end) {
+                    next.add(new AddressRange(hole.end + 1, r.end));
+                }
+            }
+            result = next;
+        }
+        return result;
+    }
+
+    long getStart() {
+        return start;
+    }
+
+    long getEnd() {
+        return end;
+    }
+
+    /**
+     * Get the number of addresses.
+     * 
+     * @return the length.
+     */
+    long length() {
+        return end - start + 1;
+    }
+
+    @Override
+    public String toString() {
+        return "0x" + Long.toHexString(start) + "-0x" + Long.toHexString(end);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.pipeline;
+
+import java.io.IOException;
+
+import hu.keve.retdecjava.binding.AbstractDecompilationRequest;
+import hu.keve.retdecjava.binding.Cancellation;
+import hu.keve.retdecjava.binding.DecompilationCancelledException;
+import hu.keve.retdecjava.binding.DecompilationResponse;
+import hu.keve.retdecjava.binding.DecompilationResult;
+import hu.keve.retdecjava.binding.Decompiler;
+import hu.keve.retdecjava.binding.ServiceException;
+
+/**
+ * Decompiler holding every decompilation to a common deadline, e.g. the
+ * decompilations a pipeline makes for a single input. No submission is made
+ * after the deadline, and the results being obtained time out at it.
+ */
+public final class DeadlineDecompiler implements Decompiler {
+    /**
+     * The backend.
+     */
+    private final Decompiler service;
+    /**
+     * The deadline, System.currentTimeMillis.
+     */
+    private final long deadline;
+
+    /**
+     * Construct a decompiler with a deadline.
+     * 
+     * @param service
+     *            the backend.
+     * @param deadline
+     *            the time the decompilations time out,
+     *            System.currentTimeMillis.
+     */
+    public DeadlineDecompiler(final Decompiler service, final long deadline) {
+        this.service = service;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Submit a decompilation unless the deadline passed.
+     * 
+     * @throws DecompilationCancelledException
+     *             if the deadline passed.
+     */
+    @Override
+    public DecompilationResponse decompile(final AbstractDecompilationRequest request)
+            throws IOException, ServiceException {
+        if (System.currentTimeMillis() >= deadline) {
+            throw new DecompilationCancelledException(Cancellation.Outcome.TIMED_OUT);
+        }
+        return service.decompile(request);
+    }
+
+    /**
+     * Obtain the results of a decompilation, timing out at the deadline.
+     */
+    @Override
+    public void decompileSync(final DecompilationResponse resp, final DecompilationResult res) {
+        Cancellation cancellation = Cancellation.of(res);
+        cancellation.setDeadline(deadline);
+        try {
+            service.decompileSync(resp, res);
+        } finally {
+            cancellation.disarm();
+        }
+    }
+}
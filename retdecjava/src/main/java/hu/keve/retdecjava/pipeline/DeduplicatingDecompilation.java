@@ -0,0 +1,232 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.pipeline;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import hu.keve.retdecjava.analysis.FunctionSymbol;
+import hu.keve.retdecjava.analysis.FunctionTable;
+import hu.keve.retdecjava.binding.BinDecompilationRequest;
+import hu.keve.retdecjava.binding.DecompilationResponse;
+import hu.keve.retdecjava.binding.DecompilationResult.DecompilationOutput;
+import hu.keve.retdecjava.binding.Decompiler;
+import hu.keve.retdecjava.sink.MemorySink;
+import hu.keve.retdecjava.sink.OutputSink;
+import hu.keve.retdecjava.sink.SinkDecompilationResult;
+
+/**
+ * Decompilation excluding the functions already in a {@link FunctionStore}.
+ * The known functions are removed from the selection of the request, the
+ * rest is decompiled, the new definitions are added to the store and the
+ * stored definitions are stitched into the hll output.
+ */
+public final class DeduplicatingDecompilation {
+    /**
+     * Preamble of an output made only of stored definitions.
+     */
+    private static final String STORED_ONLY = "//\n// Assembled from stored function definitions.\n//\n\n"
+            + "#include <stdint.h>\n\n";
+
+    /**
+     * What a deduplicating decompilation did.
+     */
+    public static final class Report {
+        /**
+         * Number of functions taken from the store.
+         */
+        private final int reused;
+        /**
+         * Number of functions decompiled.
+         */
+        private final int decompiled;
+        /**
+         * Number of bytes of code excluded from the decompilation.
+         */
+        private final long excludedBytes;
+
+        /**
+         * Construct a report.
+         * 
+         * @param reused
+         *            number of functions taken from the store.
+         * @param decompiled
+         *            number of functions decompiled.
+         * @param excludedBytes
+         *            number of bytes of code excluded from the decompilation.
+         */
+        Report(final int reused, final int decompiled, final long excludedBytes) {
+            this.reused = reused;
+            this.decompiled = decompiled;
+            this.excludedBytes = excludedBytes;
+        }
+
+        public int getReused() {
+            return reused;
+        }
+
+        public int getDecompiled() {
+            return decompiled;
+        }
+
+        public long getExcludedBytes() {
+            return excludedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d functions reused (%d bytes), %d decompiled", reused, excludedBytes, decompiled);
+        }
+    }
+
+    /**
+     * The service.
+     */
+    private final Decompiler service;
+    /**
+     * The store.
+     */
+    private final FunctionStore store;
+
+    /**
+     * Construct a deduplicating decompilation.
+     * 
+     * @param service
+     *            the service.
+     * @param store
+     *            the store.
+     */
+    public DeduplicatingDecompilation(final Decompiler service, final FunctionStore store) {
+        this.service = service;
+        this.store = store;
+    }
+
+    /**
+     * Decompile a binary and write the hll output into a sink. A selection of
+     * address ranges in the request is narrowed by the ranges of the known
+     * functions, otherwise the function selection is narrowed, or all
+     * unknown functions are selected. Only the functions wholly inside the
+     * selection are looked up and stored.
+     * 
+     * @param request
+     *            the request.
+     * @param sink
+     *            the sink receiving the hll output.
+     * @return what was done.
+     * @throws Exception
+     *             if the decompilation or the store fails.
+     */
+    public Report run(final BinDecompilationRequest request, final OutputSink sink) throws Exception {
+        FunctionTable table = FunctionTable.parse(request.getMappedInput().getBuffer());
+        boolean byRanges = null != request.getSelDecompRanges() && !request.getSelDecompRanges().isEmpty();
+        List<AddressRange> ranges = byRanges ? AddressRange.parseAll(request.getSelDecompRanges()) : null;
+        Set<String> selected = byRanges || null == request.getSelDecompFuncs() ? null
+                : new HashSet<String>(request.getSelDecompFuncs());
+        List<FunctionSymbol> known = new ArrayList<FunctionSymbol>();
+        List<FunctionSymbol> unknown = new ArrayList<FunctionSymbol>();
+        for (FunctionSymbol f : table.getFunctions().values()) {
+            if (null != selected && !selected.contains(f.getName())) {
+                continue;
+            }
+            if (null != ranges && !AddressRange.subtract(Collections.singletonList(
+                    new AddressRange(f.getAddress(), f.getAddress() + f.getSize() - 1)), ranges).isEmpty()) {
+                continue;
+            }
+            (store.contains(f, table) ? known : unknown).add(f);
+        }
+
+        BinDecompilationRequest narrowed = new BinDecompilationRequest(request);
+        List<AddressRange> remaining = null;
+        if (byRanges) {
+            List<AddressRange> holes = new ArrayList<AddressRange>();
+            for (FunctionSymbol f : known) {
+                holes.add(new AddressRange(f.getAddress(), f.getAddress() + f.getSize() - 1));
+            }
+            remaining = AddressRange.subtract(ranges, holes);
+            narrowed.setSelDecompRanges(AddressRange.formatAll(remaining));
+        } else if (!known.isEmpty()) {
+            List<String> names = new ArrayList<String>();
+            for (FunctionSymbol f : unknown) {
+                names.add(f.getName());
+            }
+            narrowed.setSelDecompFuncs(names);
+        }
+
+        HllDocument doc;
+        String outputName;
+        boolean nothingLeft = null == remaining ? !known.isEmpty() && unknown.isEmpty() : remaining.isEmpty();
+        if (nothingLeft) {
+            doc = HllDocument.parse(STORED_ONLY);
+            String name = request.getInput().getName();
+            int dot = name.lastIndexOf('.');
+            outputName = (dot > 0 ? name.substring(0, dot) : name) + ".c";
+        } else {
+            MemorySink result = new MemorySink();
+            SinkDecompilationResult res = new SinkDecompilationResult(result, EnumSet.of(DecompilationOutput.hll));
+            DecompilationResponse resp = service.decompile(narrowed);
+            service.decompileSync(resp, res);
+            if (null != res.getException()) {
+                throw res.getException();
+            }
+            if (result.getOutputs().isEmpty()) {
+                throw new IOException("The decompilation produced no hll output.");
+            }
+            outputName = result.getOutputs().keySet().iterator().next();
+            doc = HllDocument.parse(new String(result.get(outputName), StandardCharsets.ISO_8859_1));
+            for (FunctionSymbol f : unknown) {
+                String definition = doc.getFunction(f.getName());
+                if (null != definition) {
+                    store.put(f, table, definition);
+                }
+            }
+        }
+
+        long excludedBytes = 0;
+        for (FunctionSymbol f : known) {
+            String definition = store.get(f, table);
+            if (null != definition && null == doc.getFunction(f.getName())) {
+                doc.putFunction(f.getName(), definition);
+                String prototype = HllDocument.prototype(definition);
+                if (null != prototype) {
+                    doc.addDeclaration(prototype);
+                }
+                excludedBytes += f.getSize();
+            }
+        }
+        try (OutputStream out = sink.open(outputName, "text/plain")) {
+            out.write(doc.toString().getBytes(StandardCharsets.ISO_8859_1));
+        }
+        return new Report(known.size(), unknown.size(), excludedBytes);
+    }
+}
@@ -0,0 +1,447 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.pipeline;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import hu.keve.retdecjava.binding.AbstractDecompilationRequest;
+import hu.keve.retdecjava.binding.DecompilationCancelledException;
+import hu.keve.retdecjava.binding.DecompilationResponse;
+import hu.keve.retdecjava.binding.DecompilationResult;
+import hu.keve.retdecjava.binding.Decompiler;
+import hu.keve.retdecjava.binding.ForwardingDecompilationResult;
+import hu.keve.retdecjava.binding.ServiceException;
+
+/**
+ * Group of retdec.com compatible backends, e.g. self-hosted nodes, sharing
+ * the decompilations. Submissions go to the healthy endpoint with the least
+ * expected wait: its recent submission latency times the jobs it is already
+ * running. An endpoint failing repeatedly is taken out for a cool-down period
+ * and its submissions fail over to the next endpoint. Obtaining the results of
+ * a job always uses the endpoint that owns it.
+ * <p>
+ * Health is judged from the calls made, no probes are sent.
+ */
+public final class EndpointGroup implements Decompiler {
+    /**
+     * Weight of the latest submission in the latency average.
+     */
+    private static final double LATENCY_DECAY = 0.3;
+    /**
+     * Consecutive failures taking an endpoint out.
+     */
+    private static final int MAX_FAILURES = 3;
+    /**
+     * Time an endpoint stays out before it is tried again.
+     */
+    private static final long COOL_DOWN_MS = 30 * 1000;
+    /**
+     * Number of submitted jobs remembered until their results are obtained.
+     * Beyond it the oldest job is forgotten and no longer counted in flight,
+     * so jobs that are never synced do not pile up.
+     */
+    static final int MAX_OWNED = 10000;
+
+    /**
+     * Snapshot of the state of an endpoint.
+     */
+    public static final class EndpointStats {
+        /**
+         * Is it taking submissions?
+         */
+        private final boolean healthy;
+        /**
+         * Jobs submitted and not yet finished.
+         */
+        private final int inFlight;
+        /**
+         * The recent submission latency in milliseconds.
+         */
+        private final double latencyMillis;
+        /**
+         * Jobs submitted.
+         */
+        private final long submitted;
+        /**
+         * Failed calls.
+         */
+        private final long failures;
+
+        /**
+         * Construct a snapshot.
+         * 
+         * @param healthy
+         *            is it taking submissions?
+         * @param inFlight
+         *            jobs submitted and not yet finished.
+         * @param latencyMillis
+         *            the recent submission latency in milliseconds.
+         * @param submitted
+         *            jobs submitted.
+         * @param failures
+         *            failed calls.
+         */
+        EndpointStats(final boolean healthy, final int inFlight, final double latencyMillis, final long submitted,
+                final long failures) {
+            this.healthy = healthy;
+            this.inFlight = inFlight;
+            this.latencyMillis = latencyMillis;
+            this.submitted = submitted;
+            this.failures = failures;
+        }
+
+        public boolean isHealthy() {
+            return healthy;
+        }
+
+        public int getInFlight() {
+            return inFlight;
+        }
+
+        public double getLatencyMillis() {
+            return latencyMillis;
+        }
+
+        public long getSubmitted() {
+            return submitted;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s, in flight %d, latency %.0fms, submitted %d, failures %d",
+                    healthy ? "healthy" : "down", inFlight, latencyMillis, submitted, failures);
+        }
+    }
+
+    /**
+     * An endpoint of the group, guarded by the group.
+     */
+    private static final class Endpoint {
+        /**
+         * The main entry point.
+         */
+        private final String baseUrl;
+        /**
+         * The service.
+         */
+        private final Decompiler service;
+        /**
+         * Jobs submitted and not yet finished.
+         */
+        private int inFlight;
+        /**
+         * The recent submission latency in milliseconds, 0 before the first.
+         */
+        private double latencyMillis;
+        /**
+         * Consecutive failures.
+         */
+        private int consecutiveFailures;
+        /**
+         * Until when the endpoint is out, System.currentTimeMillis.
+         */
+        private long downUntil;
+        /**
+         * Jobs submitted.
+         */
+        private long submitted;
+        /**
+         * Failed calls.
+         */
+        private long failures;
+
+        /**
+         * Construct an endpoint.
+         * 
+         * @param baseUrl
+         *            the main entry point.
+         * @param service
+         *            the service.
+         */
+        Endpoint(final String baseUrl, final Decompiler service) {
+            this.baseUrl = baseUrl;
+            this.service = service;
+        }
+
+        /**
+         * Get the expected wait of the next submission.
+         * 
+         * @return the cost, lower is better.
+         */
+        double cost() {
+            return (1 + latencyMillis) * (1 + inFlight);
+        }
+    }
+
+    /**
+     * The endpoints by base URL.
+     */
+    private final Map<String, Endpoint> endpoints = new LinkedHashMap<String, Endpoint>();
+    /**
+     * The endpoint owning each running job, by status URL, oldest first.
+     * Guarded by the group.
+     */
+    private final Map<String, Endpoint> owners = new LinkedHashMap<String, Endpoint>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Endpoint> eldest) {
+            if (size() <= MAX_OWNED) {
+                return false;
+            }
+            eldest.getValue().inFlight--;
+            return true;
+        }
+    };
+
+    /**
+     * Construct a group.
+     * 
+     * @param services
+     *            the services by base URL.
+     */
+    public EndpointGroup(final Map<String, ? extends Decompiler> services) {
+        if (services.isEmpty()) {
+            throw new IllegalArgumentException("At least one endpoint is required.");
+        }
+        for (Map.Entry<String, ? extends Decompiler> e : services.entrySet()) {
+            endpoints.put(e.getKey(), new Endpoint(e.getKey(), e.getValue()));
+        }
+    }
+
+    /**
+     * Get the key a job is owned under. Ids are only unique per endpoint, the
+     * status URL is unique across them.
+     * 
+     * @param resp
+     *            the response to the submission.
+     * @return the key.
+     */
+    static String jobKey(final DecompilationResponse resp) {
+        return null == resp.getLinks() || null == resp.getStatusUrl() ? resp.getId() : resp.getStatusUrl();
+    }
+
+    /**
+     * Choose the endpoint for the next submission and count the submission in
+     * flight on it. An endpoint whose cool-down expired is tried again.
+     * 
+     * @param tried
+     *            the endpoints that already failed the submission.
+     * @return the endpoint, null if none is available.
+     */
+    private synchronized Endpoint choose(final Set<Endpoint> tried) {
+        long now = System.currentTimeMillis();
+        Endpoint best = null;
+        for (Endpoint e : endpoints.values()) {
+            if (tried.contains(e) || e.downUntil > now) {
+                continue;
+            }
+            if (null == best || e.cost() < best.cost()) {
+                best = e;
+            }
+        }
+        if (null != best) {
+            best.inFlight++;
+        }
+        return best;
+    }
+
+    /**
+     * Record the outcome of a call.
+     * 
+     * @param e
+     *            the endpoint.
+     * @param failed
+     *            did the call fail?
+     */
+    private synchronized void record(final Endpoint e, final boolean failed) {
+        if (failed) {
+            e.failures++;
+            if (++e.consecutiveFailures >= MAX_FAILURES) {
+                e.downUntil = System.currentTimeMillis() + COOL_DOWN_MS;
+            }
+        } else {
+            e.consecutiveFailures = 0;
+            e.downUntil = 0;
+        }
+    }
+
+    /**
+     * Is a failure the fault of the endpoint rather than of the request?
+     * 
+     * @param e
+     *            the failure.
+     * @return true for server errors and overload.
+     */
+    private static boolean isEndpointFailure(final ServiceException e) {
+        return e.getStatus() >= 500 || 429 == e.getStatus();
+    }
+
+    /**
+     * Submit a decompilation to the best endpoint, failing over to the next
+     * one on server errors, overload and answers without the id and status
+     * link of the job.
+     */
+    @Override
+    public DecompilationResponse decompile(final AbstractDecompilationRequest request)
+            throws IOException, ServiceException {
+        Set<Endpoint> tried = new HashSet<Endpoint>();
+        Exception last = null;
+        Endpoint e;
+        while (null != (e = choose(tried))) {
+            long start = System.nanoTime();
+            try {
+                DecompilationResponse resp = e.service.decompile(request);
+                if (null == resp || null == resp.getId() || null == resp.getLinks() || null == resp.getStatusUrl()) {
+                    // the job cannot be followed, nor told from the jobs of other endpoints.
+                    throw new ServiceException(502, "Endpoint " + e.baseUrl + " answered without a job.");
+                }
+                synchronized (this) {
+                    double millis = (System.nanoTime() - start) / 1e6;
+                    e.latencyMillis = 0 == e.submitted ? millis
+                            : e.latencyMillis * (1 - LATENCY_DECAY) + millis * LATENCY_DECAY;
+                    e.submitted++;
+                    owners.put(jobKey(resp), e);
+                }
+                record(e, false);
+                return resp;
+            } catch (ServiceException ex) {
+                release(e);
+                if (!isEndpointFailure(ex)) {
+                    throw ex;
+                }
+                record(e, true);
+                last = ex;
+            } catch (RuntimeException ex) {
+                // connection failures surface as processing exceptions.
+                release(e);
+                record(e, true);
+                last = ex;
+            } catch (IOException ex) {
+                release(e);
+                throw ex;
+            }
+            tried.add(e);
+        }
+        if (last instanceof ServiceException) {
+            throw (ServiceException) last;
+        }
+        throw new ServiceException(503, "No endpoint available" + (null == last ? "." : ": " + last));
+    }
+
+    /**
+     * Release a job counted in flight on an endpoint.
+     * 
+     * @param e
+     *            the endpoint.
+     */
+    private synchronized void release(final Endpoint e) {
+        e.inFlight--;
+    }
+
+    /**
+     * Obtain the results of a decompilation from the endpoint that owns it.
+     * Decompilations not submitted through the group, or forgotten beyond
+     * {@link #MAX_OWNED} unsynced jobs, go to the endpoint whose base URL
+     * their links start with.
+     */
+    @Override
+    public void decompileSync(final DecompilationResponse resp, final DecompilationResult res) {
+        Endpoint owner;
+        synchronized (this) {
+            owner = owners.remove(jobKey(resp));
+            if (null == owner) {
+                owner = endpointOf(resp);
+                if (null != owner) {
+                    owner.inFlight++;
+                }
+            }
+        }
+        if (null == owner) {
+            res.setId(resp.getId());
+            res.failed(new IllegalArgumentException("No endpoint owns decompilation " + resp.getId()));
+            return;
+        }
+        final boolean[] failed = new boolean[1];
+        try {
+            owner.service.decompileSync(resp, new ForwardingDecompilationResult(res) {
+                @Override
+                public void failed(final Exception e) {
+                    // a cancelled job says nothing about the health of the endpoint.
+                    failed[0] = !(e instanceof DecompilationCancelledException);
+                    super.failed(e);
+                }
+            });
+        } finally {
+            release(owner);
+            record(owner, failed[0]);
+        }
+    }
+
+    /**
+     * Find the endpoint of a decompilation by its links.
+     * 
+     * @param resp
+     *            the response.
+     * @return the endpoint, null if none matches.
+     */
+    private Endpoint endpointOf(final DecompilationResponse resp) {
+        String status = null == resp.getLinks() ? null : resp.getStatusUrl();
+        if (null != status) {
+            for (Endpoint e : endpoints.values()) {
+                if (status.startsWith(e.baseUrl)) {
+                    return e;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the state of the endpoints.
+     * 
+     * @return snapshots by base URL.
+     */
+    public synchronized Map<String, EndpointStats> getStats() {
+        long now = System.currentTimeMillis();
+        Map<String, EndpointStats> stats = new LinkedHashMap<String, EndpointStats>();
+        for (Endpoint e : endpoints.values()) {
+            stats.put(e.baseUrl,
+                    new EndpointStats(e.downUntil <= now, e.inFlight, e.latencyMillis, e.submitted, e.failures));
+        }
+        return Collections.unmodifiableMap(stats);
+    }
+}
@@ -0,0 +1,500 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.pipeline;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import hu.keve.retdecjava.binding.AbstractDecompilationRequest;
+import hu.keve.retdecjava.binding.Cancellation;
+import hu.keve.retdecjava.binding.DecompilationResult;
+import hu.keve.retdecjava.binding.Decompiler;
+
+/**
+ * Scheduler sharing a limited number of concurrent decompilations among
+ * tenants. Every tenant has its own queue; a free worker takes the next job of
+ * the tenant that received the least service relative to its weight (stride
+ * scheduling), so a bulk run of one tenant does not delay the single jobs of
+ * another. Within a queue, jobs of higher priority go first, optionally
+ * followed by the smaller input.
+ */
+public final class FairScheduler implements Closeable {
+    /**
+     * The service charged for a job, divided by the weight of the tenant.
+     */
+    private static final long STRIDE = 1L << 20;
+
+    /**
+     * Queue depth and waiting times of a tenant.
+     */
+    public static final class TenantMetrics {
+        /**
+         * Jobs waiting.
+         */
+        private final int queued;
+        /**
+         * Jobs running.
+         */
+        private final int running;
+        /**
+         * Jobs finished.
+         */
+        private final long completed;
+        /**
+         * Total time finished and running jobs waited in the queue, in
+         * milliseconds.
+         */
+        private final long totalWaitMillis;
+        /**
+         * Longest time a job waited, in milliseconds.
+         */
+        private final long maxWaitMillis;
+
+        /**
+         * Construct metrics.
+         * 
+         * @param queued
+         *            jobs waiting.
+         * @param running
+         *            jobs running.
+         * @param completed
+         *            jobs finished.
+         * @param totalWaitMillis
+         *            total time started jobs waited in milliseconds.
+         * @param maxWaitMillis
+         *            longest time a job waited in milliseconds.
+         */
+        TenantMetrics(final int queued, final int running, final long completed, final long totalWaitMillis,
+                final long maxWaitMillis) {
+            this.queued = queued;
+            this.running = running;
+            this.completed = completed;
+            this.totalWaitMillis = totalWaitMillis;
+            this.maxWaitMillis = maxWaitMillis;
+        }
+
+        public int getQueued() {
+            return queued;
+        }
+
+        public int getRunning() {
+            return running;
+        }
+
+        public long getCompleted() {
+            return completed;
+        }
+
+        public long getMaxWaitMillis() {
+            return maxWaitMillis;
+        }
+
+        /**
+         * Get the mean time jobs waited before they started.
+         * 
+         * @return the mean wait in milliseconds, 0 if none started.
+         */
+        public long getMeanWaitMillis() {
+            long started = completed + running;
+            return 0 == started ? 0 : totalWaitMillis / started;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("queued %d, running %d, completed %d, wait mean %dms max %dms", queued, running,
+                    completed, getMeanWaitMillis(), maxWaitMillis);
+        }
+    }
+
+    /**
+     * A queued job.
+     */
+    private static final class Job {
+        /**
+         * The tenant.
+         */
+        private final Tenant tenant;
+        /**
+         * The priority, higher first.
+         */
+        private final int priority;
+        /**
+         * The size of the input.
+         */
+        private final long size;
+        /**
+         * The submission order.
+         */
+        private final long seq;
+        /**
+         * When the job was queued, System.nanoTime.
+         */
+        private final long queuedAt;
+        /**
+         * The work.
+         */
+        private final FutureTask<?> task;
+
+        /**
+         * Construct a job.
+         * 
+         * @param tenant
+         *            the tenant.
+         * @param priority
+         *            the priority, higher first.
+         * @param size
+         *            the size of the input.
+         * @param seq
+         *            the submission order.
+         * @param task
+         *            the work.
+         */
+        Job(final Tenant tenant, final int priority, final long size, final long seq, final FutureTask<?> task) {
+            this.tenant = tenant;
+            this.priority = priority;
+            this.size = size;
+            this.seq = seq;
+            this.queuedAt = System.nanoTime();
+            this.task = task;
+        }
+    }
+
+    /**
+     * The state of a tenant, guarded by the scheduler.
+     */
+    private static final class Tenant implements Comparator<Job> {
+        /**
+         * The weight.
+         */
+        private int weight = 1;
+        /**
+         * Order by input size after priority?
+         */
+        private boolean shortestFirst;
+        /**
+         * The virtual time of the service received.
+         */
+        private long pass;
+        /**
+         * The queue.
+         */
+        private final PriorityQueue<Job> queue = new PriorityQueue<Job>(16, this);
+        /**
+         * Jobs running.
+         */
+        private int running;
+        /**
+         * Jobs finished.
+         */
+        private long completed;
+        /**
+         * Total wait of the started jobs in milliseconds.
+         */
+        private long totalWaitMillis;
+        /**
+         * Longest wait in milliseconds.
+         */
+        private long maxWaitMillis;
+
+        @Override
+        public int compare(final Job o1, final Job o2) {
+            if (o1.priority != o2.priority) {
+                return o1.priority > o2.priority ? -1 : 1;
+            }
+            if (shortestFirst && o1.size != o2.size) {
+                return o1.size < o2.size ? -1 : 1;
+            }
+            return Long.compare(o1.seq, o2.seq);
+        }
+    }
+
+    /**
+     * The backend.
+     */
+    private final Decompiler decompiler;
+    /**
+     * The tenants by name.
+     */
+    private final Map<String, Tenant> tenants = new HashMap<String, Tenant>();
+    /**
+     * The worker threads.
+     */
+    private final List<Thread> workers = new ArrayList<Thread>();
+    /**
+     * The virtual time: the pass of the tenant served last.
+     */
+    private long virtualTime;
+    /**
+     * The submission counter.
+     */
+    private long seq;
+    /**
+     * Is the scheduler closed?
+     */
+    private boolean closed;
+
+    /**
+     * Construct a scheduler.
+     * 
+     * @param decompiler
+     *            the backend.
+     * @param workers
+     *            the number of jobs run concurrently.
+     */
+    public FairScheduler(final Decompiler decompiler, final int workers) {
+        this.decompiler = decompiler;
+        for (int i = 0; i < workers; i++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            }, "FairScheduler-" + i);
+            worker.setDaemon(true);
+            this.workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Get a tenant, creating it on first use. Must hold the lock.
+     * 
+     * @param name
+     *            the name.
+     * @return the tenant.
+     */
+    private Tenant tenant(final String name) {
+        Tenant tenant = tenants.get(name);
+        if (null == tenant) {
+            tenant = new Tenant();
+            tenant.pass = virtualTime;
+            tenants.put(name, tenant);
+        }
+        return tenant;
+    }
+
+    /**
+     * Configure a tenant.
+     * 
+     * @param name
+     *            the name of the tenant.
+     * @param weight
+     *            the share of the workers relative to the other tenants.
+     * @param shortestFirst
+     *            run jobs of the same priority smallest input first instead
+     *            of in submission order.
+     */
+    public synchronized void configure(final String name, final int weight, final boolean shortestFirst) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("Weight must be positive: " + weight);
+        }
+        Tenant tenant = tenant(name);
+        tenant.weight = weight;
+        if (tenant.shortestFirst != shortestFirst) {
+            tenant.shortestFirst = shortestFirst;
+            List<Job> jobs = new ArrayList<Job>(tenant.queue);
+            tenant.queue.clear();
+            tenant.queue.addAll(jobs);
+        }
+    }
+
+    /**
+     * Queue a decompilation. The job submits the request and obtains the
+     * results into the result object when a worker takes it.
+     * 
+     * @param tenant
+     *            the tenant.
+     * @param priority
+     *            the priority within the queue of the tenant, higher first.
+     * @param request
+     *            the request.
+     * @param res
+     *            the result object.
+     * @return the future completed with the result object; a failed
+     *         submission fails it. Cancelling it removes a waiting job
+     *         without charging the tenant.
+     */
+    public <R extends DecompilationResult> Future<R> submit(final String tenant, final int priority,
+            final AbstractDecompilationRequest request, final R res) {
+        FutureTask<R> task = new FutureTask<R>(new Callable<R>() {
+            @Override
+            public R call() throws Exception {
+                Cancellation.of(res).check();
+                decompiler.decompileSync(decompiler.decompile(request), res);
+                return res;
+            }
+        }) {
+            @Override
+            protected void done() {
+                if (isCancelled()) {
+                    dequeue(this);
+                }
+            }
+        };
+        long size = request.getInput().length();
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Scheduler closed.");
+            }
+            Tenant t = tenant(tenant);
+            if (t.queue.isEmpty() && 0 == t.running) {
+                // an idle tenant does not bank service it did not ask for.
+                t.pass = Math.max(t.pass, virtualTime);
+            }
+            t.queue.add(new Job(t, priority, size, seq++, task));
+            notifyAll();
+        }
+        return task;
+    }
+
+    /**
+     * Remove a cancelled job from its queue.
+     * 
+     * @param task
+     *            the work of the job.
+     */
+    private synchronized void dequeue(final FutureTask<?> task) {
+        for (Tenant t : tenants.values()) {
+            for (Iterator<Job> it = t.queue.iterator(); it.hasNext();) {
+                if (it.next().task == task) {
+                    it.remove();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Take the next job: the head of the queue of the tenant with the least
+     * pass. Jobs cancelled but not yet dequeued are dropped without charging
+     * their tenant. Must hold the lock.
+     * 
+     * @return the job, null if all queues are empty.
+     */
+    private Job next() {
+        Tenant best = null;
+        for (Tenant t : tenants.values()) {
+            while (!t.queue.isEmpty() && t.queue.peek().task.isCancelled()) {
+                t.queue.poll();
+            }
+            if (!t.queue.isEmpty() && (null == best || t.pass < best.pass)) {
+                best = t;
+            }
+        }
+        if (null == best) {
+            return null;
+        }
+        Job job = best.queue.poll();
+        virtualTime = best.pass;
+        best.pass += STRIDE / best.weight;
+        return job;
+    }
+
+    /**
+     * The loop of a worker.
+     */
+    private void work() {
+        while (true) {
+            Job job = null;
+            synchronized (this) {
+                while (!closed && null == job) {
+                    job = next();
+                    if (null == job) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+                if (null == job) {
+                    return;
+                }
+                if (job.task.isCancelled()) {
+                    continue;
+                }
+                long waited = (System.nanoTime() - job.queuedAt) / 1000000L;
+                job.tenant.running++;
+                job.tenant.totalWaitMillis += waited;
+                job.tenant.maxWaitMillis = Math.max(job.tenant.maxWaitMillis, waited);
+            }
+            try {
+                job.task.run();
+            } finally {
+                synchronized (this) {
+                    job.tenant.running--;
+                    job.tenant.completed++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the metrics of the tenants.
+     * 
+     * @return a snapshot of the metrics by tenant name.
+     */
+    public synchronized Map<String, TenantMetrics> getMetrics() {
+        Map<String, TenantMetrics> metrics = new TreeMap<String, TenantMetrics>();
+        for (Map.Entry<String, Tenant> e : tenants.entrySet()) {
+            Tenant t = e.getValue();
+            metrics.put(e.getKey(), new TenantMetrics(t.queue.size(), t.running, t.completed, t.totalWaitMillis,
+                    t.maxWaitMillis));
+        }
+        return Collections.unmodifiableMap(metrics);
+    }
+
+    /**
+     * Stop the workers. Waiting jobs are cancelled, running jobs complete.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            List<Job> waiting = new ArrayList<Job>();
+            for (Tenant t : tenants.values()) {
+                waiting.addAll(t.queue);
+                t.queue.clear();
+            }
+            for (Job job : waiting) {
+                job.task.cancel(false);
+            }
+            notifyAll();
+        }
+    }
+}
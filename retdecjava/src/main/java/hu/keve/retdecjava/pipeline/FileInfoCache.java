@@ -0,0 +1,204 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.pipeline;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import hu.keve.retdecjava.binding.BindingException;
+import hu.keve.retdecjava.binding.Cancellation;
+import hu.keve.retdecjava.binding.DecompilationCancelledException;
+import hu.keve.retdecjava.binding.FileAnalyzer;
+import hu.keve.retdecjava.binding.FileInfo;
+import hu.keve.retdecjava.binding.FileInfoRequest;
+import hu.keve.retdecjava.binding.MappedFile;
+import hu.keve.retdecjava.binding.ServiceException;
+import hu.keve.retdecjava.sink.DigestSink;
+
+/**
+ * Cache of file analyses keyed by the SHA-256 digest of the input. Identical
+ * inputs are analysed once, also when they are requested concurrently. The
+ * cache is optionally persisted in a directory. An analysis taking longer than
+ * the timeout fails and is not cached.
+ */
+public final class FileInfoCache {
+    /**
+     * The digest algorithm used for keys.
+     */
+    private static final String DIGEST = "SHA-256";
+    /**
+     * The default time an analysis may take, in milliseconds.
+     */
+    public static final long DEFAULT_TIMEOUT_MS = 10 * 60 * 1000L;
+    /**
+     * The service performing the analyses.
+     */
+    private final FileAnalyzer service;
+    /**
+     * The time an analysis may take, in milliseconds.
+     */
+    private final long timeoutMillis;
+    /**
+     * The directory analyses are persisted in, null for memory only.
+     */
+    private final File dir;
+    /**
+     * The completed and running analyses by key.
+     */
+    private final ConcurrentMap<String, FutureTask<FileInfo>> entries =
+            new ConcurrentHashMap<String, FutureTask<FileInfo>>();
+
+    /**
+     * Construct a cache with the default timeout.
+     * 
+     * @param service
+     *            the service performing the analyses.
+     * @param dir
+     *            the directory analyses are persisted in, null for memory
+     *            only.
+     */
+    public FileInfoCache(final FileAnalyzer service, final File dir) {
+        this(service, dir, DEFAULT_TIMEOUT_MS);
+    }
+
+    /**
+     * Construct a cache.
+     * 
+     * @param service
+     *            the service performing the analyses.
+     * @param dir
+     *            the directory analyses are persisted in, null for memory
+     *            only.
+     * @param timeoutMillis
+     *            the time an analysis may take, in milliseconds.
+     */
+    public FileInfoCache(final FileAnalyzer service, final File dir, final long timeoutMillis) {
+        this.service = service;
+        this.dir = dir;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Get the analysis of a file, analysing it unless cached.
+     * 
+     * @param input
+     *            the mapped input.
+     * @param verbose
+     *            request verbose output.
+     * @return the analysis.
+     * @throws IOException
+     *             if the input or the cache cannot be read.
+     * @throws ServiceException
+     *             if the service rejects the request or the analysis failed.
+     * @throws BindingException
+     *             when an API binding exception occurs
+     * @throws InterruptedException
+     *             when waiting for the analysis was interrupted.
+     * @throws DecompilationCancelledException
+     *             if the analysis timed out.
+     */
+    public FileInfo get(final MappedFile input, final boolean verbose)
+            throws IOException, ServiceException, BindingException, InterruptedException {
+        final String key = DigestSink.toHex(input.digest(DIGEST)) + (verbose ? ".verbose" : "");
+        FutureTask<FileInfo> task = new FutureTask<FileInfo>(new Callable<FileInfo>() {
+            @Override
+            public FileInfo call() throws Exception {
+                return load(key, input, verbose);
+            }
+        });
+        FutureTask<FileInfo> existing = entries.putIfAbsent(key, task);
+        if (null == existing) {
+            task.run();
+        } else {
+            task = existing;
+        }
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            entries.remove(key, task);
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof ServiceException) {
+                throw (ServiceException) cause;
+            } else if (cause instanceof BindingException) {
+                throw (BindingException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Load an analysis from the directory or from the service.
+     * 
+     * @param key
+     *            the cache key.
+     * @param input
+     *            the mapped input.
+     * @param verbose
+     *            request verbose output.
+     * @return the analysis.
+     * @throws Exception
+     *             if the analysis fails.
+     */
+    private FileInfo load(final String key, final MappedFile input, final boolean verbose) throws Exception {
+        File file = null == dir ? null : new File(dir, key + ".txt");
+        if (null != file && file.isFile()) {
+            return new FileInfo(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        }
+        FileInfoRequest request = new FileInfoRequest(input);
+        request.setVerbose(verbose);
+        Cancellation cancellation = new Cancellation();
+        cancellation.setTimeout(timeoutMillis);
+        FileInfo info;
+        try {
+            info = service.fileInfo(request, cancellation);
+        } finally {
+            cancellation.disarm();
+        }
+        if (null != file) {
+            Files.createDirectories(dir.toPath());
+            File tmp = new File(dir, key + ".tmp");
+            Files.write(tmp.toPath(), info.getText().getBytes(StandardCharsets.UTF_8));
+            if (!tmp.renameTo(file)) {
+                Files.deleteIfExists(tmp.toPath());
+            }
+        }
+        return info;
+    }
+}
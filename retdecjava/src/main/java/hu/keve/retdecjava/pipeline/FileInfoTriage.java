@@ -0,0 +1,228 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import hu.keve.retdecjava.binding.AbstractDecompilationRequest;
+import hu.keve.retdecjava.binding.FileInfo;
+
+/**
+ * Pre-flight stage analysing inputs with the cheap fileinfo service before a
+ * full decompilation is submitted. A {@link Rule} decides per input whether it
+ * is submitted as is, re-routed to a different request, or skipped.
+ */
+public final class FileInfoTriage {
+    /**
+     * Decides what happens to an input based on its analysis.
+     */
+    public interface Rule {
+        /**
+         * Route a request.
+         * 
+         * @param request
+         *            the request.
+         * @param info
+         *            the analysis of its input.
+         * @return the request to submit, possibly a different one, or null to
+         *         skip the input.
+         */
+        AbstractDecompilationRequest route(AbstractDecompilationRequest request, FileInfo info);
+    }
+
+    /**
+     * Rule skipping inputs that are packed or have no recognized file format.
+     */
+    public static final Rule SKIP_JUNK = new Rule() {
+        @Override
+        public AbstractDecompilationRequest route(final AbstractDecompilationRequest request, final FileInfo info) {
+            String format = info.getFileFormat();
+            if (null == format || format.toLowerCase().contains("unknown") || info.isPacked()) {
+                return null;
+            }
+            return request;
+        }
+    };
+
+    /**
+     * The outcome of the triage of a single request.
+     */
+    public static final class Decision {
+        /**
+         * The request triaged.
+         */
+        private final AbstractDecompilationRequest request;
+        /**
+         * The request to submit, null if skipped.
+         */
+        private final AbstractDecompilationRequest routed;
+        /**
+         * The analysis, null if it failed.
+         */
+        private final FileInfo info;
+        /**
+         * The failure of the analysis, null on success.
+         */
+        private final Exception exception;
+
+        /**
+         * Construct a decision.
+         * 
+         * @param request
+         *            the request triaged.
+         * @param routed
+         *            the request to submit, null if skipped.
+         * @param info
+         *            the analysis, null if it failed.
+         * @param exception
+         *            the failure of the analysis, null on success.
+         */
+        Decision(final AbstractDecompilationRequest request, final AbstractDecompilationRequest routed,
+                final FileInfo info, final Exception exception) {
+            this.request = request;
+            this.routed = routed;
+            this.info = info;
+            this.exception = exception;
+        }
+
+        public AbstractDecompilationRequest getRequest() {
+            return request;
+        }
+
+        public AbstractDecompilationRequest getRouted() {
+            return routed;
+        }
+
+        public FileInfo getInfo() {
+            return info;
+        }
+
+        public Exception getException() {
+            return exception;
+        }
+
+        public boolean isSkipped() {
+            return null == routed;
+        }
+    }
+
+    /**
+     * The cache of analyses.
+     */
+    private final FileInfoCache cache;
+    /**
+     * The routing rule.
+     */
+    private final Rule rule;
+    /**
+     * The maximum number of concurrent analyses of a batch.
+     */
+    private final int parallelism;
+
+    /**
+     * Construct a triage stage.
+     * 
+     * @param cache
+     *            the cache of analyses.
+     * @param rule
+     *            the routing rule.
+     * @param parallelism
+     *            the maximum number of concurrent analyses of a batch.
+     */
+    public FileInfoTriage(final FileInfoCache cache, final Rule rule, final int parallelism) {
+        this.cache = cache;
+        this.rule = rule;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Triage a single request. A failed analysis is recorded in the decision
+     * and the request is skipped.
+     * 
+     * @param request
+     *            the request.
+     * @return the decision.
+     * @throws InterruptedException
+     *             when waiting for the analysis was interrupted.
+     */
+    public Decision triage(final AbstractDecompilationRequest request) throws InterruptedException {
+        FileInfo info;
+        try {
+            info = cache.get(request.getMappedInput(), false);
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            return new Decision(request, null, null, e);
+        }
+        return new Decision(request, rule.route(request, info), info, null);
+    }
+
+    /**
+     * Triage a batch of requests with bounded parallelism.
+     * 
+     * @param requests
+     *            the requests.
+     * @return the decisions in the order of the requests.
+     * @throws InterruptedException
+     *             when waiting for the analyses was interrupted.
+     */
+    public List<Decision> triageAll(final List<? extends AbstractDecompilationRequest> requests)
+            throws InterruptedException {
+        List<Decision> decisions = new ArrayList<Decision>(requests.size());
+        if (requests.isEmpty()) {
+            return decisions;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, requests.size()));
+        try {
+            List<Future<Decision>> futures = new ArrayList<Future<Decision>>(requests.size());
+            for (final AbstractDecompilationRequest request : requests) {
+                futures.add(executor.submit(new Callable<Decision>() {
+                    @Override
+                    public Decision call() throws InterruptedException {
+                        return triage(request);
+                    }
+                }));
+            }
+            for (Future<Decision> future : futures) {
+                try {
+                    decisions.add(future.get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return decisions;
+    }
+}
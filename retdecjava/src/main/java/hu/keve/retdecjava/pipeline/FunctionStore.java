@@ -0,0 +1,198 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.pipeline;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import hu.keve.retdecjava.analysis.FunctionSymbol;
+import hu.keve.retdecjava.analysis.FunctionTable;
+import hu.keve.retdecjava.sink.DigestSink;
+
+/**
+ * Store of decompiled function definitions shared across a corpus, keyed by
+ * the normalized digest of the function bytes. Statically linked library
+ * code is the same in every binary it is linked into, so its definition is
+ * decompiled once and reused. The normalized form includes the size and the
+ * names of the callees, see {@link FunctionSymbol#normalizedCode}, and is
+ * kept next to the definition and compared on every hit.
+ * <p>
+ * Every definition is kept in its own file named after the digest, written
+ * atomically, so the store can be shared by concurrent decompilations.
+ */
+public final class FunctionStore {
+    /**
+     * The directory of the store.
+     */
+    private final File dir;
+
+    /**
+     * Construct a store.
+     * 
+     * @param dir
+     *            the directory of the store.
+     */
+    public FunctionStore(final File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Get the key of a function.
+     * 
+     * @param function
+     *            the function.
+     * @param table
+     *            the functions of its binary.
+     * @return the hex normalized digest of its bytes.
+     */
+    public static String key(final FunctionSymbol function, final FunctionTable table) {
+        return DigestSink.toHex(function.normalizedDigest(table));
+    }
+
+    /**
+     * Is a function in the store?
+     * 
+     * @param function
+     *            the function.
+     * @param table
+     *            the functions of its binary.
+     * @return true if its definition is stored.
+     * @throws IOException
+     *             if the store cannot be read.
+     */
+    public boolean contains(final FunctionSymbol function, final FunctionTable table) throws IOException {
+        return null != find(function, table);
+    }
+
+    /**
+     * Get the stored definition of a function, renamed to the name of the
+     * function and with its address range updated.
+     * 
+     * @param function
+     *            the function.
+     * @param table
+     *            the functions of its binary.
+     * @return the definition, null if not stored.
+     * @throws IOException
+     *             if the store cannot be read.
+     */
+    public String get(final FunctionSymbol function, final FunctionTable table) throws IOException {
+        File file = find(function, table);
+        if (null == file) {
+            return null;
+        }
+        String stored = new String(Files.readAllBytes(file.toPath()), StandardCharsets.ISO_8859_1);
+        HllDocument doc = HllDocument.parse(stored);
+        if (doc.getFunctionNames().isEmpty()) {
+            return null;
+        }
+        String storedName = doc.getFunctionNames().iterator().next();
+        String definition = doc.getFunction(storedName);
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("// Address range: 0x%x - 0x%x\n", function.getAddress(),
+                function.getAddress() + function.getSize()));
+        boolean comments = true;
+        for (String line : definition.split("\n")) {
+            // the comments above the definition describe the stored copy.
+            if (comments && line.startsWith("//")) {
+                continue;
+            }
+            comments = false;
+            sb.append(line).append('\n');
+        }
+        Matcher m = Pattern.compile("\\b" + Pattern.quote(storedName) + "\\b").matcher(sb);
+        return m.replaceAll(Matcher.quoteReplacement(function.getName()));
+    }
+
+    /**
+     * Store the definition of a function.
+     * 
+     * @param function
+     *            the function.
+     * @param table
+     *            the functions of its binary.
+     * @param definition
+     *            its decompiled definition.
+     * @throws IOException
+     *             if the store cannot be written.
+     */
+    public void put(final FunctionSymbol function, final FunctionTable table, final String definition)
+            throws IOException {
+        byte[] code = function.normalizedCode(table);
+        String key = DigestSink.toHex(function.normalizedDigest(table));
+        Files.createDirectories(dir.toPath());
+        // the form first, a definition is only found next to its form.
+        write(new File(dir, key + ".code"), code);
+        write(new File(dir, key + ".hll"), definition.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Find the definition of a function, checking that the stored form is
+     * that of the function.
+     * 
+     * @param function
+     *            the function.
+     * @param table
+     *            the functions of its binary.
+     * @return the file of the definition, null if not stored.
+     * @throws IOException
+     *             if the store cannot be read.
+     */
+    private File find(final FunctionSymbol function, final FunctionTable table) throws IOException {
+        String key = key(function, table);
+        File file = new File(dir, key + ".hll");
+        File code = new File(dir, key + ".code");
+        if (!file.isFile() || !code.isFile()
+                || !Arrays.equals(function.normalizedCode(table), Files.readAllBytes(code.toPath()))) {
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * Write a file of the store atomically.
+     * 
+     * @param file
+     *            the file.
+     * @param content
+     *            the content.
+     * @throws IOException
+     *             if the file cannot be written.
+     */
+    private void write(final File file, final byte[] content) throws IOException {
+        File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        Files.write(tmp.toPath(), content);
+        if (!tmp.renameTo(file)) {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.pipeline;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The hll output of a decompilation, split into its function definitions and
+ * the text between them, so functions can be replaced, added and removed
+ * without touching the rest of the output.
+ * <p>
+ * A function definition starts at a line in the first column ending with an
+ * opening brace, together with the comments right above it, and ends at the
+ * next closing brace in the first column.
+ */
+public final class HllDocument {
+    /**
+     * The parts of the text, either a function definition or the text between
+     * definitions. Removed functions leave an empty part.
+     */
+    private final List<String> parts = new ArrayList<String>();
+    /**
+     * The index of the part of each function, in output order.
+     */
+    private final Map<String, Integer> functions = new LinkedHashMap<String, Integer>();
+
+    /**
+     * Construct an empty document.
+     */
+    private HllDocument() {
+    }
+
+    /**
+     * Parse a hll output.
+     * 
+     * @param text
+     *            the output.
+     * @return the document.
+     */
+    public static HllDocument parse(final String text) {
+        HllDocument doc = new HllDocument();
+        String[] lines = text.split("\n", -1);
+        StringBuilder between = new StringBuilder();
+        int i = 0;
+        while (i < lines.length) {
+            String name = definedFunction(lines[i]);
+            int end = i;
+            if (null != name) {
+                while (end < lines.length && !"}".equals(lines[end])) {
+                    end++;
+                }
+            }
+            if (null == name || end == lines.length || doc.functions.containsKey(name)) {
+                between.append(lines[i]);
+                if (i < lines.length - 1) {
+                    between.append('\n');
+                }
+                i++;
+                continue;
+            }
+            // move the comments right above the definition into it.
+            StringBuilder function = new StringBuilder();
+            int commentStart = between.length();
+            while (commentStart > 0) {
+                int lineStart = between.lastIndexOf("\n", commentStart - 2) + 1;
+                String line = between.substring(lineStart, commentStart - 1);
+                if (!line.startsWith("//") || line.startsWith("// ---")) {
+                    break;
+                }
+                commentStart = lineStart;
+            }
+            function.append(between.substring(commentStart));
+            between.setLength(commentStart);
+            for (int j = i; j <= end; j++) {
+                function.append(lines[j]).append('\n');
+            }
+            doc.parts.add(between.toString());
+            between.setLength(0);
+            doc.functions.put(name, doc.parts.size());
+            doc.parts.add(function.toString());
+            i = end + 1;
+        }
+        doc.parts.add(between.toString());
+        return doc;
+    }
+
+    /**
+     * Get the name of the function defined on a line.
+     * 
+     * @param line
+     *            the line.
+     * @return the name, null if the line does not start a definition.
+     */
+    private static String definedFunction(final String line) {
+        if (line.isEmpty() || Character.isWhitespace(line.charAt(0)) || line.startsWith("//")
+                || line.startsWith("#") || !line.endsWith("{")) {
+            return null;
+        }
+        int paren = line.indexOf('(');
+        if (paren < 0) {
+            return null;
+        }
+        int start = paren;
+        while (start > 0 && (Character.isJavaIdentifierPart(line.charAt(start - 1)))) {
+            start--;
+        }
+        return start == paren ? null : line.substring(start, paren);
+    }
+
+    /**
+     * Get the names of the functions.
+     * 
+     * @return the names in output order.
+     */
+    public Set<String> getFunctionNames() {
+        return Collections.unmodifiableSet(functions.keySet());
+    }
+
+    /**
+     * Get the definition of a function.
+     * 
+     * @param name
+     *            the name of the function.
+     * @return the definition including the comments above it, null if not
+     *         defined.
+     */
+    public String getFunction(final String name) {
+        Integer index = functions.get(name);
+        return null == index ? null : parts.get(index);
+    }
+
+    /**
+     * Replace the definition of a function, or add it after the last function.
+     * 
+     * @param name
+     *            the name of the function.
+     * @param definition
+     *            the definition, ending with a new line.
+     */
+    public void putFunction(final String name, final String definition) {
+        Integer index = functions.get(name);
+        if (null != index) {
+            parts.set(index, definition);
+            return;
+        }
+        int at = 1;
+        for (Integer i : functions.values()) {
+            at = Math.max(at, i + 1);
+        }
+        parts.add(at, functions.isEmpty() ? "" : "\n");
+        parts.add(at + 1, definition);
+        for (Map.Entry<String, Integer> e : functions.entrySet()) {
+            if (e.getValue() >= at) {
+                e.setValue(e.getValue() + 2);
+            }
+        }
+        functions.put(name, at + 1);
+    }
+
+    /**
+     * Remove the definition of a function.
+     * 
+     * @param name
+     *            the name of the function.
+     */
+    public void removeFunction(final String name) {
+        Integer index = functions.remove(name);
+        if (null != index) {
+            parts.set(index, "");
+            // drop the blank line separating it from the next part.
+            String next = parts.get(index + 1);
+            if (next.startsWith("\n")) {
+                parts.set(index + 1, next.substring(1));
+            }
+        }
+    }
+
+    /**
+     * Add the declarations of another document missing from the text before
+     * the first function of this one, e.g. the prototypes of added functions.
+     * 
+     * @param other
+     *            the other document.
+     */
+    public void addDeclarations(final HllDocument other) {
+        for (String line : other.parts.get(0).split("\n")) {
+            if (line.endsWith(";")) {
+                addDeclaration(line);
+            }
+        }
+    }
+
+    /**
+     * Add a declaration to the text before the first function, after the last
+     * declaration there, unless it is already present.
+     * 
+     * @param declaration
+     *            the declaration, a single line.
+     */
+    public void addDeclaration(final String declaration) {
+        String preamble = parts.get(0);
+        if (preamble.startsWith(declaration + "\n") || preamble.contains("\n" + declaration + "\n")) {
+            return;
+        }
+        int lastDeclaration = preamble.lastIndexOf(";\n");
+        int at = lastDeclaration < 0 ? preamble.length() : lastDeclaration + 2;
+        parts.set(0, preamble.substring(0, at) + declaration + "\n" + preamble.substring(at));
+    }
+
+    /**
+     * Get the prototype of a function from its definition.
+     * 
+     * @param definition
+     *            the definition.
+     * @return the prototype, null if the definition is not recognised.
+     */
+    public static String prototype(final String definition) {
+        for (String line : definition.split("\n")) {
+            if (null != definedFunction(line)) {
+                return line.substring(0, line.length() - 1).trim() + ";";
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (String part : parts) {
+            sb.append(part);
+        }
+        return sb.toString();
+    }
+}
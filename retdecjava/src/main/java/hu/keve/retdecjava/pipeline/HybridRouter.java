@@ -0,0 +1,508 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.pipeline;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import hu.keve.retdecjava.binding.AbstractDecompilationRequest;
+import hu.keve.retdecjava.binding.Cancellation;
+import hu.keve.retdecjava.binding.DecompilationResponse;
+import hu.keve.retdecjava.binding.DecompilationResult;
+import hu.keve.retdecjava.binding.Decompiler;
+import hu.keve.retdecjava.binding.ServiceException;
+
+/**
+ * Router running each decompilation either locally or on the remote service.
+ * Inputs too large for the local machine always go remote, and so does
+ * everything while the local processes or CPUs are saturated. Otherwise small
+ * inputs run locally, and medium ones too while the remote service completes
+ * its jobs slowly. A remote submission failing for lack of capacity falls back
+ * to local execution if the input fits and the local processes and CPUs are
+ * not saturated. Obtaining the results of a job always uses the side that runs
+ * it.
+ */
+public final class HybridRouter implements Decompiler {
+    /**
+     * Weight of the latest completion in the remote latency average.
+     */
+    private static final double LATENCY_DECAY = 0.2;
+    /**
+     * Number of recent completion times kept per side for the percentiles.
+     */
+    private static final int HISTORY = 1024;
+
+    /**
+     * Where a job runs.
+     */
+    public enum Side {
+        /** on the local machine. */
+        LOCAL, /** on the remote service. */
+        REMOTE;
+    }
+
+    /**
+     * Why a job was routed where it was.
+     */
+    public enum Reason {
+        /** the input is small enough to always run locally. */
+        SMALL_INPUT, /** the remote service completes its jobs slowly. */
+        REMOTE_SLOW, /** the remote service is fast enough. */
+        REMOTE_FAST, /** the input is too large to run locally. */
+        LARGE_INPUT, /** all local processes are taken. */
+        LOCAL_BUSY, /** the local CPUs are loaded. */
+        CPU_LOAD, /** the remote service refused the job. */
+        REMOTE_FAILED;
+    }
+
+    /**
+     * Snapshot of the decisions and completion times.
+     */
+    public static final class RouterMetrics {
+        /**
+         * Jobs routed, by reason.
+         */
+        private final Map<Reason, Long> decisions;
+        /**
+         * Jobs running, by side.
+         */
+        private final Map<Side, Integer> inFlight;
+        /**
+         * Median completion time in milliseconds, by side.
+         */
+        private final Map<Side, Long> p50Millis;
+        /**
+         * 99th percentile completion time in milliseconds, by side.
+         */
+        private final Map<Side, Long> p99Millis;
+        /**
+         * The recent remote completion time in milliseconds.
+         */
+        private final double remoteLatencyMillis;
+
+        /**
+         * Construct a snapshot.
+         * 
+         * @param decisions
+         *            jobs routed, by reason.
+         * @param inFlight
+         *            jobs running, by side.
+         * @param p50Millis
+         *            median completion time in milliseconds, by side.
+         * @param p99Millis
+         *            99th percentile completion time in milliseconds, by
+         *            side.
+         * @param remoteLatencyMillis
+         *            the recent remote completion time in milliseconds.
+         */
+        RouterMetrics(final Map<Reason, Long> decisions, final Map<Side, Integer> inFlight,
+                final Map<Side, Long> p50Millis, final Map<Side, Long> p99Millis, final double remoteLatencyMillis) {
+            this.decisions = Collections.unmodifiableMap(decisions);
+            this.inFlight = Collections.unmodifiableMap(inFlight);
+            this.p50Millis = Collections.unmodifiableMap(p50Millis);
+            this.p99Millis = Collections.unmodifiableMap(p99Millis);
+            this.remoteLatencyMillis = remoteLatencyMillis;
+        }
+
+        public Map<Reason, Long> getDecisions() {
+            return decisions;
+        }
+
+        public Map<Side, Integer> getInFlight() {
+            return inFlight;
+        }
+
+        public Map<Side, Long> getP50Millis() {
+            return p50Millis;
+        }
+
+        public Map<Side, Long> getP99Millis() {
+            return p99Millis;
+        }
+
+        public double getRemoteLatencyMillis() {
+            return remoteLatencyMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("decisions %s, in flight %s, p50 %s ms, p99 %s ms, remote latency %.0f ms",
+                    decisions, inFlight, p50Millis, p99Millis, remoteLatencyMillis);
+        }
+    }
+
+    /**
+     * One side, guarded by the router.
+     */
+    private static final class Route {
+        /**
+         * The backend.
+         */
+        private final Decompiler decompiler;
+        /**
+         * Jobs submitted and not yet finished.
+         */
+        private int inFlight;
+        /**
+         * Recent completion times in milliseconds, a ring.
+         */
+        private final long[] completions = new long[HISTORY];
+        /**
+         * Number of completions recorded.
+         */
+        private long completed;
+
+        /**
+         * Construct a side.
+         * 
+         * @param decompiler
+         *            the backend.
+         */
+        Route(final Decompiler decompiler) {
+            this.decompiler = decompiler;
+        }
+
+        /**
+         * Get a percentile of the recent completion times.
+         * 
+         * @param percent
+         *            the percentile.
+         * @return the completion time in milliseconds, 0 if none completed.
+         */
+        long percentile(final int percent) {
+            int n = (int) Math.min(completed, HISTORY);
+            if (0 == n) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(completions, n);
+            Arrays.sort(sorted);
+            return sorted[Math.min(n - 1, n * percent / 100)];
+        }
+    }
+
+    /**
+     * A running job.
+     */
+    private static final class Job {
+        /**
+         * The side it runs on.
+         */
+        private final Side side;
+        /**
+         * When it was submitted, System.nanoTime.
+         */
+        private final long submitted;
+
+        /**
+         * Construct a job.
+         * 
+         * @param side
+         *            the side it runs on.
+         * @param submitted
+         *            when it was submitted.
+         */
+        Job(final Side side, final long submitted) {
+            this.side = side;
+            this.submitted = submitted;
+        }
+    }
+
+    /**
+     * The sides.
+     */
+    private final Map<Side, Route> routes = new EnumMap<Side, Route>(Side.class);
+    /**
+     * The running jobs by status URL, or by id for jobs without links, see
+     * {@link EndpointGroup#jobKey}.
+     */
+    private final ConcurrentMap<String, Job> jobs = new ConcurrentHashMap<String, Job>();
+    /**
+     * Jobs routed, by reason.
+     */
+    private final Map<Reason, Long> decisions = new EnumMap<Reason, Long>(Reason.class);
+    /**
+     * The recent remote completion time in milliseconds, 0 before the first.
+     */
+    private double remoteLatencyMillis;
+    /**
+     * Inputs up to this size in bytes always run locally.
+     */
+    private long smallInputSize = 64 * 1024;
+    /**
+     * Inputs above this size in bytes never run locally.
+     */
+    private long localSizeLimit = 4 * 1024 * 1024;
+    /**
+     * The number of jobs run locally at once.
+     */
+    private int maxLocalJobs = Runtime.getRuntime().availableProcessors();
+    /**
+     * The system load per CPU above which nothing more runs locally.
+     */
+    private double maxLoad = 1.0;
+    /**
+     * The remote completion time in milliseconds above which medium inputs
+     * run locally.
+     */
+    private long remoteLatencyLimit = 60 * 1000;
+
+    /**
+     * Construct a router.
+     * 
+     * @param local
+     *            the local backend, e.g. a LocalDecompiler.
+     * @param remote
+     *            the remote backend.
+     */
+    public HybridRouter(final Decompiler local, final Decompiler remote) {
+        routes.put(Side.LOCAL, new Route(local));
+        routes.put(Side.REMOTE, new Route(remote));
+        for (Reason r : Reason.values()) {
+            decisions.put(r, 0L);
+        }
+    }
+
+    public synchronized void setSmallInputSize(final long smallInputSize) {
+        this.smallInputSize = smallInputSize;
+    }
+
+    public synchronized void setLocalSizeLimit(final long localSizeLimit) {
+        this.localSizeLimit = localSizeLimit;
+    }
+
+    public synchronized void setMaxLocalJobs(final int maxLocalJobs) {
+        this.maxLocalJobs = maxLocalJobs;
+    }
+
+    public synchronized void setMaxLoad(final double maxLoad) {
+        this.maxLoad = maxLoad;
+    }
+
+    public synchronized void setRemoteLatencyLimit(final long remoteLatencyLimit) {
+        this.remoteLatencyLimit = remoteLatencyLimit;
+    }
+
+    /**
+     * Get the system load per CPU.
+     * 
+     * @return the load average of the last minute divided by the CPUs,
+     *         negative if unknown.
+     */
+    private static double systemLoad() {
+        return ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage()
+                / Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Decide where a job runs. Must hold the lock.
+     * 
+     * @param size
+     *            the input size in bytes.
+     * @return the reason, implying the side.
+     */
+    private Reason decide(final long size) {
+        if (size > localSizeLimit) {
+            return Reason.LARGE_INPUT;
+        }
+        if (routes.get(Side.LOCAL).inFlight >= maxLocalJobs) {
+            return Reason.LOCAL_BUSY;
+        }
+        if (systemLoad() > maxLoad) {
+            return Reason.CPU_LOAD;
+        }
+        if (size <= smallInputSize) {
+            return Reason.SMALL_INPUT;
+        }
+        return remoteLatencyMillis > remoteLatencyLimit ? Reason.REMOTE_SLOW : Reason.REMOTE_FAST;
+    }
+
+    /**
+     * Get the side a reason routes to.
+     * 
+     * @param reason
+     *            the reason.
+     * @return the side.
+     */
+    private static Side side(final Reason reason) {
+        switch (reason) {
+        case SMALL_INPUT:
+        case REMOTE_SLOW:
+        case REMOTE_FAILED:
+            return Side.LOCAL;
+        default:
+            return Side.REMOTE;
+        }
+    }
+
+    /**
+     * Record a decision and count the job in flight on its side. Must hold
+     * the lock, together with the decision, so concurrent submissions do not
+     * all see the same free local slot.
+     * 
+     * @param reason
+     *            the reason.
+     * @return the side.
+     */
+    private Route route(final Reason reason) {
+        decisions.put(reason, decisions.get(reason) + 1);
+        Route route = routes.get(side(reason));
+        route.inFlight++;
+        return route;
+    }
+
+    /**
+     * Route a job refused by the remote service to the local side, unless
+     * the input is too large or the local processes or CPUs are saturated.
+     * 
+     * @param size
+     *            the input size in bytes.
+     * @return the local side, null if the input is too large or the local
+     *         processes or CPUs are saturated.
+     */
+    private synchronized Route fallBack(final long size) {
+        Reason reason = decide(size);
+        if (Reason.LARGE_INPUT == reason || Reason.LOCAL_BUSY == reason || Reason.CPU_LOAD == reason) {
+            return null;
+        }
+        return route(Reason.REMOTE_FAILED);
+    }
+
+    @Override
+    public DecompilationResponse decompile(final AbstractDecompilationRequest request)
+            throws IOException, ServiceException {
+        long size = request.getMappedInput().getSize();
+        Reason reason;
+        Route route;
+        synchronized (this) {
+            reason = decide(size);
+            route = route(reason);
+        }
+        long start = System.nanoTime();
+        try {
+            return submitted(route.decompiler.decompile(request), side(reason), start);
+        } catch (ServiceException | RuntimeException e) {
+            release(route);
+            boolean capacity = !(e instanceof ServiceException) || ((ServiceException) e).getStatus() >= 500
+                    || 429 == ((ServiceException) e).getStatus();
+            if (Side.LOCAL == side(reason) || !capacity) {
+                throw e;
+            }
+            route = fallBack(size);
+            if (null == route) {
+                throw e;
+            }
+        } catch (IOException e) {
+            release(route);
+            throw e;
+        }
+        try {
+            return submitted(route.decompiler.decompile(request), Side.LOCAL, start);
+        } catch (IOException | ServiceException | RuntimeException e) {
+            release(route);
+            throw e;
+        }
+    }
+
+    /**
+     * Remember the side of a submitted job.
+     * 
+     * @param resp
+     *            the response to the submission.
+     * @param side
+     *            the side.
+     * @param start
+     *            when it was submitted, System.nanoTime.
+     * @return the response.
+     */
+    private DecompilationResponse submitted(final DecompilationResponse resp, final Side side, final long start) {
+        jobs.put(EndpointGroup.jobKey(resp), new Job(side, start));
+        return resp;
+    }
+
+    /**
+     * Release a job counted in flight.
+     * 
+     * @param route
+     *            the side.
+     */
+    private synchronized void release(final Route route) {
+        route.inFlight--;
+    }
+
+    /**
+     * Obtain the results of a decompilation from the side that runs it.
+     * Decompilations not submitted through the router are taken as remote.
+     */
+    @Override
+    public void decompileSync(final DecompilationResponse resp, final DecompilationResult res) {
+        Job job = jobs.remove(EndpointGroup.jobKey(resp));
+        if (null == job) {
+            routes.get(Side.REMOTE).decompiler.decompileSync(resp, res);
+            return;
+        }
+        Route route = routes.get(job.side);
+        try {
+            route.decompiler.decompileSync(resp, res);
+        } finally {
+            long millis = (System.nanoTime() - job.submitted) / 1000000;
+            synchronized (this) {
+                route.inFlight--;
+                // a job cut short tells nothing about the completion times.
+                if (!Cancellation.of(res).isEnded()) {
+                    route.completions[(int) (route.completed++ % HISTORY)] = millis;
+                    if (Side.REMOTE == job.side) {
+                        remoteLatencyMillis = 1 == route.completed ? millis
+                                : remoteLatencyMillis * (1 - LATENCY_DECAY) + millis * LATENCY_DECAY;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the decisions and completion times.
+     * 
+     * @return the snapshot.
+     */
+    public synchronized RouterMetrics getMetrics() {
+        Map<Side, Integer> inFlight = new EnumMap<Side, Integer>(Side.class);
+        Map<Side, Long> p50 = new EnumMap<Side, Long>(Side.class);
+        Map<Side, Long> p99 = new EnumMap<Side, Long>(Side.class);
+        for (Map.Entry<Side, Route> e : routes.entrySet()) {
+            inFlight.put(e.getKey(), e.getValue().inFlight);
+            p50.put(e.getKey(), e.getValue().percentile(50));
+            p99.put(e.getKey(), e.getValue().percentile(99));
+        }
+        return new RouterMetrics(new EnumMap<Reason, Long>(decisions), inFlight, p50, p99, remoteLatencyMillis);
+    }
+}
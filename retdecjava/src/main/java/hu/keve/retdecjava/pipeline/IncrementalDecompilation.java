@@ -0,0 +1,384 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.pipeline;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import hu.keve.retdecjava.analysis.FunctionSymbol;
+import hu.keve.retdecjava.analysis.FunctionTable;
+import hu.keve.retdecjava.binding.BinDecompilationRequest;
+import hu.keve.retdecjava.binding.DecompilationResponse;
+import hu.keve.retdecjava.binding.DecompilationResult.DecompilationOutput;
+import hu.keve.retdecjava.binding.Decompiler;
+import hu.keve.retdecjava.sink.DigestSink;
+import hu.keve.retdecjava.sink.MemorySink;
+import hu.keve.retdecjava.sink.OutputSink;
+import hu.keve.retdecjava.sink.SinkDecompilationResult;
+
+/**
+ * Decompilation of a new version of a binary reusing the hll output of the
+ * previous version. The functions of the input are hashed locally, only the
+ * changed and new ones are decompiled with a selective decompilation and
+ * their definitions are spliced into the stored output of the previous
+ * version.
+ * <p>
+ * The results are stored in a directory under a baseline name, e.g. the name
+ * of the product, and replaced by the result of every run. A baseline name is
+ * a plain file name, without separators or {@code ..}.
+ */
+public final class IncrementalDecompilation {
+    /**
+     * Prefix of the function hash entries of a manifest.
+     */
+    private static final String FUNCTION_PREFIX = "function.";
+    /**
+     * Key of the output file name in a manifest.
+     */
+    private static final String OUTPUT_NAME = "output";
+
+    /**
+     * What an incremental decompilation did.
+     */
+    public static final class Report {
+        /**
+         * Was the whole binary decompiled?
+         */
+        private final boolean full;
+        /**
+         * Number of functions reused from the previous version.
+         */
+        private final int unchanged;
+        /**
+         * The functions decompiled.
+         */
+        private final List<String> decompiled;
+        /**
+         * The functions removed from the previous output.
+         */
+        private final List<String> removed;
+        /**
+         * The changed functions the selective decompilation did not define,
+         * kept as they were.
+         */
+        private final List<String> notUpdated;
+
+        /**
+         * Construct a report.
+         * 
+         * @param full
+         *            was the whole binary decompiled?
+         * @param unchanged
+         *            number of functions reused from the previous version.
+         * @param decompiled
+         *            the functions decompiled.
+         * @param removed
+         *            the functions removed from the previous output.
+         * @param notUpdated
+         *            the changed functions kept as they were.
+         */
+        Report(final boolean full, final int unchanged, final List<String> decompiled, final List<String> removed,
+                final List<String> notUpdated) {
+            this.full = full;
+            this.unchanged = unchanged;
+            this.decompiled = Collections.unmodifiableList(decompiled);
+            this.removed = Collections.unmodifiableList(removed);
+            this.notUpdated = Collections.unmodifiableList(notUpdated);
+        }
+
+        public boolean isFull() {
+            return full;
+        }
+
+        public int getUnchanged() {
+            return unchanged;
+        }
+
+        public List<String> getDecompiled() {
+            return decompiled;
+        }
+
+        public List<String> getRemoved() {
+            return removed;
+        }
+
+        /**
+         * Get the changed functions missing from the output of the selective
+         * decompilation. Their previous definitions are kept and they are
+         * decompiled again by the next run.
+         * 
+         * @return the names of the functions.
+         */
+        public List<String> getNotUpdated() {
+            return notUpdated;
+        }
+
+        @Override
+        public String toString() {
+            if (full) {
+                return "full decompilation";
+            }
+            return String.format("%d functions reused, %d decompiled, %d removed", unchanged, decompiled.size(),
+                    removed.size()) + (notUpdated.isEmpty() ? "" : ", " + notUpdated.size() + " not updated");
+        }
+    }
+
+    /**
+     * The service.
+     */
+    private final Decompiler service;
+    /**
+     * The directory the results are stored in.
+     */
+    private final File store;
+
+    /**
+     * Construct an incremental decompilation.
+     * 
+     * @param service
+     *            the service.
+     * @param store
+     *            the directory the results are stored in.
+     */
+    public IncrementalDecompilation(final Decompiler service, final File store) {
+        this.service = service;
+        this.store = store;
+    }
+
+    /**
+     * Decompile a binary, reusing the result stored for the baseline, and
+     * write the hll output into a sink. The result is stored as the new
+     * baseline.
+     * 
+     * @param request
+     *            the request.
+     * @param baseline
+     *            the name the results are stored under, a plain file name.
+     * @param sink
+     *            the sink receiving the hll output.
+     * @return what was done.
+     * @throws IllegalArgumentException
+     *             if the baseline name is not a plain file name.
+     * @throws Exception
+     *             if the decompilation or the store fails.
+     */
+    public Report run(final BinDecompilationRequest request, final String baseline, final OutputSink sink)
+            throws Exception {
+        checkBaseline(baseline);
+        Map<String, FunctionSymbol> functions = FunctionTable.parse(request.getMappedInput().getBuffer())
+                .getFunctions();
+        Properties manifest = new Properties();
+        for (FunctionSymbol f : functions.values()) {
+            manifest.setProperty(FUNCTION_PREFIX + f.getName(), DigestSink.toHex(f.digest()));
+        }
+
+        Properties previous = loadManifest(baseline);
+        File previousHll = new File(store, baseline + ".hll");
+        Report report;
+        String outputName;
+        HllDocument doc;
+        if (null == previous || functions.isEmpty() || !previousHll.isFile()) {
+            MemorySink result = decompile(request);
+            if (result.getOutputs().isEmpty()) {
+                throw new IOException("The decompilation produced no hll output.");
+            }
+            outputName = result.getOutputs().keySet().iterator().next();
+            doc = HllDocument.parse(new String(result.get(outputName), StandardCharsets.ISO_8859_1));
+            report = new Report(true, 0, new ArrayList<String>(functions.keySet()), new ArrayList<String>(),
+                    new ArrayList<String>());
+        } else {
+            outputName = previous.getProperty(OUTPUT_NAME);
+            doc = HllDocument.parse(
+                    new String(Files.readAllBytes(previousHll.toPath()), StandardCharsets.ISO_8859_1));
+            List<String> changed = new ArrayList<String>();
+            for (String name : functions.keySet()) {
+                String key = FUNCTION_PREFIX + name;
+                if (!manifest.getProperty(key).equals(previous.getProperty(key))) {
+                    changed.add(name);
+                }
+            }
+            List<String> removed = new ArrayList<String>();
+            for (String key : previous.stringPropertyNames()) {
+                if (key.startsWith(FUNCTION_PREFIX) && null == manifest.getProperty(key)) {
+                    String name = key.substring(FUNCTION_PREFIX.length());
+                    removed.add(name);
+                    doc.removeFunction(name);
+                }
+            }
+            Collections.sort(removed);
+            List<String> decompiled = new ArrayList<String>();
+            List<String> notUpdated = new ArrayList<String>();
+            if (!changed.isEmpty()) {
+                BinDecompilationRequest selective = new BinDecompilationRequest(request);
+                selective.setSelDecompRanges(null);
+                selective.setSelDecompFuncs(changed);
+                MemorySink result = decompile(selective);
+                List<HllDocument> updates = new ArrayList<HllDocument>();
+                for (byte[] content : result.getOutputs().values()) {
+                    updates.add(HllDocument.parse(new String(content, StandardCharsets.ISO_8859_1)));
+                }
+                for (String name : changed) {
+                    String definition = null;
+                    for (HllDocument update : updates) {
+                        if (null == definition) {
+                            definition = update.getFunction(name);
+                        }
+                    }
+                    if (null != definition) {
+                        doc.putFunction(name, definition);
+                        decompiled.add(name);
+                    } else {
+                        // keep the old hash, so the next run tries again.
+                        notUpdated.add(name);
+                        String key = FUNCTION_PREFIX + name;
+                        String old = previous.getProperty(key);
+                        if (null == old) {
+                            manifest.remove(key);
+                        } else {
+                            manifest.setProperty(key, old);
+                        }
+                    }
+                }
+                for (HllDocument update : updates) {
+                    doc.addDeclarations(update);
+                }
+            }
+            report = new Report(false, functions.size() - changed.size(), decompiled, removed, notUpdated);
+        }
+
+        byte[] content = doc.toString().getBytes(StandardCharsets.ISO_8859_1);
+        try (OutputStream out = sink.open(outputName, "text/plain")) {
+            out.write(content);
+        }
+        manifest.setProperty(OUTPUT_NAME, outputName);
+        Files.createDirectories(store.toPath());
+        write(previousHll, content);
+        try (OutputStream out = Files.newOutputStream(new File(store, baseline + ".tmp").toPath())) {
+            manifest.store(out, "function hashes of " + request.getInput().getName());
+        }
+        rename(new File(store, baseline + ".tmp"), new File(store, baseline + ".functions"));
+        return report;
+    }
+
+    /**
+     * Check that a baseline name is a plain file name, so the results stay
+     * inside the store.
+     * 
+     * @param baseline
+     *            the baseline name.
+     * @throws IllegalArgumentException
+     *             if it is empty or contains a separator or {@code ..}.
+     */
+    static void checkBaseline(final String baseline) {
+        if (null == baseline || baseline.isEmpty() || baseline.contains("/") || baseline.contains("\\")
+                || baseline.indexOf(File.separatorChar) >= 0 || baseline.contains("..")) {
+            throw new IllegalArgumentException("Not a plain baseline name: " + baseline);
+        }
+    }
+
+    /**
+     * Decompile a request keeping the hll output in memory.
+     * 
+     * @param request
+     *            the request.
+     * @return the sink holding the output.
+     * @throws Exception
+     *             if the decompilation fails.
+     */
+    private MemorySink decompile(final BinDecompilationRequest request) throws Exception {
+        MemorySink result = new MemorySink();
+        SinkDecompilationResult res = new SinkDecompilationResult(result, EnumSet.of(DecompilationOutput.hll));
+        DecompilationResponse resp = service.decompile(request);
+        service.decompileSync(resp, res);
+        if (null != res.getException()) {
+            throw res.getException();
+        }
+        return result;
+    }
+
+    /**
+     * Load the manifest of a baseline.
+     * 
+     * @param baseline
+     *            the baseline.
+     * @return the manifest, null if there is none.
+     * @throws IOException
+     *             if the manifest cannot be read.
+     */
+    private Properties loadManifest(final String baseline) throws IOException {
+        File file = new File(store, baseline + ".functions");
+        if (!file.isFile()) {
+            return null;
+        }
+        Properties manifest = new Properties();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            manifest.load(in);
+        }
+        return null == manifest.getProperty(OUTPUT_NAME) ? null : manifest;
+    }
+
+    /**
+     * Write a file, replacing it only when complete.
+     * 
+     * @param file
+     *            the file.
+     * @param content
+     *            the content.
+     * @throws IOException
+     *             if the file cannot be written.
+     */
+    private static void write(final File file, final byte[] content) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        Files.write(tmp.toPath(), content);
+        rename(tmp, file);
+    }
+
+    /**
+     * Rename a file, replacing the target.
+     * 
+     * @param from
+     *            the file.
+     * @param to
+     *            the new name.
+     * @throws IOException
+     *             if the file cannot be renamed.
+     */
+    private static void rename(final File from, final File to) throws IOException {
+        Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
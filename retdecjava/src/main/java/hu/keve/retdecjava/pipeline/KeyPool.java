@@ -0,0 +1,457 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.pipeline;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import hu.keve.retdecjava.binding.AbstractDecompilationRequest;
+import hu.keve.retdecjava.binding.DecompilationCancelledException;
+import hu.keve.retdecjava.binding.DecompilationResponse;
+import hu.keve.retdecjava.binding.DecompilationResult;
+import hu.keve.retdecjava.binding.Decompiler;
+import hu.keve.retdecjava.binding.ForwardingDecompilationResult;
+import hu.keve.retdecjava.binding.RetdecService;
+import hu.keve.retdecjava.binding.ServiceException;
+
+/**
+ * Pool of API keys, each with its own service instance and quota. Submissions
+ * go to the key with the best score: the remaining budget and the success
+ * rate of recent calls, divided among the jobs the key is already running.
+ * A submission rejected for quota (429) or by a server error (5xx) is retried
+ * with the next best key; other errors are the fault of the request and are
+ * thrown at once. Obtaining the results of a job always uses the key that
+ * submitted it.
+ */
+public final class KeyPool implements Decompiler {
+    /**
+     * Weight of the latest outcome in the recent error rate.
+     */
+    private static final double ERROR_DECAY = 0.2;
+    /**
+     * Budget at which a key scores half of an unlimited one.
+     */
+    private static final double BUDGET_SCALE = 100;
+    /**
+     * Budget of a key without limit.
+     */
+    public static final long UNLIMITED = Long.MAX_VALUE;
+    /**
+     * Number of submitted jobs remembered until their results are obtained.
+     * Beyond it the oldest job is forgotten and no longer counted in flight,
+     * so jobs that are never synced do not pile up.
+     */
+    static final int MAX_OWNED = 10000;
+
+    /**
+     * Snapshot of the state of a key.
+     */
+    public static final class KeyStats {
+        /**
+         * The remaining budget.
+         */
+        private final long budget;
+        /**
+         * Jobs submitted and not yet finished.
+         */
+        private final int inFlight;
+        /**
+         * Jobs submitted.
+         */
+        private final long submitted;
+        /**
+         * Failed calls.
+         */
+        private final long errors;
+        /**
+         * The recent error rate.
+         */
+        private final double errorRate;
+
+        /**
+         * Construct a snapshot.
+         * 
+         * @param budget
+         *            the remaining budget.
+         * @param inFlight
+         *            jobs submitted and not yet finished.
+         * @param submitted
+         *            jobs submitted.
+         * @param errors
+         *            failed calls.
+         * @param errorRate
+         *            the recent error rate.
+         */
+        KeyStats(final long budget, final int inFlight, final long submitted, final long errors,
+                final double errorRate) {
+            this.budget = budget;
+            this.inFlight = inFlight;
+            this.submitted = submitted;
+            this.errors = errors;
+            this.errorRate = errorRate;
+        }
+
+        public long getBudget() {
+            return budget;
+        }
+
+        public int getInFlight() {
+            return inFlight;
+        }
+
+        public long getSubmitted() {
+            return submitted;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public double getErrorRate() {
+            return errorRate;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("budget %s, in flight %d, submitted %d, errors %d, error rate %.2f",
+                    UNLIMITED == budget ? "unlimited" : Long.toString(budget), inFlight, submitted, errors,
+                    errorRate);
+        }
+    }
+
+    /**
+     * A key of the pool, guarded by the pool.
+     */
+    private static final class Key {
+        /**
+         * The API key, masked.
+         */
+        private final String name;
+        /**
+         * The service using the key.
+         */
+        private final Decompiler service;
+        /**
+         * The remaining budget.
+         */
+        private long budget = UNLIMITED;
+        /**
+         * Jobs submitted and not yet finished.
+         */
+        private int inFlight;
+        /**
+         * Jobs submitted.
+         */
+        private long submitted;
+        /**
+         * Failed calls.
+         */
+        private long errors;
+        /**
+         * The recent error rate.
+         */
+        private double errorRate;
+
+        /**
+         * Construct a key.
+         * 
+         * @param name
+         *            the API key, masked.
+         * @param service
+         *            the service using the key.
+         */
+        Key(final String name, final Decompiler service) {
+            this.name = name;
+            this.service = service;
+        }
+
+        /**
+         * Score the key for the next submission.
+         * 
+         * @return the score, higher is better.
+         */
+        double score() {
+            double budgetWeight = UNLIMITED == budget ? 1.0 : budget / (budget + BUDGET_SCALE);
+            return budgetWeight * (1.0 - errorRate) / (1 + inFlight);
+        }
+    }
+
+    /**
+     * The keys by API key.
+     */
+    private final Map<String, Key> keys = new LinkedHashMap<String, Key>();
+    /**
+     * The key owning each running job, by decompilation id, oldest first.
+     * Guarded by the pool.
+     */
+    private final Map<String, Key> owners = new LinkedHashMap<String, Key>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Key> eldest) {
+            if (size() <= MAX_OWNED) {
+                return false;
+            }
+            eldest.getValue().inFlight--;
+            return true;
+        }
+    };
+    /**
+     * Rotates the start of the search, so equal keys take turns.
+     */
+    private int turn;
+
+    /**
+     * Construct a pool of services.
+     * 
+     * @param services
+     *            the services by API key.
+     */
+    public KeyPool(final Map<String, ? extends Decompiler> services) {
+        if (services.isEmpty()) {
+            throw new IllegalArgumentException("At least one API key is required.");
+        }
+        for (Map.Entry<String, ? extends Decompiler> e : services.entrySet()) {
+            keys.put(e.getKey(), new Key(mask(e.getKey()), e.getValue()));
+        }
+    }
+
+    /**
+     * Construct a pool with a service for each API key.
+     * 
+     * @param apiKeys
+     *            the API keys.
+     * @return the pool.
+     */
+    public static KeyPool of(final List<String> apiKeys) {
+        return of(RetdecService.URL, apiKeys);
+    }
+
+    /**
+     * Construct a pool with a service of a backend for each API key.
+     * 
+     * @param baseUrl
+     *            the main entry point of the backend.
+     * @param apiKeys
+     *            the API keys.
+     * @return the pool.
+     */
+    public static KeyPool of(final String baseUrl, final List<String> apiKeys) {
+        Map<String, Decompiler> services = new LinkedHashMap<String, Decompiler>();
+        for (String apiKey : apiKeys) {
+            services.put(apiKey, new RetdecService(baseUrl, apiKey));
+        }
+        return new KeyPool(services);
+    }
+
+    /**
+     * Mask an API key for display.
+     * 
+     * @param apiKey
+     *            the API key.
+     * @return its first characters.
+     */
+    private static String mask(final String apiKey) {
+        return (apiKey.length() > 4 ? apiKey.substring(0, 4) : "") + "...";
+    }
+
+    /**
+     * Set the remaining budget of a key, e.g. the decompilations left of its
+     * quota. Every submission consumes one.
+     * 
+     * @param apiKey
+     *            the API key.
+     * @param budget
+     *            the budget, {@link #UNLIMITED} for no limit.
+     */
+    public synchronized void setBudget(final String apiKey, final long budget) {
+        Key key = keys.get(apiKey);
+        if (null == key) {
+            throw new IllegalArgumentException("Unknown API key " + mask(apiKey));
+        }
+        key.budget = budget;
+    }
+
+    /**
+     * Choose the key for the next submission and count the submission in
+     * flight on it.
+     * 
+     * @param tried
+     *            the keys that already rejected the submission.
+     * @return the key, null if no key with budget is left.
+     */
+    private synchronized Key choose(final Set<Key> tried) {
+        List<Key> candidates = new ArrayList<Key>(keys.values());
+        Collections.rotate(candidates, -(turn++ % candidates.size()));
+        Key best = null;
+        for (Key key : candidates) {
+            if (key.budget > 0 && !tried.contains(key) && (null == best || key.score() > best.score())) {
+                best = key;
+            }
+        }
+        if (null != best) {
+            best.inFlight++;
+            if (UNLIMITED != best.budget) {
+                best.budget--;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Undo the choice of a key for a submission that was not accepted.
+     * 
+     * @param key
+     *            the key.
+     */
+    private synchronized void cancel(final Key key) {
+        key.inFlight--;
+        if (UNLIMITED != key.budget) {
+            key.budget++;
+        }
+    }
+
+    /**
+     * Is a rejection worth retrying with another key?
+     * 
+     * @param e
+     *            the rejection.
+     * @return true for an exhausted quota or a server error.
+     */
+    private static boolean isKeyFailure(final ServiceException e) {
+        return e.getStatus() >= 500 || 429 == e.getStatus();
+    }
+
+    /**
+     * Record the outcome of a call.
+     * 
+     * @param key
+     *            the key.
+     * @param failed
+     *            did the call fail?
+     */
+    private synchronized void record(final Key key, final boolean failed) {
+        key.errorRate = key.errorRate * (1 - ERROR_DECAY) + (failed ? ERROR_DECAY : 0);
+        if (failed) {
+            key.errors++;
+        }
+    }
+
+    @Override
+    public DecompilationResponse decompile(final AbstractDecompilationRequest request)
+            throws IOException, ServiceException {
+        Set<Key> tried = new HashSet<Key>();
+        ServiceException rejected = null;
+        Key key;
+        while (null != (key = choose(tried))) {
+            DecompilationResponse resp;
+            try {
+                resp = key.service.decompile(request);
+            } catch (ServiceException e) {
+                cancel(key);
+                if (!isKeyFailure(e)) {
+                    throw e;
+                }
+                record(key, true);
+                tried.add(key);
+                rejected = e;
+                continue;
+            } catch (IOException | RuntimeException e) {
+                cancel(key);
+                throw e;
+            }
+            synchronized (this) {
+                key.submitted++;
+                owners.put(resp.getId(), key);
+            }
+            record(key, false);
+            return resp;
+        }
+        if (null != rejected) {
+            throw rejected;
+        }
+        throw new ServiceException(429, "No API key with remaining budget.");
+    }
+
+    /**
+     * Obtain the results of a decompilation with the key that submitted it.
+     * Decompilations not submitted through the pool, or forgotten beyond
+     * {@link #MAX_OWNED} unsynced jobs, use the first key.
+     */
+    @Override
+    public void decompileSync(final DecompilationResponse resp, final DecompilationResult res) {
+        final Key key;
+        synchronized (this) {
+            Key owner = owners.remove(resp.getId());
+            if (null == owner) {
+                key = keys.values().iterator().next();
+                key.inFlight++;
+            } else {
+                key = owner;
+            }
+        }
+        final boolean[] failed = new boolean[1];
+        try {
+            key.service.decompileSync(resp, new ForwardingDecompilationResult(res) {
+                @Override
+                public void failed(final Exception e) {
+                    // a cancelled job says nothing about the health of the service.
+                    failed[0] = !(e instanceof DecompilationCancelledException);
+                    super.failed(e);
+                }
+            });
+        } finally {
+            synchronized (this) {
+                key.inFlight--;
+            }
+            record(key, failed[0]);
+        }
+    }
+
+    /**
+     * Get the state of the keys.
+     * 
+     * @return snapshots by masked API key, in the order the keys were given.
+     */
+    public synchronized Map<String, KeyStats> getStats() {
+        Map<String, KeyStats> stats = new LinkedHashMap<String, KeyStats>();
+        for (Key key : keys.values()) {
+            String name = key.name;
+            for (int i = 2; stats.containsKey(name); i++) {
+                name = key.name + "#" + i;
+            }
+            stats.put(name, new KeyStats(key.budget, key.inFlight, key.submitted, key.errors, key.errorRate));
+        }
+        return Collections.unmodifiableMap(stats);
+    }
+}
@@ -0,0 +1,793 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.pipeline;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import hu.keve.retdecjava.binding.AbstractDecompilationRequest;
+import hu.keve.retdecjava.binding.BindingException;
+import hu.keve.retdecjava.binding.Cancellation;
+import hu.keve.retdecjava.binding.DecompilationCancelledException;
+import hu.keve.retdecjava.binding.DecompilationPoll;
+import hu.keve.retdecjava.binding.DecompilationResponse;
+import hu.keve.retdecjava.binding.DecompilationResult;
+import hu.keve.retdecjava.binding.Decompiler;
+import hu.keve.retdecjava.binding.PollingDecompiler;
+import hu.keve.retdecjava.binding.RetdecService;
+import hu.keve.retdecjava.binding.ServiceException;
+
+/**
+ * Decompilation of a batch as a pipeline of three stages: uploading the
+ * inputs, polling the status of the running decompilations and downloading
+ * the outputs. Every stage has its own threads and takes a bounded number of
+ * jobs, so a slow upload holds up neither the polls nor the downloads of
+ * earlier jobs, and a full stage makes the one before it wait instead of
+ * piling up work. The polls of all jobs share a few scheduler threads.
+ * <p>
+ * The stages are separate for a {@link PollingDecompiler}, e.g. the
+ * {@link RetdecService}. Any other backend is polled and downloaded from in
+ * one step, by {@link Decompiler#decompileSync} in the download stage.
+ * <p>
+ * The metrics of a stage tell how busy its threads were and how long the
+ * stage before it waited for room; the stage waited for the longest is the
+ * bottleneck.
+ */
+public final class PipelinedDecompilation implements Closeable {
+    /**
+     * Time a finished job waits before trying again to enter the full
+     * download stage.
+     */
+    private static final long HANDOFF_RETRY_MS = 500;
+
+    /**
+     * The stages.
+     */
+    public enum Stage {
+        /** submitting the requests. */
+        UPLOAD, /** polling the status. */
+        POLL, /** downloading the outputs. */
+        DOWNLOAD;
+    }
+
+    /**
+     * Backend without separate polling: its poll finishes at once, and the
+     * download obtains the whole result.
+     */
+    private static final class SyncPolling implements PollingDecompiler {
+        /**
+         * The backend.
+         */
+        private final Decompiler decompiler;
+
+        /**
+         * Construct the adapter.
+         * 
+         * @param decompiler
+         *            the backend.
+         */
+        SyncPolling(final Decompiler decompiler) {
+            this.decompiler = decompiler;
+        }
+
+        @Override
+        public DecompilationResponse decompile(final AbstractDecompilationRequest request)
+                throws IOException, ServiceException {
+            return decompiler.decompile(request);
+        }
+
+        @Override
+        public void decompileSync(final DecompilationResponse resp, final DecompilationResult res) {
+            decompiler.decompileSync(resp, res);
+        }
+
+        @Override
+        public DecompilationPoll startPoll(final DecompilationResponse resp, final DecompilationResult res) {
+            return new DecompilationPoll() {
+                @Override
+                public boolean poll() {
+                    return true;
+                }
+
+                @Override
+                public long nextDelay() {
+                    return 0;
+                }
+
+                @Override
+                public void abandon() {
+                }
+
+                @Override
+                public void fetchOutputs() {
+                    decompiler.decompileSync(resp, res);
+                }
+            };
+        }
+    }
+
+    /**
+     * Load of a stage.
+     */
+    public static final class StageMetrics {
+        /**
+         * Threads of the stage.
+         */
+        private final int threads;
+        /**
+         * Jobs the stage takes.
+         */
+        private final int capacity;
+        /**
+         * Jobs in the stage, waiting or worked on.
+         */
+        private final int jobs;
+        /**
+         * Jobs that left the stage.
+         */
+        private final long completed;
+        /**
+         * Share of the thread time spent working.
+         */
+        private final double utilization;
+        /**
+         * Time spent waiting for room in the stage, in milliseconds.
+         */
+        private final long blockedMillis;
+
+        /**
+         * Construct metrics.
+         * 
+         * @param threads
+         *            threads of the stage.
+         * @param capacity
+         *            jobs the stage takes.
+         * @param jobs
+         *            jobs in the stage.
+         * @param completed
+         *            jobs that left the stage.
+         * @param utilization
+         *            share of the thread time spent working.
+         * @param blockedMillis
+         *            time spent waiting for room in milliseconds.
+         */
+        StageMetrics(final int threads, final int capacity, final int jobs, final long completed,
+                final double utilization, final long blockedMillis) {
+            this.threads = threads;
+            this.capacity = capacity;
+            this.jobs = jobs;
+            this.completed = completed;
+            this.utilization = utilization;
+            this.blockedMillis = blockedMillis;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public int getJobs() {
+            return jobs;
+        }
+
+        public long getCompleted() {
+            return completed;
+        }
+
+        /**
+         * Get the share of the thread time the stage spent working since the
+         * pipeline started.
+         * 
+         * @return the utilization between 0 and 1.
+         */
+        public double getUtilization() {
+            return utilization;
+        }
+
+        /**
+         * Get the time jobs waited for room in the stage: the submitters for
+         * the upload stage, the stage before for the others.
+         * 
+         * @return the time in milliseconds.
+         */
+        public long getBlockedMillis() {
+            return blockedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("threads %d, jobs %d/%d, completed %d, utilization %.0f%%, blocked %dms", threads,
+                    jobs, capacity, completed, utilization * 100, blockedMillis);
+        }
+    }
+
+    /**
+     * The counters of a stage.
+     */
+    private static final class Counters {
+        /**
+         * Threads of the stage.
+         */
+        private final int threads;
+        /**
+         * Jobs the stage takes.
+         */
+        private final int capacity;
+        /**
+         * Thread time spent working in nanoseconds.
+         */
+        private final AtomicLong busyNanos = new AtomicLong();
+        /**
+         * Time spent waiting for room in nanoseconds.
+         */
+        private final AtomicLong blockedNanos = new AtomicLong();
+        /**
+         * Jobs that left the stage.
+         */
+        private final AtomicLong completed = new AtomicLong();
+
+        /**
+         * Construct the counters.
+         * 
+         * @param threads
+         *            threads of the stage.
+         * @param capacity
+         *            jobs the stage takes.
+         */
+        Counters(final int threads, final int capacity) {
+            this.threads = threads;
+            this.capacity = capacity;
+        }
+    }
+
+    /**
+     * A job passing the stages.
+     * 
+     * @param <R>
+     *            the type of the result object.
+     */
+    private final class Job<R extends DecompilationResult> implements Closeable {
+        /**
+         * The request.
+         */
+        private final AbstractDecompilationRequest request;
+        /**
+         * The result object.
+         */
+        private final R res;
+        /**
+         * The future, completed when the job leaves the pipeline.
+         */
+        private final FutureTask<R> future;
+        /**
+         * The failure of the submission, if any.
+         */
+        private volatile Exception error;
+        /**
+         * The polling, set by the upload stage.
+         */
+        private volatile DecompilationPoll poll;
+        /**
+         * The stage, null when done; guarded by this.
+         */
+        private Stage stage = Stage.UPLOAD;
+        /**
+         * The next poll, guarded by this.
+         */
+        private ScheduledFuture<?> next;
+        /**
+         * Since when the job waits for the download stage, System.nanoTime;
+         * guarded by this.
+         */
+        private long blockedSince = -1;
+
+        /**
+         * Construct a job.
+         * 
+         * @param request
+         *            the request.
+         * @param res
+         *            the result object.
+         */
+        Job(final AbstractDecompilationRequest request, final R res) {
+            this.request = request;
+            this.res = res;
+            this.future = new FutureTask<R>(new Callable<R>() {
+                @Override
+                public R call() throws Exception {
+                    if (null != error) {
+                        throw error;
+                    }
+                    return res;
+                }
+            }) {
+                @Override
+                public boolean cancel(final boolean mayInterruptIfRunning) {
+                    Cancellation.of(res).cancel();
+                    return super.cancel(mayInterruptIfRunning);
+                }
+            };
+        }
+
+        /**
+         * Wake the job polling when it is cancelled, registered with the
+         * cancellation while polling.
+         */
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (Stage.POLL != stage) {
+                    return;
+                }
+            }
+            schedulePoll(this, 0);
+        }
+
+        /**
+         * Leave the pipeline.
+         * 
+         * @param failure
+         *            the failure of the submission, null if submitted.
+         */
+        void done(final Exception failure) {
+            synchronized (this) {
+                stage = null;
+                if (null != next) {
+                    next.cancel(false);
+                }
+            }
+            error = failure;
+            pending.remove(this);
+            future.run();
+        }
+    }
+
+    /**
+     * The backend.
+     */
+    private final PollingDecompiler decompiler;
+    /**
+     * The counters by stage.
+     */
+    private final Map<Stage, Counters> counters = new EnumMap<Stage, Counters>(Stage.class);
+    /**
+     * The jobs waiting for upload.
+     */
+    private final BlockingQueue<Job<?>> uploads;
+    /**
+     * The room in the poll stage.
+     */
+    private final Semaphore pollSlots;
+    /**
+     * The scheduler of the polls.
+     */
+    private final ScheduledThreadPoolExecutor scheduler;
+    /**
+     * The finished jobs waiting for download.
+     */
+    private final BlockingQueue<Job<?>> downloads;
+    /**
+     * The upload and download threads.
+     */
+    private final List<Thread> workers = new ArrayList<Thread>();
+    /**
+     * The jobs not yet done.
+     */
+    private final Set<Job<?>> pending = Collections.synchronizedSet(new LinkedHashSet<Job<?>>());
+    /**
+     * When the pipeline started, System.nanoTime.
+     */
+    private final long startedAt = System.nanoTime();
+    /**
+     * Is the pipeline closed?
+     */
+    private volatile boolean closed;
+
+    /**
+     * Construct a pipeline.
+     * 
+     * @param decompiler
+     *            the backend.
+     * @param uploaders
+     *            the number of concurrent uploads.
+     * @param pollers
+     *            the number of threads polling the status of all jobs.
+     * @param downloaders
+     *            the number of concurrent downloads.
+     * @param capacity
+     *            the number of jobs a stage takes besides those worked on;
+     *            the poll stage takes this many jobs in total.
+     */
+    public PipelinedDecompilation(final Decompiler decompiler, final int uploaders, final int pollers,
+            final int downloaders, final int capacity) {
+        if (uploaders < 1 || pollers < 1 || downloaders < 1 || capacity < 1) {
+            throw new IllegalArgumentException("Stages need threads and room.");
+        }
+        this.decompiler = decompiler instanceof PollingDecompiler ? (PollingDecompiler) decompiler
+                : new SyncPolling(decompiler);
+        counters.put(Stage.UPLOAD, new Counters(uploaders, capacity));
+        counters.put(Stage.POLL, new Counters(pollers, capacity));
+        counters.put(Stage.DOWNLOAD, new Counters(downloaders, capacity));
+        uploads = new ArrayBlockingQueue<Job<?>>(capacity);
+        pollSlots = new Semaphore(capacity);
+        downloads = new ArrayBlockingQueue<Job<?>>(capacity);
+        scheduler = new ScheduledThreadPoolExecutor(pollers, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread t = Executors.defaultThreadFactory().newThread(r);
+                t.setName("PipelinedDecompilation-poll");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        for (int i = 0; i < uploaders; i++) {
+            startWorker("PipelinedDecompilation-upload-" + i, new Runnable() {
+                @Override
+                public void run() {
+                    uploadLoop();
+                }
+            });
+        }
+        for (int i = 0; i < downloaders; i++) {
+            startWorker("PipelinedDecompilation-download-" + i, new Runnable() {
+                @Override
+                public void run() {
+                    downloadLoop();
+                }
+            });
+        }
+    }
+
+    /**
+     * Start a worker thread.
+     * 
+     * @param name
+     *            the name of the thread.
+     * @param loop
+     *            the work.
+     */
+    private void startWorker(final String name, final Runnable loop) {
+        Thread worker = new Thread(loop, name);
+        worker.setDaemon(true);
+        workers.add(worker);
+        worker.start();
+    }
+
+    /**
+     * Queue a decompilation. The method waits while the upload stage is
+     * full.
+     * 
+     * @param request
+     *            the request.
+     * @param res
+     *            the result object.
+     * @return the future completed with the result object when the outputs
+     *         are downloaded or the decompilation failed; a failed submission
+     *         fails it. Cancelling it cancels the decompilation.
+     * @throws InterruptedException
+     *             when the waiting was interrupted.
+     */
+    public <R extends DecompilationResult> Future<R> submit(final AbstractDecompilationRequest request, final R res)
+            throws InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("Pipeline closed.");
+        }
+        Job<R> job = new Job<R>(request, res);
+        pending.add(job);
+        if (!uploads.offer(job)) {
+            long start = System.nanoTime();
+            try {
+                uploads.put(job);
+            } catch (InterruptedException e) {
+                pending.remove(job);
+                throw e;
+            } finally {
+                counters.get(Stage.UPLOAD).blockedNanos.addAndGet(System.nanoTime() - start);
+            }
+        }
+        return job.future;
+    }
+
+    /**
+     * Take and submit jobs until closed, then hand them to the poll stage.
+     */
+    private void uploadLoop() {
+        Counters upload = counters.get(Stage.UPLOAD);
+        while (!closed) {
+            Job<?> job;
+            try {
+                job = uploads.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                Cancellation.of(job.res).check();
+                DecompilationResponse resp = decompiler.decompile(job.request);
+                job.poll = decompiler.startPoll(resp, job.res);
+            } catch (IOException | ServiceException | RuntimeException e) {
+                RetdecService.fail(job.res, e);
+                job.done(e);
+                continue;
+            } finally {
+                upload.busyNanos.addAndGet(System.nanoTime() - start);
+                upload.completed.incrementAndGet();
+            }
+            try {
+                enterPoll(job);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Move a submitted job to the poll stage, waiting for room.
+     * 
+     * @param job
+     *            the job.
+     * @throws InterruptedException
+     *             when the waiting was interrupted.
+     */
+    private void enterPoll(final Job<?> job) throws InterruptedException {
+        if (!pollSlots.tryAcquire()) {
+            long start = System.nanoTime();
+            try {
+                pollSlots.acquire();
+            } finally {
+                counters.get(Stage.POLL).blockedNanos.addAndGet(System.nanoTime() - start);
+            }
+        }
+        synchronized (job) {
+            if (null == job.stage) {
+                pollSlots.release();
+                return;
+            }
+            job.stage = Stage.POLL;
+        }
+        Cancellation.of(job.res).register(job);
+        schedulePoll(job, 0);
+    }
+
+    /**
+     * Schedule the next poll of a job, replacing the one scheduled.
+     * 
+     * @param job
+     *            the job.
+     * @param delay
+     *            the delay in milliseconds.
+     */
+    private void schedulePoll(final Job<?> job, final long delay) {
+        synchronized (job) {
+            if (Stage.POLL != job.stage || scheduler.isShutdown()) {
+                return;
+            }
+            if (null != job.next) {
+                job.next.cancel(false);
+            }
+            job.next = scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    poll(job);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Poll a job once, scheduling the next poll or handing it to the
+     * download stage when finished.
+     * 
+     * @param job
+     *            the job.
+     */
+    private void poll(final Job<?> job) {
+        synchronized (job) {
+            if (Stage.POLL != job.stage) {
+                return;
+            }
+        }
+        Counters poll = counters.get(Stage.POLL);
+        long start = System.nanoTime();
+        try {
+            Cancellation.of(job.res).check();
+            if (!job.poll.poll()) {
+                schedulePoll(job, job.poll.nextDelay());
+            } else if (!enterDownload(job)) {
+                schedulePoll(job, HANDOFF_RETRY_MS);
+            }
+        } catch (BindingException | RuntimeException e) {
+            job.poll.abandon();
+            leavePoll(job);
+            RetdecService.fail(job.res, e);
+            job.done(null);
+        } finally {
+            poll.busyNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Move a finished job to the download stage unless it is full.
+     * 
+     * @param job
+     *            the job.
+     * @return true if moved.
+     */
+    private boolean enterDownload(final Job<?> job) {
+        long now = System.nanoTime();
+        synchronized (job) {
+            job.stage = Stage.DOWNLOAD;
+            if (!downloads.offer(job)) {
+                job.stage = Stage.POLL;
+                if (job.blockedSince < 0) {
+                    job.blockedSince = now;
+                }
+                return false;
+            }
+            if (job.blockedSince >= 0) {
+                counters.get(Stage.DOWNLOAD).blockedNanos.addAndGet(now - job.blockedSince);
+            }
+            // still holding the job, so it cannot be done before it left.
+            leavePoll(job);
+        }
+        return true;
+    }
+
+    /**
+     * Free the room of a job leaving the poll stage.
+     * 
+     * @param job
+     *            the job.
+     */
+    private void leavePoll(final Job<?> job) {
+        Cancellation.of(job.res).unregister(job);
+        pollSlots.release();
+        counters.get(Stage.POLL).completed.incrementAndGet();
+    }
+
+    /**
+     * Take finished jobs and download their outputs until closed.
+     */
+    private void downloadLoop() {
+        Counters download = counters.get(Stage.DOWNLOAD);
+        while (!closed) {
+            Job<?> job;
+            try {
+                job = downloads.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                Cancellation.of(job.res).check();
+                job.poll.fetchOutputs();
+            } catch (IOException | BindingException | RuntimeException e) {
+                RetdecService.fail(job.res, e);
+            } finally {
+                download.busyNanos.addAndGet(System.nanoTime() - start);
+                download.completed.incrementAndGet();
+            }
+            job.done(null);
+        }
+    }
+
+    /**
+     * Get the load of the stages.
+     * 
+     * @return snapshots by stage.
+     */
+    public Map<Stage, StageMetrics> getMetrics() {
+        long elapsed = Math.max(1, System.nanoTime() - startedAt);
+        Map<Stage, StageMetrics> metrics = new EnumMap<Stage, StageMetrics>(Stage.class);
+        for (Map.Entry<Stage, Counters> e : counters.entrySet()) {
+            Counters c = e.getValue();
+            int jobs;
+            switch (e.getKey()) {
+            case UPLOAD:
+                jobs = uploads.size();
+                break;
+            case POLL:
+                jobs = c.capacity - pollSlots.availablePermits();
+                break;
+            default:
+                jobs = downloads.size();
+                break;
+            }
+            metrics.put(e.getKey(), new StageMetrics(c.threads, c.capacity, jobs, c.completed.get(),
+                    Math.min(1.0, (double) c.busyNanos.get() / c.threads / elapsed), c.blockedNanos.get() / 1000000));
+        }
+        return Collections.unmodifiableMap(metrics);
+    }
+
+    /**
+     * Get the stage limiting the throughput: the one jobs waited the longest
+     * to enter.
+     * 
+     * @return the stage, null if no job had to wait.
+     */
+    public Stage getBottleneck() {
+        Stage bottleneck = null;
+        long longest = 0;
+        for (Map.Entry<Stage, Counters> e : counters.entrySet()) {
+            long blocked = e.getValue().blockedNanos.get();
+            if (blocked > longest) {
+                longest = blocked;
+                bottleneck = e.getKey();
+            }
+        }
+        return bottleneck;
+    }
+
+    /**
+     * Stop the pipeline. The jobs not done are cancelled.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        List<Job<?>> jobs;
+        synchronized (pending) {
+            jobs = new ArrayList<Job<?>>(pending);
+        }
+        for (Job<?> job : jobs) {
+            Cancellation.of(job.res).cancel();
+        }
+        scheduler.shutdownNow();
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        for (Job<?> job : jobs) {
+            if (!job.future.isDone()) {
+                DecompilationCancelledException e = new DecompilationCancelledException(Cancellation.Outcome.CANCELLED);
+                RetdecService.fail(job.res, e);
+                job.done(null == job.poll ? e : null);
+            }
+        }
+    }
+}
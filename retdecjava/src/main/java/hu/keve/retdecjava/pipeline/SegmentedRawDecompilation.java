@@ -0,0 +1,276 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.pipeline;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import hu.keve.retdecjava.analysis.CodeRegion;
+import hu.keve.retdecjava.analysis.CodeRegionScanner;
+import hu.keve.retdecjava.binding.MappedFile;
+import hu.keve.retdecjava.binding.RawDecompilationRequest;
+import hu.keve.retdecjava.binding.Decompiler;
+import hu.keve.retdecjava.sink.OutputSink;
+import hu.keve.retdecjava.sink.PrefixSink;
+import hu.keve.retdecjava.sink.SinkDecompilationResult;
+
+/**
+ * Decompilation of a raw image, e.g. firmware, as one raw decompilation per
+ * code region. The regions are found locally with {@link CodeRegionScanner}
+ * and decompiled in parallel, each with its own virtual address, entry point
+ * and endianness. The outputs of a region are placed in a directory named
+ * after its address and a report listing all regions is written as
+ * {@value #REPORT}.
+ */
+public final class SegmentedRawDecompilation {
+    /**
+     * The name of the report output.
+     */
+    public static final String REPORT = "segments.txt";
+
+    /**
+     * The outcome of the decompilation of a region.
+     */
+    public static final class Segment {
+        /**
+         * The region.
+         */
+        private final CodeRegion region;
+        /**
+         * The id of the decompilation, null if it was not submitted.
+         */
+        private final String id;
+        /**
+         * Time spent in milliseconds.
+         */
+        private final long millis;
+        /**
+         * The failure, null on success.
+         */
+        private final Exception exception;
+
+        /**
+         * Construct a segment.
+         * 
+         * @param region
+         *            the region.
+         * @param id
+         *            the id of the decompilation, null if it was not
+         *            submitted.
+         * @param millis
+         *            time spent in milliseconds.
+         * @param exception
+         *            the failure, null on success.
+         */
+        Segment(final CodeRegion region, final String id, final long millis, final Exception exception) {
+            this.region = region;
+            this.id = id;
+            this.millis = millis;
+            this.exception = exception;
+        }
+
+        public CodeRegion getRegion() {
+            return region;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        public Exception getException() {
+            return exception;
+        }
+    }
+
+    /**
+     * The service.
+     */
+    private final Decompiler service;
+    /**
+     * The maximum number of regions decompiled concurrently.
+     */
+    private final int parallelism;
+
+    /**
+     * Construct a segmented decompilation.
+     * 
+     * @param service
+     *            the service.
+     * @param parallelism
+     *            the maximum number of regions decompiled concurrently.
+     */
+    public SegmentedRawDecompilation(final Decompiler service, final int parallelism) {
+        this.service = service;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Get the region directory of a region.
+     * 
+     * @param region
+     *            the region.
+     * @return the directory name ending with a slash.
+     */
+    private static String directory(final CodeRegion region) {
+        return String.format("0x%08x/", region.getVma());
+    }
+
+    /**
+     * Create the requests of the regions of an image.
+     * 
+     * @param request
+     *            the request of the whole image, its architecture must be
+     *            set. Its section VMA is the load address of the image.
+     * @param regions
+     *            the regions.
+     * @return the requests in region order.
+     * @throws IOException
+     *             if the input cannot be read.
+     */
+    private static List<RawDecompilationRequest> split(final RawDecompilationRequest request,
+            final List<CodeRegion> regions) throws IOException {
+        MappedFile image = request.getMappedInput();
+        String name = image.getFile().getName();
+        List<RawDecompilationRequest> requests = new ArrayList<RawDecompilationRequest>();
+        for (CodeRegion region : regions) {
+            RawDecompilationRequest part = new RawDecompilationRequest(request);
+            part.setMappedInput(image.slice(String.format("%s-0x%08x", name, region.getVma()), region.getOffset(),
+                    region.getLength()));
+            part.setRawSectionVma(region.getVma());
+            part.setRawEntryPoint(region.getEntryPoint());
+            part.setRawEndian(region.getEndianness());
+            requests.add(part);
+        }
+        return requests;
+    }
+
+    /**
+     * Find the code regions of an image.
+     * 
+     * @param request
+     *            the request of the whole image.
+     * @return the regions in address order.
+     * @throws IOException
+     *             if the input cannot be read.
+     */
+    public List<CodeRegion> scan(final RawDecompilationRequest request) throws IOException {
+        if (null == request.getArchitecture()) {
+            throw new IllegalArgumentException("Raw decompilation requires an architecture.");
+        }
+        long vma = null == request.getRawSectionVma() ? 0 : request.getRawSectionVma();
+        return CodeRegionScanner.scan(request.getMappedInput().getBuffer(), request.getArchitecture(),
+                request.getRawEndian(), vma);
+    }
+
+    /**
+     * Decompile the code regions of an image and write their outputs and the
+     * report into a sink. A failed region is recorded in the report and does
+     * not stop the others.
+     * 
+     * @param request
+     *            the request of the whole image.
+     * @param sink
+     *            the sink.
+     * @return the outcomes in region order.
+     * @throws Exception
+     *             if the image cannot be read or the report not written.
+     */
+    public List<Segment> run(final RawDecompilationRequest request, final OutputSink sink) throws Exception {
+        final List<CodeRegion> regions = scan(request);
+        final List<RawDecompilationRequest> requests = split(request, regions);
+        List<Segment> segments = new ArrayList<Segment>();
+        if (!requests.isEmpty()) {
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, requests.size()));
+            try {
+                List<Future<Segment>> futures = new ArrayList<Future<Segment>>();
+                for (int i = 0; i < requests.size(); i++) {
+                    final CodeRegion region = regions.get(i);
+                    final RawDecompilationRequest part = requests.get(i);
+                    futures.add(executor.submit(new Callable<Segment>() {
+                        @Override
+                        public Segment call() {
+                            long start = System.nanoTime();
+                            SinkDecompilationResult res = new SinkDecompilationResult(
+                                    new PrefixSink(sink, directory(region)));
+                            Exception failure;
+                            try {
+                                service.decompileSync(service.decompile(part), res);
+                                failure = res.getException();
+                            } catch (Exception e) {
+                                failure = e;
+                            }
+                            return new Segment(region, res.getId(), (System.nanoTime() - start) / 1000000L,
+                                    failure);
+                        }
+                    }));
+                }
+                for (Future<Segment> future : futures) {
+                    try {
+                        segments.add(future.get());
+                    } catch (ExecutionException e) {
+                        if (e.getCause() instanceof Exception) {
+                            throw (Exception) e.getCause();
+                        }
+                        throw e;
+                    }
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        try (OutputStream out = sink.open(REPORT, "text/plain")) {
+            PrintStream report = new PrintStream(out, false, StandardCharsets.UTF_8.name());
+            report.printf("%s: %d code regions\n", request.getInput().getName(), segments.size());
+            for (Segment s : segments) {
+                report.printf("%s %s %s %dms%s\n", directory(s.getRegion()), s.getRegion(),
+                        null == s.getId() ? "-" : s.getId(), s.getMillis(),
+                        null == s.getException() ? "" : " FAILED " + s.getException().getMessage());
+                report.printf("  prologues:");
+                for (Long entry : s.getRegion().getEntryPoints()) {
+                    report.printf(" 0x%x", entry);
+                }
+                report.printf("\n");
+            }
+            report.flush();
+        }
+        return Collections.unmodifiableList(segments);
+    }
+}
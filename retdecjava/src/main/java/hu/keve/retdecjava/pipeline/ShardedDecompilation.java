@@ -0,0 +1,459 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.pipeline;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import hu.keve.retdecjava.analysis.FunctionSymbol;
+import hu.keve.retdecjava.analysis.FunctionTable;
+import hu.keve.retdecjava.analysis.Section;
+import hu.keve.retdecjava.analysis.SectionTable;
+import hu.keve.retdecjava.binding.BinDecompilationRequest;
+import hu.keve.retdecjava.binding.DecompilationResponse;
+import hu.keve.retdecjava.binding.DecompilationResult.DecompilationOutput;
+import hu.keve.retdecjava.binding.Decompiler;
+import hu.keve.retdecjava.sink.MemorySink;
+import hu.keve.retdecjava.sink.OutputSink;
+import hu.keve.retdecjava.sink.SinkDecompilationResult;
+
+/**
+ * Decompilation of a large binary as several selective decompilations running
+ * in parallel. The selected functions or address ranges are split into
+ * balanced shards, the shards are submitted concurrently and their hll and dsm
+ * outputs are merged in shard order, so the result does not depend on which
+ * shard finishes first.
+ * <p>
+ * Without an explicit selection the address ranges of the code sections of
+ * the input are sharded. Ranges are cut at function boundaries when the input
+ * has symbols, so no function is decompiled in two halves.
+ */
+public final class ShardedDecompilation {
+    /**
+     * Charset preserving the bytes of the outputs while splitting lines.
+     */
+    private static final Charset BYTES = Charset.forName("ISO-8859-1");
+
+    /**
+     * Timings of a sharded decompilation.
+     */
+    public static final class Report {
+        /**
+         * Time spent by each shard in milliseconds, in shard order.
+         */
+        private final long[] shardMillis;
+        /**
+         * Wall time of the whole decompilation in milliseconds.
+         */
+        private final long elapsedMillis;
+
+        /**
+         * Construct a report.
+         * 
+         * @param shardMillis
+         *            time spent by each shard in milliseconds.
+         * @param elapsedMillis
+         *            wall time of the whole decompilation in milliseconds.
+         */
+        Report(final long[] shardMillis, final long elapsedMillis) {
+            this.shardMillis = shardMillis;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public int getShards() {
+            return shardMillis.length;
+        }
+
+        public long[] getShardMillis() {
+            return shardMillis.clone();
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /**
+         * Get the parallelism, i.e. how many shards ran at the same time on
+         * average. This is not the speedup over a single decompilation of the
+         * whole selection, which would have to be timed separately.
+         * 
+         * @return the sum of the shard times divided by the wall time.
+         */
+        public double getParallelism() {
+            long total = 0;
+            for (long m : shardMillis) {
+                total += m;
+            }
+            return 0 == elapsedMillis ? 1.0 : (double) total / elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d shards in %.1fs, shards %s ms, parallelism %.2f", getShards(),
+                    elapsedMillis / 1000.0, Arrays.toString(shardMillis), getParallelism());
+        }
+    }
+
+    /**
+     * The service.
+     */
+    private final Decompiler service;
+    /**
+     * The number of shards.
+     */
+    private final int shards;
+
+    /**
+     * Construct a sharded decompilation.
+     * 
+     * @param service
+     *            the service.
+     * @param shards
+     *            the number of shards, all submitted concurrently.
+     */
+    public ShardedDecompilation(final Decompiler service, final int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("At least one shard is required.");
+        }
+        this.service = service;
+        this.shards = shards;
+    }
+
+    /**
+     * Split a request into shard requests. Each shard copies the settings of
+     * the request and selects a contiguous part of its functions or ranges.
+     * 
+     * @param request
+     *            the request.
+     * @return the shard requests, the request itself if there is nothing to
+     *         split.
+     * @throws IOException
+     *             if the input cannot be read.
+     */
+    public List<BinDecompilationRequest> split(final BinDecompilationRequest request) throws IOException {
+        List<BinDecompilationRequest> requests = new ArrayList<BinDecompilationRequest>();
+        if (null != request.getSelDecompRanges() && !request.getSelDecompRanges().isEmpty()) {
+            for (List<String> ranges : splitRanges(request.getSelDecompRanges(), shards,
+                    functionStarts(request))) {
+                BinDecompilationRequest shard = new BinDecompilationRequest(request);
+                shard.setSelDecompRanges(ranges);
+                requests.add(shard);
+            }
+        } else if (null != request.getSelDecompFuncs() && !request.getSelDecompFuncs().isEmpty()) {
+            for (List<String> funcs : splitFunctions(request.getSelDecompFuncs(), shards)) {
+                BinDecompilationRequest shard = new BinDecompilationRequest(request);
+                shard.setSelDecompFuncs(funcs);
+                requests.add(shard);
+            }
+        } else {
+            List<String> code = codeRanges(request);
+            if (code.isEmpty()) {
+                requests.add(request);
+            } else {
+                for (List<String> ranges : splitRanges(code, shards, functionStarts(request))) {
+                    BinDecompilationRequest shard = new BinDecompilationRequest(request);
+                    shard.setSelDecompRanges(ranges);
+                    requests.add(shard);
+                }
+            }
+        }
+        return requests;
+    }
+
+    /**
+     * Decompile a request in shards and write the merged outputs into a sink.
+     * 
+     * @param request
+     *            the request.
+     * @param sink
+     *            the sink receiving the merged outputs.
+     * @return the timings.
+     * @throws Exception
+     *             the failure of the first shard that failed.
+     */
+    public Report run(final BinDecompilationRequest request, final OutputSink sink) throws Exception {
+        final List<BinDecompilationRequest> requests = split(request);
+        final MemorySink[] outputs = new MemorySink[requests.size()];
+        long start = System.nanoTime();
+        long[] shardMillis = new long[requests.size()];
+        ExecutorService executor = Executors.newFixedThreadPool(requests.size());
+        try {
+            List<Future<Long>> futures = new ArrayList<Future<Long>>();
+            for (int i = 0; i < requests.size(); i++) {
+                final int shard = i;
+                outputs[shard] = new MemorySink();
+                futures.add(executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        long shardStart = System.nanoTime();
+                        SinkDecompilationResult res = new SinkDecompilationResult(outputs[shard],
+                                EnumSet.of(DecompilationOutput.hll, DecompilationOutput.dsm));
+                        DecompilationResponse resp = service.decompile(requests.get(shard));
+                        service.decompileSync(resp, res);
+                        if (null != res.getException()) {
+                            throw res.getException();
+                        }
+                        return (System.nanoTime() - shardStart) / 1000000L;
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    shardMillis[i] = futures.get(i).get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1000000L;
+
+        SortedSet<String> names = new TreeSet<String>();
+        for (MemorySink output : outputs) {
+            names.addAll(output.getOutputs().keySet());
+        }
+        for (String name : names) {
+            List<String> texts = new ArrayList<String>();
+            for (MemorySink output : outputs) {
+                byte[] content = output.get(name);
+                if (null != content) {
+                    texts.add(new String(content, BYTES));
+                }
+            }
+            try (OutputStream out = sink.open(name, "text/plain")) {
+                out.write(merge(texts).getBytes(BYTES));
+            }
+        }
+        return new Report(shardMillis, elapsedMillis);
+    }
+
+    /**
+     * Get the address ranges of the code sections of the input.
+     * 
+     * @param request
+     *            the request.
+     * @return the ranges, empty if the input has no recognised code sections.
+     * @throws IOException
+     *             if the input cannot be read.
+     */
+    private static List<String> codeRanges(final BinDecompilationRequest request) throws IOException {
+        List<String> ranges = new ArrayList<String>();
+        SectionTable sections = SectionTable.parse(request.getMappedInput().getBuffer());
+        if (null != sections) {
+            for (Section s : sections.getCodeSections()) {
+                ranges.add(new AddressRange(s.getAddress(), s.getAddress() + s.getSize() - 1).toString());
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Get the start addresses of the functions of the input.
+     * 
+     * @param request
+     *            the request.
+     * @return the addresses, null if the input has no symbols.
+     * @throws IOException
+     *             if the input cannot be read.
+     */
+    private static NavigableSet<Long> functionStarts(final BinDecompilationRequest request) throws IOException {
+        FunctionTable functions = FunctionTable.parse(request.getMappedInput().getBuffer());
+        if (functions.getFunctions().isEmpty()) {
+            return null;
+        }
+        NavigableSet<Long> starts = new TreeSet<Long>();
+        for (FunctionSymbol f : functions.getFunctions().values()) {
+            starts.add(f.getAddress());
+        }
+        return starts;
+    }
+
+    /**
+     * Split a list of functions into contiguous shards whose sizes differ by
+     * at most one.
+     * 
+     * @param funcs
+     *            the functions.
+     * @param shards
+     *            the maximum number of shards.
+     * @return the non-empty shards.
+     */
+    static List<List<String>> splitFunctions(final List<String> funcs, final int shards) {
+        List<List<String>> result = new ArrayList<List<String>>();
+        int n = Math.min(shards, funcs.size());
+        int from = 0;
+        for (int i = 0; i < n; i++) {
+            int to = from + (funcs.size() - from) / (n - i);
+            result.add(new ArrayList<String>(funcs.subList(from, to)));
+            from = to;
+        }
+        return result;
+    }
+
+    /**
+     * Split address ranges of the form <code>start-end</code> into shards
+     * covering about the same number of bytes. Ranges are cut where a shard is
+     * full. Ends are inclusive.
+     * 
+     * @param ranges
+     *            the ranges.
+     * @param shards
+     *            the maximum number of shards.
+     * @return the non-empty shards.
+     */
+    static List<List<String>> splitRanges(final List<String> ranges, final int shards) {
+        return splitRanges(ranges, shards, null);
+    }
+
+    /**
+     * Split address ranges of the form <code>start-end</code> into shards
+     * covering about the same number of bytes. A range is cut at the first
+     * function start at or after the point where a shard is full; without
+     * such a start in the range the shard is closed before the rest of the
+     * range, which then goes to the next shard as a whole. Ends are inclusive.
+     * 
+     * @param ranges
+     *            the ranges.
+     * @param shards
+     *            the maximum number of shards.
+     * @param functionStarts
+     *            the addresses ranges may be cut at, null to cut anywhere.
+     * @return the non-empty shards.
+     */
+    static List<List<String>> splitRanges(final List<String> ranges, final int shards,
+            final NavigableSet<Long> functionStarts) {
+        List<AddressRange> parsed = AddressRange.parseAll(ranges);
+        long total = 0;
+        for (AddressRange r : parsed) {
+            total += r.length();
+        }
+        long target = (total + shards - 1) / shards;
+        List<List<String>> result = new ArrayList<List<String>>();
+        List<String> current = new ArrayList<String>();
+        long room = target;
+        for (AddressRange r : parsed) {
+            long start = r.getStart();
+            while (start <= r.getEnd()) {
+                long end = Math.min(r.getEnd(), start + room - 1);
+                if (end < r.getEnd() && null != functionStarts) {
+                    Long cut = functionStarts.ceiling(end + 1);
+                    if (null == cut || cut > r.getEnd()) {
+                        if (!current.isEmpty()) {
+                            result.add(current);
+                            current = new ArrayList<String>();
+                            room = target;
+                            continue;
+                        }
+                        end = r.getEnd();
+                    } else {
+                        end = cut - 1;
+                    }
+                }
+                current.add(new AddressRange(start, end).toString());
+                room -= end - start + 1;
+                start = end + 1;
+                if (room <= 0) {
+                    result.add(current);
+                    current = new ArrayList<String>();
+                    room = target;
+                }
+            }
+        }
+        if (!current.isEmpty()) {
+            result.add(current);
+        }
+        return result;
+    }
+
+    /**
+     * Merge the outputs of the shards. The lines all shards start with, such as
+     * the includes and the header comment, are kept once, followed by the rest
+     * of each shard in shard order.
+     * 
+     * @param texts
+     *            the outputs in shard order.
+     * @return the merged output.
+     */
+    static String merge(final List<String> texts) {
+        if (1 == texts.size()) {
+            return texts.get(0);
+        }
+        List<String[]> lines = new ArrayList<String[]>();
+        for (String text : texts) {
+            lines.add(text.split("\n", -1));
+        }
+        int common = 0;
+        boolean same = !lines.isEmpty();
+        while (same) {
+            for (String[] l : lines) {
+                // never swallow the last line, it is the rest of the shard.
+                if (common >= l.length - 1 || !l[common].equals(lines.get(0)[common])) {
+                    same = false;
+                    break;
+                }
+            }
+            if (same) {
+                common++;
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        if (!lines.isEmpty()) {
+            for (int i = 0; i < common; i++) {
+                sb.append(lines.get(0)[i]).append('\n');
+            }
+        }
+        for (String[] l : lines) {
+            for (int i = common; i < l.length; i++) {
+                sb.append(l[i]);
+                if (i < l.length - 1) {
+                    sb.append('\n');
+                }
+            }
+            if (sb.length() > 0 && '\n' != sb.charAt(sb.length() - 1)) {
+                sb.append('\n');
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,185 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.reactive;
+
+import java.nio.ByteBuffer;
+
+import hu.keve.retdecjava.binding.StatusPhase;
+
+/**
+ * Event of a decompilation. Which fields are set depends on the kind.
+ */
+public final class DecompilationEvent {
+    /**
+     * Kinds of events.
+     */
+    public enum Kind {
+        /** the decompilation was accepted, the id is set. */
+        SUBMITTED, /** a phase was reached, the phase is set. */
+        PHASE, /** a piece of an output, file name, media type and chunk are set. */
+        OUTPUT_CHUNK, /** the decompilation finished, the last event. */
+        FINISHED, /** the decompilation failed, the last event, the failure is set. */
+        FAILED;
+    }
+
+    /**
+     * The kind.
+     */
+    private final Kind kind;
+    /**
+     * The id of the decompilation.
+     */
+    private final String id;
+    /**
+     * The phase reached.
+     */
+    private final StatusPhase phase;
+    /**
+     * The file name of the output.
+     */
+    private final String fileName;
+    /**
+     * The media type of the output.
+     */
+    private final String mediaType;
+    /**
+     * The piece of the output.
+     */
+    private final ByteBuffer chunk;
+    /**
+     * Is this the last piece of the output?
+     */
+    private final boolean last;
+    /**
+     * The failure.
+     */
+    private final Exception failure;
+
+    /**
+     * Construct an event.
+     * 
+     * @param kind
+     *            the kind.
+     * @param id
+     *            the id of the decompilation.
+     * @param phase
+     *            the phase reached.
+     * @param fileName
+     *            the file name of the output.
+     * @param mediaType
+     *            the media type of the output.
+     * @param chunk
+     *            the piece of the output.
+     * @param last
+     *            is this the last piece of the output?
+     * @param failure
+     *            the failure.
+     */
+    private DecompilationEvent(final Kind kind, final String id, final StatusPhase phase, final String fileName,
+            final String mediaType, final ByteBuffer chunk, final boolean last, final Exception failure) {
+        this.kind = kind;
+        this.id = id;
+        this.phase = phase;
+        this.fileName = fileName;
+        this.mediaType = mediaType;
+        this.chunk = chunk;
+        this.last = last;
+        this.failure = failure;
+    }
+
+    static DecompilationEvent submitted(final String id) {
+        return new DecompilationEvent(Kind.SUBMITTED, id, null, null, null, null, false, null);
+    }
+
+    static DecompilationEvent phase(final String id, final StatusPhase phase) {
+        return new DecompilationEvent(Kind.PHASE, id, phase, null, null, null, false, null);
+    }
+
+    static DecompilationEvent chunk(final String id, final String fileName, final String mediaType,
+            final ByteBuffer chunk, final boolean last) {
+        return new DecompilationEvent(Kind.OUTPUT_CHUNK, id, null, fileName, mediaType, chunk, last, null);
+    }
+
+    static DecompilationEvent finished(final String id) {
+        return new DecompilationEvent(Kind.FINISHED, id, null, null, null, null, false, null);
+    }
+
+    static DecompilationEvent failed(final String id, final Exception failure) {
+        return new DecompilationEvent(Kind.FAILED, id, null, null, null, null, false, failure);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public StatusPhase getPhase() {
+        return phase;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    /**
+     * Get the piece of the output.
+     * 
+     * @return a read-only view of the bytes.
+     */
+    public ByteBuffer getChunk() {
+        return null == chunk ? null : chunk.asReadOnlyBuffer();
+    }
+
+    public boolean isLast() {
+        return last;
+    }
+
+    public Exception getFailure() {
+        return failure;
+    }
+
+    @Override
+    public String toString() {
+        switch (kind) {
+        case PHASE:
+            return kind + " " + id + " " + phase.getDescription();
+        case OUTPUT_CHUNK:
+            return kind + " " + id + " " + fileName + " " + chunk.remaining() + (last ? " last" : "");
+        case FAILED:
+            return kind + " " + id + " " + failure;
+        default:
+            return kind + " " + id;
+        }
+    }
+}
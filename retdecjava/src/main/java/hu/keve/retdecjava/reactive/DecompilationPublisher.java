@@ -0,0 +1,359 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.reactive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import hu.keve.retdecjava.binding.AbstractDecompilationRequest;
+import hu.keve.retdecjava.binding.BindingException;
+import hu.keve.retdecjava.binding.DecompilationResponse;
+import hu.keve.retdecjava.binding.DecompilationResult.DecompilationOutput;
+import hu.keve.retdecjava.binding.Decompiler;
+import hu.keve.retdecjava.binding.DefaultDecompilationResult;
+import hu.keve.retdecjava.binding.OutputHandle;
+import hu.keve.retdecjava.binding.ServiceException;
+import hu.keve.retdecjava.binding.StatusPhase;
+
+/**
+ * Publisher running a decompilation and emitting its events as they are
+ * demanded: submitted, the phases, the accepted outputs in chunks, and finally
+ * finished or failed. A failed decompilation is an event like the others, the
+ * stream then completes normally; onError is only signalled for misuse of the
+ * subscription.
+ * <p>
+ * The decompilation runs on a thread of its own that waits for demand before
+ * each event, so a slow subscriber holds back polling and downloading rather
+ * than having events buffered: at most two chunks of an output are held at a
+ * time. The publisher runs the decompilation once and accepts one subscriber.
+ */
+public final class DecompilationPublisher implements Flow.Publisher<DecompilationEvent> {
+    /**
+     * The default size of the output chunks.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * The backend.
+     */
+    private final Decompiler decompiler;
+    /**
+     * The request.
+     */
+    private final AbstractDecompilationRequest request;
+    /**
+     * The outputs streamed, also those nested.
+     */
+    private final Set<DecompilationOutput> accepted;
+    /**
+     * The size of the output chunks.
+     */
+    private final int chunkSize;
+    /**
+     * Was there a subscriber?
+     */
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    /**
+     * Construct a publisher with the default chunk size.
+     * 
+     * @param decompiler
+     *            the backend.
+     * @param request
+     *            the request.
+     * @param accepted
+     *            the outputs streamed, also those nested.
+     */
+    public DecompilationPublisher(final Decompiler decompiler, final AbstractDecompilationRequest request,
+            final Set<DecompilationOutput> accepted) {
+        this(decompiler, request, accepted, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Construct a publisher.
+     * 
+     * @param decompiler
+     *            the backend.
+     * @param request
+     *            the request.
+     * @param accepted
+     *            the outputs streamed, also those nested.
+     * @param chunkSize
+     *            the size of the output chunks.
+     */
+    public DecompilationPublisher(final Decompiler decompiler, final AbstractDecompilationRequest request,
+            final Set<DecompilationOutput> accepted, final int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive.");
+        }
+        this.decompiler = decompiler;
+        this.request = request;
+        this.accepted = accepted.isEmpty() ? EnumSet.noneOf(DecompilationOutput.class) : EnumSet.copyOf(accepted);
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public void subscribe(final Flow.Subscriber<? super DecompilationEvent> subscriber) {
+        if (null == subscriber) {
+            throw new NullPointerException("subscriber");
+        }
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(final long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("Only one subscriber is supported."));
+            return;
+        }
+        Stream stream = new Stream(subscriber);
+        subscriber.onSubscribe(stream);
+        Thread worker = new Thread(stream, "retdec-publisher");
+        worker.setDaemon(true);
+        stream.start(worker);
+    }
+
+    /**
+     * The subscription, running the decompilation.
+     */
+    private final class Stream extends DefaultDecompilationResult implements Flow.Subscription, Runnable {
+        /**
+         * The subscriber.
+         */
+        private final Flow.Subscriber<? super DecompilationEvent> subscriber;
+        /**
+         * The outstanding demand.
+         */
+        private long demand;
+        /**
+         * Was the subscription cancelled?
+         */
+        private boolean cancelled;
+        /**
+         * The misuse to signal, if any.
+         */
+        private Throwable error;
+        /**
+         * The id of the decompilation.
+         */
+        private String decompilationId;
+
+        /**
+         * Construct the subscription.
+         * 
+         * @param subscriber
+         *            the subscriber.
+         */
+        Stream(final Flow.Subscriber<? super DecompilationEvent> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        /**
+         * Start the decompilation unless cancelled already.
+         * 
+         * @param thread
+         *            the thread to run it.
+         */
+        synchronized void start(final Thread thread) {
+            if (!cancelled) {
+                thread.start();
+            }
+        }
+
+        @Override
+        public synchronized void request(final long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("Non-positive request " + n);
+                stop();
+            } else {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                notifyAll();
+            }
+        }
+
+        @Override
+        public synchronized void cancel() {
+            cancelled = true;
+            stop();
+        }
+
+        /**
+         * Stop the decompilation, waking the worker wherever it waits. Must
+         * hold the lock.
+         */
+        private void stop() {
+            notifyAll();
+            getCancellation().cancel();
+        }
+
+        /**
+         * Emit an event when demanded.
+         * 
+         * @param event
+         *            the event.
+         * @throws CancellationException
+         *             if the subscription ended.
+         */
+        private void emit(final DecompilationEvent event) {
+            synchronized (this) {
+                while (0 == demand && !cancelled && null == error) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // re-check the state.
+                    }
+                }
+                if (cancelled || null != error) {
+                    throw new CancellationException();
+                }
+                demand--;
+            }
+            subscriber.onNext(event);
+        }
+
+        @Override
+        public void run() {
+            try {
+                DecompilationResponse resp;
+                try {
+                    resp = decompiler.decompile(request);
+                } catch (IOException | ServiceException | RuntimeException e) {
+                    emit(DecompilationEvent.failed(null, e));
+                    complete();
+                    return;
+                }
+                decompilationId = resp.getId();
+                emit(DecompilationEvent.submitted(decompilationId));
+                decompiler.decompileSync(resp, this);
+                if (null != getException()) {
+                    emit(DecompilationEvent.failed(decompilationId, getException()));
+                } else {
+                    emit(DecompilationEvent.finished(decompilationId));
+                }
+                complete();
+            } catch (CancellationException e) {
+                Throwable misuse;
+                synchronized (this) {
+                    misuse = cancelled ? null : error;
+                    cancelled = true;
+                }
+                if (null != misuse) {
+                    subscriber.onError(misuse);
+                }
+            }
+        }
+
+        /**
+         * Signal the completion unless the subscription ended.
+         */
+        private void complete() {
+            synchronized (this) {
+                if (cancelled || null != error) {
+                    throw new CancellationException();
+                }
+                cancelled = true;
+            }
+            subscriber.onComplete();
+        }
+
+        @Override
+        public void phaseChange(final StatusPhase phase) {
+            emit(DecompilationEvent.phase(decompilationId, phase));
+        }
+
+        @Override
+        public boolean acceptOutput(final DecompilationOutput key) {
+            return accepted.contains(key);
+        }
+
+        /**
+         * Stream an output in chunks, reading one chunk ahead to flag the
+         * last one.
+         */
+        @Override
+        public void consumeOutput(final String fileName, final String mediaType, final InputStream in)
+                throws IOException {
+            byte[] current = new byte[chunkSize];
+            int n = fill(in, current);
+            while (true) {
+                byte[] next = new byte[chunkSize];
+                int m = n < chunkSize ? 0 : fill(in, next);
+                emit(DecompilationEvent.chunk(decompilationId, fileName, mediaType, ByteBuffer.wrap(current, 0, n),
+                        0 == m));
+                if (0 == m) {
+                    break;
+                }
+                current = next;
+                n = m;
+            }
+        }
+
+        /**
+         * Read until a buffer is full or the stream ends.
+         * 
+         * @param in
+         *            the stream.
+         * @param buffer
+         *            the buffer.
+         * @return the number of bytes read.
+         * @throws IOException
+         *             if an I/O error occurs.
+         */
+        private int fill(final InputStream in, final byte[] buffer) throws IOException {
+            int n = 0;
+            int r;
+            while (n < buffer.length && -1 != (r = in.read(buffer, n, buffer.length - n))) {
+                n += r;
+            }
+            return n;
+        }
+
+        @Override
+        public void nestedOutputs(final DecompilationOutput key, final SortedMap<String, OutputHandle> outputs) {
+            if (!accepted.contains(key)) {
+                return;
+            }
+            try {
+                for (OutputHandle handle : outputs.values()) {
+                    handle.transferTo(this);
+                }
+            } catch (IOException | BindingException e) {
+                failed(e);
+            }
+        }
+    }
+}
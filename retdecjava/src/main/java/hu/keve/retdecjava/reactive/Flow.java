@@ -0,0 +1,111 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.reactive;
+
+/**
+ * The Reactive Streams interfaces, with the same names and contracts as
+ * java.util.concurrent.Flow, which is not available before Java 9.
+ */
+public final class Flow {
+    /**
+     * Not instantiable.
+     */
+    private Flow() {
+    }
+
+    /**
+     * Producer of items received by subscribers.
+     * 
+     * @param <T>
+     *            the type of the items.
+     */
+    public interface Publisher<T> {
+        /**
+         * Add a subscriber. It receives onSubscribe, then items as demanded,
+         * then onComplete or onError.
+         * 
+         * @param subscriber
+         *            the subscriber.
+         */
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * Receiver of items. The methods of one subscription are called serially.
+     * 
+     * @param <T>
+     *            the type of the items.
+     */
+    public interface Subscriber<T> {
+        /**
+         * Called first, with the subscription to request items through.
+         * 
+         * @param subscription
+         *            the subscription.
+         */
+        void onSubscribe(Subscription subscription);
+
+        /**
+         * Receive the next item, only as demanded.
+         * 
+         * @param item
+         *            the item.
+         */
+        void onNext(T item);
+
+        /**
+         * Called last when the publisher failed.
+         * 
+         * @param throwable
+         *            the failure.
+         */
+        void onError(Throwable throwable);
+
+        /**
+         * Called last when all items were received.
+         */
+        void onComplete();
+    }
+
+    /**
+     * The link between a publisher and a subscriber.
+     */
+    public interface Subscription {
+        /**
+         * Add demand for items.
+         * 
+         * @param n
+         *            the number of items, positive.
+         */
+        void request(long n);
+
+        /**
+         * Stop receiving items. Items may still arrive for a short while.
+         */
+        void cancel();
+    }
+}
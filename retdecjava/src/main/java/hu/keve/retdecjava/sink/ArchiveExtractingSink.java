@@ -0,0 +1,228 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.sink;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Sink unpacking archive outputs while they are downloaded. Zip archives are
+ * decoded as the bytes arrive and every entry is written to the target sink
+ * under its name in the archive, without an intermediate archive file. The
+ * entries are handed to an {@link AsyncSink}, so independent entries are
+ * written in parallel while decoding continues. Other outputs are passed to
+ * the target unchanged.
+ */
+public final class ArchiveExtractingSink implements OutputSink {
+    /**
+     * Size of the pipe between the download and the decoder.
+     */
+    private static final int PIPE_SIZE = 256 * 1024;
+    /**
+     * Size of the copy buffer.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The sink written to.
+     */
+    private final OutputSink target;
+    /**
+     * The sink the archive entries are written to in parallel.
+     */
+    private final AsyncSink entrySink;
+    /**
+     * The decoder threads.
+     */
+    private final ExecutorService decoders;
+
+    /**
+     * Construct an extracting sink.
+     * 
+     * @param target
+     *            the sink written to.
+     * @param threads
+     *            the number of entries written concurrently.
+     * @param capacity
+     *            the number of 64 KiB chunks buffered per entry.
+     */
+    public ArchiveExtractingSink(final OutputSink target, final int threads, final int capacity) {
+        this.target = target;
+        this.entrySink = new AsyncSink(new OutputSink() {
+            @Override
+            public OutputStream open(final String fileName, final String mediaType) throws IOException {
+                return target.open(fileName, mediaType);
+            }
+
+            @Override
+            public void close() {
+                // the target is closed by the enclosing sink.
+            }
+        }, threads, capacity);
+        this.decoders = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread t = new Thread(r, "retdec-archive-decoder");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Check if an output is an archive this sink can decode.
+     * 
+     * @param fileName
+     *            the name of the output.
+     * @param mediaType
+     *            the media type of the output, possibly null.
+     * @return true if the output is a zip archive.
+     */
+    static boolean isArchive(final String fileName, final String mediaType) {
+        return (null != mediaType && mediaType.contains("zip"))
+                || (null != fileName && fileName.toLowerCase().endsWith(".zip"));
+    }
+
+    @Override
+    public OutputStream open(final String fileName, final String mediaType) throws IOException {
+        if (!isArchive(fileName, mediaType)) {
+            return target.open(fileName, mediaType);
+        }
+        final PipedInputStream pipeIn = new PipedInputStream(PIPE_SIZE);
+        final PipedOutputStream pipeOut = new PipedOutputStream(pipeIn);
+        final Future<Void> decoder = decoders.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                try (InputStream in = pipeIn) {
+                    extract(in);
+                }
+                return null;
+            }
+        });
+        return new OutputStream() {
+            @Override
+            public void write(final int b) throws IOException {
+                pipeOut.write(b);
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                pipeOut.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    pipeOut.close();
+                } finally {
+                    try {
+                        decoder.get();
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    } catch (ExecutionException e) {
+                        throw new IOException("Extracting " + fileName + " failed", e.getCause());
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Decode an archive stream and hand every entry over to the entry sink.
+     * 
+     * @param in
+     *            the archive stream.
+     * @throws IOException
+     *             if an I/O error occurs or an entry name is unsafe.
+     */
+    private void extract(final InputStream in) throws IOException {
+        ZipInputStream zin = new ZipInputStream(in);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        ZipEntry entry;
+        int n;
+        while (null != (entry = zin.getNextEntry())) {
+            if (entry.isDirectory()) {
+                continue;
+            }
+            String name = entry.getName();
+            if (!isSafe(name)) {
+                throw new IOException("Unsafe archive entry " + name);
+            }
+            try (OutputStream out = entrySink.open(name, null)) {
+                while (-1 != (n = zin.read(buffer))) {
+                    out.write(buffer, 0, n);
+                }
+            }
+        }
+        // consume the central directory so that the writer never blocks.
+        while (-1 != in.read(buffer)) {
+            continue;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        decoders.shutdown();
+        try {
+            entrySink.close();
+        } finally {
+            target.close();
+        }
+    }
+
+    /**
+     * Check that an entry name stays inside the directory it is extracted to,
+     * i.e. it is relative and has no parent directory segment.
+     * 
+     * @param name
+     *            the entry name.
+     * @return true if the name is safe.
+     */
+    static boolean isSafe(final String name) {
+        if (name.startsWith("/") || name.startsWith("\\") || name.matches("^[A-Za-z]:.*")) {
+            return false;
+        }
+        for (String segment : name.split("[/\\\\]")) {
+            if ("..".equals(segment)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,251 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.sink;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Sink moving the writes to another sink off the calling thread. Every output
+ * is handed over to a writer thread through a bounded buffer, so a slow target
+ * does not stall the thread reading from the network until the buffer is full.
+ * Closing an output does not wait for the writer; closing the sink waits for
+ * all outputs and reports the first failure.
+ */
+public final class AsyncSink implements OutputSink {
+    /**
+     * Size of the chunks handed over to the writer.
+     */
+    private static final int CHUNK_SIZE = 64 * 1024;
+    /**
+     * Marker for the end of an output.
+     */
+    private static final byte[] EOF = new byte[0];
+
+    /**
+     * The sink written to.
+     */
+    private final OutputSink target;
+    /**
+     * Number of chunks buffered per output.
+     */
+    private final int capacity;
+    /**
+     * The writer threads.
+     */
+    private final ExecutorService writers;
+    /**
+     * The writers of all outputs opened so far.
+     */
+    private final List<Future<?>> pending = new ArrayList<Future<?>>();
+
+    /**
+     * Construct an asynchronous sink.
+     * 
+     * @param target
+     *            the sink written to.
+     * @param threads
+     *            the number of writer threads, i.e. outputs written
+     *            concurrently.
+     * @param capacity
+     *            the number of 64 KiB chunks buffered per output.
+     */
+    public AsyncSink(final OutputSink target, final int threads, final int capacity) {
+        this.target = target;
+        this.capacity = capacity;
+        this.writers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread t = new Thread(r, "retdec-sink-writer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    @Override
+    public OutputStream open(final String fileName, final String mediaType) throws IOException {
+        final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(capacity);
+        final AtomicReference<IOException> failure = new AtomicReference<IOException>();
+        Future<?> writer = writers.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                drain(fileName, mediaType, queue, failure);
+                IOException e = failure.get();
+                if (null != e) {
+                    throw e;
+                }
+                return null;
+            }
+        });
+        synchronized (pending) {
+            pending.add(writer);
+        }
+        return new OutputStream() {
+            private byte[] chunk = new byte[CHUNK_SIZE];
+            private int count;
+            private boolean closed;
+
+            @Override
+            public void write(final int b) throws IOException {
+                if (count == chunk.length) {
+                    handOver();
+                }
+                chunk[count++] = (byte) b;
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                int o = off;
+                int l = len;
+                while (l > 0) {
+                    if (count == chunk.length) {
+                        handOver();
+                    }
+                    int n = Math.min(l, chunk.length - count);
+                    System.arraycopy(b, o, chunk, count, n);
+                    count += n;
+                    o += n;
+                    l -= n;
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    handOver();
+                    put(EOF);
+                }
+            }
+
+            private void handOver() throws IOException {
+                if (count > 0) {
+                    put(count == chunk.length ? chunk : Arrays.copyOf(chunk, count));
+                    chunk = new byte[CHUNK_SIZE];
+                    count = 0;
+                }
+            }
+
+            private void put(final byte[] b) throws IOException {
+                IOException e = failure.get();
+                if (null != e) {
+                    throw new IOException("Writing " + fileName + " failed", e);
+                }
+                try {
+                    queue.put(b);
+                } catch (InterruptedException ex) {
+                    throw new InterruptedIOException();
+                }
+            }
+        };
+    }
+
+    /**
+     * Write the chunks of one output to the target. After a failure the
+     * buffered chunks are discarded so that the producer never blocks; the
+     * producer fails on its next write and does not hand over the end marker,
+     * so the writer does not wait for it.
+     * 
+     * @param fileName
+     *            the name of the output.
+     * @param mediaType
+     *            the media type of the output.
+     * @param queue
+     *            the chunks.
+     * @param failure
+     *            receives the failure, if any.
+     */
+    private void drain(final String fileName, final String mediaType, final BlockingQueue<byte[]> queue,
+            final AtomicReference<IOException> failure) {
+        OutputStream out = null;
+        try {
+            out = target.open(fileName, mediaType);
+            byte[] b;
+            while (EOF != (b = queue.take())) {
+                out.write(b);
+            }
+            OutputStream o = out;
+            out = null;
+            o.close();
+        } catch (IOException e) {
+            failure.set(e);
+        } catch (InterruptedException e) {
+            failure.set(new InterruptedIOException());
+        }
+        if (null != out) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // already failed.
+            }
+        }
+        if (null != failure.get()) {
+            queue.clear();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException first = null;
+        List<Future<?>> writersToWait;
+        synchronized (pending) {
+            writersToWait = new ArrayList<Future<?>>(pending);
+            pending.clear();
+        }
+        for (Future<?> writer : writersToWait) {
+            try {
+                writer.get();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                if (null == first) {
+                    first = e.getCause() instanceof IOException ? (IOException) e.getCause()
+                            : new IOException(e.getCause());
+                }
+            }
+        }
+        writers.shutdown();
+        target.close();
+        if (null != first) {
+            throw first;
+        }
+    }
+}
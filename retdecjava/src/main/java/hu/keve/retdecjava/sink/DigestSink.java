@@ -0,0 +1,173 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.sink;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Sink computing a digest and size of every output and keeping an index of
+ * them. Usually combined with a storing sink in a {@link TeeSink}.
+ */
+public final class DigestSink implements OutputSink {
+    /**
+     * Index entry of a completed output.
+     */
+    public static final class Entry {
+        /**
+         * The media type.
+         */
+        private final String mediaType;
+        /**
+         * The size in bytes.
+         */
+        private final long size;
+        /**
+         * The digest as lower case hex string.
+         */
+        private final String digest;
+
+        /**
+         * Construct an entry.
+         * 
+         * @param mediaType
+         *            the media type.
+         * @param size
+         *            the size in bytes.
+         * @param digest
+         *            the digest as hex string.
+         */
+        Entry(final String mediaType, final long size, final String digest) {
+            this.mediaType = mediaType;
+            this.size = size;
+            this.digest = digest;
+        }
+
+        public String getMediaType() {
+            return mediaType;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public String getDigest() {
+            return digest;
+        }
+    }
+
+    /**
+     * The digest algorithm.
+     */
+    private final String algorithm;
+    /**
+     * The index of completed outputs by file name.
+     */
+    private final Map<String, Entry> index = Collections.synchronizedMap(new LinkedHashMap<String, Entry>());
+
+    /**
+     * Construct a sink using SHA-256.
+     */
+    public DigestSink() {
+        this("SHA-256");
+    }
+
+    /**
+     * Construct a sink using the provided digest algorithm.
+     * 
+     * @param algorithm
+     *            the name of the digest algorithm.
+     */
+    public DigestSink(final String algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    @Override
+    public OutputStream open(final String fileName, final String mediaType) throws IOException {
+        final MessageDigest md;
+        try {
+            md = MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        return new OutputStream() {
+            private long size;
+
+            @Override
+            public void write(final int b) {
+                md.update((byte) b);
+                size++;
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) {
+                md.update(b, off, len);
+                size += len;
+            }
+
+            @Override
+            public void close() {
+                index.put(fileName, new Entry(mediaType, size, toHex(md.digest())));
+            }
+        };
+    }
+
+    /**
+     * Get the index of completed outputs.
+     * 
+     * @return a snapshot of the index by file name.
+     */
+    public Map<String, Entry> getIndex() {
+        synchronized (index) {
+            return new LinkedHashMap<String, Entry>(index);
+        }
+    }
+
+    /**
+     * Convert bytes to a lower case hex string.
+     * 
+     * @param bytes
+     *            the bytes.
+     * @return the hex string.
+     */
+    public static String toHex(final byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void close() {
+    }
+}
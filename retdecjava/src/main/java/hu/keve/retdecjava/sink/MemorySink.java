@@ -0,0 +1,81 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.sink;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Sink keeping every output in memory on the heap. Suitable for small outputs
+ * such as hll sources.
+ */
+public final class MemorySink implements OutputSink {
+    /**
+     * The completed outputs by file name, in order of completion.
+     */
+    private final Map<String, byte[]> outputs = Collections.synchronizedMap(new LinkedHashMap<String, byte[]>());
+
+    @Override
+    public OutputStream open(final String fileName, final String mediaType) {
+        return new ByteArrayOutputStream() {
+            @Override
+            public void close() throws IOException {
+                outputs.put(fileName, toByteArray());
+            }
+        };
+    }
+
+    /**
+     * Get a completed output.
+     * 
+     * @param fileName
+     *            the name of the output.
+     * @return the content, null if no such output was completed.
+     */
+    public byte[] get(final String fileName) {
+        return outputs.get(fileName);
+    }
+
+    /**
+     * Get all completed outputs.
+     * 
+     * @return a snapshot of the outputs by file name.
+     */
+    public Map<String, byte[]> getOutputs() {
+        synchronized (outputs) {
+            return new LinkedHashMap<String, byte[]>(outputs);
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+}
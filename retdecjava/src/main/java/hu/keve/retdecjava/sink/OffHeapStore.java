@@ -0,0 +1,596 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.sink;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * In-memory store for decompilation outputs kept off the Java heap. Outputs are
+ * held in pooled direct {@link ByteBuffer} chunks within a per-job and a global
+ * memory budget. An output larger than the spill threshold, or one that does
+ * not fit into the budgets, is transparently spilled to a temporary file that
+ * is memory-mapped for reading.
+ * <p>
+ * When the global budget is exhausted, completed outputs that are not being
+ * read are moved to disk in weighted LRU order (GreedyDual-Size-Frequency):
+ * small outputs that are read often stay in memory longest, large outputs read
+ * once are spilled first.
+ */
+public final class OffHeapStore implements Closeable {
+    /**
+     * Size of a memory chunk.
+     */
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * The global memory budget in bytes.
+     */
+    private final long globalBudget;
+    /**
+     * The per job memory budget in bytes.
+     */
+    private final long jobBudget;
+    /**
+     * Outputs larger than this are written to disk directly.
+     */
+    private final long spillThreshold;
+    /**
+     * The directory spill files are created in, null for the default
+     * temporary directory.
+     */
+    private final File spillDir;
+
+    /**
+     * The stored outputs by job and file name. Guarded by this.
+     */
+    private final Map<String, Map<String, Stored>> jobs = new HashMap<String, Map<String, Stored>>();
+    /**
+     * Memory used per job. Guarded by this.
+     */
+    private final Map<String, Long> jobMemory = new HashMap<String, Long>();
+    /**
+     * Free chunks for reuse. Guarded by this.
+     */
+    private final Deque<ByteBuffer> pool = new ArrayDeque<ByteBuffer>();
+    /**
+     * Memory reserved in total, including pooled chunks in use. Guarded by
+     * this.
+     */
+    private long memoryUsed;
+    /**
+     * Bytes currently spilled to disk. Guarded by this.
+     */
+    private long spilledBytes;
+    /**
+     * The inflation value of the GreedyDual-Size-Frequency eviction. Guarded by
+     * this.
+     */
+    private double clock;
+
+    /**
+     * A stored output.
+     */
+    private static final class Stored {
+        /**
+         * The job of the output.
+         */
+        private final String job;
+        /**
+         * The in-memory chunks, null when on disk.
+         */
+        private List<ByteBuffer> chunks;
+        /**
+         * The spill file, null while in memory.
+         */
+        private File spill;
+        /**
+         * The mapping of the spill file, created on first read.
+         */
+        private ByteBuffer mapped;
+        /**
+         * The size in bytes.
+         */
+        private long size;
+        /**
+         * The number of reads.
+         */
+        private int hits;
+        /**
+         * The number of open readers; pinned entries are not evicted.
+         */
+        private int readers;
+        /**
+         * The eviction priority.
+         */
+        private double priority;
+
+        /**
+         * Construct a stored output.
+         * 
+         * @param job
+         *            the job of the output.
+         */
+        Stored(final String job) {
+            this.job = job;
+        }
+    }
+
+    /**
+     * Construct a store.
+     * 
+     * @param globalBudget
+     *            the memory all outputs may use together, in bytes.
+     * @param jobBudget
+     *            the memory the outputs of a single job may use, in bytes.
+     * @param spillThreshold
+     *            outputs larger than this are written to disk directly.
+     * @param spillDir
+     *            the directory spill files are created in, null for the
+     *            default temporary directory.
+     */
+    public OffHeapStore(final long globalBudget, final long jobBudget, final long spillThreshold,
+            final File spillDir) {
+        this.globalBudget = globalBudget;
+        this.jobBudget = jobBudget;
+        this.spillThreshold = spillThreshold;
+        this.spillDir = spillDir;
+    }
+
+    /**
+     * Get a sink storing the outputs of a job. An output replaces a previous
+     * output of the same name.
+     * 
+     * @param job
+     *            the job, e.g. the decompilation id.
+     * @return the sink, closing it has no effect.
+     */
+    public OutputSink sink(final String job) {
+        return new OutputSink() {
+            @Override
+            public OutputStream open(final String fileName, final String mediaType) {
+                return new StoreOutputStream(job, fileName);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * List the outputs of a job.
+     * 
+     * @param job
+     *            the job.
+     * @return the names of the stored outputs.
+     */
+    public synchronized Set<String> list(final String job) {
+        Map<String, Stored> outputs = jobs.get(job);
+        return null == outputs ? new TreeSet<String>() : new TreeSet<String>(outputs.keySet());
+    }
+
+    /**
+     * Read a stored output.
+     * 
+     * @param job
+     *            the job.
+     * @param fileName
+     *            the name of the output.
+     * @return the stream of the content, to be closed by the caller.
+     * @throws IOException
+     *             if the output does not exist or cannot be read.
+     */
+    public InputStream open(final String job, final String fileName) throws IOException {
+        final Stored stored;
+        List<ByteBuffer> views = new ArrayList<ByteBuffer>();
+        synchronized (this) {
+            Map<String, Stored> outputs = jobs.get(job);
+            stored = null == outputs ? null : outputs.get(fileName);
+            if (null == stored) {
+                throw new FileNotFoundException(job + "/" + fileName);
+            }
+            if (null != stored.chunks) {
+                for (ByteBuffer chunk : stored.chunks) {
+                    ByteBuffer view = chunk.duplicate();
+                    view.flip();
+                    views.add(view);
+                }
+            } else {
+                if (null == stored.mapped) {
+                    stored.mapped = map(stored.spill);
+                }
+                views.add(stored.mapped.duplicate());
+            }
+            stored.hits++;
+            stored.readers++;
+            stored.priority = clock + stored.hits / (double) chunksOf(stored.size);
+        }
+        final Iterator<ByteBuffer> it = views.iterator();
+        return new InputStream() {
+            private ByteBuffer current = it.hasNext() ? it.next() : null;
+            private boolean closed;
+
+            @Override
+            public int read() {
+                if (!advance()) {
+                    return -1;
+                }
+                return current.get() & 0xff;
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) {
+                if (0 == len) {
+                    return 0;
+                }
+                if (!advance()) {
+                    return -1;
+                }
+                int n = Math.min(len, current.remaining());
+                current.get(b, off, n);
+                return n;
+            }
+
+            private boolean advance() {
+                while (null != current && !current.hasRemaining()) {
+                    current = it.hasNext() ? it.next() : null;
+                }
+                return null != current;
+            }
+
+            @Override
+            public void close() {
+                if (!closed) {
+                    closed = true;
+                    synchronized (OffHeapStore.this) {
+                        stored.readers--;
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Remove all outputs of a job, releasing their memory and spill files.
+     * 
+     * @param job
+     *            the job.
+     */
+    public synchronized void remove(final String job) {
+        Map<String, Stored> outputs = jobs.remove(job);
+        if (null != outputs) {
+            for (Stored stored : outputs.values()) {
+                release(stored);
+            }
+        }
+        jobMemory.remove(job);
+    }
+
+    public synchronized long getMemoryUsed() {
+        return memoryUsed;
+    }
+
+    public synchronized long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    @Override
+    public synchronized void close() {
+        for (String job : new ArrayList<String>(jobs.keySet())) {
+            remove(job);
+        }
+        pool.clear();
+    }
+
+    /**
+     * Stream writing an output into the store.
+     */
+    private final class StoreOutputStream extends OutputStream {
+        /**
+         * The job.
+         */
+        private final String job;
+        /**
+         * The name of the output.
+         */
+        private final String fileName;
+        /**
+         * The output being written.
+         */
+        private final Stored stored;
+        /**
+         * The chunk being filled, null when spilling.
+         */
+        private ByteBuffer chunk;
+        /**
+         * The spill file being written, null while in memory.
+         */
+        private RandomAccessFile spillFile;
+        /**
+         * Closed flag.
+         */
+        private boolean closed;
+
+        /**
+         * Construct a stream.
+         * 
+         * @param job
+         *            the job.
+         * @param fileName
+         *            the name of the output.
+         */
+        StoreOutputStream(final String job, final String fileName) {
+            this.job = job;
+            this.fileName = fileName;
+            this.stored = new Stored(job);
+            this.stored.chunks = new ArrayList<ByteBuffer>();
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[] {(byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            int o = off;
+            int l = len;
+            while (l > 0) {
+                if (null != spillFile) {
+                    spillFile.write(b, o, l);
+                    stored.size += l;
+                    return;
+                }
+                if (null == chunk || !chunk.hasRemaining()) {
+                    chunk = null;
+                    if (stored.size + CHUNK_SIZE <= spillThreshold) {
+                        chunk = allocate(job);
+                    }
+                    if (null == chunk) {
+                        spill();
+                        continue;
+                    }
+                    stored.chunks.add(chunk);
+                }
+                int n = Math.min(l, chunk.remaining());
+                chunk.put(b, o, n);
+                stored.size += n;
+                o += n;
+                l -= n;
+            }
+        }
+
+        /**
+         * Move what was written so far to a spill file and continue writing
+         * there.
+         * 
+         * @throws IOException
+         *             if an I/O error occurs.
+         */
+        private void spill() throws IOException {
+            stored.spill = File.createTempFile("retdec", ".spill", spillDir);
+            stored.spill.deleteOnExit();
+            spillFile = new RandomAccessFile(stored.spill, "rw");
+            for (ByteBuffer c : stored.chunks) {
+                ByteBuffer view = c.duplicate();
+                view.flip();
+                spillFile.getChannel().write(view);
+            }
+            synchronized (OffHeapStore.this) {
+                releaseChunks(job, stored.chunks, true);
+            }
+            stored.chunks = null;
+            chunk = null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (null != spillFile) {
+                spillFile.close();
+            }
+            synchronized (OffHeapStore.this) {
+                Map<String, Stored> outputs = jobs.get(job);
+                if (null == outputs) {
+                    outputs = new LinkedHashMap<String, Stored>();
+                    jobs.put(job, outputs);
+                }
+                Stored previous = outputs.put(fileName, stored);
+                if (null != previous) {
+                    release(previous);
+                }
+                if (null != stored.spill) {
+                    spilledBytes += stored.size;
+                }
+                stored.priority = clock + 1 / (double) chunksOf(stored.size);
+            }
+        }
+    }
+
+    /**
+     * Allocate a chunk within the budgets, evicting other outputs if needed.
+     * 
+     * @param job
+     *            the job the chunk is allocated for.
+     * @return the chunk, null if the budgets do not allow it.
+     * @throws IOException
+     *             if evicting an output fails.
+     */
+    private synchronized ByteBuffer allocate(final String job) throws IOException {
+        Long used = jobMemory.get(job);
+        long jobUsed = null == used ? 0 : used;
+        if (jobUsed + CHUNK_SIZE > jobBudget) {
+            return null;
+        }
+        while (memoryUsed + CHUNK_SIZE > globalBudget) {
+            if (!evictOne()) {
+                return null;
+            }
+        }
+        memoryUsed += CHUNK_SIZE;
+        jobMemory.put(job, jobUsed + CHUNK_SIZE);
+        ByteBuffer chunk = pool.poll();
+        if (null == chunk) {
+            chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        }
+        chunk.clear();
+        return chunk;
+    }
+
+    /**
+     * Spill the in-memory output with the lowest priority that is not being
+     * read.
+     * 
+     * @return true if an output was spilled.
+     * @throws IOException
+     *             if writing the spill file fails.
+     */
+    private boolean evictOne() throws IOException {
+        Stored victim = null;
+        for (Map<String, Stored> outputs : jobs.values()) {
+            for (Stored stored : outputs.values()) {
+                if (null != stored.chunks && 0 == stored.readers
+                        && (null == victim || stored.priority < victim.priority)) {
+                    victim = stored;
+                }
+            }
+        }
+        if (null == victim) {
+            return false;
+        }
+        clock = victim.priority;
+        File file = File.createTempFile("retdec", ".spill", spillDir);
+        file.deleteOnExit();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            for (ByteBuffer c : victim.chunks) {
+                ByteBuffer view = c.duplicate();
+                view.flip();
+                raf.getChannel().write(view);
+            }
+        }
+        releaseChunks(victim.job, victim.chunks, true);
+        victim.chunks = null;
+        victim.spill = file;
+        spilledBytes += victim.size;
+        return true;
+    }
+
+    /**
+     * Release the memory or spill file of an output. Called with the lock
+     * held.
+     * 
+     * @param stored
+     *            the output.
+     */
+    private void release(final Stored stored) {
+        if (null != stored.chunks) {
+            releaseChunks(stored.job, stored.chunks, 0 == stored.readers);
+            stored.chunks = null;
+        }
+        if (null != stored.spill) {
+            spilledBytes -= stored.size;
+            stored.mapped = null;
+            try {
+                Files.deleteIfExists(stored.spill.toPath());
+            } catch (IOException e) {
+                stored.spill.deleteOnExit();
+            }
+            stored.spill = null;
+        }
+    }
+
+    /**
+     * Return chunks to the pool. Called with the lock held.
+     * 
+     * @param job
+     *            the job the chunks were allocated for.
+     * @param chunks
+     *            the chunks.
+     * @param reuse
+     *            false if the chunks might still be read and must be left to
+     *            the garbage collector.
+     */
+    private void releaseChunks(final String job, final List<ByteBuffer> chunks, final boolean reuse) {
+        long bytes = (long) chunks.size() * CHUNK_SIZE;
+        memoryUsed -= bytes;
+        Long used = jobMemory.get(job);
+        if (null != used) {
+            jobMemory.put(job, used - bytes);
+        }
+        if (reuse) {
+            pool.addAll(chunks);
+        }
+    }
+
+    /**
+     * Map a spill file for reading.
+     * 
+     * @param file
+     *            the spill file.
+     * @return the mapping.
+     * @throws IOException
+     *             if the file cannot be mapped.
+     */
+    private static ByteBuffer map(final File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+    }
+
+    /**
+     * Compute the size of an output in chunks, at least one.
+     * 
+     * @param size
+     *            the size in bytes.
+     * @return the number of chunks.
+     */
+    private static long chunksOf(final long size) {
+        return Math.max(1, (size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.sink;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Sink placing every output under a prefix in another sink, e.g. a directory
+ * per part of a job. Closing it does not close the other sink.
+ */
+public final class PrefixSink implements OutputSink {
+    /**
+     * The sink written to.
+     */
+    private final OutputSink target;
+    /**
+     * The prefix.
+     */
+    private final String prefix;
+
+    /**
+     * Construct a prefix sink.
+     * 
+     * @param target
+     *            the sink written to.
+     * @param prefix
+     *            the prefix, e.g. a directory name ending with a slash.
+     */
+    public PrefixSink(final OutputSink target, final String prefix) {
+        this.target = target;
+        this.prefix = prefix;
+    }
+
+    @Override
+    public OutputStream open(final String fileName, final String mediaType) throws IOException {
+        return target.open(prefix + fileName, mediaType);
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,151 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.sink;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import hu.keve.retdecjava.binding.BindingException;
+import hu.keve.retdecjava.binding.DefaultDecompilationResult;
+import hu.keve.retdecjava.binding.OutputHandle;
+
+/**
+ * Decompilation result writing the accepted outputs to an {@link OutputSink}.
+ * The sink is not closed by the result, it might be shared among several
+ * decompilations.
+ */
+public class SinkDecompilationResult extends DefaultDecompilationResult {
+    /**
+     * Size of the copy buffer.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /**
+     * The sink.
+     */
+    private final OutputSink sink;
+    /**
+     * The accepted outputs.
+     */
+    private final Set<DecompilationOutput> accepted;
+    /**
+     * Number of nested outputs downloaded concurrently.
+     */
+    private static final int NESTED_PARALLELISM = 4;
+    /**
+     * Names of the nested outputs to fetch, null for all.
+     */
+    private volatile Set<String> nestedSelection;
+    /**
+     * Counter for naming outputs without suggested name.
+     */
+    private final AtomicInteger unnamed = new AtomicInteger();
+
+    /**
+     * Construct a result accepting all outputs.
+     * 
+     * @param sink
+     *            the sink.
+     */
+    public SinkDecompilationResult(final OutputSink sink) {
+        this(sink, EnumSet.allOf(DecompilationOutput.class));
+    }
+
+    /**
+     * Construct a result accepting the provided outputs.
+     * 
+     * @param sink
+     *            the sink.
+     * @param accepted
+     *            the accepted outputs.
+     */
+    public SinkDecompilationResult(final OutputSink sink, final Set<DecompilationOutput> accepted) {
+        this.sink = sink;
+        this.accepted = EnumSet.copyOf(accepted);
+    }
+
+    public final OutputSink getSink() {
+        return sink;
+    }
+
+    /**
+     * Restrict the nested outputs fetched, e.g. to the control-flow graphs of
+     * some functions.
+     * 
+     * @param names
+     *            the names of the nested outputs to fetch, null for all.
+     */
+    public final void setNestedSelection(final Set<String> names) {
+        this.nestedSelection = null == names ? null : new HashSet<String>(names);
+    }
+
+    @Override
+    public boolean acceptOutput(final DecompilationOutput key) {
+        return accepted.contains(key);
+    }
+
+    @Override
+    public void nestedOutputs(final DecompilationOutput key, final SortedMap<String, OutputHandle> outputs) {
+        super.nestedOutputs(key, outputs);
+        if (!acceptOutput(key)) {
+            return;
+        }
+        Set<String> selection = nestedSelection;
+        List<OutputHandle> handles = new ArrayList<OutputHandle>();
+        for (Map.Entry<String, OutputHandle> e : outputs.entrySet()) {
+            if (null == selection || selection.contains(e.getKey())) {
+                handles.add(e.getValue());
+            }
+        }
+        try {
+            OutputHandle.transferAll(handles, NESTED_PARALLELISM, this);
+        } catch (IOException | BindingException | InterruptedException e) {
+            failed(e);
+        }
+    }
+
+    @Override
+    public void consumeOutput(final String fileName, final String mediaType, final InputStream in)
+            throws IOException {
+        String name = null == fileName ? getId() + ".output" + unnamed.incrementAndGet() : fileName;
+        try (InputStream is = in; OutputStream out = sink.open(name, mediaType)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while (-1 != (n = is.read(buffer))) {
+                out.write(buffer, 0, n);
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.sink;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Sink writing every output as an entry of an uncompressed ustar archive. As a
+ * tar header carries the size of the entry, outputs are spooled to a temporary
+ * file and appended to the archive when they are closed.
+ */
+public final class TarSink implements OutputSink {
+    /**
+     * Size of a tar block.
+     */
+    private static final int BLOCK = 512;
+    /**
+     * The archive stream.
+     */
+    private final OutputStream tar;
+
+    /**
+     * Construct a sink writing a tar file.
+     * 
+     * @param file
+     *            the tar file.
+     * @throws IOException
+     *             if the file cannot be created.
+     */
+    public TarSink(final File file) throws IOException {
+        this(new BufferedOutputStream(new FileOutputStream(file)));
+    }
+
+    /**
+     * Construct a sink writing a tar stream.
+     * 
+     * @param out
+     *            the stream, closed when the sink is closed.
+     */
+    public TarSink(final OutputStream out) {
+        this.tar = out;
+    }
+
+    @Override
+    public OutputStream open(final String fileName, final String mediaType) throws IOException {
+        final byte[] header = header(fileName);
+        final File spool = File.createTempFile("retdec", ".tar");
+        spool.deleteOnExit();
+        return new FilterOutputStream(new BufferedOutputStream(new FileOutputStream(spool))) {
+            private boolean closed;
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    try {
+                        super.close();
+                        append(header, spool);
+                    } finally {
+                        Files.deleteIfExists(spool.toPath());
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Append a spooled entry to the archive.
+     * 
+     * @param header
+     *            the header block without size and checksum.
+     * @param spool
+     *            the spooled content.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    private synchronized void append(final byte[] header, final File spool) throws IOException {
+        long size = spool.length();
+        octal(header, 124, 11, size);
+        long sum = 0;
+        for (int i = 0; i < BLOCK; i++) {
+            sum += (i >= 148 && i < 156) ? ' ' : header[i] & 0xff;
+        }
+        octal(header, 148, 6, sum);
+        header[155] = ' ';
+        tar.write(header);
+        Files.copy(spool.toPath(), tar);
+        int pad = (int) ((BLOCK - size % BLOCK) % BLOCK);
+        tar.write(new byte[pad]);
+    }
+
+    /**
+     * Create the header block for an entry.
+     * 
+     * @param fileName
+     *            the name of the entry.
+     * @return the header block with size and checksum yet to be filled in.
+     * @throws IOException
+     *             if the name cannot be represented.
+     */
+    private static byte[] header(final String fileName) throws IOException {
+        byte[] header = new byte[BLOCK];
+        byte[] name = fileName.getBytes(StandardCharsets.UTF_8);
+        if (name.length <= 100) {
+            System.arraycopy(name, 0, header, 0, name.length);
+        } else {
+            int split = fileName.lastIndexOf('/', fileName.length() - 1);
+            byte[] prefix = split > 0 ? fileName.substring(0, split).getBytes(StandardCharsets.UTF_8) : name;
+            byte[] rest = split > 0 ? fileName.substring(split + 1).getBytes(StandardCharsets.UTF_8) : name;
+            if (prefix.length > 155 || rest.length > 100) {
+                throw new IOException("Name too long for tar: " + fileName);
+            }
+            System.arraycopy(rest, 0, header, 0, rest.length);
+            System.arraycopy(prefix, 0, header, 345, prefix.length);
+        }
+        octal(header, 100, 7, 0644);
+        octal(header, 108, 7, 0);
+        octal(header, 116, 7, 0);
+        octal(header, 136, 11, System.currentTimeMillis() / 1000);
+        header[156] = '0';
+        byte[] magic = "ustar\u000000".getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(magic, 0, header, 257, magic.length);
+        return header;
+    }
+
+    /**
+     * Write a zero padded octal number followed by a NUL.
+     * 
+     * @param buf
+     *            the buffer.
+     * @param off
+     *            the offset of the field.
+     * @param digits
+     *            the number of digits.
+     * @param value
+     *            the value.
+     */
+    private static void octal(final byte[] buf, final int off, final int digits, final long value) {
+        String s = Long.toOctalString(value);
+        if (s.length() > digits) {
+            throw new IllegalArgumentException("Value too large for tar header: " + value);
+        }
+        for (int i = 0; i < digits; i++) {
+            int j = i - (digits - s.length());
+            buf[off + i] = (byte) (j < 0 ? '0' : s.charAt(j));
+        }
+        buf[off + digits] = 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        tar.write(new byte[2 * BLOCK]);
+        tar.close();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.sink;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Sink forwarding every output to several sinks in a single pass, e.g. to save,
+ * hash and index a download while it is read once from the network.
+ */
+public final class TeeSink implements OutputSink {
+    /**
+     * The sinks forwarded to.
+     */
+    private final OutputSink[] sinks;
+
+    /**
+     * Construct a tee.
+     * 
+     * @param sinks
+     *            the sinks forwarded to.
+     */
+    public TeeSink(final OutputSink... sinks) {
+        this.sinks = sinks.clone();
+    }
+
+    @Override
+    public OutputStream open(final String fileName, final String mediaType) throws IOException {
+        final OutputStream[] outs = new OutputStream[sinks.length];
+        try {
+            for (int i = 0; i < sinks.length; i++) {
+                outs[i] = sinks[i].open(fileName, mediaType);
+            }
+        } catch (IOException e) {
+            closeAll(outs);
+            throw e;
+        }
+        return new OutputStream() {
+            @Override
+            public void write(final int b) throws IOException {
+                for (OutputStream out : outs) {
+                    out.write(b);
+                }
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                for (OutputStream out : outs) {
+                    out.write(b, off, len);
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                for (OutputStream out : outs) {
+                    out.flush();
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                closeAll(outs);
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeAll(sinks);
+    }
+
+    /**
+     * Close all non null closeables, rethrowing the first exception after all
+     * have been closed.
+     * 
+     * @param closeables
+     *            the closeables.
+     * @throws IOException
+     *             the first exception thrown.
+     */
+    private static void closeAll(final Closeable[] closeables) throws IOException {
+        IOException first = null;
+        for (Closeable c : closeables) {
+            if (null != c) {
+                try {
+                    c.close();
+                } catch (IOException e) {
+                    if (null == first) {
+                        first = e;
+                    }
+                }
+            }
+        }
+        if (null != first) {
+            throw first;
+        }
+    }
+}
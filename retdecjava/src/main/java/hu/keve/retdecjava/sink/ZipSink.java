@@ -0,0 +1,116 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.sink;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.Semaphore;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Sink writing every output as an entry of a zip file. Entries are written one
+ * at a time; opening an output blocks until the previous one is closed.
+ */
+public final class ZipSink implements OutputSink {
+    /**
+     * The zip stream.
+     */
+    private final ZipOutputStream zip;
+    /**
+     * Permit to write the next entry.
+     */
+    private final Semaphore entryPermit = new Semaphore(1);
+
+    /**
+     * Construct a sink writing a zip file.
+     * 
+     * @param file
+     *            the zip file.
+     * @throws IOException
+     *             if the file cannot be created.
+     */
+    public ZipSink(final File file) throws IOException {
+        this(new BufferedOutputStream(new FileOutputStream(file)));
+    }
+
+    /**
+     * Construct a sink writing a zip stream.
+     * 
+     * @param out
+     *            the stream, closed when the sink is closed.
+     */
+    public ZipSink(final OutputStream out) {
+        this.zip = new ZipOutputStream(out);
+    }
+
+    @Override
+    public OutputStream open(final String fileName, final String mediaType) throws IOException {
+        try {
+            entryPermit.acquire();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+        try {
+            zip.putNextEntry(new ZipEntry(fileName));
+        } catch (IOException e) {
+            entryPermit.release();
+            throw e;
+        }
+        return new FilterOutputStream(zip) {
+            private boolean closed;
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    try {
+                        zip.closeEntry();
+                    } finally {
+                        entryPermit.release();
+                    }
+                }
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        entryPermit.acquireUninterruptibly();
+        zip.close();
+    }
+}
@@ -0,0 +1,127 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import hu.keve.retdecjava.binding.AbstractDecompilationRequest;
+import hu.keve.retdecjava.binding.Cancellation;
+import hu.keve.retdecjava.binding.DecompilationCancelledException;
+import hu.keve.retdecjava.binding.DecompilationResponse;
+import hu.keve.retdecjava.binding.DecompilationResult;
+import hu.keve.retdecjava.binding.Decompiler;
+import junit.framework.TestCase;
+
+/**
+ * Tests for executing the jobs of the command line.
+ */
+public class RetdecClientTest extends TestCase {
+    private File dir;
+
+    /**
+     * Backend whose jobs run until their result is cancelled.
+     */
+    private static final class HangingDecompiler implements Decompiler {
+        @Override
+        public DecompilationResponse decompile(final AbstractDecompilationRequest request) {
+            DecompilationResponse resp = new DecompilationResponse();
+            resp.setId("job");
+            return resp;
+        }
+
+        @Override
+        public void decompileSync(final DecompilationResponse resp, final DecompilationResult res) {
+            res.setId(resp.getId());
+            res.started();
+            try {
+                Cancellation.of(res).sleep(60 * 1000);
+                res.finished();
+            } catch (InterruptedException | DecompilationCancelledException e) {
+                res.failed(e);
+            }
+        }
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = Files.createTempDirectory("client").toFile();
+        // the header of a 32-bit x86 executable without sections.
+        ByteBuffer elf = ByteBuffer.allocate(52).order(ByteOrder.LITTLE_ENDIAN);
+        elf.put(new byte[] { 0x7f, 'E', 'L', 'F', 1, 1, 1 });
+        elf.putShort(16, (short) 2).putShort(18, (short) 3).putInt(20, 1).putShort(40, (short) 52);
+        Files.write(new File(dir, "a.bin").toPath(), elf.array());
+    }
+
+    @Override
+    protected void tearDown() {
+        delete(dir);
+    }
+
+    private static void delete(final File file) {
+        File[] children = file.listFiles();
+        if (null != children) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private void assertTimesOut(final String... args) throws Exception {
+        RetdecClient.Options opts = new RetdecClient.Options();
+        PrintStream log = new PrintStream(new ByteArrayOutputStream(), true, StandardCharsets.UTF_8.name());
+        long start = System.currentTimeMillis();
+        try {
+            new RetdecClient(new HangingDecompiler()).execute(opts, opts.getParser().parse(args), dir, log);
+            fail("no timeout");
+        } catch (DecompilationCancelledException e) {
+            assertEquals(Cancellation.Outcome.TIMED_OUT, e.getOutcome());
+        }
+        assertTrue(System.currentTimeMillis() - start < 30 * 1000);
+    }
+
+    public void testTimeoutHoldsIncrementalMode() throws Exception {
+        assertTimesOut("--mode", "bin", "--input", "a.bin", "--outdir", "out", "--timeout", "1", "--incremental",
+                "base", "--store", "store");
+    }
+
+    public void testTimeoutHoldsFunctionStoreMode() throws Exception {
+        assertTimesOut("--mode", "bin", "--input", "a.bin", "--outdir", "out", "--timeout", "1", "--functionstore",
+                "functions");
+    }
+
+    public void testTimeoutHoldsPlainMode() throws Exception {
+        assertTimesOut("--mode", "bin", "--input", "a.bin", "--outdir", "out", "--timeout", "1");
+    }
+}
@@ -0,0 +1,166 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+import hu.keve.retdecjava.binding.AbstractDecompilationRequest;
+import hu.keve.retdecjava.binding.DecompilationResponse;
+import hu.keve.retdecjava.binding.DecompilationResult;
+import hu.keve.retdecjava.binding.Decompiler;
+import junit.framework.TestCase;
+
+/**
+ * Tests for the daemon, with a decompiler that must never be called.
+ */
+public class RetdecDaemonTest extends TestCase {
+    private File dir;
+    private File tokenFile;
+
+    /**
+     * Decompiler failing the test when a job gets through.
+     */
+    private static final class Unreachable implements Decompiler {
+        @Override
+        public DecompilationResponse decompile(final AbstractDecompilationRequest request) throws IOException {
+            throw new AssertionError("job not rejected");
+        }
+
+        @Override
+        public void decompileSync(final DecompilationResponse resp, final DecompilationResult res) {
+            throw new AssertionError("job not rejected");
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDirectory("daemon").toFile();
+        tokenFile = new File(new File(dir, ".retdec"), "daemon.token");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = new File(dir, ".retdec").listFiles();
+        for (File f : null == files ? new File[0] : files) {
+            f.delete();
+        }
+        new File(dir, ".retdec").delete();
+        dir.delete();
+    }
+
+    private RetdecDaemon start(final List<File> roots) throws IOException {
+        final RetdecDaemon daemon = new RetdecDaemon(new RetdecClient(new Unreachable()),
+                new RetdecClient.Options(), 0, tokenFile, roots);
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    daemon.serve();
+                } catch (IOException e) {
+                    // closed
+                }
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+        return daemon;
+    }
+
+    private static String submit(final RetdecDaemon daemon, final File tokenFile, final String... args)
+            throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        PrintStream log = new PrintStream(bos, true, StandardCharsets.UTF_8.name());
+        assertEquals(1, RetdecDaemon.submit(daemon.getPort(), tokenFile, args, log));
+        return new String(bos.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    public void testTokenFileIsPrivate() throws IOException {
+        RetdecDaemon daemon = start(Collections.singletonList(dir));
+        try {
+            assertEquals(64, RetdecDaemon.readToken(tokenFile).length());
+            try {
+                assertEquals(EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE),
+                        Files.getPosixFilePermissions(tokenFile.toPath()));
+            } catch (UnsupportedOperationException e) {
+                // not a POSIX file system
+            }
+        } finally {
+            daemon.close();
+        }
+    }
+
+    public void testWrongTokenRejected() throws IOException {
+        RetdecDaemon daemon = start(Collections.singletonList(new File(".")));
+        try {
+            File forged = new File(dir, "forged");
+            Files.write(forged.toPath(), "0123".getBytes(StandardCharsets.US_ASCII));
+            String log = submit(daemon, forged, "--input", "a.exe");
+            forged.delete();
+            assertTrue(log, log.startsWith("ERROR Not authorized."));
+        } finally {
+            daemon.close();
+        }
+    }
+
+    public void testWorkingDirectoryOutsideRootsRejected() throws IOException {
+        RetdecDaemon daemon = start(Collections.singletonList(dir));
+        try {
+            String log = submit(daemon, tokenFile, "--input", "a.exe");
+            assertTrue(log, log.contains("Outside the allowed directories"));
+        } finally {
+            daemon.close();
+        }
+    }
+
+    public void testFileOutsideRootsRejected() throws IOException {
+        RetdecDaemon daemon = start(Collections.singletonList(new File(".")));
+        try {
+            String log = submit(daemon, tokenFile, "--input", "a.exe", "--outdir", "../..");
+            assertTrue(log, log.contains("Outside the allowed directories"));
+            log = submit(daemon, tokenFile, "--input", dir.getAbsolutePath());
+            assertTrue(log, log.contains("Outside the allowed directories"));
+        } finally {
+            daemon.close();
+        }
+    }
+
+    public void testClientOptionsStripped() {
+        assertEquals(Arrays.asList("--input", "a.exe", "--outdir", "out"),
+                RetdecDaemon.jobArgs(new String[] { "--connect", "4711", "--input", "a.exe", "--apikey=secret",
+                        "--url", "http://localhost", "--outdir", "out", "--local", "retdec" }));
+    }
+}
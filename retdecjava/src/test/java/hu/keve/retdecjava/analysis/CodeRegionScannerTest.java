@@ -0,0 +1,76 @@
+package hu.keve.retdecjava.analysis;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.Random;
+
+import hu.keve.retdecjava.binding.AbstractDecompilationRequest.Architecture;
+import hu.keve.retdecjava.binding.RawDecompilationRequest.Endianness;
+import junit.framework.TestCase;
+
+/**
+ * Tests for finding code regions in raw images.
+ */
+public class CodeRegionScannerTest extends TestCase {
+
+    public void testArmRegionBetweenPaddingAndData() {
+        ByteBuffer b = ByteBuffer.allocate(0x1000).order(ByteOrder.BIG_ENDIAN);
+        for (int i = 0; i < 0x400; i++) {
+            b.put(i, (byte) 0xff);
+        }
+        for (int i = 0x400; i < 0xc00; i += 4) {
+            b.putInt(i, 0xe1a00000 | i);
+        }
+        b.putInt(0x480, 0xe92d4010);
+        b.putInt(0x800, 0xe92d4070);
+        byte[] noise = new byte[0x400];
+        new Random(1).nextBytes(noise);
+        b.position(0xc00);
+        b.put(noise).rewind();
+
+        List<CodeRegion> regions = CodeRegionScanner.scan(b, Architecture.ARM, null, 0x8000000);
+        assertEquals(1, regions.size());
+        CodeRegion r = regions.get(0);
+        assertEquals(0x400, r.getOffset());
+        assertEquals(0x800, r.getLength());
+        assertEquals(0x8000400, r.getVma());
+        assertEquals(Endianness.BIG, r.getEndianness());
+        assertEquals(2, r.getEntryPoints().size());
+        assertEquals(0x8000480, r.getEntryPoint());
+    }
+
+    public void testThumbRegion() {
+        ByteBuffer b = ByteBuffer.allocate(0x1000).order(ByteOrder.LITTLE_ENDIAN);
+        byte[] noise = new byte[0x1000];
+        new Random(3).nextBytes(noise);
+        b.put(noise).rewind();
+        // movs, ldr, str, cmp, b<cond>, bl, adds, bx lr: no halfword has the ARM "always" condition
+        short[] function = {(short) 0xb510, 0x2001, 0x6808, 0x6048, 0x2a00, (short) 0xd1fa, (short) 0xf000,
+            (short) 0xf800, 0x1840, 0x4770 };
+        for (int i = 0x800; i < 0xc00; i += 2) {
+            b.putShort(i, function[(i - 0x800) / 2 % function.length]);
+        }
+
+        List<CodeRegion> regions = CodeRegionScanner.scan(b, Architecture.THUMB, null, 0x8000000);
+        assertEquals(1, regions.size());
+        CodeRegion r = regions.get(0);
+        assertEquals(0x800, r.getOffset());
+        assertEquals(0x400, r.getLength());
+        assertEquals(Endianness.LITTLE, r.getEndianness());
+        assertEquals(0x8000800, r.getEntryPoint());
+        assertTrue(CodeRegionScanner.scan(b, Architecture.ARM, Endianness.LITTLE, 0x8000000).isEmpty());
+    }
+
+    public void testThumbNoise() {
+        byte[] noise = new byte[0x2000];
+        new Random(4).nextBytes(noise);
+        assertTrue(CodeRegionScanner.scan(ByteBuffer.wrap(noise), Architecture.THUMB, Endianness.LITTLE, 0).isEmpty());
+    }
+
+    public void testNoCode() {
+        byte[] noise = new byte[0x2000];
+        new Random(2).nextBytes(noise);
+        assertTrue(CodeRegionScanner.scan(ByteBuffer.wrap(noise), Architecture.MIPS, Endianness.LITTLE, 0).isEmpty());
+    }
+}
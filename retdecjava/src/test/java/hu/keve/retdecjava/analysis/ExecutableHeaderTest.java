@@ -0,0 +1,253 @@
+package hu.keve.retdecjava.analysis;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import hu.keve.retdecjava.binding.AbstractDecompilationRequest.Architecture;
+import hu.keve.retdecjava.binding.AbstractDecompilationRequest.FileFormat;
+import hu.keve.retdecjava.binding.BinDecompilationRequest;
+import hu.keve.retdecjava.binding.RawDecompilationRequest.Endianness;
+import junit.framework.TestCase;
+
+/**
+ * Tests for the ELF/PE header parser.
+ */
+public class ExecutableHeaderTest extends TestCase {
+
+    public void testElfMipsBigEndian() {
+        ByteBuffer b = ByteBuffer.allocate(64).order(ByteOrder.BIG_ENDIAN);
+        b.put(new byte[] {0x7f, 'E', 'L', 'F', 1, 2, 1 }).rewind();
+        b.putShort(16, (short) 2);
+        b.putShort(18, (short) 8);
+        b.putInt(24, 0x400100);
+        ExecutableHeader h = ExecutableHeader.parse(b);
+        assertEquals(FileFormat.ELF, h.getFileFormat());
+        assertEquals(Architecture.MIPS, h.getArchitecture());
+        assertEquals(Endianness.BIG, h.getEndianness());
+        assertEquals(32, h.getBits());
+        assertTrue(h.isExecutable());
+        assertEquals(0x400100, h.getEntryPoint());
+    }
+
+    public void testElfRelocatableIsNotExecutable() {
+        ByteBuffer b = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+        b.put(new byte[] {0x7f, 'E', 'L', 'F', 1, 1, 1 }).rewind();
+        b.putShort(16, (short) 1);
+        b.putShort(18, (short) 3);
+        ExecutableHeader h = ExecutableHeader.parse(b);
+        assertEquals(Architecture.X86, h.getArchitecture());
+        assertFalse(h.isExecutable());
+    }
+
+    public void testElfX8664Unsupported() throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+        b.put(new byte[] {0x7f, 'E', 'L', 'F', 2, 1, 1 }).rewind();
+        b.putShort(16, (short) 2);
+        b.putShort(18, (short) 62);
+        b.putLong(24, 0x400100);
+        ExecutableHeader h = ExecutableHeader.parse(b);
+        assertEquals(64, h.getBits());
+        assertNull(h.getArchitecture());
+
+        File f = File.createTempFile("elf64", ".bin");
+        try {
+            Files.write(f.toPath(), b.array());
+            HeaderSniffer.sniff(new BinDecompilationRequest(f));
+            fail();
+        } catch (UnsupportedInputException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("64-bit"));
+        } finally {
+            f.delete();
+        }
+    }
+
+    public void testPeAmd64Unsupported() {
+        ByteBuffer b = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+        b.put(0, (byte) 'M').put(1, (byte) 'Z');
+        b.putInt(0x3c, 0x80);
+        b.put(0x80, (byte) 'P').put(0x81, (byte) 'E');
+        b.putShort(0x84, (short) 0x8664);
+        b.putShort(0x96, (short) 0x0022);
+        b.putShort(0x98, (short) 0x20b);
+        ExecutableHeader h = ExecutableHeader.parse(b);
+        assertEquals(64, h.getBits());
+        assertNull(h.getArchitecture());
+    }
+
+    public void testPeI386() {
+        ByteBuffer b = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+        b.put(0, (byte) 'M').put(1, (byte) 'Z');
+        b.putInt(0x3c, 0x80);
+        b.put(0x80, (byte) 'P').put(0x81, (byte) 'E');
+        b.putShort(0x84, (short) 0x14c);
+        b.putShort(0x96, (short) 0x0102);
+        b.putShort(0x98, (short) 0x10b);
+        b.putInt(0x98 + 16, 0x1000);
+        b.putInt(0x98 + 28, 0x400000);
+        ExecutableHeader h = ExecutableHeader.parse(b);
+        assertEquals(FileFormat.PE, h.getFileFormat());
+        assertEquals(Architecture.X86, h.getArchitecture());
+        assertTrue(h.isExecutable());
+        assertEquals(0x401000, h.getEntryPoint());
+    }
+
+    public void testPeSections() {
+        ByteBuffer b = ByteBuffer.allocate(512).order(ByteOrder.LITTLE_ENDIAN);
+        b.put(0, (byte) 'M').put(1, (byte) 'Z');
+        b.putInt(0x3c, 0x80);
+        b.put(0x80, (byte) 'P').put(0x81, (byte) 'E');
+        b.putShort(0x84, (short) 0x14c);
+        b.putShort(0x86, (short) 2);
+        b.putShort(0x94, (short) 0xe0);
+        b.putShort(0x96, (short) 0x0102);
+        b.putShort(0x98, (short) 0x10b);
+        b.putInt(0x98 + 28, 0x400000);
+        int table = 0x98 + 0xe0;
+        b.position(table);
+        b.put(".text".getBytes()).rewind();
+        b.putInt(table + 8, 0x1234);
+        b.putInt(table + 12, 0x1000);
+        b.putInt(table + 16, 0x1400);
+        b.putInt(table + 20, 0x400);
+        b.putInt(table + 36, 0x60000020);
+        b.position(table + 40);
+        b.put(".data".getBytes()).rewind();
+        b.putInt(table + 48, 0x100);
+        b.putInt(table + 52, 0x3000);
+        b.putInt(table + 76, 0xc0000040);
+        SectionTable t = SectionTable.parse(b);
+        assertEquals(2, t.getSections().size());
+        assertEquals(1, t.getCodeSections().size());
+        Section text = t.getCodeSections().get(0);
+        assertEquals(".text", text.getName());
+        assertEquals(0x401000, text.getAddress());
+        assertEquals(0x1234, text.getSize());
+        assertEquals(0x400, text.getOffset());
+        assertEquals(-1, t.getSections().get(1).getOffset());
+    }
+
+    public void testElfFunctions() {
+        ByteBuffer b = ByteBuffer.allocate(0x300).order(ByteOrder.LITTLE_ENDIAN);
+        b.put(new byte[] {0x7f, 'E', 'L', 'F', 1, 1, 1 }).rewind();
+        b.putShort(16, (short) 2);
+        b.putShort(18, (short) 3);
+        b.putInt(32, 0x200);
+        b.putShort(46, (short) 40);
+        b.putShort(48, (short) 5);
+        b.putShort(50, (short) 4);
+        for (int i = 0; i < 16; i++) {
+            b.put(0x100 + i, (byte) i);
+        }
+        putElfSymbol(b, 0x130, 1, 0x8048100, 8);
+        putElfSymbol(b, 0x140, 3, 0x8048108, 8);
+        b.position(0x160);
+        b.put("\0f\0g\0".getBytes());
+        b.position(0x170);
+        b.put("\0.text\0.symtab\0.strtab\0.shstrtab\0".getBytes()).rewind();
+        putElfSection(b, 1, 1, 1, 6, 0x8048100, 0x100, 16, 0);
+        putElfSection(b, 2, 7, 2, 0, 0, 0x120, 48, 3);
+        putElfSection(b, 3, 15, 3, 0, 0, 0x160, 5, 0);
+        putElfSection(b, 4, 23, 3, 0, 0, 0x170, 33, 0);
+
+        FunctionTable t = FunctionTable.parse(b);
+        assertEquals(2, t.getFunctions().size());
+        FunctionSymbol g = t.get("g");
+        assertEquals(0x8048108, g.getAddress());
+        assertEquals(8, g.getSize());
+        assertEquals(8, g.getBytes().get(0));
+        assertFalse(java.util.Arrays.equals(t.get("f").digest(), g.digest()));
+        assertEquals(1, SectionTable.parse(b).getCodeSections().size());
+    }
+
+    private static FunctionSymbol x86(final String name, final long address, final int... code) {
+        byte[] b = new byte[code.length];
+        for (int i = 0; i < code.length; i++) {
+            b[i] = (byte) code[i];
+        }
+        return new FunctionSymbol(name, address, ByteBuffer.wrap(b), Architecture.X86, Endianness.LITTLE);
+    }
+
+    public void testNormalizedDigestMasksCallTargets() {
+        // push ebp; call rel32; pop ebp; ret
+        FunctionSymbol fa = x86("a", 0x1000, 0x55, 0xe8, 0xfa, 0x1f, 0, 0, 0x5d, 0xc3);
+        FunctionSymbol fb = x86("b", 0x2000, 0x55, 0xe8, 0xfa, 0x0f, 0, 0, 0x5d, 0xc3);
+        FunctionSymbol fc = x86("c", 0x2100, 0x55, 0xe8, 0xfa, 0x1e, 0, 0, 0x5d, 0xc3);
+        FunctionSymbol g = x86("g", 0x3000, 0xc3);
+        FunctionSymbol h = x86("h", 0x4000, 0xc3);
+        Map<String, FunctionSymbol> functions = new LinkedHashMap<String, FunctionSymbol>();
+        for (FunctionSymbol f : java.util.Arrays.asList(fa, fb, fc, g, h)) {
+            functions.put(f.getName(), f);
+        }
+        FunctionTable table = new FunctionTable(functions);
+        assertEquals("g", table.nameAt(0x3000));
+        assertFalse(java.util.Arrays.equals(fa.digest(), fb.digest()));
+        // both call g from a different address.
+        assertTrue(java.util.Arrays.equals(fa.normalizedDigest(table), fb.normalizedDigest(table)));
+        // same bytes after masking, but c calls h.
+        assertFalse(java.util.Arrays.equals(fa.normalizedDigest(table), fc.normalizedDigest(table)));
+    }
+
+    public void testNormalizedDigestKeepsImmediates() {
+        // mov eax, imm32 whose first byte looks like a call opcode; ret
+        FunctionSymbol fa = x86("a", 0x1000, 0xb8, 0xe8, 1, 2, 3, 4, 0xc3);
+        FunctionSymbol fb = x86("b", 0x2000, 0xb8, 0xe8, 9, 9, 9, 9, 0xc3);
+        FunctionTable table = new FunctionTable(new LinkedHashMap<String, FunctionSymbol>());
+        assertFalse(java.util.Arrays.equals(fa.normalizedDigest(table), fb.normalizedDigest(table)));
+        // a longer function with the same prefix differs by its size.
+        FunctionSymbol longer = x86("c", 0x3000, 0xb8, 0xe8, 1, 2, 3, 4, 0xc3, 0x90);
+        assertFalse(java.util.Arrays.equals(fa.normalizedDigest(table), longer.normalizedDigest(table)));
+    }
+
+    public void testNormalizedDigestArmBranch() {
+        // bl to the function 0x100 bytes after the caller, little endian.
+        FunctionSymbol fa = new FunctionSymbol("a", 0x1000,
+                ByteBuffer.wrap(new byte[] {0x3e, 0, 0, (byte) 0xeb }), Architecture.ARM, Endianness.LITTLE);
+        FunctionSymbol fb = new FunctionSymbol("b", 0x2000,
+                ByteBuffer.wrap(new byte[] {(byte) 0xfe, 0x03, 0, (byte) 0xeb }), Architecture.ARM,
+                Endianness.LITTLE);
+        FunctionSymbol g = new FunctionSymbol("g", 0x1100, ByteBuffer.wrap(new byte[4]), Architecture.ARM,
+                Endianness.LITTLE);
+        FunctionSymbol g2 = new FunctionSymbol("g", 0x3000, ByteBuffer.wrap(new byte[4]), Architecture.ARM,
+                Endianness.LITTLE);
+        Map<String, FunctionSymbol> first = new LinkedHashMap<String, FunctionSymbol>();
+        first.put("a", fa);
+        first.put("g", g);
+        Map<String, FunctionSymbol> second = new LinkedHashMap<String, FunctionSymbol>();
+        second.put("b", fb);
+        second.put("g", g2);
+        assertTrue(java.util.Arrays.equals(fa.normalizedDigest(new FunctionTable(first)),
+                fb.normalizedDigest(new FunctionTable(second))));
+    }
+
+    private static void putElfSymbol(final ByteBuffer b, final int at, final int name, final int value,
+            final int size) {
+        b.putInt(at, name);
+        b.putInt(at + 4, value);
+        b.putInt(at + 8, size);
+        b.put(at + 12, (byte) 0x12);
+        b.putShort(at + 14, (short) 1);
+    }
+
+    private static void putElfSection(final ByteBuffer b, final int index, final int name, final int type,
+            final int flags, final int addr, final int offset, final int size, final int link) {
+        int sh = 0x200 + index * 40;
+        b.putInt(sh, name);
+        b.putInt(sh + 4, type);
+        b.putInt(sh + 8, flags);
+        b.putInt(sh + 12, addr);
+        b.putInt(sh + 16, offset);
+        b.putInt(sh + 20, size);
+        b.putInt(sh + 24, link);
+        b.putInt(sh + 36, 2 == type ? 16 : 0);
+    }
+
+    public void testJunk() {
+        assertNull(ExecutableHeader.parse(ByteBuffer.wrap("int main() { return 0; }".getBytes())));
+        assertNull(ExecutableHeader.parse(ByteBuffer.wrap(new byte[] {'M', 'Z' })));
+    }
+}
@@ -0,0 +1,187 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.binding;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for cancellation and deadlines.
+ */
+public class CancellationTest extends TestCase {
+
+    /**
+     * Resource remembering that it was closed.
+     */
+    private static final class Resource implements Closeable {
+        private volatile boolean closed;
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    public void testDisarm() throws InterruptedException {
+        Cancellation c = new Cancellation();
+        c.setTimeout(50);
+        c.disarm();
+        Thread.sleep(150);
+        assertFalse(c.isEnded());
+        assertEquals("active", c.toString());
+
+        DefaultDecompilationResult res = new DefaultDecompilationResult();
+        res.getCancellation().setTimeout(50);
+        res.started();
+        res.finished();
+        Thread.sleep(150);
+        assertFalse(res.getCancellation().isEnded());
+        assertEquals(DefaultDecompilationResult.State.DONE, res.getState());
+    }
+
+    public void testTimeout() throws InterruptedException {
+        Cancellation c = new Cancellation();
+        c.setTimeout(50);
+        long start = System.currentTimeMillis();
+        try {
+            c.sleep(10000);
+            fail();
+        } catch (DecompilationCancelledException e) {
+            assertEquals(Cancellation.Outcome.TIMED_OUT, e.getOutcome());
+        }
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        c.cancel();
+        assertEquals(Cancellation.Outcome.TIMED_OUT, c.getOutcome());
+    }
+
+    public void testCancelWakesSleeper() throws InterruptedException {
+        final Cancellation c = new Cancellation();
+        c.setTimeout(10000);
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    // cancel right away.
+                }
+                c.cancel();
+            }
+        }.start();
+        try {
+            c.sleep(10000);
+            fail();
+        } catch (DecompilationCancelledException e) {
+            assertEquals(Cancellation.Outcome.CANCELLED, e.getOutcome());
+        }
+        assertTrue(c.isEnded());
+        assertEquals("CANCELLED", c.toString());
+    }
+
+    public void testResources() {
+        Cancellation c = new Cancellation();
+        c.check();
+        Resource open = new Resource();
+        Resource done = new Resource();
+        c.register(open);
+        c.register(done);
+        c.unregister(done);
+        c.cancel();
+        assertTrue(open.closed);
+        assertFalse(done.closed);
+        Resource late = new Resource();
+        c.register(late);
+        assertTrue(late.closed);
+    }
+
+    public void testResultOutcome() {
+        DefaultDecompilationResult res = new DefaultDecompilationResult();
+        res.started();
+        res.getCancellation().setTimeout(0);
+        long until = System.currentTimeMillis() + 5000;
+        while (!res.getCancellation().isEnded() && System.currentTimeMillis() < until) {
+            Thread.yield();
+        }
+        RetdecService.fail(res, new IOException("Stream closed"));
+        assertEquals(DefaultDecompilationResult.State.TIMED_OUT, res.getState());
+        assertTrue(res.getException() instanceof DecompilationCancelledException);
+
+        DefaultDecompilationResult other = new DefaultDecompilationResult();
+        other.cancelled();
+        assertEquals(DefaultDecompilationResult.State.CANCELLED, other.getState());
+        assertTrue(other.getCancellation().isEnded());
+    }
+
+    public void testPlainResult() {
+        DecompilationResult plain = new DecompilationResult() {
+            @Override
+            public void setId(final String id) {
+            }
+
+            @Override
+            public void started() {
+            }
+
+            @Override
+            public void setStatus(final StatusResponse status) {
+            }
+
+            @Override
+            public void phaseChange(final StatusPhase phase) {
+            }
+
+            @Override
+            public boolean acceptOutput(final DecompilationOutput key) {
+                return false;
+            }
+
+            @Override
+            public void consumeOutput(final String fileName, final String mediaType, final InputStream in) {
+            }
+
+            @Override
+            public void finished() {
+            }
+
+            @Override
+            public void failed(final Exception e) {
+            }
+        };
+        Cancellation c = Cancellation.of(plain);
+        assertSame(c, Cancellation.of(plain));
+        ForwardingDecompilationResult forwarding = new ForwardingDecompilationResult(plain);
+        assertSame(c, forwarding.getCancellation());
+        assertNull(forwarding.getDownloadLimit());
+
+        DefaultDecompilationResult res = new DefaultDecompilationResult();
+        assertSame(res.getCancellation(), Cancellation.of(res));
+        assertSame(res.getCancellation(), new ForwardingDecompilationResult(res).getCancellation());
+    }
+}
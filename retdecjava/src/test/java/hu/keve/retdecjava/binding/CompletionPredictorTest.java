@@ -0,0 +1,102 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.binding;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for predicting run times and scheduling polls.
+ */
+public class CompletionPredictorTest extends TestCase {
+    private static final long FALLBACK = 15000;
+
+    public void testUnknownUsesFallback() {
+        CompletionPredictor p = new CompletionPredictor();
+        p.submitted("a", "bin/null/plain", 1000, 0);
+        assertEquals(FALLBACK, p.nextPollDelay("a", FALLBACK, 0));
+        assertEquals(FALLBACK, p.nextPollDelay("unknown", FALLBACK, 0));
+        assertEquals(-1, p.getEta("a"));
+    }
+
+    public void testFitBySize() {
+        CompletionPredictor p = new CompletionPredictor();
+        // 10 ms per byte.
+        learn(p, "bin/null/plain", 1000, 10000);
+        learn(p, "bin/null/plain", 3000, 30000);
+
+        p.submitted("j", "bin/null/plain", 2000, 1000);
+        assertEquals(21000, p.getEta("j"));
+        // quiet until 80%.
+        assertEquals(16000, p.nextPollDelay("j", FALLBACK, 1000));
+        // dense around the finish.
+        assertEquals(CompletionPredictor.DENSE_INTERVAL_MS, p.nextPollDelay("j", FALLBACK, 18000));
+        assertEquals(CompletionPredictor.DENSE_INTERVAL_MS, p.nextPollDelay("j", FALLBACK, 24000));
+        // backing off after an overrun.
+        assertEquals(10000, p.nextPollDelay("j", FALLBACK, 45000));
+        assertEquals(FALLBACK, p.nextPollDelay("j", FALLBACK, 100000));
+
+        // other groups fall back to all jobs.
+        p.submitted("k", "raw/null/graphs", 1000, 0);
+        assertEquals(10000, p.getEta("k"));
+        assertEquals(2, p.getEtas().size());
+    }
+
+    public void testPhaseRefines() {
+        CompletionPredictor p = new CompletionPredictor();
+        p.submitted("a", "c/null/plain", 100, 0);
+        p.phase("a", "decompiler:llvm", 2500);
+        p.finished("a", true, 10000);
+
+        p.submitted("b", "c/null/plain", 100, 0);
+        assertEquals(10000, p.getEta("b"));
+        // reached the phase at 25% late, so the job is slower.
+        p.phase("b", "decompiler:llvm", 5000);
+        assertEquals(20000, p.getEta("b"));
+
+        // failed jobs are not learned.
+        p.finished("b", false, 1000);
+        p.submitted("c", "c/null/plain", 100, 0);
+        assertEquals(10000, p.getEta("c"));
+    }
+
+    public void testAbandonedJobsAreForgotten() {
+        CompletionPredictor p = new CompletionPredictor();
+        learn(p, "bin/null/plain", 1000, 10000);
+        p.submitted("abandoned", "bin/null/plain", 1000, 0);
+        assertEquals(10000, p.getEta("abandoned"));
+        for (int i = 0; i < CompletionPredictor.MAX_JOBS; i++) {
+            p.submitted("j" + i, "bin/null/plain", 1000, 0);
+        }
+        assertEquals(-1, p.getEta("abandoned"));
+        assertEquals(CompletionPredictor.MAX_JOBS, p.getEtas().size());
+    }
+
+    private static void learn(final CompletionPredictor p, final String group, final long size, final long millis) {
+        p.submitted("x", group, size, 0);
+        p.finished("x", true, millis);
+    }
+}
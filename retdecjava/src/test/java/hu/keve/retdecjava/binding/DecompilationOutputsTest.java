@@ -0,0 +1,70 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.binding;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import hu.keve.retdecjava.binding.DecompilationResult.DecompilationOutput;
+import junit.framework.TestCase;
+
+/**
+ * Tests for the outputs of a finished decompilation.
+ */
+public class DecompilationOutputsTest extends TestCase {
+    public void testOutputs() {
+        Map<DecompilationOutput, OutputHandle> handles = DecompilationOutputs.newOutputMap();
+        handles.put(DecompilationOutput.dsm, new OutputHandle(null, DecompilationOutput.dsm, null, "u/dsm"));
+        handles.put(DecompilationOutput.hll, new OutputHandle(null, DecompilationOutput.hll, null, "u/hll"));
+        SortedMap<String, OutputHandle> cfgs = new TreeMap<String, OutputHandle>();
+        cfgs.put("main", new OutputHandle(null, DecompilationOutput.cfgs, "main", "u/cfgs/main"));
+        DecompilationOutputs outputs = new DecompilationOutputs(null, handles,
+                Collections.singletonMap(DecompilationOutput.cfgs, cfgs));
+
+        assertEquals(Arrays.asList(DecompilationOutput.hll, DecompilationOutput.dsm),
+                Arrays.asList(outputs.getOutputs().keySet().toArray()));
+        assertEquals("u/hll", outputs.get(DecompilationOutput.hll).getUrl());
+        assertNull(outputs.get(DecompilationOutput.cg));
+        assertEquals("cfgs/main", outputs.getNested(DecompilationOutput.cfgs).get("main").toString());
+        assertTrue(outputs.getNested(DecompilationOutput.dsm).isEmpty());
+        try {
+            outputs.getOutputs().remove(DecompilationOutput.hll);
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected.
+        }
+        try {
+            outputs.getNested().clear();
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected.
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.binding;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import hu.keve.retdecjava.binding.DefaultDecompilationResult.Listener;
+import hu.keve.retdecjava.binding.DefaultDecompilationResult.Snapshot;
+import hu.keve.retdecjava.binding.DefaultDecompilationResult.State;
+import junit.framework.TestCase;
+
+/**
+ * Tests for the state of decompilation results.
+ */
+public class DefaultDecompilationResultTest extends TestCase {
+
+    /**
+     * Listener recording the states.
+     */
+    private static final class Recorder implements Listener {
+        private final List<State> states = Collections.synchronizedList(new ArrayList<State>());
+
+        @Override
+        public void changed(final Snapshot previous, final Snapshot current) {
+            if (previous.getState() != current.getState()) {
+                states.add(current.getState());
+            }
+        }
+    }
+
+    private static StatusResponse status(final boolean finished, final boolean failed) {
+        StatusResponse status = new StatusResponse();
+        status.setFinished(finished);
+        status.setFailed(failed);
+        return status;
+    }
+
+    public void testLifecycle() {
+        DefaultDecompilationResult res = new DefaultDecompilationResult();
+        Recorder a = new Recorder();
+        Recorder b = new Recorder();
+        res.addListener(a);
+        res.addListener(b);
+        res.addListener(new Listener() {
+            @Override
+            public void changed(final Snapshot previous, final Snapshot current) {
+                throw new IllegalStateException("ignored");
+            }
+        });
+        assertEquals(State.PENDING, res.getState());
+        res.setId("x");
+        res.started();
+        res.setStatus(status(false, false));
+        res.setStatus(status(true, false));
+        res.finished();
+        assertEquals("x", res.getId());
+        assertEquals(State.DONE, res.getState());
+        assertEquals(a.states, b.states);
+        assertEquals(3, a.states.size());
+        assertEquals(State.FETCHING, a.states.get(1));
+
+        // terminal states are final.
+        assertFalse(res.cancelled());
+        res.failed(new IOException());
+        assertEquals(State.DONE, res.getState());
+        assertNull(res.getException());
+    }
+
+    public void testFailures() {
+        DefaultDecompilationResult res = new DefaultDecompilationResult();
+        res.started();
+        res.setStatus(status(true, true));
+        res.finished();
+        assertEquals(State.FAILED, res.getState());
+
+        res = new DefaultDecompilationResult();
+        IOException e = new IOException();
+        res.failed(e);
+        assertSame(e, res.getSnapshot().getException());
+        assertTrue(res.getState().isTerminal());
+
+        res = new DefaultDecompilationResult();
+        res.started();
+        assertTrue(res.cancelled());
+        res.finished();
+        assertEquals(State.CANCELLED, res.getState());
+    }
+
+    public void testFinishedCallbackOnlyOnTransition() {
+        final int[] calls = new int[2];
+        class Counting extends DefaultDecompilationResult {
+            @Override
+            protected void onStarted() {
+                calls[0]++;
+            }
+
+            @Override
+            protected void onFinished() {
+                calls[1]++;
+            }
+        }
+        DefaultDecompilationResult res = new Counting();
+        res.started();
+        res.finished();
+        res.finished();
+        assertEquals(1, calls[0]);
+        assertEquals(1, calls[1]);
+
+        res = new Counting();
+        res.started();
+        res.cancelled();
+        res.started();
+        res.finished();
+        assertEquals(State.CANCELLED, res.getState());
+        assertEquals(2, calls[0]);
+        assertEquals(1, calls[1]);
+    }
+
+    public void testConcurrentUpdates() throws InterruptedException {
+        final DefaultDecompilationResult res = new DefaultDecompilationResult();
+        final Recorder recorder = new Recorder();
+        res.addListener(recorder);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        res.setStatus(status(i == 999, false));
+                        res.getSnapshot();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // running then fetching exactly once, never back.
+        assertEquals(2, recorder.states.size());
+        assertEquals(State.FETCHING, res.getState());
+    }
+}
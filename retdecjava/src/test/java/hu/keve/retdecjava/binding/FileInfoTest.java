@@ -0,0 +1,72 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.binding;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for parsing the output of the fileinfo service.
+ */
+public class FileInfoTest extends TestCase {
+    static final String PE = "Input file               : /tmp/a.exe\r\n"
+            + "File format              : PE\r\n"
+            + "File class               : 32-bit\r\n"
+            + "File type                : Executable file\r\n"
+            + "Architecture             : x86\r\n"
+            + "Endianness               : Little endian\r\n"
+            + "Entry point address      : 0x401000\r\n"
+            + "Detected tool            : Microsoft Visual C++ (2010) (compiler)\r\n"
+            + "\r\n"
+            + "Section table\r\n"
+            + "-------------\r\n"
+            + "File format              : ignored repetition\r\n";
+
+    public void testValues() {
+        FileInfo info = new FileInfo(PE);
+        assertEquals("PE", info.getFileFormat());
+        assertEquals("Executable file", info.getFileType());
+        assertEquals("x86", info.getArchitecture());
+        assertEquals("0x401000", info.get("Entry point address"));
+        assertNull(info.get("Section table"));
+        assertEquals(8, info.getValues().size());
+        assertEquals(PE, info.getText());
+        assertFalse(info.isPacked());
+    }
+
+    public void testPacked() {
+        FileInfo info = new FileInfo("File format : PE\n"
+                + "Detected tool : UPX (3.91) (packer), 74 from 74 significant nibbles\n");
+        assertEquals("PE", info.getFileFormat());
+        assertTrue(info.isPacked());
+    }
+
+    public void testEmpty() {
+        FileInfo info = new FileInfo("");
+        assertNull(info.getFileFormat());
+        assertTrue(info.getValues().isEmpty());
+    }
+}
@@ -0,0 +1,190 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.binding;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import hu.keve.retdecjava.binding.DecompilationResult.DecompilationOutput;
+import hu.keve.retdecjava.sink.MemorySink;
+import hu.keve.retdecjava.sink.SinkDecompilationResult;
+import junit.framework.TestCase;
+
+/**
+ * Tests for the local decompiler, using a shell script as the decompiler.
+ */
+public class LocalDecompilerTest extends TestCase {
+    private static final String FAKE = "#!/bin/sh\n"
+            + "in=$1; shift\n"
+            + "while [ $# -gt 0 ]; do\n"
+            + "  case $1 in --output) out=$2;; --target_language) lang=$2;; esac\n"
+            + "  shift 2\n"
+            + "done\n"
+            + "echo '##### 10% Loading'\n"
+            + "echo 'some noise'\n"
+            + "echo \"##### 60% Decompiling to $lang\"\n"
+            + "[ -s \"$in\" ] || { echo 'empty input'; exit 3; }\n"
+            + "echo 'int main() {}' > \"$out.$lang\"\n"
+            + "echo 'main:' > \"$out.dsm\"\n"
+            + "echo '{}' > \"$out.config.json\"\n";
+
+    private File dir;
+    private File script;
+
+    /**
+     * Result recording the phases.
+     */
+    private static final class Recorder extends SinkDecompilationResult {
+        private final List<String> phases = new ArrayList<String>();
+
+        Recorder() {
+            super(new MemorySink());
+        }
+
+        @Override
+        public void phaseChange(final StatusPhase phase) {
+            phases.add(phase.getCompletion() + " " + phase.getDescription());
+        }
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = Files.createTempDirectory("localdecompiler").toFile();
+        script = write("fake.sh", FAKE);
+        script.setExecutable(true);
+    }
+
+    @Override
+    protected void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private File write(final String name, final String content) throws IOException {
+        File f = new File(dir, name);
+        try (OutputStream out = new FileOutputStream(f)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        return f;
+    }
+
+    private boolean canRun() {
+        return new File("/bin/sh").canExecute();
+    }
+
+    public void testDecompile() throws Exception {
+        if (!canRun()) {
+            return;
+        }
+        CDecompilationRequest request = new CDecompilationRequest(write("a.c", "int main;"));
+        request.setTargetLanguage(AbstractDecompilationRequest.TargetLanguage.PY);
+        try (LocalDecompiler decompiler = new LocalDecompiler(Arrays.asList("/bin/sh", script.getPath()), dir, 2)) {
+            DecompilationResponse resp = decompiler.decompile(request);
+            Recorder res = new Recorder();
+            decompiler.decompileSync(resp, res);
+            assertNull(res.getException());
+            assertEquals(Arrays.asList("10 Loading", "60 Decompiling to py"), res.phases);
+            assertTrue(res.getStatus().isSucceeded());
+            assertEquals(100, res.getStatus().getCompletion());
+            MemorySink sink = (MemorySink) res.getSink();
+            assertEquals("int main() {}\n", new String(sink.get("a.c.py"), StandardCharsets.UTF_8));
+            assertNotNull(sink.get("a.c.dsm"));
+            assertNull(sink.get("a.c.config.json"));
+        }
+    }
+
+    public void testFailure() throws Exception {
+        if (!canRun()) {
+            return;
+        }
+        CDecompilationRequest request = new CDecompilationRequest(write("empty.c", ""));
+        try (LocalDecompiler decompiler = new LocalDecompiler(Arrays.asList("/bin/sh", script.getPath()), dir, 1)) {
+            Recorder res = new Recorder();
+            decompiler.decompileSync(decompiler.decompile(request), res);
+            assertTrue(res.getStatus().isFailed());
+            assertTrue(res.getException().getMessage().contains("empty input"));
+        }
+    }
+
+    private static int waitForEmpty(final File dir) throws InterruptedException {
+        for (int i = 0; i < 100 && dir.list().length > 0; i++) {
+            Thread.sleep(50);
+        }
+        return dir.list().length;
+    }
+
+    public void testUnsyncedJobsAreDeleted() throws Exception {
+        if (!canRun()) {
+            return;
+        }
+        File hang = write("hang.sh", "#!/bin/sh\nexec sleep 30\n");
+        File work = new File(dir, "work");
+        work.mkdir();
+        CDecompilationRequest request = new CDecompilationRequest(write("a.c", "int main;"));
+        try (LocalDecompiler decompiler = new LocalDecompiler(Arrays.asList("/bin/sh", hang.getPath()), work, 1)) {
+            DecompilationResponse first = decompiler.decompile(request);
+            DecompilationResponse second = decompiler.decompile(request);
+            for (int i = 2; i < LocalDecompiler.MAX_JOBS; i++) {
+                decompiler.decompile(request);
+            }
+            assertEquals(LocalDecompiler.MAX_JOBS, work.list().length);
+            decompiler.decompile(request);
+            decompiler.decompile(request);
+
+            // the running job is killed, the waiting one never starts.
+            for (int i = 0; i < 100 && work.list().length > LocalDecompiler.MAX_JOBS; i++) {
+                Thread.sleep(50);
+            }
+            assertEquals(LocalDecompiler.MAX_JOBS, work.list().length);
+            Recorder res = new Recorder();
+            decompiler.decompileSync(first, res);
+            assertTrue(res.getException().getMessage().contains("Unknown"));
+            decompiler.decompileSync(second, res);
+            assertTrue(res.getException().getMessage().contains("Unknown"));
+        }
+        assertEquals(0, waitForEmpty(work));
+        work.delete();
+    }
+
+    public void testParse() {
+        StatusPhase phase = LocalDecompiler.parsePhase(" 42% Optimizing ", 10);
+        assertEquals(42, phase.getCompletion());
+        assertEquals("Optimizing", phase.getDescription());
+        assertEquals(42, LocalDecompiler.parsePhase("Writing 100% of it", 42).getCompletion());
+        assertEquals(DecompilationOutput.cg, LocalDecompiler.outputKind(".cg.svg"));
+        assertNull(LocalDecompiler.outputKind(".ll"));
+    }
+}
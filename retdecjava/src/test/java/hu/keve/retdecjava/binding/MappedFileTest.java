@@ -0,0 +1,124 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.binding;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for mapped files and their body writer.
+ */
+public class MappedFileTest extends TestCase {
+    private File file;
+    private byte[] content;
+
+    @Override
+    protected void setUp() throws IOException {
+        content = new byte[600 * 1024 + 7];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        file = File.createTempFile("mapped", ".bin");
+        Files.write(file.toPath(), content);
+    }
+
+    @Override
+    protected void tearDown() {
+        file.delete();
+    }
+
+    private static byte[] bytes(final ByteBuffer buffer) {
+        byte[] b = new byte[buffer.remaining()];
+        buffer.get(b);
+        return b;
+    }
+
+    public void testSlice() throws IOException {
+        MappedFile mapped = MappedFile.map(file);
+        assertEquals(content.length, mapped.getSize());
+        MappedFile part = mapped.slice("part.o", 1000, 5000);
+        assertEquals(5000, part.getSize());
+        assertEquals(new File(file.getParentFile(), "part.o"), part.getFile());
+        assertTrue(Arrays.equals(Arrays.copyOfRange(content, 1000, 6000), bytes(part.getBuffer())));
+        MappedFile inner = part.slice("inner.o", 10, 20);
+        assertTrue(Arrays.equals(Arrays.copyOfRange(content, 1010, 1030), bytes(inner.getBuffer())));
+        // the views are independent.
+        ByteBuffer view = mapped.getBuffer();
+        view.position(100);
+        assertEquals(0, mapped.getBuffer().position());
+    }
+
+    public void testDigestCached() throws Exception {
+        MappedFile mapped = MappedFile.map(file);
+        byte[] expected = MessageDigest.getInstance("SHA-256").digest(content);
+        byte[] first = mapped.digest("SHA-256");
+        assertTrue(Arrays.equals(expected, first));
+        first[0]++;
+        byte[] second = mapped.digest("SHA-256");
+        assertNotSame(first, second);
+        assertTrue(Arrays.equals(expected, second));
+        assertTrue(Arrays.equals(MessageDigest.getInstance("SHA-256").digest(Arrays.copyOfRange(content, 5, 105)),
+                mapped.slice("part", 5, 100).digest("SHA-256")));
+        try {
+            mapped.digest("NO-SUCH-DIGEST");
+            fail();
+        } catch (IOException e) {
+            // expected.
+        }
+    }
+
+    public void testWriteTo() throws IOException {
+        MappedFile mapped = MappedFile.map(file);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        mapped.writeTo(bos);
+        assertTrue(Arrays.equals(content, bos.toByteArray()));
+        bos.reset();
+        mapped.slice("part", 300 * 1024, 1024).writeTo(bos);
+        assertTrue(Arrays.equals(Arrays.copyOfRange(content, 300 * 1024, 301 * 1024), bos.toByteArray()));
+        bos.reset();
+        mapped.throttled(new TokenBucket(TokenBucket.UNLIMITED), null).writeTo(bos);
+        assertTrue(Arrays.equals(content, bos.toByteArray()));
+    }
+
+    public void testBodyWriter() throws IOException {
+        MappedFile mapped = MappedFile.map(file);
+        MappedFileBodyWriter writer = new MappedFileBodyWriter();
+        assertTrue(writer.isWriteable(MappedFile.class, MappedFile.class, null, null));
+        assertFalse(writer.isWriteable(File.class, File.class, null, null));
+        assertEquals(content.length, writer.getSize(mapped, MappedFile.class, MappedFile.class, null, null));
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        writer.writeTo(mapped, MappedFile.class, MappedFile.class, null, null, null, bos);
+        assertTrue(Arrays.equals(content, bos.toByteArray()));
+    }
+}
@@ -0,0 +1,316 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.binding;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.Link;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.NewCookie;
+import javax.ws.rs.core.Response;
+
+import hu.keve.retdecjava.binding.DecompilationResult.DecompilationOutput;
+import hu.keve.retdecjava.sink.MemorySink;
+import hu.keve.retdecjava.sink.SinkDecompilationResult;
+import junit.framework.TestCase;
+
+/**
+ * Tests for output handles, with a source serving canned outputs.
+ */
+public class OutputHandleTest extends TestCase {
+    /**
+     * Inbound response over an outbound one, so that the entity can be read.
+     */
+    private static final class CannedResponse extends Response {
+        private final Response d;
+        private final byte[] body;
+
+        CannedResponse(final int status, final String mediaType, final String fileName, final byte[] body) {
+            ResponseBuilder b = Response.status(status).type(mediaType);
+            if (null != fileName) {
+                b.header("Content-Disposition", "attachment; filename=\"" + fileName + "\"");
+            }
+            this.d = b.header("Content-Length", body.length).build();
+            this.body = body;
+        }
+
+        @Override
+        public int getStatus() {
+            return d.getStatus();
+        }
+
+        @Override
+        public StatusType getStatusInfo() {
+            return d.getStatusInfo();
+        }
+
+        @Override
+        public Object getEntity() {
+            return null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T readEntity(final Class<T> entityType) {
+            return (T) new ByteArrayInputStream(body);
+        }
+
+        @Override
+        public <T> T readEntity(final GenericType<T> entityType) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <T> T readEntity(final Class<T> entityType, final Annotation[] annotations) {
+            return readEntity(entityType);
+        }
+
+        @Override
+        public <T> T readEntity(final GenericType<T> entityType, final Annotation[] annotations) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean hasEntity() {
+            return true;
+        }
+
+        @Override
+        public boolean bufferEntity() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public MediaType getMediaType() {
+            return d.getMediaType();
+        }
+
+        @Override
+        public Locale getLanguage() {
+            return null;
+        }
+
+        @Override
+        public int getLength() {
+            return d.getLength();
+        }
+
+        @Override
+        public Set<String> getAllowedMethods() {
+            return d.getAllowedMethods();
+        }
+
+        @Override
+        public Map<String, NewCookie> getCookies() {
+            return d.getCookies();
+        }
+
+        @Override
+        public EntityTag getEntityTag() {
+            return null;
+        }
+
+        @Override
+        public Date getDate() {
+            return null;
+        }
+
+        @Override
+        public Date getLastModified() {
+            return null;
+        }
+
+        @Override
+        public URI getLocation() {
+            return null;
+        }
+
+        @Override
+        public Set<Link> getLinks() {
+            return d.getLinks();
+        }
+
+        @Override
+        public boolean hasLink(final String relation) {
+            return false;
+        }
+
+        @Override
+        public Link getLink(final String relation) {
+            return null;
+        }
+
+        @Override
+        public Link.Builder getLinkBuilder(final String relation) {
+            return null;
+        }
+
+        @Override
+        public MultivaluedMap<String, Object> getMetadata() {
+            return d.getMetadata();
+        }
+
+        @Override
+        public MultivaluedMap<String, String> getStringHeaders() {
+            return d.getStringHeaders();
+        }
+
+        @Override
+        public String getHeaderString(final String name) {
+            return d.getHeaderString(name);
+        }
+    }
+
+    /**
+     * Source serving canned outputs by URL and counting the requests.
+     */
+    private static final class CannedSource implements OutputSource {
+        private final Map<String, byte[]> bodies = new HashMap<String, byte[]>();
+        private final Map<String, String> fileNames = new HashMap<String, String>();
+        private final AtomicInteger heads = new AtomicInteger();
+        private final AtomicInteger gets = new AtomicInteger();
+        private volatile boolean headSupported = true;
+
+        void put(final String url, final String fileName, final String body) {
+            bodies.put(url, body.getBytes(StandardCharsets.UTF_8));
+            fileNames.put(url, fileName);
+        }
+
+        @Override
+        public Response head(final String absoluteURL) {
+            heads.incrementAndGet();
+            return new CannedResponse(headSupported ? 200 : 405, "text/x-c", fileNames.get(absoluteURL),
+                    bodies.get(absoluteURL));
+        }
+
+        @Override
+        public Response get(final String absoluteURL) throws BindingException {
+            gets.incrementAndGet();
+            if (!bodies.containsKey(absoluteURL)) {
+                throw new BindingException("Unhandled HTTP status 404 for " + absoluteURL);
+            }
+            return new CannedResponse(200, "text/x-c", fileNames.get(absoluteURL), bodies.get(absoluteURL));
+        }
+    }
+
+    private CannedSource source;
+
+    @Override
+    protected void setUp() {
+        source = new CannedSource();
+        source.put("u/hll", "a.c", "int main;");
+        source.put("u/cfgs/f", null, "digraph f {}");
+    }
+
+    public void testMetadataFromHeadersOnce() {
+        OutputHandle handle = new OutputHandle(source, DecompilationOutput.hll, null, "u/hll");
+        assertEquals(9, handle.getSize());
+        assertEquals("text/x-c", handle.getMediaType());
+        assertEquals("a.c", handle.getFileName());
+        assertEquals(1, source.heads.get());
+        assertEquals(0, source.gets.get());
+        assertEquals("hll", handle.toString());
+    }
+
+    public void testHeadNotSupported() {
+        source.headSupported = false;
+        OutputHandle handle = new OutputHandle(source, DecompilationOutput.hll, null, "u/hll");
+        assertEquals(-1, handle.getSize());
+        assertNull(handle.getFileName());
+    }
+
+    public void testTransferTo() throws Exception {
+        MemorySink sink = new MemorySink();
+        SinkDecompilationResult res = new SinkDecompilationResult(sink);
+        new OutputHandle(source, DecompilationOutput.hll, null, "u/hll").transferTo(res);
+        assertEquals("int main;", new String(sink.get("a.c"), StandardCharsets.UTF_8));
+        assertEquals(0, source.heads.get());
+    }
+
+    public void testOpenWithoutFileName() throws Exception {
+        OutputHandle handle = new OutputHandle(source, DecompilationOutput.cfgs, "f", "u/cfgs/f");
+        try (InputStream in = handle.open()) {
+            byte[] b = new byte[64];
+            assertEquals(12, in.read(b));
+        }
+        assertNull(handle.getFileName());
+        assertEquals(12, handle.getSize());
+        assertEquals(0, source.heads.get());
+        assertEquals("cfgs/f", handle.toString());
+    }
+
+    public void testTransferCancelled() throws Exception {
+        DefaultDecompilationResult res = new DefaultDecompilationResult();
+        res.getCancellation().cancel();
+        try {
+            new OutputHandle(source, DecompilationOutput.hll, null, "u/hll").transferTo(res);
+            fail();
+        } catch (DecompilationCancelledException e) {
+            assertEquals(Cancellation.Outcome.CANCELLED, e.getOutcome());
+        }
+        assertEquals(0, source.gets.get());
+    }
+
+    public void testTransferAll() throws Exception {
+        List<OutputHandle> handles = new ArrayList<OutputHandle>();
+        for (int i = 0; i < 5; i++) {
+            source.put("u/cfgs/f" + i, "f" + i + ".dot", "digraph f" + i + " {}");
+            handles.add(new OutputHandle(source, DecompilationOutput.cfgs, "f" + i, "u/cfgs/f" + i));
+        }
+        MemorySink sink = new MemorySink();
+        OutputHandle.transferAll(handles, 2, new SinkDecompilationResult(sink));
+        for (int i = 0; i < 5; i++) {
+            assertEquals("digraph f" + i + " {}", new String(sink.get("f" + i + ".dot"), StandardCharsets.UTF_8));
+        }
+        handles.add(new OutputHandle(source, DecompilationOutput.cfgs, "missing", "u/cfgs/missing"));
+        try {
+            OutputHandle.transferAll(handles, 2, new SinkDecompilationResult(new MemorySink()));
+            fail();
+        } catch (BindingException e) {
+            assertTrue(e.getMessage().contains("404"));
+        }
+    }
+}
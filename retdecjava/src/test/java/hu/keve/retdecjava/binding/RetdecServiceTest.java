@@ -0,0 +1,163 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.binding;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import hu.keve.retdecjava.pipeline.KeyPool;
+import junit.framework.TestCase;
+
+/**
+ * Tests for the mapping of the responses of the service.
+ */
+public class RetdecServiceTest extends TestCase {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String ACCEPTED = "{\"id\": \"%s\", \"links\": {\"status\": \"%s/status\"}}";
+
+    /**
+     * Backend answering every submission with a configured status and body,
+     * mapped like the responses of the service.
+     */
+    private static final class HttpDecompiler implements Decompiler {
+        private final String name;
+        private int status = 201;
+        private String body;
+        private int submitted;
+        private final List<String> synced = new ArrayList<String>();
+
+        HttpDecompiler(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        public DecompilationResponse decompile(final AbstractDecompilationRequest request)
+                throws IOException, ServiceException {
+            String id = name + submitted++;
+            return RetdecService.readResponse(MAPPER, status, null == body ? String.format(ACCEPTED, id, id) : body,
+                    DecompilationResponse.class);
+        }
+
+        @Override
+        public void decompileSync(final DecompilationResponse resp, final DecompilationResult res) {
+            synced.add(resp.getId());
+        }
+    }
+
+    private final CDecompilationRequest request = new CDecompilationRequest(new File("x.c"));
+
+    private static ServiceException rejection(final int status, final String body) throws IOException {
+        try {
+            RetdecService.readResponse(MAPPER, status, body, DecompilationResponse.class);
+            fail("HTTP " + status);
+            return null;
+        } catch (ServiceException e) {
+            assertEquals(status, e.getStatus());
+            return e;
+        }
+    }
+
+    public void testAccepted() throws Exception {
+        DecompilationResponse resp = RetdecService.readResponse(MAPPER, 201, String.format(ACCEPTED, "abc", "x"),
+                DecompilationResponse.class);
+        assertEquals("abc", resp.getId());
+        assertEquals("x/status", resp.getLinks().get("status"));
+    }
+
+    public void testEveryOtherStatusIsRejected() throws Exception {
+        assertEquals("400:Missing input file.(No input file was given.)", rejection(400,
+                "{\"code\": 400, \"message\": \"Missing input file.\", \"description\": \"No input file was given.\"}")
+                .getMessage());
+        assertEquals("429:Quota exceeded.(null)",
+                rejection(429, "{\"code\": 429, \"message\": \"Quota exceeded.\"}").getMessage());
+        assertEquals("Too Many Requests", rejection(429, "Too Many Requests\n").getMessage());
+        assertEquals("no description", rejection(503, "").getMessage());
+        assertEquals("no description", rejection(500, null).getMessage());
+        StringBuilder page = new StringBuilder("<html>");
+        for (int i = 0; i < 100; i++) {
+            page.append("<p>Bad Gateway</p>");
+        }
+        String message = rejection(502, page.toString()).getMessage();
+        assertTrue(message.startsWith("<html><p>Bad Gateway</p>"));
+        assertTrue(message.length() < page.length());
+        rejection(302, "");
+    }
+
+    public void testPoolFailsOverOnRejectedStatus() throws Exception {
+        HttpDecompiler a = new HttpDecompiler("a");
+        HttpDecompiler b = new HttpDecompiler("b");
+        Map<String, Decompiler> services = new LinkedHashMap<String, Decompiler>();
+        services.put("keyA1234", a);
+        services.put("keyB1234", b);
+        KeyPool pool = new KeyPool(services);
+
+        for (int status : new int[] { 429, 500, 503 }) {
+            a.status = status;
+            a.body = "{\"code\": " + status + ", \"message\": \"Unavailable.\"}";
+            DecompilationResponse resp = pool.decompile(request);
+            assertTrue(resp.getId().startsWith("b"));
+            pool.decompileSync(resp, new DefaultDecompilationResult());
+        }
+        // every attempt on a was a rejection, the first one made a less likely.
+        assertTrue(a.submitted > 0);
+        assertEquals(a.submitted, pool.getStats().get("keyA...").getErrors());
+        assertEquals(0, pool.getStats().get("keyA...").getInFlight());
+        assertEquals(0, pool.getStats().get("keyB...").getInFlight());
+        assertEquals(3, b.synced.size());
+        assertTrue(a.synced.isEmpty());
+
+        a.status = 429;
+        b.status = 429;
+        b.body = "Too Many Requests";
+        try {
+            pool.decompile(request);
+            fail("both keys reject");
+        } catch (ServiceException e) {
+            assertEquals(429, e.getStatus());
+        }
+
+        a.status = 400;
+        a.body = "{\"code\": 400, \"message\": \"Bad request.\"}";
+        b.status = 400;
+        b.body = a.body;
+        long errors = pool.getStats().get("keyA...").getErrors() + pool.getStats().get("keyB...").getErrors();
+        try {
+            pool.decompile(request);
+            fail("bad request");
+        } catch (ServiceException e) {
+            assertEquals(400, e.getStatus());
+        }
+        assertEquals(errors,
+                pool.getStats().get("keyA...").getErrors() + pool.getStats().get("keyB...").getErrors());
+    }
+}
@@ -0,0 +1,66 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.binding;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for recognizing unchanged status bodies.
+ */
+public class StatusFingerprintTest extends TestCase {
+
+    private static boolean update(final StatusFingerprint fp, final String body) throws IOException {
+        return fp.update(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    public void testChanges() throws IOException {
+        StatusFingerprint fp = new StatusFingerprint();
+        assertTrue(update(fp, ""));
+        assertFalse(update(fp, ""));
+        assertTrue(update(fp, "{\"completion\":10}"));
+        assertFalse(update(fp, "{\"completion\":10}"));
+        assertTrue(update(fp, "{\"completion\":20}"));
+        assertEquals("{\"completion\":20}", fp.toString());
+    }
+
+    public void testLargeBody() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            sb.append("{\"phase\":").append(i).append('}');
+        }
+        StatusFingerprint fp = new StatusFingerprint();
+        assertTrue(update(fp, sb.toString()));
+        byte[] buffer = fp.getBuffer();
+        assertFalse(update(fp, sb.toString()));
+        assertSame(buffer, fp.getBuffer());
+        assertEquals(sb.length(), fp.getLength());
+    }
+}
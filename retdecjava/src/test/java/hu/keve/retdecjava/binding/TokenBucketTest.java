@@ -0,0 +1,155 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.binding;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the token buckets and the channels they throttle.
+ */
+public class TokenBucketTest extends TestCase {
+    private static final long SECOND = 1000000000L;
+
+    public void testTake() {
+        TokenBucket bucket = new TokenBucket(64 * 1024);
+        long now = 0;
+        bucket.setRate(64 * 1024, now);
+        assertEquals(0, bucket.take(16 * 1024, now));
+        assertEquals(SECOND / 64, bucket.take(1024, now));
+        assertEquals(0, bucket.take(1024, now + SECOND / 64));
+        // tokens do not accumulate beyond the burst size.
+        now += 10 * SECOND;
+        assertEquals(0, bucket.take(16 * 1024, now));
+        assertTrue(bucket.take(1, now) > 0);
+        assertEquals(33 * 1024, bucket.getGranted());
+    }
+
+    public void testSetRate() {
+        TokenBucket bucket = new TokenBucket(64 * 1024);
+        bucket.setRate(64 * 1024, 0);
+        assertEquals(0, bucket.take(16 * 1024, 0));
+        assertEquals(SECOND / 64, bucket.take(1024, 0));
+        bucket.setRate(128 * 1024, 0);
+        assertEquals(SECOND / 128, bucket.take(1024, 0));
+        bucket.setRate(TokenBucket.UNLIMITED, 0);
+        assertTrue(bucket.isUnlimited());
+        assertEquals(0, bucket.take(1L << 40, 0));
+        try {
+            bucket.setRate(0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected.
+        }
+    }
+
+    public void testRateChangeMidTransfer() throws Exception {
+        byte[] data = new byte[1024 * 1024];
+        final TokenBucket bucket = new TokenBucket(TokenBucket.UNLIMITED);
+        final InputStream in = ThrottledChannels.newInputStream(new ByteArrayInputStream(data), bucket);
+        final long[] copied = new long[1];
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[1024];
+                int n;
+                try {
+                    while ((n = in.read(buffer)) >= 0) {
+                        synchronized (copied) {
+                            copied[0] += n;
+                        }
+                        if (copied[0] == 64 * 1024) {
+                            // the limit comes while the transfer runs.
+                            bucket.setRate(64 * 1024);
+                        }
+                    }
+                } catch (IOException e) {
+                    // the test fails on the bytes missing.
+                }
+            }
+        });
+        reader.setDaemon(true);
+        reader.start();
+        Thread.sleep(1000);
+        synchronized (copied) {
+            // 64k unlimited, the burst of 16k, 64k per second: far from all of it.
+            assertTrue(Long.toString(copied[0]), copied[0] < 256 * 1024);
+        }
+        bucket.setRate(TokenBucket.UNLIMITED);
+        reader.join(10000);
+        assertFalse(reader.isAlive());
+        assertEquals(data.length, copied[0]);
+        assertEquals(data.length, bucket.getGranted());
+    }
+
+    public void testThrottledStreams() throws IOException, InterruptedException {
+        byte[] data = new byte[80 * 1024];
+        new Random(1).nextBytes(data);
+        TokenBucket global = new TokenBucket(TokenBucket.UNLIMITED);
+        TokenBucket job = new TokenBucket(64 * 1024);
+
+        long start = System.nanoTime();
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        try (InputStream in = ThrottledChannels.newInputStream(new ByteArrayInputStream(data), global, job, null)) {
+            byte[] buffer = new byte[5000];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                copy.write(buffer, 0, n);
+            }
+        }
+        assertTrue(Arrays.equals(data, copy.toByteArray()));
+        // the burst passes at once, the rest at the rate.
+        assertTrue(System.nanoTime() - start >= SECOND * 8 / 10);
+        assertEquals(data.length, job.getGranted());
+        // an unlimited bucket is still asked, so it could be limited meanwhile.
+        assertEquals(data.length, global.getGranted());
+
+        File file = File.createTempFile("tokenbucket", ".bin");
+        try {
+            try (OutputStream out = new FileOutputStream(file)) {
+                out.write(data);
+            }
+            TokenBucket upload = new TokenBucket(100 * 1024 * 1024);
+            MappedFile mapped = MappedFile.map(file).throttled(upload);
+            ByteArrayOutputStream sent = new ByteArrayOutputStream();
+            mapped.slice("part", 1000, 50000).writeTo(sent);
+            assertTrue(Arrays.equals(Arrays.copyOfRange(data, 1000, 51000), sent.toByteArray()));
+            assertEquals(50000, upload.getGranted());
+        } finally {
+            file.delete();
+        }
+    }
+}
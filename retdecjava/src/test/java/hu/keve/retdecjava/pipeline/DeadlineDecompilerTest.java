@@ -0,0 +1,111 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.pipeline;
+
+import java.io.File;
+
+import hu.keve.retdecjava.binding.AbstractDecompilationRequest;
+import hu.keve.retdecjava.binding.CDecompilationRequest;
+import hu.keve.retdecjava.binding.Cancellation;
+import hu.keve.retdecjava.binding.DecompilationCancelledException;
+import hu.keve.retdecjava.binding.DecompilationResponse;
+import hu.keve.retdecjava.binding.DecompilationResult;
+import hu.keve.retdecjava.binding.Decompiler;
+import hu.keve.retdecjava.binding.DefaultDecompilationResult;
+import junit.framework.TestCase;
+
+/**
+ * Tests for holding decompilations to a common deadline.
+ */
+public class DeadlineDecompilerTest extends TestCase {
+
+    /**
+     * Backend whose jobs run until their result is cancelled.
+     */
+    private static final class HangingDecompiler implements Decompiler {
+        private int submitted;
+
+        @Override
+        public DecompilationResponse decompile(final AbstractDecompilationRequest request) {
+            DecompilationResponse resp = new DecompilationResponse();
+            resp.setId("job" + submitted++);
+            return resp;
+        }
+
+        @Override
+        public void decompileSync(final DecompilationResponse resp, final DecompilationResult res) {
+            res.setId(resp.getId());
+            res.started();
+            try {
+                Cancellation.of(res).sleep(60 * 1000);
+                res.finished();
+            } catch (InterruptedException | DecompilationCancelledException e) {
+                res.failed(e);
+            }
+        }
+    }
+
+    private final HangingDecompiler backend = new HangingDecompiler();
+    private final CDecompilationRequest request = new CDecompilationRequest(new File("x.c"));
+
+    public void testResultsTimeOutAtDeadline() throws Exception {
+        long start = System.currentTimeMillis();
+        DeadlineDecompiler decompiler = new DeadlineDecompiler(backend, start + 200);
+        DefaultDecompilationResult first = new DefaultDecompilationResult();
+        decompiler.decompileSync(decompiler.decompile(request), first);
+        assertEquals(Cancellation.Outcome.TIMED_OUT, first.getCancellation().getOutcome());
+        assertTrue(first.getException() instanceof DecompilationCancelledException);
+        assertTrue(System.currentTimeMillis() - start < 10 * 1000);
+
+        try {
+            decompiler.decompile(request);
+            fail("the deadline passed");
+        } catch (DecompilationCancelledException e) {
+            assertEquals(Cancellation.Outcome.TIMED_OUT, e.getOutcome());
+        }
+        assertEquals(1, backend.submitted);
+    }
+
+    public void testFinishedResultIsDisarmed() throws Exception {
+        DeadlineDecompiler decompiler = new DeadlineDecompiler(new Decompiler() {
+            @Override
+            public DecompilationResponse decompile(final AbstractDecompilationRequest request) {
+                return new DecompilationResponse();
+            }
+
+            @Override
+            public void decompileSync(final DecompilationResponse resp, final DecompilationResult res) {
+                res.finished();
+            }
+        }, System.currentTimeMillis() + 100);
+        DefaultDecompilationResult res = new DefaultDecompilationResult();
+        decompiler.decompileSync(decompiler.decompile(request), res);
+        Thread.sleep(300);
+        assertFalse(res.getCancellation().isEnded());
+        assertEquals("active", res.getCancellation().toString());
+    }
+}
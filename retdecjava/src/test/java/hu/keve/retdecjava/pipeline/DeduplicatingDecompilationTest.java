@@ -0,0 +1,223 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.pipeline;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import hu.keve.retdecjava.binding.AbstractDecompilationRequest;
+import hu.keve.retdecjava.binding.BinDecompilationRequest;
+import hu.keve.retdecjava.binding.DecompilationResponse;
+import hu.keve.retdecjava.binding.DecompilationResult;
+import hu.keve.retdecjava.binding.DecompilationResult.DecompilationOutput;
+import hu.keve.retdecjava.binding.Decompiler;
+import hu.keve.retdecjava.sink.MemorySink;
+import junit.framework.TestCase;
+
+/**
+ * Tests for the decompilation excluding the functions already in a
+ * {@link FunctionStore}.
+ */
+public class DeduplicatingDecompilationTest extends TestCase {
+
+    /**
+     * Backend emitting a definition returning a configured value for each
+     * function it is asked for, recording the requests.
+     */
+    private static final class HllBackend implements Decompiler {
+        private final Map<String, String> bodies = new LinkedHashMap<String, String>();
+        private final List<BinDecompilationRequest> requests = new ArrayList<BinDecompilationRequest>();
+
+        @Override
+        public DecompilationResponse decompile(final AbstractDecompilationRequest request) {
+            requests.add((BinDecompilationRequest) request);
+            DecompilationResponse resp = new DecompilationResponse();
+            resp.setId("job" + requests.size());
+            return resp;
+        }
+
+        @Override
+        public void decompileSync(final DecompilationResponse resp, final DecompilationResult res) {
+            List<String> selection = requests.get(requests.size() - 1).getSelDecompFuncs();
+            StringBuilder c = new StringBuilder("#include <stdint.h>\n\n");
+            for (Map.Entry<String, String> e : bodies.entrySet()) {
+                if (null == selection || selection.contains(e.getKey())) {
+                    c.append("int32_t ").append(e.getKey()).append("(void) {\n    return ").append(e.getValue())
+                            .append(";\n}\n\n");
+                }
+            }
+            res.setId(resp.getId());
+            res.started();
+            try {
+                if (res.acceptOutput(DecompilationOutput.hll)) {
+                    res.consumeOutput("input.c", "text/plain",
+                            new ByteArrayInputStream(c.toString().getBytes(StandardCharsets.ISO_8859_1)));
+                }
+                res.finished();
+            } catch (IOException e) {
+                res.failed(e);
+            }
+        }
+    }
+
+    private final HllBackend backend = new HllBackend();
+    private File dir;
+    private FunctionStore store;
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = Files.createTempDirectory("deduplicating").toFile();
+        store = new FunctionStore(new File(dir, "store"));
+    }
+
+    @Override
+    protected void tearDown() {
+        delete(dir);
+    }
+
+    private static void delete(final File file) {
+        File[] children = file.listFiles();
+        if (null != children) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private DeduplicatingDecompilation.Report run(final BinDecompilationRequest request, final String[] output)
+            throws Exception {
+        MemorySink sink = new MemorySink();
+        DeduplicatingDecompilation.Report report = new DeduplicatingDecompilation(backend, store).run(request, sink);
+        String name = sink.getOutputs().keySet().iterator().next();
+        assertEquals("input.c", name);
+        output[0] = new String(sink.get(name), StandardCharsets.ISO_8859_1);
+        return report;
+    }
+
+    private DeduplicatingDecompilation.Report run(final ElfImage image, final String[] output) throws Exception {
+        return run(new BinDecompilationRequest(image.write(dir, "input")), output);
+    }
+
+    private static ElfImage library() {
+        return new ElfImage().function("lib", 0x31, 0xc0, 0xc3);
+    }
+
+    public void testStoreMissDecompilesAll() throws Exception {
+        backend.bodies.put("lib", "1");
+        backend.bodies.put("main", "2");
+        String[] output = new String[1];
+        DeduplicatingDecompilation.Report report = run(library().call("main", "lib"), output);
+        assertEquals(0, report.getReused());
+        assertEquals(2, report.getDecompiled());
+        assertEquals(0, report.getExcludedBytes());
+        assertEquals(1, backend.requests.size());
+        assertNull(backend.requests.get(0).getSelDecompFuncs());
+        assertTrue(output[0].contains("return 1;"));
+        assertEquals(4, new File(dir, "store").list().length);
+    }
+
+    public void testStoreHitNarrowsSelection() throws Exception {
+        backend.bodies.put("lib", "1");
+        backend.bodies.put("main", "2");
+        run(library().call("main", "lib"), new String[1]);
+
+        // the same code linked into another binary, the caller further from
+        // the library and under another name.
+        backend.bodies.clear();
+        backend.bodies.put("lib", "9");
+        backend.bodies.put("pad", "3");
+        backend.bodies.put("other", "9");
+        String[] output = new String[1];
+        DeduplicatingDecompilation.Report report = run(library().function("pad", 0x90).call("other", "lib"), output);
+        assertEquals(Arrays.asList("pad"), backend.requests.get(1).getSelDecompFuncs());
+        assertEquals(2, report.getReused());
+        assertEquals(1, report.getDecompiled());
+        assertEquals(9, report.getExcludedBytes());
+        assertTrue(output[0].contains("return 1;"));
+        assertTrue(output[0].contains("return 3;"));
+        assertFalse(output[0].contains("return 9;"));
+        assertTrue(output[0].contains("int32_t other(void) {\n    return 2;"));
+        assertTrue(output[0].contains("int32_t lib(void);"));
+    }
+
+    public void testAllStoredMakesNoRequest() throws Exception {
+        backend.bodies.put("lib", "1");
+        backend.bodies.put("main", "2");
+        String[] first = new String[1];
+        run(library().call("main", "lib"), first);
+        String[] second = new String[1];
+        DeduplicatingDecompilation.Report report = run(library().call("main", "lib"), second);
+        assertEquals(1, backend.requests.size());
+        assertEquals(2, report.getReused());
+        assertEquals(0, report.getDecompiled());
+        assertTrue(second[0].startsWith("//\n// Assembled from stored function definitions."));
+        assertTrue(second[0].contains("return 1;"));
+        assertTrue(second[0].contains("return 2;"));
+    }
+
+    public void testCorruptStoreEntryIsDecompiled() throws Exception {
+        backend.bodies.put("lib", "1");
+        run(library(), new String[1]);
+        File[] codes = new File(dir, "store").listFiles();
+        for (File f : codes) {
+            if (f.getName().endsWith(".code")) {
+                Files.write(f.toPath(), new byte[] { '3', '\n', 0x33, (byte) 0xc0, (byte) 0xc3 });
+            }
+        }
+        backend.bodies.put("lib", "4");
+        String[] output = new String[1];
+        DeduplicatingDecompilation.Report report = run(library(), output);
+        assertEquals(0, report.getReused());
+        assertEquals(2, backend.requests.size());
+        assertTrue(output[0].contains("return 4;"));
+    }
+
+    public void testSelectionByRangesSkipsStoredFunctions() throws Exception {
+        backend.bodies.put("lib", "1");
+        run(library(), new String[1]);
+
+        ElfImage image = library().function("main", 0x55, 0x5d, 0xc3);
+        BinDecompilationRequest request = new BinDecompilationRequest(image.write(dir, "input"));
+        request.setSelDecompRanges(Collections.singletonList(String.format("0x%x-0x%x",
+                ElfImage.TEXT_ADDRESS, image.address("main") + 2)));
+        backend.bodies.put("main", "2");
+        DeduplicatingDecompilation.Report report = run(request, new String[1]);
+        assertEquals(1, report.getReused());
+        assertEquals(Collections.singletonList(String.format("0x%x-0x%x", image.address("main"),
+                image.address("main") + 2)), backend.requests.get(1).getSelDecompRanges());
+    }
+}
@@ -0,0 +1,230 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.pipeline;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Builder of small 32-bit x86 ELF executables whose symbol table names the
+ * functions of the tests.
+ */
+final class ElfImage {
+    /**
+     * The address of the text section.
+     */
+    static final int TEXT_ADDRESS = 0x8048100;
+    /**
+     * The file offset of the text section.
+     */
+    private static final int TEXT_OFFSET = 0x100;
+
+    /**
+     * The code of the functions by name, in address order.
+     */
+    private final Map<String, byte[]> functions = new LinkedHashMap<String, byte[]>();
+
+    /**
+     * Add a function after the previous one.
+     * 
+     * @param name
+     *            the name.
+     * @param code
+     *            the bytes of the code.
+     * @return this.
+     */
+    ElfImage function(final String name, final int... code) {
+        byte[] b = new byte[code.length];
+        for (int i = 0; i < code.length; i++) {
+            b[i] = (byte) code[i];
+        }
+        functions.put(name, b);
+        return this;
+    }
+
+    /**
+     * Add a function after the previous one, made of a rel32 call of another
+     * function and a ret.
+     * 
+     * @param name
+     *            the name.
+     * @param callee
+     *            the called function, or a hex address.
+     * @return this.
+     */
+    ElfImage call(final String name, final String callee) {
+        functions.put(name, new byte[6]);
+        long target = functions.containsKey(callee) ? address(callee) : Long.parseLong(callee, 16);
+        int rel = (int) (target - (address(name) + 5));
+        return function(name, 0xe8, rel & 0xff, (rel >>> 8) & 0xff, (rel >>> 16) & 0xff, rel >>> 24, 0xc3);
+    }
+
+    /**
+     * Get the address of a function.
+     * 
+     * @param name
+     *            the name.
+     * @return the address.
+     */
+    long address(final String name) {
+        long address = TEXT_ADDRESS;
+        for (Map.Entry<String, byte[]> e : functions.entrySet()) {
+            if (e.getKey().equals(name)) {
+                return address;
+            }
+            address += e.getValue().length;
+        }
+        throw new IllegalArgumentException(name);
+    }
+
+    /**
+     * Build the executable.
+     * 
+     * @return the content.
+     */
+    byte[] build() {
+        int text = 0;
+        StringBuilder strtab = new StringBuilder("\0");
+        for (Map.Entry<String, byte[]> e : functions.entrySet()) {
+            text += e.getValue().length;
+            strtab.append(e.getKey()).append('\0');
+        }
+        byte[] names = strtab.toString().getBytes(StandardCharsets.ISO_8859_1);
+        byte[] shstrtab = "\0.text\0.symtab\0.strtab\0.shstrtab\0".getBytes(StandardCharsets.ISO_8859_1);
+        int symtab = align(TEXT_OFFSET + text);
+        int symtabSize = 16 * (1 + functions.size());
+        int strtabOffset = symtab + symtabSize;
+        int shstrtabOffset = strtabOffset + names.length;
+        int shoff = align(shstrtabOffset + shstrtab.length);
+        ByteBuffer b = ByteBuffer.allocate(shoff + 5 * 40).order(ByteOrder.LITTLE_ENDIAN);
+        b.put(new byte[] {0x7f, 'E', 'L', 'F', 1, 1, 1 });
+        b.putShort(16, (short) 2);
+        b.putShort(18, (short) 3);
+        b.putInt(20, 1);
+        b.putInt(24, TEXT_ADDRESS);
+        b.putInt(32, shoff);
+        b.putShort(40, (short) 52);
+        b.putShort(46, (short) 40);
+        b.putShort(48, (short) 5);
+        b.putShort(50, (short) 4);
+
+        int at = TEXT_OFFSET;
+        int name = 1;
+        int sym = symtab + 16;
+        for (Map.Entry<String, byte[]> e : functions.entrySet()) {
+            b.position(at);
+            b.put(e.getValue());
+            b.putInt(sym, name);
+            b.putInt(sym + 4, TEXT_ADDRESS + at - TEXT_OFFSET);
+            b.putInt(sym + 8, e.getValue().length);
+            b.put(sym + 12, (byte) 0x12);
+            b.putShort(sym + 14, (short) 1);
+            at += e.getValue().length;
+            name += e.getKey().length() + 1;
+            sym += 16;
+        }
+        b.position(strtabOffset);
+        b.put(names);
+        b.put(shstrtab);
+        section(b, shoff, 1, 1, 1, 6, TEXT_ADDRESS, TEXT_OFFSET, text, 0);
+        section(b, shoff, 2, 7, 2, 0, 0, symtab, symtabSize, 3);
+        section(b, shoff, 3, 15, 3, 0, 0, strtabOffset, names.length, 0);
+        section(b, shoff, 4, 23, 3, 0, 0, shstrtabOffset, shstrtab.length, 0);
+        return b.array();
+    }
+
+    /**
+     * Write the executable into a temporary file.
+     * 
+     * @param dir
+     *            the directory.
+     * @param fileName
+     *            the name of the file.
+     * @return the file.
+     * @throws IOException
+     *             if the file cannot be written.
+     */
+    File write(final File dir, final String fileName) throws IOException {
+        File file = new File(dir, fileName);
+        Files.write(file.toPath(), build());
+        return file;
+    }
+
+    /**
+     * Round up to the next multiple of 16.
+     * 
+     * @param offset
+     *            the offset.
+     * @return the aligned offset.
+     */
+    private static int align(final int offset) {
+        return (offset + 15) & ~15;
+    }
+
+    /**
+     * Write a section header.
+     * 
+     * @param b
+     *            the content.
+     * @param shoff
+     *            the offset of the section headers.
+     * @param index
+     *            the index of the section.
+     * @param name
+     *            the offset of the name in the section name table.
+     * @param type
+     *            the type.
+     * @param flags
+     *            the flags.
+     * @param addr
+     *            the address.
+     * @param offset
+     *            the file offset.
+     * @param size
+     *            the size.
+     * @param link
+     *            the linked section.
+     */
+    private static void section(final ByteBuffer b, final int shoff, final int index, final int name,
+            final int type, final int flags, final int addr, final int offset, final int size, final int link) {
+        int sh = shoff + index * 40;
+        b.putInt(sh, name);
+        b.putInt(sh + 4, type);
+        b.putInt(sh + 8, flags);
+        b.putInt(sh + 12, addr);
+        b.putInt(sh + 16, offset);
+        b.putInt(sh + 20, size);
+        b.putInt(sh + 24, link);
+        b.putInt(sh + 36, 2 == type ? 16 : 0);
+    }
+}
@@ -0,0 +1,191 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.pipeline;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import hu.keve.retdecjava.binding.AbstractDecompilationRequest;
+import hu.keve.retdecjava.binding.CDecompilationRequest;
+import hu.keve.retdecjava.binding.DecompilationResponse;
+import hu.keve.retdecjava.binding.DecompilationResult;
+import hu.keve.retdecjava.binding.Decompiler;
+import hu.keve.retdecjava.binding.DefaultDecompilationResult;
+import hu.keve.retdecjava.binding.ServiceException;
+import junit.framework.TestCase;
+
+/**
+ * Tests for routing decompilations across backends.
+ */
+public class EndpointGroupTest extends TestCase {
+
+    /**
+     * Backend numbering its jobs from 1, like independent nodes do, and
+     * recording the jobs it was asked for.
+     */
+    private static final class NodeDecompiler implements Decompiler {
+        private final String baseUrl;
+        private int failing;
+        private boolean jobless;
+        private int submitted;
+        private final List<String> synced = new ArrayList<String>();
+
+        NodeDecompiler(final String baseUrl) {
+            this.baseUrl = baseUrl;
+        }
+
+        @Override
+        public DecompilationResponse decompile(final AbstractDecompilationRequest request) throws ServiceException {
+            if (failing < 0) {
+                throw new ServiceException(422, "bad input");
+            }
+            if (failing > 0) {
+                throw new ServiceException(503, "unavailable");
+            }
+            if (jobless) {
+                // e.g. the page of a proxy mapped into an empty response.
+                return new DecompilationResponse();
+            }
+            return new DecompilationResponse(baseUrl, Integer.toString(++submitted));
+        }
+
+        @Override
+        public void decompileSync(final DecompilationResponse resp, final DecompilationResult res) {
+            synced.add(resp.getStatusUrl());
+        }
+    }
+
+    private final NodeDecompiler a = new NodeDecompiler("http://a/api");
+    private final NodeDecompiler b = new NodeDecompiler("http://b/api");
+    private final CDecompilationRequest request = new CDecompilationRequest(new File("x.c"));
+
+    private EndpointGroup group() {
+        Map<String, Decompiler> services = new LinkedHashMap<String, Decompiler>();
+        services.put(a.baseUrl, a);
+        services.put(b.baseUrl, b);
+        return new EndpointGroup(services);
+    }
+
+    public void testPollsStickToOwner() throws Exception {
+        EndpointGroup group = group();
+        DecompilationResponse first = group.decompile(request);
+        DecompilationResponse second = group.decompile(request);
+        // both nodes issue id 1, the busier one is avoided.
+        assertEquals("1", first.getId());
+        assertEquals("1", second.getId());
+        assertFalse(first.getStatusUrl().equals(second.getStatusUrl()));
+
+        group.decompileSync(second, new DefaultDecompilationResult());
+        group.decompileSync(first, new DefaultDecompilationResult());
+        assertEquals(1, a.synced.size());
+        assertEquals(1, b.synced.size());
+        assertTrue(a.synced.get(0).startsWith(a.baseUrl));
+        assertTrue(b.synced.get(0).startsWith(b.baseUrl));
+    }
+
+    public void testFailover() throws Exception {
+        EndpointGroup group = group();
+        a.failing = 1;
+        for (int i = 0; i < 3; i++) {
+            DecompilationResponse resp = group.decompile(request);
+            assertTrue(resp.getStatusUrl().startsWith(b.baseUrl));
+            group.decompileSync(resp, new DefaultDecompilationResult());
+        }
+        Map<String, EndpointGroup.EndpointStats> stats = group.getStats();
+        assertFalse(stats.get(a.baseUrl).isHealthy());
+        assertEquals(0, stats.get(a.baseUrl).getInFlight());
+        assertTrue(stats.get(b.baseUrl).isHealthy());
+        assertEquals(3, stats.get(b.baseUrl).getSubmitted());
+
+        b.failing = 1;
+        try {
+            group.decompile(request);
+            fail();
+        } catch (ServiceException e) {
+            assertEquals(503, e.getStatus());
+        }
+    }
+
+    public void testRejectedInputIsNotRetried() throws Exception {
+        EndpointGroup group = group();
+        a.failing = -1;
+        try {
+            group.decompile(request);
+            fail();
+        } catch (ServiceException e) {
+            assertEquals(422, e.getStatus());
+        }
+        assertEquals(0, b.submitted);
+        assertTrue(group.getStats().get(a.baseUrl).isHealthy());
+    }
+
+    public void testAnswerWithoutJobFailsOver() throws Exception {
+        EndpointGroup group = group();
+        a.jobless = true;
+        DecompilationResponse resp = group.decompile(request);
+        assertTrue(resp.getStatusUrl().startsWith(b.baseUrl));
+        Map<String, EndpointGroup.EndpointStats> stats = group.getStats();
+        assertEquals(1, stats.get(a.baseUrl).getFailures());
+        assertEquals(0, stats.get(a.baseUrl).getInFlight());
+        assertEquals(0, stats.get(a.baseUrl).getSubmitted());
+
+        b.jobless = true;
+        try {
+            group.decompile(request);
+            fail();
+        } catch (ServiceException e) {
+            assertEquals(502, e.getStatus());
+        }
+        group.decompileSync(resp, new DefaultDecompilationResult());
+        assertEquals(0, group.getStats().get(b.baseUrl).getInFlight());
+    }
+
+    public void testUnsyncedJobsAreForgotten() throws Exception {
+        EndpointGroup group = group();
+        b.failing = 1;
+        DecompilationResponse first = group.decompile(request);
+        for (int i = 0; i < EndpointGroup.MAX_OWNED; i++) {
+            group.decompile(request);
+        }
+        assertEquals(EndpointGroup.MAX_OWNED, group.getStats().get(a.baseUrl).getInFlight());
+
+        // a forgotten job is still found by its links.
+        group.decompileSync(first, new DefaultDecompilationResult());
+        assertEquals(EndpointGroup.MAX_OWNED, group.getStats().get(a.baseUrl).getInFlight());
+        assertEquals(1, a.synced.size());
+    }
+
+    public void testResumeByLinks() throws Exception {
+        EndpointGroup group = group();
+        group.decompileSync(new DecompilationResponse(b.baseUrl, "7"), new DefaultDecompilationResult());
+        assertEquals(0, a.synced.size());
+        assertEquals(1, b.synced.size());
+    }
+}
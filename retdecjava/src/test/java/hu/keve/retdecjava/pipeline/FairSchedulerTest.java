@@ -0,0 +1,149 @@
+package hu.keve.retdecjava.pipeline;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import hu.keve.retdecjava.binding.AbstractDecompilationRequest;
+import hu.keve.retdecjava.binding.CDecompilationRequest;
+import hu.keve.retdecjava.binding.DecompilationResponse;
+import hu.keve.retdecjava.binding.DecompilationResult;
+import hu.keve.retdecjava.binding.Decompiler;
+import hu.keve.retdecjava.binding.DefaultDecompilationResult;
+import junit.framework.TestCase;
+
+/**
+ * Tests for the weighted fair scheduler.
+ */
+public class FairSchedulerTest extends TestCase {
+
+    /**
+     * Backend recording the order of the inputs it decompiled, the first one
+     * blocking until released.
+     */
+    private static final class RecordingDecompiler implements Decompiler {
+        private final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public DecompilationResponse decompile(final AbstractDecompilationRequest request) {
+            DecompilationResponse resp = new DecompilationResponse();
+            resp.setId(request.getInput().getName());
+            return resp;
+        }
+
+        @Override
+        public void decompileSync(final DecompilationResponse resp, final DecompilationResult res) {
+            if (order.isEmpty()) {
+                order.add(resp.getId());
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    res.failed(e);
+                }
+            } else {
+                order.add(resp.getId());
+            }
+        }
+
+        void awaitStarted() throws InterruptedException {
+            while (order.isEmpty()) {
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    public void testInteractiveJobOvertakesBulkRun() throws Exception {
+        RecordingDecompiler backend = new RecordingDecompiler();
+        try (FairScheduler scheduler = new FairScheduler(backend, 1)) {
+            List<Future<DefaultDecompilationResult>> futures = new ArrayList<Future<DefaultDecompilationResult>>();
+            for (int i = 0; i < 5; i++) {
+                if (1 == i) {
+                    backend.awaitStarted();
+                }
+                futures.add(scheduler.submit("bulk", 0, new CDecompilationRequest(new File("bulk" + i)),
+                        new DefaultDecompilationResult()));
+            }
+            futures.add(scheduler.submit("interactive", 0, new CDecompilationRequest(new File("single")),
+                    new DefaultDecompilationResult()));
+            assertEquals(4, scheduler.getMetrics().get("bulk").getQueued());
+            backend.release.countDown();
+            for (Future<DefaultDecompilationResult> f : futures) {
+                f.get(10, TimeUnit.SECONDS);
+            }
+            assertEquals("bulk0", backend.order.get(0));
+            assertEquals("single", backend.order.get(1));
+            assertEquals(6, backend.order.size());
+        }
+    }
+
+    public void testPriorityAndShortestFirst() throws Exception {
+        RecordingDecompiler backend = new RecordingDecompiler();
+        File small = File.createTempFile("small", ".c");
+        File large = File.createTempFile("large", ".c");
+        try (FairScheduler scheduler = new FairScheduler(backend, 1)) {
+            Files.write(large.toPath(), new byte[1000]);
+            scheduler.configure("t", 1, true);
+            Future<?> first = scheduler.submit("t", 0, new CDecompilationRequest(new File("first")),
+                    new DefaultDecompilationResult());
+            backend.awaitStarted();
+            scheduler.submit("t", 0, new CDecompilationRequest(large), new DefaultDecompilationResult());
+            scheduler.submit("t", 0, new CDecompilationRequest(small), new DefaultDecompilationResult());
+            Future<?> last = scheduler.submit("t", 1, new CDecompilationRequest(new File("urgent")),
+                    new DefaultDecompilationResult());
+            backend.release.countDown();
+            first.get(10, TimeUnit.SECONDS);
+            last.get(10, TimeUnit.SECONDS);
+            while (backend.order.size() < 4) {
+                Thread.sleep(10);
+            }
+            assertEquals("urgent", backend.order.get(1));
+            assertEquals(small.getName(), backend.order.get(2));
+            assertEquals(large.getName(), backend.order.get(3));
+            assertEquals(4, scheduler.getMetrics().get("t").getCompleted());
+        } finally {
+            small.delete();
+            large.delete();
+        }
+    }
+
+    public void testCancelledJobsAreNotCharged() throws Exception {
+        RecordingDecompiler backend = new RecordingDecompiler();
+        try (FairScheduler scheduler = new FairScheduler(backend, 1)) {
+            scheduler.configure("a", 3, false);
+            Future<?> first = scheduler.submit("a", 0, new CDecompilationRequest(new File("a0")),
+                    new DefaultDecompilationResult());
+            backend.awaitStarted();
+            List<Future<DefaultDecompilationResult>> cancelled = new ArrayList<Future<DefaultDecompilationResult>>();
+            for (int i = 1; i <= 4; i++) {
+                cancelled.add(scheduler.submit("a", 0, new CDecompilationRequest(new File("a" + i)),
+                        new DefaultDecompilationResult()));
+            }
+            Future<?> live = scheduler.submit("a", 0, new CDecompilationRequest(new File("live")),
+                    new DefaultDecompilationResult());
+            scheduler.submit("b", 0, new CDecompilationRequest(new File("b1")), new DefaultDecompilationResult());
+            Future<?> last = scheduler.submit("b", 0, new CDecompilationRequest(new File("b2")),
+                    new DefaultDecompilationResult());
+            for (Future<DefaultDecompilationResult> f : cancelled) {
+                assertTrue(f.cancel(false));
+            }
+            assertEquals(1, scheduler.getMetrics().get("a").getQueued());
+            assertEquals(2, scheduler.getMetrics().get("b").getQueued());
+
+            backend.release.countDown();
+            first.get(10, TimeUnit.SECONDS);
+            live.get(10, TimeUnit.SECONDS);
+            last.get(10, TimeUnit.SECONDS);
+            // four charged strides of "a" would have put "live" after "b2".
+            assertEquals(Arrays.asList("a0", "b1", "live", "b2"), backend.order);
+            assertEquals(2, scheduler.getMetrics().get("a").getCompleted());
+            assertEquals(0, scheduler.getMetrics().get("a").getQueued());
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.pipeline;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import hu.keve.retdecjava.binding.Cancellation;
+import hu.keve.retdecjava.binding.DecompilationCancelledException;
+import hu.keve.retdecjava.binding.FileAnalyzer;
+import hu.keve.retdecjava.binding.FileInfo;
+import hu.keve.retdecjava.binding.FileInfoRequest;
+import hu.keve.retdecjava.binding.MappedFile;
+import junit.framework.TestCase;
+
+/**
+ * Tests for the file analysis cache, with an analyzer reporting the content of
+ * the input as its file format.
+ */
+public class FileInfoCacheTest extends TestCase {
+    /**
+     * Analyzer counting its calls, optionally held until released.
+     */
+    static final class CountingAnalyzer implements FileAnalyzer {
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch release;
+
+        CountingAnalyzer(final int holds) {
+            release = new CountDownLatch(holds);
+        }
+
+        @Override
+        public FileInfo fileInfo(final FileInfoRequest request, final Cancellation cancellation)
+                throws IOException, InterruptedException {
+            calls.incrementAndGet();
+            release.await();
+            byte[] b = new byte[(int) request.getMappedInput().getSize()];
+            request.getMappedInput().getBuffer().get(b);
+            String content = new String(b, StandardCharsets.US_ASCII);
+            return new FileInfo("File format : " + content + "\nVerbose : " + request.getVerbose() + "\n");
+        }
+    }
+
+    private File dir;
+    private final List<File> inputs = new ArrayList<File>();
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = Files.createTempDirectory("fileinfo").toFile();
+    }
+
+    @Override
+    protected void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+        for (File f : inputs) {
+            f.delete();
+        }
+    }
+
+    MappedFile input(final String content) throws IOException {
+        File f = File.createTempFile("input", ".bin");
+        inputs.add(f);
+        Files.write(f.toPath(), content.getBytes(StandardCharsets.US_ASCII));
+        return MappedFile.map(f);
+    }
+
+    public void testSingleFlight() throws Exception {
+        final CountingAnalyzer analyzer = new CountingAnalyzer(1);
+        final FileInfoCache cache = new FileInfoCache(analyzer, null);
+        final MappedFile a = input("ELF");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<FileInfo>> futures = new ArrayList<Future<FileInfo>>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(new Callable<FileInfo>() {
+                    @Override
+                    public FileInfo call() throws Exception {
+                        return cache.get(a, false);
+                    }
+                }));
+            }
+            long until = System.currentTimeMillis() + 5000;
+            while (0 == analyzer.calls.get() && System.currentTimeMillis() < until) {
+                Thread.sleep(5);
+            }
+            Thread.sleep(50);
+            analyzer.release.countDown();
+            for (Future<FileInfo> future : futures) {
+                assertEquals("ELF", future.get(5, TimeUnit.SECONDS).getFileFormat());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, analyzer.calls.get());
+        // a copy of the same content hits, verbose output is a different key.
+        assertEquals("ELF", cache.get(input("ELF"), false).getFileFormat());
+        assertEquals(1, analyzer.calls.get());
+        assertEquals("true", cache.get(a, true).get("Verbose"));
+        assertEquals(2, analyzer.calls.get());
+    }
+
+    public void testReusedFromDisk() throws Exception {
+        CountingAnalyzer analyzer = new CountingAnalyzer(0);
+        assertEquals("PE", new FileInfoCache(analyzer, dir).get(input("PE"), false).getFileFormat());
+        assertEquals(1, analyzer.calls.get());
+        assertEquals(1, dir.listFiles().length);
+        assertTrue(dir.listFiles()[0].getName().endsWith(".txt"));
+
+        CountingAnalyzer other = new CountingAnalyzer(0);
+        FileInfo info = new FileInfoCache(other, dir).get(input("PE"), false);
+        assertEquals("PE", info.getFileFormat());
+        assertEquals(0, other.calls.get());
+    }
+
+    public void testTimeoutNotCached() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        FileInfoCache cache = new FileInfoCache(new FileAnalyzer() {
+            @Override
+            public FileInfo fileInfo(final FileInfoRequest request, final Cancellation cancellation)
+                    throws InterruptedException {
+                if (1 == calls.incrementAndGet()) {
+                    cancellation.sleep(10000);
+                }
+                return new FileInfo("File format : PE\n");
+            }
+        }, dir, 50);
+        MappedFile a = input("PE");
+        try {
+            cache.get(a, false);
+            fail();
+        } catch (DecompilationCancelledException e) {
+            assertEquals(Cancellation.Outcome.TIMED_OUT, e.getOutcome());
+        }
+        assertEquals(0, dir.listFiles().length);
+        assertEquals("PE", cache.get(a, false).getFileFormat());
+        assertEquals(2, calls.get());
+    }
+}
@@ -0,0 +1,118 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.pipeline;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import hu.keve.retdecjava.binding.AbstractDecompilationRequest;
+import hu.keve.retdecjava.binding.BinDecompilationRequest;
+import hu.keve.retdecjava.binding.Cancellation;
+import hu.keve.retdecjava.binding.FileAnalyzer;
+import hu.keve.retdecjava.binding.FileInfo;
+import hu.keve.retdecjava.binding.FileInfoRequest;
+import hu.keve.retdecjava.binding.ServiceException;
+import junit.framework.TestCase;
+
+/**
+ * Tests for the pre-flight triage, with an analyzer returning canned fileinfo
+ * output by input content.
+ */
+public class FileInfoTriageTest extends TestCase {
+    private final List<File> inputs = new ArrayList<File>();
+    private FileInfoTriage triage;
+
+    @Override
+    protected void setUp() {
+        triage = new FileInfoTriage(new FileInfoCache(new FileAnalyzer() {
+            @Override
+            public FileInfo fileInfo(final FileInfoRequest request, final Cancellation cancellation)
+                    throws IOException, ServiceException {
+                byte[] b = new byte[(int) request.getMappedInput().getSize()];
+                request.getMappedInput().getBuffer().get(b);
+                String content = new String(b, StandardCharsets.US_ASCII);
+                if ("fail".equals(content)) {
+                    throw new ServiceException(422, "File analysis failed");
+                } else if ("upx".equals(content)) {
+                    return new FileInfo("File format : PE\nDetected tool : UPX (3.91) (packer)\n");
+                } else if ("junk".equals(content)) {
+                    return new FileInfo("File format : Unknown\n");
+                }
+                return new FileInfo("File format : ELF\nArchitecture : x86\n");
+            }
+        }, null), FileInfoTriage.SKIP_JUNK, 2);
+    }
+
+    @Override
+    protected void tearDown() {
+        for (File f : inputs) {
+            f.delete();
+        }
+    }
+
+    private AbstractDecompilationRequest request(final String content) throws IOException {
+        File f = File.createTempFile("input", ".bin");
+        inputs.add(f);
+        Files.write(f.toPath(), content.getBytes(StandardCharsets.US_ASCII));
+        return new BinDecompilationRequest(f);
+    }
+
+    public void testSkipJunk() throws Exception {
+        AbstractDecompilationRequest elf = request("elf");
+        FileInfoTriage.Decision decision = triage.triage(elf);
+        assertSame(elf, decision.getRouted());
+        assertEquals("x86", decision.getInfo().getArchitecture());
+        assertTrue(triage.triage(request("upx")).isSkipped());
+        assertTrue(triage.triage(request("junk")).isSkipped());
+    }
+
+    public void testFailedAnalysisSkipped() throws Exception {
+        FileInfoTriage.Decision decision = triage.triage(request("fail"));
+        assertTrue(decision.isSkipped());
+        assertNull(decision.getInfo());
+        assertTrue(decision.getException() instanceof ServiceException);
+    }
+
+    public void testTriageAllKeepsOrder() throws Exception {
+        List<AbstractDecompilationRequest> requests = Arrays.asList(request("elf"), request("junk"),
+                request("fail"), request("other"));
+        List<FileInfoTriage.Decision> decisions = triage.triageAll(requests);
+        assertEquals(4, decisions.size());
+        for (int i = 0; i < 4; i++) {
+            assertSame(requests.get(i), decisions.get(i).getRequest());
+        }
+        assertFalse(decisions.get(0).isSkipped());
+        assertTrue(decisions.get(1).isSkipped());
+        assertNotNull(decisions.get(2).getException());
+        assertFalse(decisions.get(3).isSkipped());
+    }
+}
@@ -0,0 +1,128 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.pipeline;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import hu.keve.retdecjava.analysis.FunctionTable;
+import junit.framework.TestCase;
+
+/**
+ * Tests for the store of function definitions shared across a corpus.
+ */
+public class FunctionStoreTest extends TestCase {
+    private static final String DEFINITION = "// Address range: 0x8048100 - 0x8048103\n"
+            + "// Line range:    10 - 12\n" + "int32_t lib(void) {\n    return lib != 0;\n}\n";
+
+    private File dir;
+    private FunctionStore store;
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = Files.createTempDirectory("functions").toFile();
+        store = new FunctionStore(new File(dir, "store"));
+    }
+
+    @Override
+    protected void tearDown() {
+        delete(dir);
+    }
+
+    private static void delete(final File file) {
+        File[] children = file.listFiles();
+        if (null != children) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static FunctionTable table(final ElfImage image) {
+        return FunctionTable.parse(ByteBuffer.wrap(image.build()));
+    }
+
+    public void testMiss() throws IOException {
+        FunctionTable table = table(new ElfImage().function("lib", 0x31, 0xc0, 0xc3));
+        assertFalse(store.contains(table.get("lib"), table));
+        assertNull(store.get(table.get("lib"), table));
+    }
+
+    public void testHitIsRenamedAndRelocated() throws IOException {
+        FunctionTable first = table(new ElfImage().function("lib", 0x31, 0xc0, 0xc3));
+        store.put(first.get("lib"), first, DEFINITION);
+
+        FunctionTable second = table(new ElfImage().function("pad", 0x90, 0x90).function("copy", 0x31, 0xc0, 0xc3));
+        assertTrue(store.contains(second.get("copy"), second));
+        assertEquals("// Address range: 0x8048102 - 0x8048105\nint32_t copy(void) {\n    return copy != 0;\n}\n",
+                store.get(second.get("copy"), second));
+    }
+
+    public void testHitIsVerified() throws IOException {
+        FunctionTable table = table(new ElfImage().function("lib", 0x31, 0xc0, 0xc3));
+        store.put(table.get("lib"), table, DEFINITION);
+        String key = FunctionStore.key(table.get("lib"), table);
+
+        // a colliding digest of other code is not a hit.
+        Files.write(new File(new File(dir, "store"), key + ".code").toPath(), new byte[] { '3', '\n', 0x33, (byte) 0xc0,
+                (byte) 0xc3 });
+        assertFalse(store.contains(table.get("lib"), table));
+        assertNull(store.get(table.get("lib"), table));
+
+        Files.delete(new File(new File(dir, "store"), key + ".code").toPath());
+        assertFalse(store.contains(table.get("lib"), table));
+    }
+
+    public void testResolvedTargetsAreMasked() throws IOException {
+        FunctionTable first = table(new ElfImage().function("lib", 0x31, 0xc0, 0xc3).call("caller", "lib"));
+        store.put(first.get("caller"), first, "int32_t caller(void) {\n    return lib();\n}\n");
+
+        // the same call from a different distance.
+        FunctionTable moved = table(new ElfImage().function("lib", 0x31, 0xc0, 0xc3).function("pad", 0x90)
+                .call("caller", "lib"));
+        assertFalse(first.get("caller").getBytes().equals(moved.get("caller").getBytes()));
+        assertTrue(store.contains(moved.get("caller"), moved));
+
+        // the same distance to a function of another name.
+        FunctionTable renamed = table(new ElfImage().function("other", 0x31, 0xc0, 0xc3).call("caller", "other"));
+        assertFalse(store.contains(renamed.get("caller"), renamed));
+    }
+
+    public void testUnresolvedTargetsAreKept() throws IOException {
+        FunctionTable first = table(new ElfImage().function("lib", 0x31, 0xc0, 0xc3).call("caller", "8049000"));
+        store.put(first.get("caller"), first, "int32_t caller(void) {\n    return 0;\n}\n");
+        assertTrue(store.contains(first.get("caller"), first));
+
+        FunctionTable other = table(new ElfImage().function("lib", 0x31, 0xc0, 0xc3).call("caller", "8049010"));
+        assertFalse(store.contains(other.get("caller"), other));
+        assertFalse(FunctionStore.key(first.get("caller"), first).equals(
+                FunctionStore.key(other.get("caller"), other)));
+    }
+}
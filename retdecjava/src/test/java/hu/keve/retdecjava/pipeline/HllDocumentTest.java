@@ -0,0 +1,42 @@
+package hu.keve.retdecjava.pipeline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for splicing function definitions into hll outputs.
+ */
+public class HllDocumentTest extends TestCase {
+    private static final String V1 = "#include <stdint.h>\n\n"
+            + "int32_t f(int32_t a1);\n\n"
+            + "// ------------------------ Functions -------------------------\n\n"
+            + "// Address range: 0x1000 - 0x1010\nint32_t f(int32_t a1) {\n    return a1;\n}\n\n"
+            + "// Address range: 0x1010 - 0x1020\nint main(int argc, char ** argv) {\n    return f(1);\n}\n\n"
+            + "// --------------------- Meta-Information ---------------------\n";
+
+    public void testParse() {
+        HllDocument doc = HllDocument.parse(V1);
+        assertEquals(Arrays.asList("f", "main"), new ArrayList<String>(doc.getFunctionNames()));
+        assertEquals("// Address range: 0x1000 - 0x1010\nint32_t f(int32_t a1) {\n    return a1;\n}\n",
+                doc.getFunction("f"));
+        assertEquals(V1, doc.toString());
+    }
+
+    public void testSplice() {
+        HllDocument doc = HllDocument.parse(V1);
+        HllDocument update = HllDocument.parse("#include <stdint.h>\n\nint32_t g(void);\n\n"
+                + "int32_t g(void) {\n    return 2;\n}\n");
+        doc.putFunction("g", update.getFunction("g"));
+        doc.addDeclarations(update);
+        doc.putFunction("main", "int main(int argc, char ** argv) {\n    return g();\n}\n");
+        doc.removeFunction("f");
+        assertEquals("#include <stdint.h>\n\n"
+                + "int32_t f(int32_t a1);\nint32_t g(void);\n\n"
+                + "// ------------------------ Functions -------------------------\n\n"
+                + "int main(int argc, char ** argv) {\n    return g();\n}\n\n"
+                + "int32_t g(void) {\n    return 2;\n}\n\n"
+                + "// --------------------- Meta-Information ---------------------\n", doc.toString());
+    }
+}
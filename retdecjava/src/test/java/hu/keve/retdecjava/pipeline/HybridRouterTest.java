@@ -0,0 +1,253 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.pipeline;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import hu.keve.retdecjava.binding.AbstractDecompilationRequest;
+import hu.keve.retdecjava.binding.CDecompilationRequest;
+import hu.keve.retdecjava.binding.DecompilationResponse;
+import hu.keve.retdecjava.binding.DecompilationResult;
+import hu.keve.retdecjava.binding.Decompiler;
+import hu.keve.retdecjava.binding.DefaultDecompilationResult;
+import hu.keve.retdecjava.binding.ServiceException;
+import hu.keve.retdecjava.pipeline.HybridRouter.Reason;
+import hu.keve.retdecjava.pipeline.HybridRouter.Side;
+import junit.framework.TestCase;
+
+/**
+ * Tests for routing decompilations between local and remote execution.
+ */
+public class HybridRouterTest extends TestCase {
+
+    /**
+     * Backend issuing ids prefixed with its name, with links if it has a base
+     * URL.
+     */
+    private static final class NamedDecompiler implements Decompiler {
+        private final String name;
+        private String baseUrl;
+        private boolean failing;
+        private long delayMillis;
+        private int submitted;
+        private final List<String> synced = new ArrayList<String>();
+
+        NamedDecompiler(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        public DecompilationResponse decompile(final AbstractDecompilationRequest request) throws ServiceException {
+            if (failing) {
+                throw new ServiceException(503, "busy");
+            }
+            synchronized (this) {
+                String id = name + submitted++;
+                if (null != baseUrl) {
+                    return new DecompilationResponse(baseUrl, id);
+                }
+                DecompilationResponse resp = new DecompilationResponse();
+                resp.setId(id);
+                return resp;
+            }
+        }
+
+        @Override
+        public void decompileSync(final DecompilationResponse resp, final DecompilationResult res) {
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                res.failed(e);
+            }
+            synced.add(null == resp.getLinks() ? resp.getId() : resp.getStatusUrl());
+        }
+    }
+
+    private final NamedDecompiler local = new NamedDecompiler("local");
+    private final NamedDecompiler remote = new NamedDecompiler("remote");
+    private File dir;
+    private HybridRouter router;
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = File.createTempFile("hybrid", "");
+        dir.delete();
+        dir.mkdir();
+        router = new HybridRouter(local, remote);
+        router.setSmallInputSize(100);
+        router.setLocalSizeLimit(500);
+        router.setMaxLocalJobs(1);
+        router.setMaxLoad(Double.MAX_VALUE);
+    }
+
+    @Override
+    protected void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private CDecompilationRequest request(final int size) throws IOException {
+        File f = new File(dir, size + ".c");
+        try (OutputStream out = new FileOutputStream(f)) {
+            out.write(new byte[size]);
+        }
+        return new CDecompilationRequest(f);
+    }
+
+    private String run(final int size) throws Exception {
+        DecompilationResponse resp = router.decompile(request(size));
+        router.decompileSync(resp, new DefaultDecompilationResult());
+        return resp.getId();
+    }
+
+    public void testBySize() throws Exception {
+        assertEquals("local0", run(10));
+        assertEquals("remote0", run(1000));
+        assertEquals("remote1", run(200));
+        HybridRouter.RouterMetrics metrics = router.getMetrics();
+        assertEquals(Long.valueOf(1), metrics.getDecisions().get(Reason.SMALL_INPUT));
+        assertEquals(Long.valueOf(1), metrics.getDecisions().get(Reason.LARGE_INPUT));
+        assertEquals(Long.valueOf(1), metrics.getDecisions().get(Reason.REMOTE_FAST));
+        assertEquals(Integer.valueOf(0), metrics.getInFlight().get(Side.LOCAL));
+    }
+
+    public void testLocalBusy() throws Exception {
+        DecompilationResponse first = router.decompile(request(10));
+        assertEquals("local0", first.getId());
+        assertEquals("remote0", run(10));
+        router.decompileSync(first, new DefaultDecompilationResult());
+        assertEquals(Long.valueOf(1), router.getMetrics().getDecisions().get(Reason.LOCAL_BUSY));
+        assertEquals("local1", run(10));
+    }
+
+    public void testRemoteSlowAndFailing() throws Exception {
+        remote.delayMillis = 20;
+        router.setRemoteLatencyLimit(10);
+        assertEquals("remote0", run(200));
+        assertTrue(router.getMetrics().getRemoteLatencyMillis() >= 20);
+        assertTrue(router.getMetrics().getP50Millis().get(Side.REMOTE) >= 20);
+        assertEquals("local0", run(200));
+        assertEquals(Long.valueOf(1), router.getMetrics().getDecisions().get(Reason.REMOTE_SLOW));
+
+        remote.failing = true;
+        router.setRemoteLatencyLimit(Long.MAX_VALUE);
+        assertEquals("local1", run(200));
+        assertEquals(Long.valueOf(1), router.getMetrics().getDecisions().get(Reason.REMOTE_FAILED));
+        try {
+            run(1000);
+            fail();
+        } catch (ServiceException e) {
+            assertEquals(503, e.getStatus());
+        }
+    }
+
+    public void testFallbackKeepsLocalLimits() throws Exception {
+        remote.failing = true;
+        DecompilationResponse first = router.decompile(request(10));
+        assertEquals("local0", first.getId());
+        try {
+            run(200);
+            fail("the local process is taken");
+        } catch (ServiceException e) {
+            assertEquals(503, e.getStatus());
+        }
+        router.decompileSync(first, new DefaultDecompilationResult());
+
+        router.setMaxLoad(-10);
+        try {
+            run(200);
+            fail("the local CPUs are loaded");
+        } catch (ServiceException e) {
+            assertEquals(503, e.getStatus());
+        }
+        HybridRouter.RouterMetrics metrics = router.getMetrics();
+        assertEquals(Long.valueOf(0), metrics.getDecisions().get(Reason.REMOTE_FAILED));
+        assertEquals(Integer.valueOf(0), metrics.getInFlight().get(Side.LOCAL));
+        assertEquals(Integer.valueOf(0), metrics.getInFlight().get(Side.REMOTE));
+        assertEquals(1, local.submitted);
+    }
+
+    public void testConcurrentSubmissionsShareTheLocalSlot() throws Exception {
+        final CountDownLatch go = new CountDownLatch(1);
+        final CDecompilationRequest small = request(10);
+        final List<String> ids = Collections.synchronizedList(new ArrayList<String>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            Thread t = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        go.await();
+                        ids.add(router.decompile(small).getId());
+                    } catch (Exception e) {
+                        ids.add(e.toString());
+                    }
+                }
+            };
+            t.start();
+            threads.add(t);
+        }
+        go.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(8, ids.size());
+        assertEquals(1, local.submitted);
+        assertEquals(7, remote.submitted);
+        assertEquals(Integer.valueOf(1), router.getMetrics().getInFlight().get(Side.LOCAL));
+        assertEquals(Long.valueOf(7), router.getMetrics().getDecisions().get(Reason.LOCAL_BUSY));
+    }
+
+    public void testSameIdOnBothSides() throws Exception {
+        NamedDecompiler near = new NamedDecompiler("job");
+        NamedDecompiler far = new NamedDecompiler("job");
+        far.baseUrl = "http://far/api";
+        router = new HybridRouter(near, far);
+        router.setSmallInputSize(100);
+        router.setLocalSizeLimit(500);
+        router.setMaxLoad(Double.MAX_VALUE);
+        DecompilationResponse here = router.decompile(request(10));
+        DecompilationResponse there = router.decompile(request(1000));
+        assertEquals(here.getId(), there.getId());
+
+        router.decompileSync(there, new DefaultDecompilationResult());
+        router.decompileSync(here, new DefaultDecompilationResult());
+        assertEquals(Collections.singletonList("job0"), near.synced);
+        assertEquals(Collections.singletonList(there.getStatusUrl()), far.synced);
+        assertEquals(Integer.valueOf(0), router.getMetrics().getInFlight().get(Side.LOCAL));
+        assertEquals(Integer.valueOf(0), router.getMetrics().getInFlight().get(Side.REMOTE));
+    }
+}
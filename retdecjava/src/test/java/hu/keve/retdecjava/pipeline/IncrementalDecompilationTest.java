@@ -0,0 +1,227 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.pipeline;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import hu.keve.retdecjava.binding.AbstractDecompilationRequest;
+import hu.keve.retdecjava.binding.BinDecompilationRequest;
+import hu.keve.retdecjava.binding.DecompilationResponse;
+import hu.keve.retdecjava.binding.DecompilationResult;
+import hu.keve.retdecjava.binding.DecompilationResult.DecompilationOutput;
+import hu.keve.retdecjava.binding.Decompiler;
+import hu.keve.retdecjava.sink.MemorySink;
+import junit.framework.TestCase;
+
+/**
+ * Tests for reusing the output of the previous version of a binary.
+ */
+public class IncrementalDecompilationTest extends TestCase {
+
+    /**
+     * Backend emitting a definition returning a configured value for each
+     * function it is asked for, recording the selections.
+     */
+    private static final class HllBackend implements Decompiler {
+        private final Map<String, String> bodies = new LinkedHashMap<String, String>();
+        private final Set<String> missing = new HashSet<String>();
+        private final List<List<String>> selections = new ArrayList<List<String>>();
+
+        @Override
+        public DecompilationResponse decompile(final AbstractDecompilationRequest request) {
+            List<String> selection = ((BinDecompilationRequest) request).getSelDecompFuncs();
+            selections.add(null == selection ? null : new ArrayList<String>(selection));
+            DecompilationResponse resp = new DecompilationResponse();
+            resp.setId("job" + selections.size());
+            return resp;
+        }
+
+        @Override
+        public void decompileSync(final DecompilationResponse resp, final DecompilationResult res) {
+            List<String> selection = selections.get(selections.size() - 1);
+            StringBuilder c = new StringBuilder("#include <stdint.h>\n\n");
+            for (Map.Entry<String, String> e : bodies.entrySet()) {
+                if ((null == selection || selection.contains(e.getKey())) && !missing.contains(e.getKey())) {
+                    c.append("int32_t ").append(e.getKey()).append("(void) {\n    return ").append(e.getValue())
+                            .append(";\n}\n\n");
+                }
+            }
+            res.setId(resp.getId());
+            res.started();
+            try {
+                if (res.acceptOutput(DecompilationOutput.hll)) {
+                    res.consumeOutput("input.c", "text/plain",
+                            new ByteArrayInputStream(c.toString().getBytes(StandardCharsets.ISO_8859_1)));
+                }
+                res.finished();
+            } catch (IOException e) {
+                res.failed(e);
+            }
+        }
+    }
+
+    private final HllBackend backend = new HllBackend();
+    private File dir;
+    private File store;
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = Files.createTempDirectory("incremental").toFile();
+        store = new File(dir, "store");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        delete(dir);
+    }
+
+    private static void delete(final File file) {
+        File[] children = file.listFiles();
+        if (null != children) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static ElfImage version(final int gOpcode) {
+        return new ElfImage().function("f", 0x55, 0x5d, 0xc3).function("g", gOpcode, 0xc0, 0xc3);
+    }
+
+    private IncrementalDecompilation.Report run(final ElfImage image, final String[] output) throws Exception {
+        BinDecompilationRequest request = new BinDecompilationRequest(image.write(dir, "input"));
+        MemorySink sink = new MemorySink();
+        IncrementalDecompilation.Report report = new IncrementalDecompilation(backend, store).run(request, "product",
+                sink);
+        output[0] = new String(sink.get("input.c"), StandardCharsets.ISO_8859_1);
+        return report;
+    }
+
+    public void testFirstRunDecompilesAll() throws Exception {
+        backend.bodies.put("f", "1");
+        backend.bodies.put("g", "2");
+        String[] output = new String[1];
+        IncrementalDecompilation.Report report = run(version(0x31), output);
+        assertTrue(report.isFull());
+        assertEquals(Arrays.asList("f", "g"), report.getDecompiled());
+        assertEquals(Collections.singletonList((List<String>) null), backend.selections);
+        assertTrue(output[0].contains("return 1;"));
+        assertTrue(output[0].contains("return 2;"));
+        assertTrue(new File(store, "product.hll").isFile());
+        assertTrue(new File(store, "product.functions").isFile());
+    }
+
+    public void testUnchangedInputMakesNoRequest() throws Exception {
+        backend.bodies.put("f", "1");
+        backend.bodies.put("g", "2");
+        String[] first = new String[1];
+        run(version(0x31), first);
+        String[] second = new String[1];
+        IncrementalDecompilation.Report report = run(version(0x31), second);
+        assertFalse(report.isFull());
+        assertEquals(2, report.getUnchanged());
+        assertTrue(report.getDecompiled().isEmpty());
+        assertEquals(1, backend.selections.size());
+        assertEquals(first[0], second[0]);
+    }
+
+    public void testChangedFunctionIsMerged() throws Exception {
+        backend.bodies.put("f", "1");
+        backend.bodies.put("g", "2");
+        run(version(0x31), new String[1]);
+        backend.bodies.put("g", "3");
+        String[] output = new String[1];
+        IncrementalDecompilation.Report report = run(version(0x33), output);
+        assertEquals(1, report.getUnchanged());
+        assertEquals(Arrays.asList("g"), report.getDecompiled());
+        assertEquals(Arrays.asList("g"), backend.selections.get(1));
+        assertTrue(output[0].contains("return 1;"));
+        assertTrue(output[0].contains("return 3;"));
+        assertFalse(output[0].contains("return 2;"));
+    }
+
+    public void testRemovedFunction() throws Exception {
+        backend.bodies.put("f", "1");
+        backend.bodies.put("g", "2");
+        run(version(0x31), new String[1]);
+        String[] output = new String[1];
+        IncrementalDecompilation.Report report = run(new ElfImage().function("f", 0x55, 0x5d, 0xc3), output);
+        assertEquals(Arrays.asList("g"), report.getRemoved());
+        assertEquals(1, backend.selections.size());
+        assertTrue(output[0].contains("return 1;"));
+        assertFalse(output[0].contains("g(void) {"));
+    }
+
+    public void testFunctionMissingFromSelectiveOutput() throws Exception {
+        backend.bodies.put("f", "1");
+        backend.bodies.put("g", "2");
+        run(version(0x31), new String[1]);
+        backend.bodies.put("g", "3");
+        backend.missing.add("g");
+        String[] output = new String[1];
+        IncrementalDecompilation.Report report = run(version(0x33), output);
+        assertTrue(report.getDecompiled().isEmpty());
+        assertEquals(Arrays.asList("g"), report.getNotUpdated());
+        assertTrue(report.toString().contains("1 not updated"));
+        assertTrue(output[0].contains("return 2;"));
+
+        // the old hash was kept, so the next run asks for it again.
+        backend.missing.clear();
+        report = run(version(0x33), output);
+        assertEquals(3, backend.selections.size());
+        assertEquals(Arrays.asList("g"), backend.selections.get(2));
+        assertEquals(Arrays.asList("g"), report.getDecompiled());
+        assertTrue(output[0].contains("return 3;"));
+    }
+
+    public void testBaselineNameStaysInStore() throws Exception {
+        for (String baseline : Arrays.asList("../escape", "a/b", "a\\b", "..", "")) {
+            try {
+                new IncrementalDecompilation(backend, store).run(
+                        new BinDecompilationRequest(version(0x31).write(dir, "input")), baseline, new MemorySink());
+                fail(baseline);
+            } catch (IllegalArgumentException e) {
+                // expected.
+            }
+        }
+        assertTrue(backend.selections.isEmpty());
+        assertFalse(new File(dir, "escape.hll").exists());
+    }
+}
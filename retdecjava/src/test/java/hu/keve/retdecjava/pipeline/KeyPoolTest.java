@@ -0,0 +1,132 @@
+package hu.keve.retdecjava.pipeline;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import hu.keve.retdecjava.binding.AbstractDecompilationRequest;
+import hu.keve.retdecjava.binding.CDecompilationRequest;
+import hu.keve.retdecjava.binding.DecompilationResponse;
+import hu.keve.retdecjava.binding.DecompilationResult;
+import hu.keve.retdecjava.binding.Decompiler;
+import hu.keve.retdecjava.binding.DefaultDecompilationResult;
+import hu.keve.retdecjava.binding.ServiceException;
+import junit.framework.TestCase;
+
+/**
+ * Tests for spreading decompilations over API keys.
+ */
+public class KeyPoolTest extends TestCase {
+
+    /**
+     * Backend issuing ids prefixed with its name and recording the jobs it
+     * was asked for.
+     */
+    private static final class NamedDecompiler implements Decompiler {
+        private final String name;
+        private int rejecting;
+        private int submitted;
+        private final List<String> synced = new ArrayList<String>();
+
+        NamedDecompiler(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        public DecompilationResponse decompile(final AbstractDecompilationRequest request) throws ServiceException {
+            if (0 != rejecting) {
+                throw new ServiceException(rejecting, "rejected");
+            }
+            DecompilationResponse resp = new DecompilationResponse();
+            resp.setId(name + submitted++);
+            return resp;
+        }
+
+        @Override
+        public void decompileSync(final DecompilationResponse resp, final DecompilationResult res) {
+            synced.add(resp.getId());
+        }
+    }
+
+    private final NamedDecompiler a = new NamedDecompiler("a");
+    private final NamedDecompiler b = new NamedDecompiler("b");
+    private final CDecompilationRequest request = new CDecompilationRequest(new File("x.c"));
+
+    private KeyPool pool() {
+        Map<String, Decompiler> services = new LinkedHashMap<String, Decompiler>();
+        services.put("keyA1234", a);
+        services.put("keyB1234", b);
+        return new KeyPool(services);
+    }
+
+    public void testSpreadsAndSticks() throws Exception {
+        KeyPool pool = pool();
+        List<DecompilationResponse> responses = new ArrayList<DecompilationResponse>();
+        for (int i = 0; i < 4; i++) {
+            responses.add(pool.decompile(request));
+        }
+        assertEquals(2, a.submitted);
+        assertEquals(2, b.submitted);
+        for (DecompilationResponse resp : responses) {
+            pool.decompileSync(resp, new DefaultDecompilationResult());
+        }
+        for (String id : a.synced) {
+            assertTrue(id.startsWith("a"));
+        }
+        assertEquals(2, b.synced.size());
+        assertEquals(0, pool.getStats().get("keyA...").getInFlight());
+    }
+
+    public void testBudgetAndFailover() throws Exception {
+        KeyPool pool = pool();
+        pool.setBudget("keyA1234", 1);
+        b.rejecting = 429;
+        assertTrue(pool.decompile(request).getId().startsWith("a"));
+        try {
+            pool.decompile(request);
+            fail("no budget left on a and b rejects");
+        } catch (ServiceException e) {
+            assertEquals(429, e.getStatus());
+        }
+        assertEquals(2, pool.getStats().get("keyB...").getErrors());
+        assertEquals(0L, pool.getStats().get("keyA...").getBudget());
+    }
+
+    public void testRequestErrorIsNotRetried() throws Exception {
+        KeyPool pool = pool();
+        a.rejecting = 400;
+        b.rejecting = 400;
+        try {
+            pool.decompile(request);
+            fail("bad request");
+        } catch (ServiceException e) {
+            assertEquals(400, e.getStatus());
+        }
+        long errors = 0;
+        for (KeyPool.KeyStats stats : pool.getStats().values()) {
+            errors += stats.getErrors();
+            assertEquals(0, stats.getInFlight());
+        }
+        assertEquals(0, errors);
+
+        b.rejecting = 503;
+        a.rejecting = 0;
+        for (int i = 0; i < 3; i++) {
+            assertTrue(pool.decompile(request).getId().startsWith("a"));
+        }
+    }
+
+    public void testUnsyncedJobsAreForgotten() throws Exception {
+        KeyPool pool = pool();
+        b.rejecting = 429;
+        DecompilationResponse first = pool.decompile(request);
+        for (int i = 0; i < KeyPool.MAX_OWNED; i++) {
+            pool.decompile(request);
+        }
+        assertEquals(KeyPool.MAX_OWNED, pool.getStats().get("keyA...").getInFlight());
+        pool.decompileSync(first, new DefaultDecompilationResult());
+        assertEquals(KeyPool.MAX_OWNED, pool.getStats().get("keyA...").getInFlight());
+    }
+}
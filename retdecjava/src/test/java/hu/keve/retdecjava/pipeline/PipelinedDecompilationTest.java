@@ -0,0 +1,289 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.pipeline;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import hu.keve.retdecjava.binding.AbstractDecompilationRequest;
+import hu.keve.retdecjava.binding.CDecompilationRequest;
+import hu.keve.retdecjava.binding.DecompilationCancelledException;
+import hu.keve.retdecjava.binding.DecompilationPoll;
+import hu.keve.retdecjava.binding.DecompilationResponse;
+import hu.keve.retdecjava.binding.DecompilationResult;
+import hu.keve.retdecjava.binding.Decompiler;
+import hu.keve.retdecjava.binding.DefaultDecompilationResult;
+import hu.keve.retdecjava.binding.DefaultDecompilationResult.State;
+import hu.keve.retdecjava.binding.PollingDecompiler;
+import hu.keve.retdecjava.pipeline.PipelinedDecompilation.Stage;
+import hu.keve.retdecjava.pipeline.PipelinedDecompilation.StageMetrics;
+import junit.framework.TestCase;
+
+/**
+ * Tests for the pipeline of upload, poll and download stages.
+ */
+public class PipelinedDecompilationTest extends TestCase {
+
+    /**
+     * Backend recording the steps by input name. Inputs named "slowup..."
+     * block the upload and "slowdown..." the download until released;
+     * "running..." never finish.
+     */
+    private static final class StagedBackend implements PollingDecompiler {
+        private final List<String> uploaded = Collections.synchronizedList(new ArrayList<String>());
+        private final List<String> polled = Collections.synchronizedList(new ArrayList<String>());
+        private final List<String> abandoned = Collections.synchronizedList(new ArrayList<String>());
+        private final List<String> fetching = Collections.synchronizedList(new ArrayList<String>());
+        private final List<String> fetched = Collections.synchronizedList(new ArrayList<String>());
+        private final CountDownLatch uploadRelease = new CountDownLatch(1);
+        private final CountDownLatch fetchRelease = new CountDownLatch(1);
+
+        @Override
+        public DecompilationResponse decompile(final AbstractDecompilationRequest request) {
+            String name = request.getInput().getName();
+            uploaded.add(name);
+            if (name.startsWith("slowup")) {
+                await(uploadRelease);
+            }
+            DecompilationResponse resp = new DecompilationResponse();
+            resp.setId(name);
+            return resp;
+        }
+
+        @Override
+        public void decompileSync(final DecompilationResponse resp, final DecompilationResult res) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public DecompilationPoll startPoll(final DecompilationResponse resp, final DecompilationResult res) {
+            final String name = resp.getId();
+            res.setId(name);
+            res.started();
+            return new DecompilationPoll() {
+                @Override
+                public boolean poll() {
+                    polled.add(name);
+                    return !name.startsWith("running");
+                }
+
+                @Override
+                public long nextDelay() {
+                    return 60000;
+                }
+
+                @Override
+                public void abandon() {
+                    abandoned.add(name);
+                }
+
+                @Override
+                public void fetchOutputs() {
+                    fetching.add(name);
+                    if (name.startsWith("slowdown")) {
+                        await(fetchRelease);
+                    }
+                    fetched.add(name);
+                    res.finished();
+                }
+            };
+        }
+
+        private static void await(final CountDownLatch latch) {
+            try {
+                latch.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static CDecompilationRequest request(final String name) {
+        return new CDecompilationRequest(new File(name));
+    }
+
+    private static void waitFor(final List<String> list, final String name) throws InterruptedException {
+        for (int i = 0; i < 1000 && !list.contains(name); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(name, list.contains(name));
+    }
+
+    private static void waitForJobs(final PipelinedDecompilation pipeline, final Stage stage, final int jobs)
+            throws InterruptedException {
+        for (int i = 0; i < 1000 && jobs != pipeline.getMetrics().get(stage).getJobs(); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(jobs, pipeline.getMetrics().get(stage).getJobs());
+    }
+
+    public void testFullUploadStageBlocksSubmitter() throws Exception {
+        StagedBackend backend = new StagedBackend();
+        try (final PipelinedDecompilation pipeline = new PipelinedDecompilation(backend, 1, 1, 1, 1)) {
+            final List<Future<DefaultDecompilationResult>> futures = Collections
+                    .synchronizedList(new ArrayList<Future<DefaultDecompilationResult>>());
+            futures.add(pipeline.submit(request("slowup0"), new DefaultDecompilationResult()));
+            waitFor(backend.uploaded, "slowup0");
+            futures.add(pipeline.submit(request("a1"), new DefaultDecompilationResult()));
+            Thread submitter = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        futures.add(pipeline.submit(request("a2"), new DefaultDecompilationResult()));
+                    } catch (InterruptedException e) {
+                        // the test fails on the missing future.
+                    }
+                }
+            });
+            submitter.start();
+            Thread.sleep(200);
+            assertTrue(submitter.isAlive());
+            assertEquals(1, pipeline.getMetrics().get(Stage.UPLOAD).getJobs());
+
+            backend.uploadRelease.countDown();
+            submitter.join(10000);
+            assertEquals(3, futures.size());
+            for (Future<DefaultDecompilationResult> f : futures) {
+                assertEquals(State.DONE, f.get(10, TimeUnit.SECONDS).getState());
+            }
+            assertTrue(pipeline.getMetrics().get(Stage.UPLOAD).getBlockedMillis() >= 150);
+        }
+    }
+
+    public void testStageMetrics() throws Exception {
+        StagedBackend backend = new StagedBackend();
+        try (PipelinedDecompilation pipeline = new PipelinedDecompilation(backend, 2, 1, 2, 2)) {
+            List<Future<DefaultDecompilationResult>> futures = new ArrayList<Future<DefaultDecompilationResult>>();
+            for (int i = 0; i < 5; i++) {
+                futures.add(pipeline.submit(request("job" + i), new DefaultDecompilationResult()));
+            }
+            for (Future<DefaultDecompilationResult> f : futures) {
+                assertEquals(State.DONE, f.get(10, TimeUnit.SECONDS).getState());
+            }
+            Map<Stage, StageMetrics> metrics = pipeline.getMetrics();
+            assertEquals(2, metrics.get(Stage.UPLOAD).getThreads());
+            assertEquals(2, metrics.get(Stage.DOWNLOAD).getCapacity());
+            for (Stage stage : Stage.values()) {
+                StageMetrics m = metrics.get(stage);
+                assertEquals(stage.toString(), 5, m.getCompleted());
+                assertEquals(stage.toString(), 0, m.getJobs());
+                assertTrue(m.getUtilization() >= 0 && m.getUtilization() <= 1);
+            }
+            assertEquals(5, backend.fetched.size());
+        }
+    }
+
+    public void testCancelWhileWaitingForUpload() throws Exception {
+        StagedBackend backend = new StagedBackend();
+        try (PipelinedDecompilation pipeline = new PipelinedDecompilation(backend, 1, 1, 1, 1)) {
+            Future<DefaultDecompilationResult> first = pipeline.submit(request("slowup0"),
+                    new DefaultDecompilationResult());
+            waitFor(backend.uploaded, "slowup0");
+            DefaultDecompilationResult res = new DefaultDecompilationResult();
+            Future<DefaultDecompilationResult> queued = pipeline.submit(request("q1"), res);
+            assertTrue(res.cancelled());
+            backend.uploadRelease.countDown();
+            assertEquals(State.DONE, first.get(10, TimeUnit.SECONDS).getState());
+            try {
+                queued.get(10, TimeUnit.SECONDS);
+                fail("cancelled before the upload");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof DecompilationCancelledException);
+            }
+            assertEquals(State.CANCELLED, res.getState());
+            assertFalse(backend.uploaded.contains("q1"));
+        }
+    }
+
+    public void testCancelWhilePolling() throws Exception {
+        StagedBackend backend = new StagedBackend();
+        try (PipelinedDecompilation pipeline = new PipelinedDecompilation(backend, 1, 1, 1, 1)) {
+            DefaultDecompilationResult res = new DefaultDecompilationResult();
+            Future<DefaultDecompilationResult> f = pipeline.submit(request("running0"), res);
+            waitFor(backend.polled, "running0");
+            waitForJobs(pipeline, Stage.POLL, 1);
+            // the next poll is a minute away; the cancellation wakes the job.
+            assertTrue(res.getSnapshot().toString(), res.cancelled());
+            assertEquals(State.CANCELLED, f.get(10, TimeUnit.SECONDS).getState());
+            assertTrue(backend.abandoned.contains("running0"));
+            assertFalse(backend.fetched.contains("running0"));
+            waitForJobs(pipeline, Stage.POLL, 0);
+        }
+    }
+
+    public void testCancelWhileWaitingForDownload() throws Exception {
+        StagedBackend backend = new StagedBackend();
+        try (PipelinedDecompilation pipeline = new PipelinedDecompilation(backend, 1, 1, 1, 1)) {
+            Future<DefaultDecompilationResult> first = pipeline.submit(request("slowdown0"),
+                    new DefaultDecompilationResult());
+            waitFor(backend.fetching, "slowdown0");
+            DefaultDecompilationResult res = new DefaultDecompilationResult();
+            Future<DefaultDecompilationResult> queued = pipeline.submit(request("d1"), res);
+            waitForJobs(pipeline, Stage.DOWNLOAD, 1);
+            assertTrue(res.getSnapshot().toString(), res.cancelled());
+            backend.fetchRelease.countDown();
+            assertEquals(State.DONE, first.get(10, TimeUnit.SECONDS).getState());
+            assertEquals(State.CANCELLED, queued.get(10, TimeUnit.SECONDS).getState());
+            assertFalse(backend.fetched.contains("d1"));
+        }
+    }
+
+    public void testPlainDecompilerDownloadsInOneStep() throws Exception {
+        final List<String> synced = Collections.synchronizedList(new ArrayList<String>());
+        Decompiler plain = new Decompiler() {
+            @Override
+            public DecompilationResponse decompile(final AbstractDecompilationRequest request) {
+                DecompilationResponse resp = new DecompilationResponse();
+                resp.setId(request.getInput().getName());
+                return resp;
+            }
+
+            @Override
+            public void decompileSync(final DecompilationResponse resp, final DecompilationResult res) {
+                synced.add(Thread.currentThread().getName());
+                res.setId(resp.getId());
+                res.started();
+                res.finished();
+            }
+        };
+        try (PipelinedDecompilation pipeline = new PipelinedDecompilation(plain, 1, 1, 1, 1)) {
+            DefaultDecompilationResult res = pipeline.submit(request("plain"), new DefaultDecompilationResult())
+                    .get(10, TimeUnit.SECONDS);
+            assertEquals(State.DONE, res.getState());
+            assertEquals("plain", res.getId());
+            assertEquals(1, synced.size());
+            assertTrue(synced.get(0).startsWith("PipelinedDecompilation-download"));
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.pipeline;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import hu.keve.retdecjava.binding.AbstractDecompilationRequest;
+import hu.keve.retdecjava.binding.AbstractDecompilationRequest.Architecture;
+import hu.keve.retdecjava.binding.AbstractDecompilationRequest.FileFormat;
+import hu.keve.retdecjava.binding.DecompilationResponse;
+import hu.keve.retdecjava.binding.DecompilationResult;
+import hu.keve.retdecjava.binding.DecompilationResult.DecompilationOutput;
+import hu.keve.retdecjava.binding.Decompiler;
+import hu.keve.retdecjava.binding.RawDecompilationRequest;
+import hu.keve.retdecjava.binding.RawDecompilationRequest.Endianness;
+import hu.keve.retdecjava.sink.MemorySink;
+import junit.framework.TestCase;
+
+/**
+ * Tests for the decompilation of a raw image as one decompilation per code
+ * region.
+ */
+public class SegmentedRawDecompilationTest extends TestCase {
+
+    /**
+     * Backend recording the requests and emitting the first word of the
+     * region it is given, failing the regions at a configured address.
+     */
+    private static final class RegionBackend implements Decompiler {
+        private final List<RawDecompilationRequest> requests = new ArrayList<RawDecompilationRequest>();
+        private volatile long failing = -1;
+
+        @Override
+        public DecompilationResponse decompile(final AbstractDecompilationRequest request) {
+            RawDecompilationRequest raw = (RawDecompilationRequest) request;
+            synchronized (requests) {
+                requests.add(raw);
+            }
+            DecompilationResponse resp = new DecompilationResponse();
+            resp.setId(String.format("job-%x", raw.getRawSectionVma()));
+            return resp;
+        }
+
+        @Override
+        public void decompileSync(final DecompilationResponse resp, final DecompilationResult res) {
+            RawDecompilationRequest raw = null;
+            synchronized (requests) {
+                for (RawDecompilationRequest r : requests) {
+                    if (resp.getId().equals(String.format("job-%x", r.getRawSectionVma()))) {
+                        raw = r;
+                    }
+                }
+            }
+            res.setId(resp.getId());
+            res.started();
+            try {
+                if (failing == raw.getRawSectionVma()) {
+                    throw new IOException("no instructions");
+                }
+                ByteBuffer b = raw.getMappedInput().getBuffer();
+                String c = String.format("// %s %d bytes from %08x\n", raw.getInput().getName(), b.remaining(),
+                        b.getInt(0));
+                if (res.acceptOutput(DecompilationOutput.hll)) {
+                    res.consumeOutput("region.c", "text/plain",
+                            new ByteArrayInputStream(c.getBytes(StandardCharsets.ISO_8859_1)));
+                }
+                res.finished();
+            } catch (IOException e) {
+                res.failed(e);
+            }
+        }
+
+        List<RawDecompilationRequest> sorted() {
+            List<RawDecompilationRequest> sorted = new ArrayList<RawDecompilationRequest>(requests);
+            Collections.sort(sorted, new Comparator<RawDecompilationRequest>() {
+                @Override
+                public int compare(final RawDecompilationRequest o1, final RawDecompilationRequest o2) {
+                    return o1.getRawSectionVma().compareTo(o2.getRawSectionVma());
+                }
+            });
+            return sorted;
+        }
+    }
+
+    private final RegionBackend backend = new RegionBackend();
+    private File dir;
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = Files.createTempDirectory("segmented").toFile();
+    }
+
+    @Override
+    protected void tearDown() {
+        File[] children = dir.listFiles();
+        if (null != children) {
+            for (File child : children) {
+                child.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * An image of two big endian ARM regions at 0x400 and 0x1000, separated
+     * by padding and noise.
+     */
+    private RawDecompilationRequest firmware() throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(0x2000);
+        for (int i = 0; i < 0x400; i++) {
+            b.put(i, (byte) 0xff);
+        }
+        for (int i = 0x400; i < 0xc00; i += 4) {
+            b.putInt(i, 0xe1a00000 | i);
+        }
+        b.putInt(0x480, 0xe92d4010);
+        b.putInt(0x800, 0xe92d4070);
+        byte[] noise = new byte[0x400];
+        new Random(1).nextBytes(noise);
+        b.position(0xc00);
+        b.put(noise);
+        for (int i = 0x1000; i < 0x1800; i += 4) {
+            b.putInt(i, 0xe1a00000 | (i & 0xfff));
+        }
+        b.putInt(0x1100, 0xe92d4010);
+        new Random(2).nextBytes(noise);
+        b.position(0x1800);
+        b.put(noise);
+        File file = new File(dir, "firmware.bin");
+        Files.write(file.toPath(), b.array());
+        RawDecompilationRequest request = new RawDecompilationRequest(file, Architecture.ARM, FileFormat.ELF, null,
+                0x8000000L);
+        return request;
+    }
+
+    public void testRegionsAreDecompiledSeparately() throws Exception {
+        MemorySink sink = new MemorySink();
+        List<SegmentedRawDecompilation.Segment> segments = new SegmentedRawDecompilation(backend, 2).run(firmware(),
+                sink);
+        assertEquals(2, segments.size());
+
+        List<RawDecompilationRequest> requests = backend.sorted();
+        assertEquals(2, requests.size());
+        RawDecompilationRequest first = requests.get(0);
+        assertEquals(Long.valueOf(0x8000400), first.getRawSectionVma());
+        assertEquals(Long.valueOf(0x8000480), first.getRawEntryPoint());
+        assertEquals(Endianness.BIG, first.getRawEndian());
+        assertEquals(Architecture.ARM, first.getArchitecture());
+        assertEquals("firmware.bin-0x08000400", first.getInput().getName());
+        RawDecompilationRequest second = requests.get(1);
+        assertEquals(Long.valueOf(0x8001000), second.getRawSectionVma());
+        assertEquals(Long.valueOf(0x8001100), second.getRawEntryPoint());
+        assertEquals(Endianness.BIG, second.getRawEndian());
+
+        assertEquals(3, sink.getOutputs().size());
+        assertEquals("// firmware.bin-0x08000400 2048 bytes from e1a00400\n",
+                new String(sink.get("0x08000400/region.c"), StandardCharsets.ISO_8859_1));
+        assertEquals("// firmware.bin-0x08001000 2048 bytes from e1a00000\n",
+                new String(sink.get("0x08001000/region.c"), StandardCharsets.ISO_8859_1));
+
+        String[] report = new String(sink.get(SegmentedRawDecompilation.REPORT), StandardCharsets.UTF_8)
+                .split("\n");
+        assertEquals(5, report.length);
+        assertEquals("firmware.bin: 2 code regions", report[0]);
+        assertTrue(report[1].startsWith("0x08000400/ " + segments.get(0).getRegion() + " job-8000400 "));
+        assertEquals("  prologues: 0x8000480 0x8000800", report[2]);
+        assertTrue(report[3].startsWith("0x08001000/ " + segments.get(1).getRegion() + " job-8001000 "));
+        assertEquals("  prologues: 0x8001100", report[4]);
+    }
+
+    public void testFailedRegionIsReported() throws Exception {
+        backend.failing = 0x8000400;
+        MemorySink sink = new MemorySink();
+        List<SegmentedRawDecompilation.Segment> segments = new SegmentedRawDecompilation(backend, 1).run(firmware(),
+                sink);
+        assertEquals("no instructions", segments.get(0).getException().getMessage());
+        assertNull(segments.get(1).getException());
+        assertNull(sink.get("0x08000400/region.c"));
+        assertNotNull(sink.get("0x08001000/region.c"));
+        String report = new String(sink.get(SegmentedRawDecompilation.REPORT), StandardCharsets.UTF_8);
+        assertTrue(report.contains("ms FAILED no instructions\n  prologues: 0x8000480"));
+    }
+
+    public void testImageWithoutCode() throws Exception {
+        byte[] noise = new byte[0x2000];
+        new Random(3).nextBytes(noise);
+        File file = new File(dir, "noise.bin");
+        Files.write(file.toPath(), noise);
+        MemorySink sink = new MemorySink();
+        List<SegmentedRawDecompilation.Segment> segments = new SegmentedRawDecompilation(backend, 2).run(
+                new RawDecompilationRequest(file, Architecture.ARM, FileFormat.ELF), sink);
+        assertTrue(segments.isEmpty());
+        assertTrue(backend.requests.isEmpty());
+        assertEquals("noise.bin: 0 code regions\n",
+                new String(sink.get(SegmentedRawDecompilation.REPORT), StandardCharsets.UTF_8));
+    }
+
+    public void testArchitectureIsRequired() throws Exception {
+        RawDecompilationRequest request = firmware();
+        request.setArchitecture(null);
+        try {
+            new SegmentedRawDecompilation(backend, 2).run(request, new MemorySink());
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected.
+        }
+        assertTrue(backend.requests.isEmpty());
+    }
+}
@@ -0,0 +1,53 @@
+package hu.keve.retdecjava.pipeline;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for splitting and merging sharded decompilations.
+ */
+public class ShardedDecompilationTest extends TestCase {
+
+    public void testSplitFunctions() {
+        List<List<String>> shards = ShardedDecompilation.splitFunctions(Arrays.asList("a", "b", "c", "d", "e"), 3);
+        assertEquals(Arrays.asList(Arrays.asList("a"), Arrays.asList("b", "c"), Arrays.asList("d", "e")), shards);
+        assertEquals(2, ShardedDecompilation.splitFunctions(Arrays.asList("a", "b"), 4).size());
+    }
+
+    public void testSplitRanges() {
+        List<List<String>> shards = ShardedDecompilation.splitRanges(Arrays.asList("0x1000-0x17ff", "0x2000-0x27ff"),
+                4);
+        assertEquals(Arrays.asList(Arrays.asList("0x1000-0x13ff"), Arrays.asList("0x1400-0x17ff"),
+                Arrays.asList("0x2000-0x23ff"), Arrays.asList("0x2400-0x27ff")), shards);
+        shards = ShardedDecompilation.splitRanges(Arrays.asList("0x0-0x9", "0x10-0x14"), 2);
+        assertEquals(Arrays.asList(Arrays.asList("0x0-0x7"), Arrays.asList("0x8-0x9", "0x10-0x14")), shards);
+    }
+
+    public void testSplitRangesAtFunctions() {
+        TreeSet<Long> starts = new TreeSet<Long>(Arrays.asList(0x1000L, 0x1100L, 0x1500L, 0x1780L, 0x2000L));
+        List<List<String>> shards = ShardedDecompilation.splitRanges(Arrays.asList("0x1000-0x17ff", "0x2000-0x27ff"),
+                4, starts);
+        assertEquals(Arrays.asList(Arrays.asList("0x1000-0x14ff"), Arrays.asList("0x1500-0x17ff"),
+                Arrays.asList("0x2000-0x27ff")), shards);
+        // no function start inside the range: it is not cut.
+        shards = ShardedDecompilation.splitRanges(Arrays.asList("0x0-0xff"), 4, new TreeSet<Long>(Arrays.asList(0L)));
+        assertEquals(Arrays.asList(Arrays.asList("0x0-0xff")), shards);
+    }
+
+    public void testSubtractRanges() {
+        List<AddressRange> rest = AddressRange.subtract(
+                AddressRange.parseAll(Arrays.asList("0x100-0x1ff", "0x300-0x3ff")), AddressRange.parseAll(Arrays.asList("0x0-0x10f", "0x180-0x18f", "0x300-0x3ff")));
+        assertEquals(Arrays.asList("0x110-0x17f", "0x190-0x1ff"), AddressRange.formatAll(rest));
+    }
+
+    public void testMerge() {
+        String a = "#include <stdio.h>\n\nint f(void) {\n}\n";
+        String b = "#include <stdio.h>\n\nint g(void) {\n}\n";
+        assertEquals("#include <stdio.h>\n\nint f(void) {\n}\nint g(void) {\n}\n",
+                ShardedDecompilation.merge(Arrays.asList(a, b)));
+        assertEquals(a, ShardedDecompilation.merge(Arrays.asList(a)));
+    }
+}
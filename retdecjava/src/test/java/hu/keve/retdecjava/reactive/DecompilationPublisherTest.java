@@ -0,0 +1,186 @@
+/*
+Copyright (c) 2015, Keve Müller
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of the author nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL KEVE MÜLLER BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package hu.keve.retdecjava.reactive;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import hu.keve.retdecjava.binding.AbstractDecompilationRequest;
+import hu.keve.retdecjava.binding.CDecompilationRequest;
+import hu.keve.retdecjava.binding.DecompilationResponse;
+import hu.keve.retdecjava.binding.DecompilationResult;
+import hu.keve.retdecjava.binding.DecompilationResult.DecompilationOutput;
+import hu.keve.retdecjava.binding.Decompiler;
+import hu.keve.retdecjava.binding.StatusPhase;
+import hu.keve.retdecjava.reactive.DecompilationEvent.Kind;
+import junit.framework.TestCase;
+
+/**
+ * Tests for publishing decompilations as event streams.
+ */
+public class DecompilationPublisherTest extends TestCase {
+
+    /**
+     * Backend reporting one phase and a 10 byte hll output.
+     */
+    private static final class FakeDecompiler implements Decompiler {
+        @Override
+        public DecompilationResponse decompile(final AbstractDecompilationRequest request) {
+            DecompilationResponse resp = new DecompilationResponse();
+            resp.setId("7");
+            return resp;
+        }
+
+        @Override
+        public void decompileSync(final DecompilationResponse resp, final DecompilationResult res) {
+            res.setId(resp.getId());
+            res.started();
+            StatusPhase phase = new StatusPhase();
+            phase.setDescription("decompiling");
+            res.phaseChange(phase);
+            try {
+                if (res.acceptOutput(DecompilationOutput.dsm)) {
+                    res.consumeOutput("a.dsm", "text/plain", new ByteArrayInputStream(new byte[3]));
+                }
+                if (res.acceptOutput(DecompilationOutput.hll)) {
+                    res.consumeOutput("a.c", "text/plain", new ByteArrayInputStream(new byte[10]));
+                }
+            } catch (IOException e) {
+                res.failed(e);
+                return;
+            }
+            res.finished();
+        }
+    }
+
+    /**
+     * Subscriber recording the events, requesting a fixed number up front.
+     */
+    private static final class Recorder implements Flow.Subscriber<DecompilationEvent> {
+        private final long initial;
+        private Flow.Subscription subscription;
+        private final List<DecompilationEvent> events = new ArrayList<DecompilationEvent>();
+        private Throwable error;
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        Recorder(final long initial) {
+            this.initial = initial;
+        }
+
+        @Override
+        public void onSubscribe(final Flow.Subscription s) {
+            subscription = s;
+            s.request(initial);
+        }
+
+        @Override
+        public synchronized void onNext(final DecompilationEvent item) {
+            events.add(item);
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            error = throwable;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+
+        synchronized List<DecompilationEvent> events() {
+            return new ArrayList<DecompilationEvent>(events);
+        }
+    }
+
+    private DecompilationPublisher publisher() {
+        return new DecompilationPublisher(new FakeDecompiler(), new CDecompilationRequest(new File("a.c")),
+                EnumSet.of(DecompilationOutput.hll), 4);
+    }
+
+    public void testEvents() throws InterruptedException {
+        Recorder r = new Recorder(Long.MAX_VALUE);
+        publisher().subscribe(r);
+        assertTrue(r.done.await(5, TimeUnit.SECONDS));
+        assertNull(r.error);
+        List<DecompilationEvent> events = r.events();
+        assertEquals(6, events.size());
+        assertEquals(Kind.SUBMITTED, events.get(0).getKind());
+        assertEquals("7", events.get(0).getId());
+        assertEquals(Kind.PHASE, events.get(1).getKind());
+        assertEquals(4, events.get(2).getChunk().remaining());
+        assertEquals(4, events.get(3).getChunk().remaining());
+        assertEquals(2, events.get(4).getChunk().remaining());
+        assertFalse(events.get(3).isLast());
+        assertTrue(events.get(4).isLast());
+        assertEquals("a.c", events.get(4).getFileName());
+        assertEquals(Kind.FINISHED, events.get(5).getKind());
+    }
+
+    public void testBackpressure() throws InterruptedException {
+        Recorder r = new Recorder(2);
+        publisher().subscribe(r);
+        assertFalse(r.done.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(2, r.events().size());
+        r.subscription.request(3);
+        assertFalse(r.done.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(5, r.events().size());
+        r.subscription.request(1);
+        assertTrue(r.done.await(5, TimeUnit.SECONDS));
+        assertEquals(6, r.events().size());
+    }
+
+    public void testCancel() throws InterruptedException {
+        Recorder r = new Recorder(1);
+        publisher().subscribe(r);
+        Thread.sleep(50);
+        r.subscription.cancel();
+        r.subscription.request(10);
+        assertFalse(r.done.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(1, r.events().size());
+    }
+
+    public void testMisuse() throws InterruptedException {
+        DecompilationPublisher p = publisher();
+        Recorder r = new Recorder(1);
+        p.subscribe(r);
+        r.subscription.request(0);
+        assertTrue(r.done.await(5, TimeUnit.SECONDS));
+        assertTrue(r.error instanceof IllegalArgumentException);
+
+        Recorder second = new Recorder(1);
+        p.subscribe(second);
+        assertTrue(second.error instanceof IllegalStateException);
+    }
+}
@@ -0,0 +1,75 @@
+package hu.keve.retdecjava.sink;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the off-heap output store.
+ */
+public class OffHeapStoreTest extends TestCase {
+    private static final int CHUNK = OffHeapStore.CHUNK_SIZE;
+
+    private static byte[] content(final int size, final int seed) {
+        byte[] b = new byte[size];
+        for (int i = 0; i < size; i++) {
+            b[i] = (byte) (i * seed);
+        }
+        return b;
+    }
+
+    private static void store(final OffHeapStore store, final String job, final String name, final byte[] b)
+            throws IOException {
+        try (OutputStream out = store.sink(job).open(name, null)) {
+            out.write(b);
+        }
+    }
+
+    private static byte[] read(final OffHeapStore store, final String job, final String name) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (InputStream in = store.open(job, name)) {
+            byte[] buf = new byte[1000];
+            int n;
+            while (-1 != (n = in.read(buf))) {
+                bos.write(buf, 0, n);
+            }
+        }
+        return bos.toByteArray();
+    }
+
+    public void testSpillAboveThreshold() throws IOException {
+        try (OffHeapStore store = new OffHeapStore(16 * CHUNK, 8 * CHUNK, 2 * CHUNK, null)) {
+            byte[] small = content(CHUNK + 5, 3);
+            byte[] large = content(5 * CHUNK, 7);
+            store(store, "j", "small", small);
+            store(store, "j", "large", large);
+            assertEquals(2 * CHUNK, store.getMemoryUsed());
+            assertEquals(large.length, store.getSpilledBytes());
+            assertTrue(Arrays.equals(small, read(store, "j", "small")));
+            assertTrue(Arrays.equals(large, read(store, "j", "large")));
+        }
+    }
+
+    public void testEvictsLeastValuable() throws IOException {
+        try (OffHeapStore store = new OffHeapStore(4 * CHUNK, 4 * CHUNK, 4 * CHUNK, null)) {
+            byte[] hot = content(CHUNK, 3);
+            byte[] cold = content(2 * CHUNK, 5);
+            store(store, "a", "hot", hot);
+            store(store, "b", "cold", cold);
+            read(store, "a", "hot");
+            read(store, "a", "hot");
+            byte[] next = content(2 * CHUNK, 11);
+            store(store, "c", "next", next);
+            assertEquals(cold.length, store.getSpilledBytes());
+            assertTrue(Arrays.equals(cold, read(store, "b", "cold")));
+            assertTrue(Arrays.equals(next, read(store, "c", "next")));
+            store.remove("b");
+            assertEquals(0, store.getSpilledBytes());
+            assertEquals(3 * CHUNK, store.getMemoryUsed());
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package hu.keve.retdecjava.sink;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the output sinks.
+ */
+public class SinkTest extends TestCase {
+
+    private static void write(final OutputSink sink, final String name, final byte[] content) throws IOException {
+        try (OutputStream out = sink.open(name, "text/plain")) {
+            out.write(content);
+        }
+    }
+
+    public void testTeeAsyncSinglePass() throws IOException {
+        byte[] big = new byte[1024 * 1024 + 17];
+        for (int i = 0; i < big.length; i++) {
+            big[i] = (byte) i;
+        }
+        MemorySink memory = new MemorySink();
+        DigestSink digest = new DigestSink();
+        try (OutputSink sink = new TeeSink(new AsyncSink(memory, 2, 2), digest)) {
+            write(sink, "a.c", "int main;".getBytes(StandardCharsets.UTF_8));
+            write(sink, "a.dsm", big);
+        }
+        assertTrue(Arrays.equals(big, memory.get("a.dsm")));
+        assertEquals("int main;", new String(memory.get("a.c"), StandardCharsets.UTF_8));
+        assertEquals(big.length, digest.getIndex().get("a.dsm").getSize());
+        assertEquals(64, digest.getIndex().get("a.c").getDigest().length());
+    }
+
+    public void testZip() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (OutputSink sink = new ZipSink(bos)) {
+            write(sink, "x/a.c", new byte[] {1, 2, 3 });
+        }
+        try (ZipInputStream zin = new ZipInputStream(new ByteArrayInputStream(bos.toByteArray()))) {
+            ZipEntry e = zin.getNextEntry();
+            assertEquals("x/a.c", e.getName());
+            assertEquals(3, zin.read(new byte[8]));
+        }
+    }
+
+    public void testTar() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (OutputSink sink = new TarSink(bos)) {
+            write(sink, "a.c", new byte[] {1, 2, 3 });
+        }
+        byte[] tar = bos.toByteArray();
+        assertEquals(4 * 512, tar.length);
+        assertEquals("00000000003", new String(tar, 124, 11, StandardCharsets.US_ASCII));
+        assertEquals(1, tar[512]);
+    }
+
+    public void testAsyncFailureReportedOnClose() throws IOException {
+        File notADir = File.createTempFile("retdec", ".tmp");
+        try {
+            OutputSink sink = new AsyncSink(new DirectorySink(notADir), 1, 1);
+            try {
+                write(sink, "a.c", new byte[] {1 });
+                write(sink, "b.c", new byte[] {1 });
+                sink.close();
+                fail();
+            } catch (IOException e) {
+                // expected, either on a later write or on close.
+            }
+        } finally {
+            Files.delete(notADir.toPath());
+        }
+    }
+
+    public void testAsyncFailingTargetDoesNotHang() throws Exception {
+        final OutputSink sink = new AsyncSink(new OutputSink() {
+            @Override
+            public OutputStream open(final String fileName, final String mediaType) {
+                return new OutputStream() {
+                    @Override
+                    public void write(final int b) throws IOException {
+                        throw new IOException("disk full");
+                    }
+                };
+            }
+
+            @Override
+            public void close() {
+            }
+        }, 1, 1);
+        OutputStream out = sink.open("a.c", null);
+        try {
+            for (int i = 0; i < 100; i++) {
+                out.write(new byte[64 * 1024]);
+            }
+            fail();
+        } catch (IOException e) {
+            // expected once the writer failed.
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            // the failure again.
+        }
+        FutureTask<Void> closing = new FutureTask<Void>(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                sink.close();
+                return null;
+            }
+        });
+        new Thread(closing).start();
+        try {
+            closing.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals("disk full", e.getCause().getMessage());
+        }
+    }
+
+    public void testArchiveEntryNames() {
+        assertTrue(ArchiveExtractingSink.isSafe("a..b.c"));
+        assertTrue(ArchiveExtractingSink.isSafe("x/..a/b.c"));
+        assertFalse(ArchiveExtractingSink.isSafe("../a.c"));
+        assertFalse(ArchiveExtractingSink.isSafe("x/../../a.c"));
+        assertFalse(ArchiveExtractingSink.isSafe("x\\..\\a.c"));
+        assertFalse(ArchiveExtractingSink.isSafe("/etc/passwd"));
+        assertFalse(ArchiveExtractingSink.isSafe("C:a.c"));
+    }
+
+    public void testArchiveExtraction() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (OutputSink zip = new ZipSink(bos)) {
+            write(zip, "a.c", "int a;".getBytes(StandardCharsets.UTF_8));
+            write(zip, "b.dsm", new byte[100000]);
+        }
+        MemorySink memory = new MemorySink();
+        try (OutputSink sink = new ArchiveExtractingSink(memory, 2, 2)) {
+            try (OutputStream out = sink.open("x.zip", "application/zip")) {
+                out.write(bos.toByteArray());
+            }
+            write(sink, "plain.c", new byte[] {1 });
+        }
+        assertEquals("int a;", new String(memory.get("a.c"), StandardCharsets.UTF_8));
+        assertEquals(100000, memory.get("b.dsm").length);
+        assertNotNull(memory.get("plain.c"));
+        assertNull(memory.get("x.zip"));
+    }
+}